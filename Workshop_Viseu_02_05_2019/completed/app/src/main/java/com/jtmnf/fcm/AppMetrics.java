@@ -0,0 +1,53 @@
+package com.jtmnf.fcm;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.jtmnf.fcm.metrics.LatencyHistogram;
+import com.jtmnf.fcm.metrics.Metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Process-wide metrics, so services and views created by the framework can record without being
+ * handed a registry. Recording is lock-free and doesn't allocate.
+ */
+public final class AppMetrics {
+
+    private static final String TAG = "Metrics";
+    private static final String DUMP_FILE = "metrics.json";
+
+    public static final Metrics METRICS = new Metrics();
+
+    /** Time between two scene updates. */
+    public static final LatencyHistogram FRAME = METRICS.histogram("frame");
+    /** Scene work run from the frame scheduler, per frame. */
+    public static final LatencyHistogram SCENE_WORK = METRICS.histogram("scene_work");
+    /** Tap on a plane until the new node is in the scene. */
+    public static final LatencyHistogram TAP_TO_NODE = METRICS.histogram("tap_to_node");
+    /** Building a renderable that wasn't cached, including its material. */
+    public static final LatencyHistogram RENDERABLE_BUILD = METRICS.histogram("renderable_build");
+    /** Tap on a plane until the database acknowledged the anchor. */
+    public static final LatencyHistogram TAP_TO_ACK = METRICS.histogram("tap_to_ack");
+    /** MessagingService.onMessageReceived. */
+    public static final LatencyHistogram MESSAGE_HANDLING = METRICS.histogram("message_handling");
+
+    private AppMetrics() {
+    }
+
+    /** Writes a summary to logcat and the full snapshot to metrics.json in the app's files dir. */
+    public static void dump(Context context) {
+        for (String line : METRICS.toLines()) {
+            Log.i(TAG, line);
+        }
+        File file = new File(context.getFilesDir(), DUMP_FILE);
+        try (Writer writer = new FileWriter(file)) {
+            METRICS.writeJson(writer);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+        }
+    }
+}
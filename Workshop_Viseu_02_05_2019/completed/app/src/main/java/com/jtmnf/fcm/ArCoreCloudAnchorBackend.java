@@ -0,0 +1,153 @@
+package com.jtmnf.fcm;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Anchor.CloudAnchorState;
+import com.google.ar.core.Config;
+import com.google.ar.core.Session;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.ux.ArFragment;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.cloud.CloudAnchorBackend;
+import com.jtmnf.fcm.cloud.CloudAnchorException;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cloud Anchor calls on the ARCore session. ARCore reports progress through the anchor's cloud
+ * state rather than a callback, so pending operations are polled once per frame.
+ *
+ * <p>Local anchors have to be registered before they can be hosted, and are let go of once
+ * hosting is over or, as a scene listener, when the anchor leaves the scene; resolved anchors are
+ * kept until taken with {@link #takeResolved}.
+ */
+public class ArCoreCloudAnchorBackend
+        implements CloudAnchorBackend, Scene.OnUpdateListener, AnchorSyncEngine.SceneListener {
+
+    private static final class Pending {
+        final Anchor anchor;
+        // The local anchor's id when hosting, null when resolving
+        final String anchorId;
+        final Callback callback;
+
+        Pending(Anchor anchor, String anchorId, Callback callback) {
+            this.anchor = anchor;
+            this.anchorId = anchorId;
+            this.callback = callback;
+        }
+    }
+
+    private final ArFragment arFragment;
+    private final Map<String, Anchor> local = new HashMap<>();
+    private final Map<String, Anchor> resolved = new HashMap<>();
+    private final List<Pending> pending = new ArrayList<>();
+    private boolean configured;
+
+    public ArCoreCloudAnchorBackend(ArFragment arFragment) {
+        this.arFragment = arFragment;
+    }
+
+    /** Makes a local anchor available for hosting under this id. */
+    public void register(String anchorId, Anchor anchor) {
+        local.put(anchorId, anchor);
+    }
+
+    /** @return the anchor resolved from this id, or null; later calls return null */
+    public Anchor takeResolved(String cloudAnchorId) {
+        return resolved.remove(cloudAnchorId);
+    }
+
+    @Override
+    public void host(String anchorId, Callback callback) {
+        Anchor anchor = local.get(anchorId);
+        Session session = session();
+        if (anchor == null || session == null) {
+            callback.onComplete(null, new CloudAnchorException(
+                    anchor == null ? "no local anchor " + anchorId : "no session yet", anchor != null));
+            return;
+        }
+        pending.add(new Pending(session.hostCloudAnchor(anchor), anchorId, callback));
+    }
+
+    @Override
+    public void resolve(String cloudAnchorId, Callback callback) {
+        Session session = session();
+        if (session == null) {
+            callback.onComplete(null, new CloudAnchorException("no session yet", true));
+            return;
+        }
+        pending.add(new Pending(session.resolveCloudAnchor(cloudAnchorId), null, callback));
+    }
+
+    @Override
+    public void onUpdate(FrameTime frameTime) {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            Pending p = pending.get(i);
+            CloudAnchorState state = p.anchor.getCloudAnchorState();
+            if (state == CloudAnchorState.TASK_IN_PROGRESS || state == CloudAnchorState.NONE) {
+                continue;
+            }
+            pending.remove(i);
+            boolean retryable = state != CloudAnchorState.SUCCESS && isRetryable(state);
+            if (p.anchorId != null && !retryable) {
+                // Nothing will host it again; the scene keeps its own reference
+                local.remove(p.anchorId);
+            }
+            if (state == CloudAnchorState.SUCCESS) {
+                String cloudAnchorId = p.anchor.getCloudAnchorId();
+                if (p.anchorId != null) {
+                    // The local anchor stays in the scene; the hosted copy was only needed for its id
+                    p.anchor.detach();
+                } else {
+                    resolved.put(cloudAnchorId, p.anchor);
+                }
+                p.callback.onComplete(cloudAnchorId, null);
+            } else {
+                p.anchor.detach();
+                p.callback.onComplete(null, new CloudAnchorException(state.name(), retryable));
+            }
+        }
+    }
+
+    @Override
+    public void onAnchorAdded(String anchorId, AnchorRecord record) {
+    }
+
+    @Override
+    public void onAnchorChanged(String anchorId, AnchorRecord record) {
+    }
+
+    @Override
+    public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+        // Deleted or paged out: its node is released and the anchor detached, so it can't be hosted
+        local.remove(anchorId);
+    }
+
+    private static boolean isRetryable(CloudAnchorState state) {
+        switch (state) {
+            case ERROR_NOT_AUTHORIZED:
+            case ERROR_CLOUD_ID_NOT_FOUND:
+            case ERROR_RESOLVING_SDK_VERSION_TOO_OLD:
+            case ERROR_RESOLVING_SDK_VERSION_TOO_NEW:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /** The session, with Cloud Anchors turned on the first time it is needed. */
+    private Session session() {
+        Session session = arFragment.getArSceneView().getSession();
+        if (session != null && !configured) {
+            Config config = session.getConfig();
+            config.setCloudAnchorMode(Config.CloudAnchorMode.ENABLED);
+            session.configure(config);
+            configured = true;
+        }
+        return session;
+    }
+}
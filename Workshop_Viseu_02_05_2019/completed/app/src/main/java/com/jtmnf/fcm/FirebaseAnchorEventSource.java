@@ -0,0 +1,72 @@
+package com.jtmnf.fcm;
+
+import android.util.Log;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.jtmnf.fcm.sync.AnchorEventSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** {@link AnchorEventSource} fed by a ChildEventListener on one node, such as a cell of a room. */
+public class FirebaseAnchorEventSource implements AnchorEventSource {
+
+    private static final String TAG = FirebaseAnchorEventSource.class.getSimpleName();
+
+    private final DatabaseReference reference;
+    private final Map<Listener, ChildEventListener> attached = new HashMap<>();
+
+    public FirebaseAnchorEventSource(DatabaseReference reference) {
+        this.reference = reference;
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        ChildEventListener childListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+                String value = snapshot.getValue(String.class);
+                if (value != null) {
+                    listener.onAdded(snapshot.getKey(), value);
+                }
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+                String value = snapshot.getValue(String.class);
+                if (value != null) {
+                    listener.onChanged(snapshot.getKey(), value);
+                }
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot snapshot) {
+                listener.onRemoved(snapshot.getKey());
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+                // Order doesn't matter to the scene
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                Log.w(TAG, "Failed to read anchors.", error.toException());
+                listener.onError(error.toException());
+            }
+        };
+        attached.put(listener, childListener);
+        reference.addChildEventListener(childListener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        ChildEventListener childListener = attached.remove(listener);
+        if (childListener != null) {
+            reference.removeEventListener(childListener);
+        }
+    }
+}
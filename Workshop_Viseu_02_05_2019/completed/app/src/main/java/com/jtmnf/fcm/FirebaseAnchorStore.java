@@ -0,0 +1,27 @@
+package com.jtmnf.fcm;
+
+import com.google.firebase.database.DatabaseReference;
+import com.jtmnf.fcm.sync.AnchorStore;
+
+import java.util.Map;
+
+/** {@link AnchorStore} backed by a node of the Realtime Database, such as a room; keys may be paths below it. */
+public class FirebaseAnchorStore implements AnchorStore {
+
+    private final DatabaseReference reference;
+
+    public FirebaseAnchorStore(DatabaseReference reference) {
+        this.reference = reference;
+    }
+
+    @Override
+    public String newKey() {
+        return reference.push().getKey();
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> updates, Callback callback) {
+        reference.updateChildren(updates, (error, ref) ->
+                callback.onComplete(error == null ? null : error.toException()));
+    }
+}
@@ -0,0 +1,83 @@
+package com.jtmnf.fcm;
+
+import android.util.Log;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.journal.AnchorJournal;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import java.io.IOException;
+/**
+ * Writes anchor changes to the local journal: our own placements as not yet acknowledged, and
+ * what the room sends as already on the server. Disk errors are logged and otherwise ignored;
+ * the journal is a cache, and the database stays the source of truth.
+ */
+public class JournalRecorder implements AnchorSyncEngine.SceneListener {
+
+    private static final String TAG = JournalRecorder.class.getSimpleName();
+
+    private final AnchorJournal journal;
+
+    public JournalRecorder(AnchorJournal journal) {
+        this.journal = journal;
+    }
+
+    /** Records an anchor placed or moved on this device, before it is sent. */
+    public void putLocal(String anchorId, AnchorRecord record) {
+        try {
+            journal.put(anchorId, record, false);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not journal " + anchorId, e);
+        }
+    }
+
+    /** Marks the latest local write of an anchor as stored on the server. */
+    public void acknowledge(String anchorId) {
+        try {
+            journal.acknowledge(anchorId);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not journal acknowledgement of " + anchorId, e);
+        }
+    }
+
+    /** Rewrites the journal if it is mostly superseded entries. */
+    public void compact() {
+        try {
+            journal.compactIfNeeded();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not compact the journal", e);
+        }
+    }
+
+    @Override
+    public void onAnchorAdded(String anchorId, AnchorRecord record) {
+        putRemote(anchorId, record);
+    }
+
+    @Override
+    public void onAnchorChanged(String anchorId, AnchorRecord record) {
+        putRemote(anchorId, record);
+    }
+
+    @Override
+    public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+        try {
+            journal.remove(anchorId, true);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not journal removal of " + anchorId, e);
+        }
+    }
+
+    @Override
+    public void onAnchorUnloaded(String anchorId, AnchorRecord record) {
+        // Paged out, not deleted; the journal keeps it so the scene still comes back offline
+    }
+
+    private void putRemote(String anchorId, AnchorRecord record) {
+        try {
+            journal.put(anchorId, record, true);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not journal " + anchorId, e);
+        }
+    }
+}
@@ -3,8 +3,12 @@ package com.jtmnf.fcm;
 import android.app.Activity;
 import android.app.ActivityManager;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -14,6 +18,7 @@ import com.google.ar.core.Anchor;
 import com.google.ar.core.ArCoreApk;
 import com.google.ar.core.HitResult;
 import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
 import com.google.ar.core.Session;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
@@ -21,11 +26,7 @@ import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 import com.google.ar.sceneform.AnchorNode;
-import com.google.ar.sceneform.math.Vector3;
-import com.google.ar.sceneform.rendering.Color;
-import com.google.ar.sceneform.rendering.MaterialFactory;
 import com.google.ar.sceneform.rendering.ModelRenderable;
-import com.google.ar.sceneform.rendering.ShapeFactory;
 import com.google.ar.sceneform.ux.ArFragment;
 import com.google.ar.sceneform.ux.TransformableNode;
 import com.google.firebase.database.DataSnapshot;
@@ -33,22 +34,161 @@ import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+import com.jtmnf.fcm.cloud.CloudAnchorQueue;
+import com.jtmnf.fcm.frame.FrameScheduler;
+import com.jtmnf.fcm.journal.AnchorJournal;
+import com.jtmnf.fcm.mesh.MeshBatcher;
+import com.jtmnf.fcm.messaging.SceneEvent;
+import com.jtmnf.fcm.messaging.TopicRegistry;
+import com.jtmnf.fcm.paging.CellPartitionedStore;
+import com.jtmnf.fcm.paging.ParkedAnchors;
+import com.jtmnf.fcm.paging.ProximityPager;
+import com.jtmnf.fcm.render.ShapeKey;
+import com.jtmnf.fcm.room.RoomShards;
+import com.jtmnf.fcm.room.ShardedAnchorStore;
+import com.jtmnf.fcm.room.ShardedCellSources;
+import com.jtmnf.fcm.spatial.AnchorSpatialIndex;
+import com.jtmnf.fcm.startup.StartupPipeline;
+import com.jtmnf.fcm.startup.StartupPipeline.Affinity;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+import com.jtmnf.fcm.sync.AnchorWriteQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getSimpleName();
+
+    /** Room to join, passed by whoever starts the activity; everyone without one shares the lobby. */
+    public static final String EXTRA_ROOM_ID = "com.jtmnf.fcm.ROOM_ID";
+    private static final String DEFAULT_ROOM_ID = "lobby";
+    // Scene messages for a room are sent to this topic plus the room id
+    private static final String ROOM_TOPIC_PREFIX = "room_";
     private static final double MIN_OPENGL_VERSION = 3.0;
+    private static final long WRITE_WINDOW_MILLIS = 100;
+    private static final int WRITE_BATCH_SIZE = 32;
+    private static final int WRITE_ATTEMPTS = 3;
+    // A tap this close to an existing object is treated as a double tap, not a new placement
+    private static final float DUPLICATE_RADIUS = 0.1f;
+    // Objects beyond this distance, or past this many, are not drawn
+    private static final float MAX_VISIBLE_DISTANCE = 20f;
+    private static final int MAX_VISIBLE_NODES = 150;
+    // Remote shapes within the same cell (and of the same color) share one draw call
+    private static final float BATCH_CELL_SIZE = 2f;
+    // Anchors are stored by floor cell; only the cells within PAGE_RADIUS of the user are read
+    private static final float ROOM_CELL_SIZE = 8f;
+    private static final int PAGE_RADIUS = 2;
+    private static final int MAX_LOADED_CELLS = 36;
+    private static final String JOURNAL_FILE = "anchors.journal";
+    // Where this device's owner id is kept, so its anchors are still its own after a restart
+    private static final String DEVICE_PREFERENCES = "device";
+    private static final String KEY_OWNER_ID = "owner_id";
+    // Node pairs kept for reuse once their anchors are removed, and made up front while planes are found
+    private static final int NODE_POOL_CAPACITY = 64;
+    private static final int NODE_POOL_PREWARM = 16;
+    // Scene changes from the network get this much of each frame; what doesn't fit waits a frame
+    private static final float SCENE_WORK_BUDGET_MILLIS = 4f;
+    // Waiting this many frames makes up for one step of priority
+    private static final int SCENE_WORK_AGING_FRAMES = 30;
+    // Cloud Anchor calls take seconds; a few at once keeps the room moving without hitting quotas
+    private static final int CLOUD_MAX_IN_FLIGHT = 4;
+    private static final int CLOUD_ATTEMPTS = 5;
+    private static final long CLOUD_BASE_BACKOFF_MILLIS = 1000;
+    private static final long CLOUD_MAX_BACKOFF_MILLIS = 16000;
+    // Debug builds record each session for the replay benchmarks; pull it with adb from the app's external files
+    private static final boolean RECORD_SESSION = BuildConfig.DEBUG;
+    private static final String SESSION_TRACE_FILE = "session.trace";
 
     private ArFragment arFragment;
     private ModelRenderable arModel;
+    private ShapeKey placementKey;
+    private ShapeRenderables shapeRenderables;
+    private VisibilityManager visibility;
+    private NodePool nodePool;
+    private final FrameScheduler sceneWork =
+            new FrameScheduler(SCENE_WORK_BUDGET_MILLIS, SCENE_WORK_AGING_FRAMES, System::nanoTime);
+
+    // Describes what arModel draws; reused for every tap so placing doesn't allocate a record
+    private final AnchorRecord placement = new AnchorRecord();
+    private final AnchorCodec anchorCodec = new AnchorCodec();
+    // Read off the main thread during startup, before the scene is set up
+    private volatile long ownerId;
 
     // Set to true ensures requestInstall() triggers installation if necessary.
     private boolean mUserRequestedInstall = true;
     private Session mSession = null;
 
-    // Database
-    private FirebaseDatabase database = FirebaseDatabase.getInstance();
-    private DatabaseReference reference = database.getReference("Anchor");
+    // Database, opened off the main thread during startup; everything but the connection state is in the room
+    private volatile DatabaseReference roomReference;
+    private volatile DatabaseReference connectedReference;
+    private volatile DatabaseReference transformsReference;
+    private volatile DatabaseReference cloudAnchorsReference;
+
+    // Everything placed or seen, so the scene comes back without the network; null if it can't be opened
+    private volatile AnchorJournal journal;
+    private JournalRecorder journalRecorder;
+    // Journaled anchors wait here until the pager loads their cell, so they page out with it
+    private final ParkedAnchors parkedAnchors = new ParkedAnchors(ROOM_CELL_SIZE);
+
+    // Taps and drags are coalesced for a short window and written as one updateChildren call.
+    // Both are null until the startup pipeline connected the database.
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private CellPartitionedStore anchorStore;
+    private AnchorWriteQueue writeQueue;
+    private ProximityPager pager;
+    // Where the room's cells are; both follow the room's meta node
+    private ShardedAnchorStore shardedStore;
+    private ShardedCellSources shardedCells;
+    private final ValueEventListener roomMetaListener = new ValueEventListener() {
+        @Override
+        public void onDataChange(DataSnapshot snapshot) {
+            Integer shards = snapshot.child(RoomShards.SHARDS).getValue(Integer.class);
+            Integer previous = snapshot.child(RoomShards.PREVIOUS_SHARDS).getValue(Integer.class);
+            int count = shards != null ? shards : 1;
+            int previousCount = previous != null ? previous : 0;
+            try {
+                shardedStore.setShardCount(count, previousCount);
+                shardedCells.setShardCount(count, previousCount);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring the room's shard count", e);
+            }
+            // Writes know their shard from here
+            writeQueue.setHeld(false);
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            Log.w(TAG, "Room meta unavailable", error.toException());
+            // Better the unsplit layout than never writing at all
+            writeQueue.setHeld(false);
+        }
+    };
+
+    // Local replica of the room, updated one child event at a time
+    private final AnchorSyncEngine syncEngine = new AnchorSyncEngine();
+    private final AnchorSpatialIndex spatialIndex = new AnchorSpatialIndex(2 * DUPLICATE_RADIUS);
+    private RemoteAnchorRenderer remoteAnchors;
+    // Null until the startup pipeline connected the database, like the write queue
+    private TransformStreamer transformStreamer;
+    // Hosts placed anchors so other devices can resolve them, nearest first
+    private ArCoreCloudAnchorBackend cloudBackend;
+    private CloudAnchorQueue cloudAnchors;
+    private SessionRecorder sessionRecorder;
+
+    // System.nanoTime() of the tap that placed each anchor, until the database acknowledges it
+    private final Map<String, Long> tapTimes = new HashMap<>();
+    private long lastFrameNanos;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -59,27 +199,297 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        setContentView(R.layout.activity_main);
+        // Main-thread phases run inline from here; the database and journal are opened in parallel.
+        // The journal's anchors are read once the AR scene exists, and the room is attached once the
+        // database is ready too; both show up cell by cell as the pager loads them.
+        StartupPipeline startup = new StartupPipeline(this::runOnMainThread, AsyncTask.THREAD_POOL_EXECUTOR,
+                System::nanoTime);
+        startup.add("prewarm", Affinity.MAIN, this::prewarmRenderables)
+                .add("database", Affinity.BACKGROUND, this::openDatabase)
+                .add("journal", Affinity.BACKGROUND, this::openJournal)
+                .add("owner", Affinity.BACKGROUND, this::loadOwnerId)
+                .add("layout", Affinity.MAIN, () -> setContentView(R.layout.activity_main), "prewarm")
+                .add("topics", Affinity.MAIN, this::subscribeToRoom, "layout")
+                .add("ar", Affinity.MAIN, this::setupAR, "layout")
+                .add("restore", Affinity.MAIN, this::restoreScene, "ar", "journal", "owner")
+                .add("sync", Affinity.MAIN, this::startSync, "restore", "database");
+        startup.setListener(this::logStartup);
+        startup.start();
+    }
+
+    /**
+     * Starts building the default shape before the layout is inflated. Sceneform loads materials
+     * on its own threads, so this overlaps with inflation and AR setup.
+     */
+    private void prewarmRenderables() {
+        // One renderable per shape, size and color, shared by every node that draws it
+        shapeRenderables = new ShapeRenderables(this);
+
+        // When you build a Renderable, Sceneform loads its resources in the background while returning
+        // a CompletableFuture. Call thenAccept(), handle(), or check isDone() before calling get().
+
+        //makeCube(android.graphics.Color.RED);
+        //makeCylinder(android.graphics.Color.BLUE);
+        makeSphere(android.graphics.Color.GREEN);
+    }
+
+    /** Runs on a background thread: getInstance() sets up the database's disk cache and connection. */
+    private void openDatabase() {
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        String roomId = getIntent().getStringExtra(EXTRA_ROOM_ID);
+        roomReference = database.getReference(RoomShards.roomPath(roomId != null ? roomId : DEFAULT_ROOM_ID));
+        connectedReference = database.getReference(".info/connected");
+        transformsReference = roomReference.child("transforms");
+        cloudAnchorsReference = roomReference.child("cloudAnchors");
+    }
+
+    /**
+     * Listens to the room's topic and nothing else. Calls only go out for what changed since the
+     * last launch, so reopening the same room costs nothing.
+     */
+    private void subscribeToRoom() {
+        String roomId = getIntent().getStringExtra(EXTRA_ROOM_ID);
+        String topic = ROOM_TOPIC_PREFIX + (roomId != null ? roomId : DEFAULT_ROOM_ID);
+        if (!TopicRegistry.isValidTopic(topic)) {
+            Log.w(TAG, "Room id can't be used as a topic: " + roomId);
+            return;
+        }
+        Subscriptions.get(this).setTopics(Collections.singleton(topic));
+        Subscriptions.fetchToken(this);
+    }
+
+    /** Runs on a background thread, since the first read loads the preferences file. */
+    private void loadOwnerId() {
+        SharedPreferences preferences = getSharedPreferences(DEVICE_PREFERENCES, Context.MODE_PRIVATE);
+        long id = preferences.getLong(KEY_OWNER_ID, 0);
+        if (id == 0) {
+            id = UUID.randomUUID().getMostSignificantBits();
+            preferences.edit().putLong(KEY_OWNER_ID, id).apply();
+        }
+        ownerId = id;
+    }
+
+    /** Runs on a background thread, since opening replays the whole file. */
+    private void openJournal() {
+        try {
+            journal = AnchorJournal.open(new File(getFilesDir(), JOURNAL_FILE));
+        } catch (IOException e) {
+            // Start without it; the room still loads from the database
+            Log.w(TAG, "Could not open the anchor journal", e);
+        }
+    }
+
+    /**
+     * Sets up the scene and parks what the journal holds, including placements that never reached
+     * the server; each anchor is shown once the pager loads its cell.
+     */
+    private void restoreScene() {
+        if (isDestroyed()) {
+            return;
+        }
+        // Setup Listener for new entries; only the anchors that changed are delivered
+        MeshBatcher batcher = new MeshBatcher(BATCH_CELL_SIZE, shapeRenderables::meshFor);
+        remoteAnchors = new RemoteAnchorRenderer(
+                arFragment, shapeRenderables, visibility, batcher, nodePool, sceneWork, ownerId);
+        arFragment.getArSceneView().getScene().addOnUpdateListener(remoteAnchors);
+        arFragment.getArSceneView().getScene().addOnUpdateListener(
+                new MeshBatchRenderer(arFragment.getArSceneView().getScene(), shapeRenderables, batcher, sceneWork,
+                        visibility));
+        syncEngine.addSceneListener(remoteAnchors);
+        syncEngine.addSceneListener(spatialIndex);
+
+        if (journal != null) {
+            journal.forEachLive((anchorId, record, acknowledged) -> parkedAnchors.park(anchorId, record));
+        }
+    }
 
-        // setup AR fragment
-        setupAR();
+    private void startSync() {
+        if (isDestroyed()) {
+            return;
+        }
+        // The room counts as unsplit until its meta node is read, which takes a round trip. Cells
+        // move over as soon as it is; writes are held until then, so none lands in a shard nobody reads.
+        shardedStore = new ShardedAnchorStore(new FirebaseAnchorStore(roomReference), 1);
+        anchorStore = new CellPartitionedStore(shardedStore, ROOM_CELL_SIZE);
+        // Anchors of earlier sessions, to move or delete, are where their loaded cell sent them from
+        anchorStore.setLocator(anchorId -> pager.getCellKey(anchorId));
+        writeQueue = new AnchorWriteQueue(
+                anchorStore, mainHandler::postDelayed, WRITE_WINDOW_MILLIS, WRITE_BATCH_SIZE, WRITE_ATTEMPTS);
+        writeQueue.setHeld(true);
+
+        if (journal != null) {
+            // Kept out of the journal's own restores, so only what the server sends counts as acknowledged
+            journalRecorder = new JournalRecorder(journal);
+            syncEngine.addSceneListener(journalRecorder);
+        }
+        shardedCells = new ShardedCellSources(path -> new FirebaseAnchorEventSource(roomReference.child(path)), 1);
+        roomReference.child(RoomShards.META).addValueEventListener(roomMetaListener);
+        pager = new ProximityPager(shardedCells, ROOM_CELL_SIZE, PAGE_RADIUS, MAX_LOADED_CELLS);
+        if (sessionRecorder != null) {
+            pager.addListener(sessionRecorder);
+        }
+        syncEngine.start(pager);
+        SceneMessages.DISPATCHER.setListener(this::applySceneEvents);
+
+        // Gestures in progress travel separately from the anchors, at a bounded rate
+        transformStreamer = new TransformStreamer(transformsReference, remoteAnchors, ownerId);
+        // Our anchors from earlier sessions are streamed too, from when their cell pages in
+        syncEngine.addSceneListener(transformStreamer);
+        transformStreamer.setListener(this::saveGesture);
+        transformStreamer.start();
+        arFragment.getArSceneView().getScene().addOnUpdateListener(transformStreamer);
 
-        // Setup Listener for new entries
-        reference.addValueEventListener(new ValueEventListener() {
+        writeQueue.setListener(new AnchorWriteQueue.Listener() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                String value = dataSnapshot.getValue(String.class);
-                Log.d(TAG, "Value is: " + value);
+            public void onConfirmed(Collection<String> anchorIds) {
+                long now = System.nanoTime();
+                for (String anchorId : anchorIds) {
+                    Long tapNanos = tapTimes.remove(anchorId);
+                    if (tapNanos != null) {
+                        AppMetrics.TAP_TO_ACK.record(now - tapNanos);
+                    }
+                    // Only once nothing newer is on its way does the journal hold what the server has
+                    if (journalRecorder != null && !writeQueue.isPending(anchorId)) {
+                        journalRecorder.acknowledge(anchorId);
+                    }
+                }
             }
 
             @Override
-            public void onCancelled(DatabaseError error) {
-                // Failed to read value
-                Log.w(TAG, "Failed to read value.", error.toException());
+            public void onFailed(Collection<String> anchorIds, Collection<String> dropped, Exception error) {
+                Log.w(TAG, "Writing " + anchorIds.size() + " anchors failed, dropped " + dropped.size(), error);
+                tapTimes.keySet().removeAll(dropped);
+            }
+        });
+
+        if (journal != null) {
+            // Dropped writes stay in the journal; send them again whenever the connection comes back
+            connectedReference.addValueEventListener(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot snapshot) {
+                    if (Boolean.TRUE.equals(snapshot.getValue(Boolean.class))) {
+                        drainJournal();
+                    }
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                    Log.w(TAG, "Connection state unavailable", error.toException());
+                }
+            });
+        }
+    }
+
+    /**
+     * Pushed changes go through the sync engine like child events, so echoes are dropped the same way.
+     * Anchors outside the loaded cells are skipped; their cell sends them when it pages in.
+     */
+    private void applySceneEvents(List<SceneEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            SceneEvent event = events.get(i);
+            if (event.type == SceneEvent.Type.PUT) {
+                if (pager.claim(event.anchorId, event.record.px, event.record.pz)) {
+                    syncEngine.restore(event.anchorId, event.record);
+                }
+            } else {
+                syncEngine.onRemoved(event.anchorId);
+            }
+        }
+    }
+
+    /** Writes where a gesture left a local anchor, the same way as a placement, so the move lasts. */
+    private void saveGesture(String anchorId) {
+        AnchorRecord moved = remoteAnchors.getMovedRecord(anchorId);
+        // Paged out meanwhile, or picked up and put down without moving
+        if (moved == null || moved.equals(syncEngine.get(anchorId))) {
+            return;
+        }
+        moved.timestamp = System.currentTimeMillis();
+        syncEngine.putLocal(anchorId, moved);
+        // Moves the anchor itself to the new pose, and the node back onto it
+        remoteAnchors.onAnchorChanged(anchorId, syncEngine.get(anchorId));
+        spatialIndex.put(anchorId, moved.px, moved.py, moved.pz);
+        if (journalRecorder != null) {
+            journalRecorder.putLocal(anchorId, moved);
+        }
+        writeQueue.put(anchorId, anchorCodec.toBase64(moved));
+    }
+
+    /** Shows the parked anchors whose cell is loaded now. */
+    private void restoreParked() {
+        // They are in the journal already, and mustn't be marked acknowledged there
+        if (journalRecorder != null) {
+            syncEngine.removeSceneListener(journalRecorder);
+        }
+        parkedAnchors.restoreLoaded(pager, syncEngine);
+        if (journalRecorder != null) {
+            syncEngine.addSceneListener(journalRecorder);
+        }
+    }
+
+    /** Queues every journaled write the server hasn't acknowledged and that isn't already queued. */
+    private void drainJournal() {
+        journal.forEachUnacknowledged((anchorId, record, acknowledged) -> {
+            if (writeQueue.isPending(anchorId)) {
+                return;
+            }
+            if (record == null) {
+                // Stays unacknowledged until the anchor's cell is loaded at a later reconnect
+                if (anchorStore.getCellKey(anchorId) != null) {
+                    writeQueue.remove(anchorId);
+                }
+            } else {
+                writeQueue.put(anchorId, anchorCodec.toBase64(record));
             }
         });
     }
 
+    private void runOnMainThread(Runnable task) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            mainHandler.post(task);
+        }
+    }
+
+    private void logStartup(List<StartupPipeline.Timing> timings) {
+        for (StartupPipeline.Timing timing : timings) {
+            Log.i(TAG, "Startup " + timing);
+            if (!timing.isSkipped()) {
+                AppMetrics.METRICS.histogram("startup_" + timing.name).record(timing.getDurationNanos());
+            }
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        SceneMessages.DISPATCHER.setListener(null);
+        syncEngine.stop();
+        sceneWork.clear();
+        if (roomReference != null) {
+            roomReference.child(RoomShards.META).removeEventListener(roomMetaListener);
+        }
+        if (pager != null) {
+            // Detaches the cells' listeners
+            pager.clear();
+        }
+        if (transformStreamer != null) {
+            transformStreamer.stop();
+        }
+        if (sessionRecorder != null) {
+            SceneMessages.setRecorder(null);
+            sessionRecorder.close();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close the anchor journal", e);
+            }
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -94,6 +504,25 @@ public class MainActivity extends AppCompatActivity {
         checkARCoreInstallation();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        // Don't leave placements sitting in the write window while we're in the background
+        if (writeQueue != null) {
+            writeQueue.flush();
+        }
+        if (journalRecorder != null) {
+            journalRecorder.compact();
+        }
+        AppMetrics.dump(this);
+        if (sessionRecorder != null) {
+            sessionRecorder.flush();
+        }
+        // The first frame after resuming would otherwise count the time spent paused
+        lastFrameNanos = 0;
+    }
+
     // --------------------
     // -------- AR --------
     // --------------------
@@ -101,32 +530,111 @@ public class MainActivity extends AppCompatActivity {
     void setupAR() {
         arFragment = (ArFragment) getSupportFragmentManager().findFragmentById(R.id.ux_fragment);
 
-        // When you build a Renderable, Sceneform loads its resources in the background while returning
-        // a CompletableFuture. Call thenAccept(), handle(), or check isDone() before calling get().
+        // Cull what's off screen or far away before Sceneform draws the frame
+        visibility = new VisibilityManager(arFragment, MAX_VISIBLE_DISTANCE, MAX_VISIBLE_NODES);
+        arFragment.getArSceneView().getScene().addOnUpdateListener(visibility);
+        nodePool = new NodePool(arFragment, NODE_POOL_CAPACITY);
+        nodePool.prewarm(NODE_POOL_PREWARM);
+
+        if (RECORD_SESSION) {
+            try {
+                sessionRecorder = new SessionRecorder(arFragment.getArSceneView().getScene(),
+                        new File(getExternalFilesDir(null), SESSION_TRACE_FILE));
+                arFragment.getArSceneView().getScene().addOnUpdateListener(sessionRecorder);
+                SceneMessages.setRecorder(sessionRecorder);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not start recording the session", e);
+            }
+        }
+
+        cloudBackend = new ArCoreCloudAnchorBackend(arFragment);
+        arFragment.getArSceneView().getScene().addOnUpdateListener(cloudBackend);
+        syncEngine.addSceneListener(cloudBackend);
+        cloudAnchors = new CloudAnchorQueue(cloudBackend, mainHandler::postDelayed, CLOUD_MAX_IN_FLIGHT,
+                CLOUD_ATTEMPTS, CLOUD_BASE_BACKOFF_MILLIS, CLOUD_MAX_BACKOFF_MILLIS, new Random());
+        cloudAnchors.setListener(new CloudAnchorQueue.Listener() {
+            @Override
+            public void onHosted(String anchorId, String cloudAnchorId) {
+                cloudAnchorsReference.child(anchorId).setValue(cloudAnchorId);
+            }
 
-        //makeCube(new Color(android.graphics.Color.RED));
-        //makeCylinder(new Color(android.graphics.Color.BLUE));
-        makeSphere(new Color(android.graphics.Color.GREEN));
+            @Override
+            public void onResolved(String cloudAnchorId) {
+            }
+
+            @Override
+            public void onFailed(CloudAnchorQueue.Kind kind, String key, Exception error) {
+                Log.w(TAG, "Cloud anchor " + kind + " of " + key + " failed", error);
+            }
+        });
+
+        arFragment.getArSceneView().getScene().addOnUpdateListener(frameTime -> {
+            // Read in place; getWorldPosition() allocates every frame
+            float[] camera = arFragment.getArSceneView().getScene().getCamera().getWorldModelMatrix().data;
+            cloudAnchors.setViewerPosition(camera[12], camera[13], camera[14]);
+            if (pager != null && pager.update(camera[12], camera[14]) && !parkedAnchors.isEmpty()) {
+                restoreParked();
+            }
+            long workStart = System.nanoTime();
+            sceneWork.runFrame();
+            AppMetrics.SCENE_WORK.recordSince(workStart);
+            long now = System.nanoTime();
+            if (lastFrameNanos != 0) {
+                AppMetrics.FRAME.record(now - lastFrameNanos);
+            }
+            lastFrameNanos = now;
+        });
 
         arFragment.setOnTapArPlaneListener(
                 (HitResult hitResult, Plane plane, MotionEvent motionEvent) -> {
-                    if (arModel == null) {
+                    // Nothing to place yet, or nowhere to save it
+                    if (arModel == null || writeQueue == null) {
                         return;
                     }
+                    long tapNanos = System.nanoTime();
 
-                    // Create the Anchor.
-                    Anchor anchor = hitResult.createAnchor();
-                    AnchorNode anchorNode = new AnchorNode(anchor);
-                    anchorNode.setParent(arFragment.getArSceneView().getScene());
+                    // Skip taps on top of something that's already there
+                    Pose hitPose = hitResult.getHitPose();
+                    if (spatialIndex.isOccupied(hitPose.tx(), hitPose.ty(), hitPose.tz(), DUPLICATE_RADIUS)) {
+                        if (sessionRecorder != null) {
+                            sessionRecorder.skippedTap(hitPose, placement);
+                        }
+                        return;
+                    }
 
-                    // Create the transformable node and add it to the anchor.
-                    TransformableNode transformableNode = new TransformableNode(arFragment.getTransformationSystem());
-                    transformableNode.setParent(anchorNode);
-                    transformableNode.setRenderable(arModel);
+                    // Create the Anchor, and take a node pair for it from the pool.
+                    Anchor anchor = hitResult.createAnchor();
+                    AnchorNode anchorNode = nodePool.acquire(anchor);
+                    TransformableNode transformableNode = NodePool.shapeOf(anchorNode);
+                    nodePool.setBounds(transformableNode, placement);
+                    visibility.track(transformableNode, VisibilityManager.radiusOf(placement));
+                    visibility.setRenderable(transformableNode, arModel);
                     transformableNode.select();
+                    AppMetrics.TAP_TO_NODE.recordSince(tapNanos);
 
                     // Add data to database
-                    reference.setValue(transformableNode.toString());
+                    Pose pose = anchor.getPose();
+                    placement.setPosition(pose.tx(), pose.ty(), pose.tz())
+                            .setRotation(pose.qx(), pose.qy(), pose.qz(), pose.qw());
+                    placement.owner = ownerId;
+                    placement.timestamp = System.currentTimeMillis();
+                    String anchorId = anchorStore.newKey();
+                    syncEngine.putLocal(anchorId, placement);
+                    // The renderer owns the node from here, so paging out releases it like a remote one
+                    remoteAnchors.adopt(anchorId, anchorNode, syncEngine.get(anchorId));
+                    spatialIndex.put(anchorId, placement.px, placement.py, placement.pz);
+                    tapTimes.put(anchorId, tapNanos);
+                    if (sessionRecorder != null) {
+                        sessionRecorder.tap(anchorId, placement);
+                    }
+                    // On disk first, so the placement survives going offline or the app being killed
+                    if (journalRecorder != null) {
+                        journalRecorder.putLocal(anchorId, placement);
+                    }
+                    writeQueue.put(anchorId, anchorCodec.toBase64(placement));
+                    transformStreamer.trackLocal(anchorId);
+                    cloudBackend.register(anchorId, anchor);
+                    cloudAnchors.host(anchorId, placement.px, placement.py, placement.pz);
                 });
     }
 
@@ -134,51 +642,48 @@ public class MainActivity extends AppCompatActivity {
      * Constructs cube of radius 1f and at position 0.0f, 0.15f, 0.0f on the plane
      * Here Vector3 takes up the size - 0.2f, 0.2f, 0.2f
      *
-     * @param color - Color
+     * @param color - ARGB color, as in android.graphics.Color
      */
-    void makeCube(Color color) {
-        MaterialFactory.makeOpaqueWithColor(this, color)
-                .thenAccept(material -> {
-                    arModel = ShapeFactory.makeCube(
-                            new Vector3(0.2f, 0.2f, 0.2f),
-                            new Vector3(0.0f, 0.15f, 0.0f),
-                            material
-                    );
-                });
+    void makeCube(int color) {
+        usePlacementShape(ShapeType.CUBE, 0.2f, 0.2f, 0.2f, color);
     }
 
     /**
      * Constructs cylinder of radius 1f and at position 0.0f, 0.15f, 0.0f on the plane
      * Need to mention height for the cylinder
      *
-     * @param color - Color
+     * @param color - ARGB color, as in android.graphics.Color
      */
-    void makeCylinder(Color color) {
-        MaterialFactory.makeOpaqueWithColor(this, color)
-                .thenAccept(material -> {
-                    arModel = ShapeFactory.makeCylinder(
-                            0.1f,
-                            0.3f,
-                            new Vector3(0.0f, 0.15f, 0.0f),
-                            material
-                    );
-                });
+    void makeCylinder(int color) {
+        usePlacementShape(ShapeType.CYLINDER, 0.2f, 0.3f, 0.2f, color);
     }
 
     /**
      * Constructs sphere of radius 1f and at position 0.0f, 0.15f, 0.0f on the plane
      *
-     * @param color - Color
+     * @param color - ARGB color, as in android.graphics.Color
      */
-    void makeSphere(Color color) {
-        MaterialFactory.makeOpaqueWithColor(this, color)
-                .thenAccept(material -> {
-                    arModel = ShapeFactory.makeSphere(
-                            0.1f,
-                            new Vector3(0.0f, 0.15f, 0.0f),
-                            material
-                    );
-                });
+    void makeSphere(int color) {
+        usePlacementShape(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, color);
+    }
+
+    /**
+     * Switches what the next tap places. Renderables come from the shared cache, so going back to
+     * a shape and color used before (or drawn for a remote anchor) builds nothing.
+     */
+    private void usePlacementShape(ShapeType shape, float sx, float sy, float sz, int color) {
+        ShapeKey key = new ShapeKey(shape, sx, sy, sz, color);
+        placementKey = key;
+        shapeRenderables.get(key).thenAccept(renderable -> {
+            // A later switch wins even if its renderable was ready first
+            if (!key.equals(placementKey)) {
+                return;
+            }
+            arModel = renderable;
+            placement.shape = shape;
+            placement.setSize(sx, sy, sz);
+            placement.color = color;
+        });
     }
 
     // ---------------------------------------
@@ -0,0 +1,143 @@
+package com.jtmnf.fcm;
+
+import com.google.ar.sceneform.Camera;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Material;
+import com.google.ar.sceneform.rendering.ModelRenderable;
+import com.google.ar.sceneform.rendering.RenderableDefinition;
+import com.google.ar.sceneform.rendering.Vertex;
+import com.jtmnf.fcm.frame.FrameScheduler;
+import com.jtmnf.fcm.mesh.MeshBatcher;
+import com.jtmnf.fcm.mesh.LodSelector;
+import com.jtmnf.fcm.mesh.MeshData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws the merged meshes of a {@link MeshBatcher}: one world-space node per batch, whose
+ * renderable is rebuilt when the batch reports a change. The batcher is flushed once per frame,
+ * so a burst of edits in one cell costs one rebuild.
+ *
+ * <p>Before flushing, each batch's level of detail is picked from how large its cell looks from
+ * the camera, so far-away cells are drawn with coarser spheres and cylinders.
+ *
+ * <p>Finished renderables are swapped in through the {@link FrameScheduler}, within the frame's
+ * budget for scene work. Batch nodes are culled by the {@link VisibilityManager} like anchor
+ * nodes, by the bounds of their cell, so each batch counts once against the drawing budget.
+ *
+ * <p>Batch renderables have no collision shape; taps go to the anchors' own nodes, which keep a
+ * box to be selected by.
+ */
+public class MeshBatchRenderer implements MeshBatcher.Listener, Scene.OnUpdateListener {
+
+    // Fraction of the screen height a cell must cover to keep each level; 10% bands around them
+    private static final LodSelector LEVELS = new LodSelector(new float[]{0.5f, 0.25f, 0.1f}, 0.1f);
+    // How far a shape reaches past its cell: VisibilityManager.radiusOf for the ones placed here, with room to grow
+    private static final float SHAPE_MARGIN = 0.5f;
+
+    private final Scene scene;
+    private final ShapeRenderables renderables;
+    private final MeshBatcher batcher;
+    private final FrameScheduler sceneWork;
+    private final VisibilityManager visibility;
+    private final Map<MeshBatcher.Batch, Node> nodes = new HashMap<>();
+    // Per batch, a counter so a slow build doesn't replace a newer one
+    private final Map<MeshBatcher.Batch, Integer> versions = new HashMap<>();
+
+    public MeshBatchRenderer(Scene scene, ShapeRenderables renderables, MeshBatcher batcher,
+                             FrameScheduler sceneWork, VisibilityManager visibility) {
+        this.scene = scene;
+        this.renderables = renderables;
+        this.batcher = batcher;
+        this.sceneWork = sceneWork;
+        this.visibility = visibility;
+        batcher.setListener(this);
+    }
+
+    @Override
+    public void onUpdate(FrameTime frameTime) {
+        Camera camera = scene.getCamera();
+        // Read in place; getWorldPosition() allocates
+        float[] world = camera.getWorldModelMatrix().data;
+        // The projection's [1][1] is 1 / tan(fovY / 2)
+        float tanHalfFovY = 1f / camera.getProjectionMatrix().data[5];
+        batcher.updateLevels(LEVELS, world[12], world[13], world[14], tanHalfFovY);
+        batcher.flush();
+    }
+
+    @Override
+    public void onBatchUpdated(MeshBatcher.Batch batch) {
+        Node node = nodes.get(batch);
+        if (node == null) {
+            node = new Node();
+            node.setParent(scene);
+            nodes.put(batch, node);
+            visibility.track(node, batch.getCenterX(), batch.getCenterY(), batch.getCenterZ(),
+                    batcher.getCellRadius() + SHAPE_MARGIN);
+        }
+        Node target = node;
+        Integer previous = versions.get(batch);
+        int version = previous == null ? 1 : previous + 1;
+        versions.put(batch, version);
+        // The mesh changes again with the next edit, so copy it out before going async
+        List<Vertex> vertices = toVertices(batch.mesh);
+        List<Integer> indices = toIndices(batch.mesh);
+        renderables.getMaterialCache().get(batch.color)
+                .thenCompose(material -> ModelRenderable.builder().setSource(toDefinition(vertices, indices, material)).build())
+                .thenAccept(renderable -> sceneWork.post(FrameScheduler.Priority.NORMAL, () -> {
+                    Integer latest = versions.get(batch);
+                    if (latest != null && latest == version) {
+                        renderable.setCollisionShape(null);
+                        visibility.setRenderable(target, renderable);
+                    }
+                }));
+    }
+
+    @Override
+    public void onBatchRemoved(MeshBatcher.Batch batch) {
+        versions.remove(batch);
+        Node node = nodes.remove(batch);
+        if (node != null) {
+            visibility.untrack(node);
+            node.setParent(null);
+        }
+    }
+
+    private static List<Vertex> toVertices(MeshData mesh) {
+        List<Vertex> vertices = new ArrayList<>(mesh.vertexCount);
+        for (int i = 0; i < mesh.vertexCount; i++) {
+            vertices.add(Vertex.builder()
+                    .setPosition(new Vector3(mesh.positions[i * 3], mesh.positions[i * 3 + 1], mesh.positions[i * 3 + 2]))
+                    .setNormal(new Vector3(mesh.normals[i * 3], mesh.normals[i * 3 + 1], mesh.normals[i * 3 + 2]))
+                    .setUvCoordinate(new Vertex.UvCoordinate(mesh.uvs[i * 2], mesh.uvs[i * 2 + 1]))
+                    .build());
+        }
+        return vertices;
+    }
+
+    private static List<Integer> toIndices(MeshData mesh) {
+        List<Integer> indices = new ArrayList<>(mesh.indexCount);
+        for (int i = 0; i < mesh.indexCount; i++) {
+            indices.add(mesh.indices[i]);
+        }
+        return indices;
+    }
+
+    private static RenderableDefinition toDefinition(List<Vertex> vertices, List<Integer> indices, Material material) {
+        RenderableDefinition.Submesh submesh = RenderableDefinition.Submesh.builder()
+                .setTriangleIndices(indices)
+                .setMaterial(material)
+                .build();
+        return RenderableDefinition.builder()
+                .setVertices(vertices)
+                .setSubmeshes(Collections.singletonList(submesh))
+                .build();
+    }
+}
@@ -8,26 +8,33 @@ import com.google.firebase.messaging.RemoteMessage;
 
 public class MessagingService extends FirebaseMessagingService {
 
-    private String token = null;
     private final String TAG = "Test";
 
     @Override
     public void onNewToken(String token) {
         Log.d(TAG, "------------------- Refreshed token: " + token);
-        this.token = token;
+        // Outlives the service, and subscribes the new token to the topics the app wants
+        Subscriptions.onNewToken(this, token);
     }
 
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
+        long start = System.nanoTime();
         Log.d(TAG, "From: " + remoteMessage.getFrom());
 
+        // Parsed and coalesced off this thread; blocks here only if the app is far behind
         if (remoteMessage.getData().size() > 0) {
-            Log.d(TAG, "Message data payload: " + remoteMessage.getData());
-            //handleNow();
+            SceneMessages.record(remoteMessage.getData());
+            try {
+                SceneMessages.DISPATCHER.offer(remoteMessage.getData());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
 
         if (remoteMessage.getNotification() != null) {
             Log.d(TAG, "Message Notification Body: " + remoteMessage.getNotification().getBody());
         }
+        AppMetrics.MESSAGE_HANDLING.recordSince(start);
     }
 }
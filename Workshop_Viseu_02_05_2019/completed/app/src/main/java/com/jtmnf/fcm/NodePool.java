@@ -0,0 +1,104 @@
+package com.jtmnf.fcm;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.sceneform.AnchorNode;
+import com.google.ar.sceneform.collision.Box;
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.ux.ArFragment;
+import com.google.ar.sceneform.ux.TransformableNode;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.util.ObjectPool;
+
+/**
+ * Recycles the node pair every anchor is drawn with: an AnchorNode holding one TransformableNode
+ * that carries the shape and its collision box. Taps and remote anchors take a pair from here and
+ * removed anchors give theirs back, so placing stops allocating nodes once the pool is warm.
+ *
+ * <p>Main thread only, like the scene.
+ */
+public class NodePool {
+
+    private static final Vector3 ZERO = Vector3.zero();
+    private static final Vector3 ONE = Vector3.one();
+    private static final Quaternion IDENTITY = Quaternion.identity();
+    // Shapes sit on the anchor, centred 0.15 above it (see ShapeRenderables)
+    private static final Vector3 SHAPE_CENTER = new Vector3(0f, 0.15f, 0f);
+
+    private final ArFragment arFragment;
+    private final ObjectPool<AnchorNode> pool;
+    private final Vector3 scratch = new Vector3();
+
+    /** @param capacity - most unused pairs kept */
+    public NodePool(ArFragment arFragment, int capacity) {
+        this.arFragment = arFragment;
+        this.pool = new ObjectPool<>(capacity, this::create);
+    }
+
+    /** Creates pairs ahead of time, e.g. while the first plane is being found. */
+    public void prewarm(int count) {
+        pool.prewarm(count);
+    }
+
+    /** @return a pair on this anchor, already in the scene */
+    public AnchorNode acquire(Anchor anchor) {
+        AnchorNode node = pool.acquire();
+        node.setAnchor(anchor);
+        node.setParent(arFragment.getArSceneView().getScene());
+        return node;
+    }
+
+    /**
+     * Takes the pair out of the scene, detaches its anchor and resets the shape node. The caller
+     * must have stopped tracking the shape node elsewhere (visibility, streaming) first.
+     */
+    public void release(AnchorNode node) {
+        Anchor anchor = node.getAnchor();
+        node.setAnchor(null);
+        if (anchor != null) {
+            anchor.detach();
+        }
+        node.setParent(null);
+
+        TransformableNode shapeNode = shapeOf(node);
+        if (arFragment.getTransformationSystem().getSelectedNode() == shapeNode) {
+            arFragment.getTransformationSystem().selectNode(null);
+        }
+        shapeNode.setRenderable(null);
+        clearTransform(shapeNode);
+        pool.release(node);
+    }
+
+    /** Lets gestures move, turn and resize the shape, or only select it. */
+    public static void setEditable(TransformableNode shapeNode, boolean editable) {
+        shapeNode.getTranslationController().setEnabled(editable);
+        shapeNode.getRotationController().setEnabled(editable);
+        shapeNode.getScaleController().setEnabled(editable);
+    }
+
+    /** Puts the shape node back on its anchor, as placed, undoing whatever gestures moved it. */
+    public static void clearTransform(TransformableNode shapeNode) {
+        shapeNode.setLocalPosition(ZERO);
+        shapeNode.setLocalRotation(IDENTITY);
+        shapeNode.setLocalScale(ONE);
+    }
+
+    /** Sizes the shape node's collision box for what the record describes. */
+    public void setBounds(TransformableNode shapeNode, AnchorRecord record) {
+        Box box = (Box) shapeNode.getCollisionShape();
+        scratch.set(record.sx, record.sy, record.sz);
+        box.setSize(scratch);
+    }
+
+    public static TransformableNode shapeOf(AnchorNode node) {
+        return (TransformableNode) node.getChildren().get(0);
+    }
+
+    private AnchorNode create() {
+        AnchorNode node = new AnchorNode();
+        TransformableNode shapeNode = new TransformableNode(arFragment.getTransformationSystem());
+        shapeNode.setParent(node);
+        shapeNode.setCollisionShape(new Box(Vector3.one(), SHAPE_CENTER));
+        return node;
+    }
+}
@@ -0,0 +1,301 @@
+package com.jtmnf.fcm;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Frame;
+import com.google.ar.core.Pose;
+import com.google.ar.core.Session;
+import com.google.ar.core.TrackingState;
+import com.google.ar.sceneform.AnchorNode;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.ux.ArFragment;
+import com.google.ar.sceneform.ux.TransformableNode;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.frame.FrameScheduler;
+import com.jtmnf.fcm.frame.FrameScheduler.Priority;
+import com.jtmnf.fcm.mesh.MeshBatcher;
+import com.jtmnf.fcm.render.ShapeKey;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies the deltas from {@link AnchorSyncEngine} to the Sceneform scene: one AnchorNode per
+ * anchor, created, moved or removed as its events arrive. Nodes of anchors placed on this device
+ * are handed over with {@link #adopt}, so paging unloads and restores them like any other. Only
+ * this device's anchors can be moved with gestures; the others can just be selected.
+ *
+ * <p>Scene changes don't happen as events arrive: each anchor's latest state is queued on the
+ * {@link FrameScheduler} under its id and applied within the frame budget, so a big update is
+ * spread over several frames and an anchor that changes a few times in between is updated once.
+ * Anchors can only be created while the session is tracking, so anything that comes up before
+ * that (the whole room, on startup) waits and is queued again once tracking starts.
+ *
+ * <p>Shapes are drawn through the {@link MeshBatcher}, merged with their neighbours; the nodes
+ * only keep a collision box so they can still be selected. A selected node, or one whose gesture
+ * is being streamed, is taken out of its batch and drawn on its own until it is let go.
+ */
+public class RemoteAnchorRenderer implements AnchorSyncEngine.SceneListener, Scene.OnUpdateListener {
+
+    private final ArFragment arFragment;
+    private final ShapeRenderables renderables;
+    private final VisibilityManager visibility;
+    private final MeshBatcher batcher;
+    private final NodePool nodePool;
+    private final FrameScheduler sceneWork;
+    private final long ownerId;
+    private final Map<String, AnchorNode> nodes = new HashMap<>();
+    private final Map<String, AnchorRecord> records = new HashMap<>();
+    private final Set<String> individual = new HashSet<>();
+    private final AnchorRecord scratch = new AnchorRecord();
+    private Node selected;
+    private String selectedId;
+    // Replica records are updated in place, so holding on to them keeps the latest pose
+    private final Map<String, AnchorRecord> waiting = new LinkedHashMap<>();
+
+    /** @param ownerId - this device's, as written in the records of the anchors it placed */
+    public RemoteAnchorRenderer(ArFragment arFragment, ShapeRenderables renderables, VisibilityManager visibility,
+                                MeshBatcher batcher, NodePool nodePool, FrameScheduler sceneWork, long ownerId) {
+        this.arFragment = arFragment;
+        this.renderables = renderables;
+        this.visibility = visibility;
+        this.batcher = batcher;
+        this.nodePool = nodePool;
+        this.sceneWork = sceneWork;
+        this.ownerId = ownerId;
+    }
+
+    @Override
+    public void onAnchorAdded(String anchorId, AnchorRecord record) {
+        sceneWork.post(anchorId, Priority.NORMAL, () -> apply(anchorId, record));
+    }
+
+    @Override
+    public void onAnchorChanged(String anchorId, AnchorRecord record) {
+        // Something the user can see moving goes before new arrivals
+        Priority priority = nodes.containsKey(anchorId) ? Priority.HIGH : Priority.NORMAL;
+        sceneWork.post(anchorId, priority, () -> apply(anchorId, record));
+    }
+
+    @Override
+    public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+        // The record may be reused for another anchor once this returns, so forget it right away
+        waiting.remove(anchorId);
+        records.remove(anchorId);
+        sceneWork.post(anchorId, Priority.NORMAL, () -> apply(anchorId, null));
+    }
+
+    /**
+     * Takes over the node a tap made for a new anchor. It stays drawn on its own, as placed and
+     * selected, until it is let go; a later event for the anchor updates this node rather than
+     * placing another.
+     *
+     * @param record - the replica's record for the anchor
+     */
+    public void adopt(String anchorId, AnchorNode node, AnchorRecord record) {
+        NodePool.setEditable(NodePool.shapeOf(node), true);
+        nodes.put(anchorId, node);
+        records.put(anchorId, record);
+        individual.add(anchorId);
+        batcher.put(anchorId, record);
+        batcher.setIndividual(anchorId, true);
+    }
+
+    /** @return the anchor whose node is selected, or null; as of this frame's update */
+    public String getSelectedAnchorId() {
+        return selectedId;
+    }
+
+    /** @return the node holding an anchor's shape, or null if it isn't in the scene */
+    public TransformableNode getShapeNode(String anchorId) {
+        AnchorNode node = nodes.get(anchorId);
+        return node == null ? null : NodePool.shapeOf(node);
+    }
+
+    /**
+     * @return the anchor's record with the pose its node was moved to, or null if it isn't in the
+     * scene; the instance is reused by the next call
+     */
+    public AnchorRecord getMovedRecord(String anchorId) {
+        TransformableNode shapeNode = getShapeNode(anchorId);
+        AnchorRecord record = records.get(anchorId);
+        return shapeNode == null || record == null ? null : worldRecord(shapeNode, record);
+    }
+
+    /**
+     * Takes an anchor out of its batch so its node can move on its own, or puts it back where the
+     * node ended up. Nothing happens for anchors that aren't in the scene.
+     */
+    public void setIndividual(String anchorId, boolean drawnAlone) {
+        TransformableNode shapeNode = getShapeNode(anchorId);
+        AnchorRecord record = records.get(anchorId);
+        if (shapeNode == null || record == null || individual.contains(anchorId) == drawnAlone) {
+            return;
+        }
+        if (drawnAlone) {
+            individual.add(anchorId);
+            batcher.setIndividual(anchorId, true);
+            visibility.track(shapeNode, VisibilityManager.radiusOf(record));
+            attachRenderable(anchorId, shapeNode, record);
+        } else {
+            individual.remove(anchorId);
+            visibility.untrack(shapeNode);
+            shapeNode.setRenderable(null);
+            batcher.put(anchorId, worldRecord(shapeNode, record));
+            batcher.setIndividual(anchorId, false);
+        }
+    }
+
+    @Override
+    public void onUpdate(FrameTime frameTime) {
+        updateSelection();
+        if (waiting.isEmpty() || !canPlace()) {
+            return;
+        }
+        // The room that arrived before tracking; after everything newer
+        for (Map.Entry<String, AnchorRecord> e : waiting.entrySet()) {
+            String anchorId = e.getKey();
+            AnchorRecord record = e.getValue();
+            sceneWork.post(anchorId, Priority.LOW, () -> apply(anchorId, record));
+        }
+        waiting.clear();
+    }
+
+    /**
+     * Brings an anchor's node in line with its latest state.
+     *
+     * @param record - null if the anchor was removed
+     */
+    private void apply(String anchorId, AnchorRecord record) {
+        if (record == null) {
+            remove(anchorId);
+        } else if (!canPlace()) {
+            waiting.put(anchorId, record);
+        } else if (nodes.containsKey(anchorId)) {
+            update(anchorId, record);
+        } else {
+            place(anchorId, record);
+        }
+    }
+
+    private void update(String anchorId, AnchorRecord record) {
+        AnchorNode node = nodes.get(anchorId);
+        records.put(anchorId, record);
+        Anchor previous = node.getAnchor();
+        node.setAnchor(createAnchor(record));
+        if (previous != null) {
+            previous.detach();
+        }
+        // Shape or color changed too
+        TransformableNode shapeNode = NodePool.shapeOf(node);
+        nodePool.setBounds(shapeNode, record);
+        // The record holds where the last gesture left the shape, unless one is going on here
+        if (!shapeNode.isSelected()) {
+            NodePool.clearTransform(shapeNode);
+        }
+        if (individual.contains(anchorId)) {
+            attachRenderable(anchorId, shapeNode, record);
+        } else {
+            batcher.put(anchorId, record);
+        }
+    }
+
+    private void remove(String anchorId) {
+        AnchorNode node = nodes.remove(anchorId);
+        if (node == null) {
+            return;
+        }
+        if (individual.remove(anchorId)) {
+            visibility.untrack(NodePool.shapeOf(node));
+        }
+        batcher.remove(anchorId);
+        nodePool.release(node);
+    }
+
+    private boolean canPlace() {
+        Session session = arFragment.getArSceneView().getSession();
+        Frame frame = arFragment.getArSceneView().getArFrame();
+        return session != null
+                && frame != null
+                && frame.getCamera().getTrackingState() == TrackingState.TRACKING;
+    }
+
+    private void place(String anchorId, AnchorRecord record) {
+        AnchorNode anchorNode = nodePool.acquire(createAnchor(record));
+        nodePool.setBounds(NodePool.shapeOf(anchorNode), record);
+        // A move on another device's anchor would never be sent, and be undone by its next update
+        NodePool.setEditable(NodePool.shapeOf(anchorNode), record.owner == ownerId);
+
+        nodes.put(anchorId, anchorNode);
+        records.put(anchorId, record);
+        batcher.put(anchorId, record);
+    }
+
+    private void updateSelection() {
+        Node now = arFragment.getTransformationSystem().getSelectedNode();
+        if (now == selected) {
+            return;
+        }
+        String previous = anchorIdOf(selected);
+        if (previous != null) {
+            setIndividual(previous, false);
+        }
+        selected = now;
+        String current = anchorIdOf(now);
+        selectedId = current;
+        if (current != null) {
+            setIndividual(current, true);
+        }
+    }
+
+    private String anchorIdOf(Node shapeNode) {
+        if (shapeNode == null || !(shapeNode.getParent() instanceof AnchorNode)) {
+            return null;
+        }
+        for (Map.Entry<String, AnchorNode> e : nodes.entrySet()) {
+            if (e.getValue() == shapeNode.getParent()) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /** The record with the node's current world pose, for putting it back in a batch. */
+    private AnchorRecord worldRecord(Node shapeNode, AnchorRecord record) {
+        Vector3 p = shapeNode.getWorldPosition();
+        Quaternion q = shapeNode.getWorldRotation();
+        Vector3 s = shapeNode.getWorldScale();
+        scratch.copyFrom(record);
+        scratch.setPosition(p.x, p.y, p.z);
+        scratch.qx = q.x;
+        scratch.qy = q.y;
+        scratch.qz = q.z;
+        scratch.qw = q.w;
+        scratch.setSize(record.sx * s.x, record.sy * s.y, record.sz * s.z);
+        return scratch;
+    }
+
+    private void attachRenderable(String anchorId, TransformableNode node, AnchorRecord record) {
+        ShapeKey key = ShapeKey.of(record);
+        renderables.get(key).thenAccept(renderable -> sceneWork.post(Priority.HIGH, () -> {
+            // Skip if the anchor was removed (and its node maybe reused) or restyled while this was building
+            if (getShapeNode(anchorId) == node && key.matches(record)) {
+                visibility.setRenderable(node, renderable);
+            }
+        }));
+    }
+
+    private Anchor createAnchor(AnchorRecord record) {
+        Pose pose = new Pose(
+                new float[]{record.px, record.py, record.pz},
+                new float[]{record.qx, record.qy, record.qz, record.qw});
+        return arFragment.getArSceneView().getSession().createAnchor(pose);
+    }
+}
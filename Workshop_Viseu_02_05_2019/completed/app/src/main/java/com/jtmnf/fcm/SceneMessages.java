@@ -0,0 +1,47 @@
+package com.jtmnf.fcm;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.jtmnf.fcm.messaging.SceneMessageDispatcher;
+
+import java.util.Map;
+
+/**
+ * Connects {@link MessagingService}, which Android creates on its own, to whichever activity
+ * is showing the room. Batches reach the main thread on the next frame, once per frame at most.
+ */
+public final class SceneMessages {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int MAX_PENDING_EVENTS = 512;
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    public static final SceneMessageDispatcher DISPATCHER =
+            new SceneMessageDispatcher(SceneMessages::postOnNextFrame, QUEUE_CAPACITY, MAX_PENDING_EVENTS);
+
+    // Set while a session is being recorded
+    private static volatile SessionRecorder recorder;
+
+    private SceneMessages() {
+    }
+
+    public static void setRecorder(SessionRecorder sessionRecorder) {
+        recorder = sessionRecorder;
+    }
+
+    /** Called from the FCM thread with every data message, before it is dispatched. */
+    public static void record(Map<String, String> data) {
+        SessionRecorder current = recorder;
+        if (current != null) {
+            current.message(data);
+        }
+    }
+
+    private static void postOnNextFrame(Runnable task) {
+        // Choreographer belongs to the looper thread it is fetched on
+        MAIN_HANDLER.post(() -> Choreographer.getInstance().postFrameCallback(frameTimeNanos -> task.run()));
+    }
+}
@@ -0,0 +1,171 @@
+package com.jtmnf.fcm;
+
+import android.util.Log;
+
+import com.google.ar.core.Pose;
+import com.google.ar.sceneform.Camera;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorEventSource;
+import com.jtmnf.fcm.trace.TraceWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Records what the session sees into a trace file for {@link com.jtmnf.fcm.trace.SessionReplayer}:
+ * the camera pose every frame, taps, the anchors' child events and page-outs, and FCM messages.
+ *
+ * <p>The first write error is logged and stops the recording; the app carries on without it.
+ * Messages arrive on the FCM thread, everything else on the main thread.
+ */
+public class SessionRecorder implements Scene.OnUpdateListener, AnchorEventSource.Listener {
+
+    private static final String TAG = SessionRecorder.class.getSimpleName();
+
+    private final Scene scene;
+    private final File file;
+    private final TraceWriter writer;
+    private final long startNanos = System.nanoTime();
+    private final AnchorRecord skipped = new AnchorRecord();
+    private volatile boolean failed;
+
+    public SessionRecorder(Scene scene, File file) throws IOException {
+        this.scene = scene;
+        this.file = file;
+        this.writer = new TraceWriter(new FileOutputStream(file));
+    }
+
+    @Override
+    public void onUpdate(FrameTime frameTime) {
+        if (failed) {
+            return;
+        }
+        Camera camera = scene.getCamera();
+        Vector3 p = camera.getWorldPosition();
+        Quaternion q = camera.getWorldRotation();
+        try {
+            writer.camera(now(), p.x, p.y, p.z, q.x, q.y, q.z, q.w);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** A tap that placed an anchor; the placement holds its pose. */
+    public void tap(String anchorId, AnchorRecord placement) {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.tap(now(), anchorId, placement);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** A tap skipped as a duplicate, recorded so the replay makes the same call. */
+    public void skippedTap(Pose hitPose, AnchorRecord placement) {
+        skipped.copyFrom(placement)
+                .setPosition(hitPose.tx(), hitPose.ty(), hitPose.tz())
+                .setRotation(hitPose.qx(), hitPose.qy(), hitPose.qz(), hitPose.qw());
+        tap("", skipped);
+    }
+
+    public void message(Map<String, String> data) {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.message(now(), data);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onAdded(String anchorId, String value) {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.childAdded(now(), anchorId, value);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onChanged(String anchorId, String value) {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.childChanged(now(), anchorId, value);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onRemoved(String anchorId) {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.childRemoved(now(), anchorId);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onUnloaded(String anchorId) {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.childUnloaded(now(), anchorId);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onError(Exception error) {
+    }
+
+    /** Pushes what is buffered to the file, so a trace pulled while paused is complete. */
+    public void flush() {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public void close() {
+        try {
+            writer.close();
+            Log.i(TAG, "Recorded " + writer.getEventCount() + " events to " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close " + file, e);
+        }
+    }
+
+    private long now() {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        Log.w(TAG, "Stopped recording to " + file, e);
+    }
+}
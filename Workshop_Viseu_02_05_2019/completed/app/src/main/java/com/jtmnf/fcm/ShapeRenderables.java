@@ -0,0 +1,87 @@
+package com.jtmnf.fcm;
+
+import android.content.Context;
+
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Color;
+import com.google.ar.sceneform.rendering.Material;
+import com.google.ar.sceneform.rendering.MaterialFactory;
+import com.google.ar.sceneform.rendering.ModelRenderable;
+import com.google.ar.sceneform.rendering.ShapeFactory;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.mesh.LodMeshes;
+import com.jtmnf.fcm.mesh.MeshData;
+import com.jtmnf.fcm.render.RenderableCache;
+import com.jtmnf.fcm.render.ShapeKey;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builds the sphere/cube/cylinder renderables once per (shape, size, color) and hands the same
+ * instance to every node that draws it. Materials are cached per color, so a new size of an
+ * existing color only builds a mesh.
+ */
+public class ShapeRenderables {
+
+    private static final long MAX_RENDERABLE_BYTES = 8 * 1024 * 1024;
+    private static final long MAX_MATERIAL_BYTES = 256 * 1024;
+    // Materials are mostly a handle plus a few parameters
+    private static final long MATERIAL_BYTES = 1024;
+
+    private final Context context;
+    private final RenderableCache<Integer, Material> materials;
+    private final RenderableCache<ShapeKey, ModelRenderable> renderables;
+    // Untransformed meshes for batching, per shape, size and level; color doesn't change the vertices
+    private final LodMeshes meshes = new LodMeshes(0.0f, 0.15f, 0.0f);
+
+    public ShapeRenderables(Context context) {
+        this.context = context.getApplicationContext();
+        this.materials = new RenderableCache<>(MAX_MATERIAL_BYTES, this::buildMaterial, color -> MATERIAL_BYTES);
+        this.renderables = new RenderableCache<>(MAX_RENDERABLE_BYTES, this::buildRenderable, ShapeKey::estimatedBytes);
+    }
+
+    public CompletableFuture<ModelRenderable> get(ShapeKey key) {
+        return renderables.get(key);
+    }
+
+    /**
+     * The vertices of the record's shape at a level of detail, shared by every anchor of that
+     * shape; level 0 is what ShapeFactory would build.
+     */
+    public MeshData meshFor(AnchorRecord record, int level) {
+        return meshes.get(record.shape, record.sx, record.sy, record.sz, level);
+    }
+
+    public RenderableCache<ShapeKey, ModelRenderable> getRenderableCache() {
+        return renderables;
+    }
+
+    public RenderableCache<Integer, Material> getMaterialCache() {
+        return materials;
+    }
+
+    private CompletableFuture<Material> buildMaterial(int color) {
+        return MaterialFactory.makeOpaqueWithColor(context, new Color(color));
+    }
+
+    /**
+     * Shapes sit at 0.0f, 0.15f, 0.0f on the plane, the same spot the workshop used.
+     */
+    private CompletableFuture<ModelRenderable> buildRenderable(ShapeKey key) {
+        long start = System.nanoTime();
+        Vector3 center = new Vector3(0.0f, 0.15f, 0.0f);
+        CompletableFuture<ModelRenderable> renderable = materials.get(key.color).thenApply(material -> {
+            switch (key.shape) {
+                case CUBE:
+                    return ShapeFactory.makeCube(new Vector3(key.sx, key.sy, key.sz), center, material);
+                case CYLINDER:
+                    return ShapeFactory.makeCylinder(key.sx / 2, key.sy, center, material);
+                case SPHERE:
+                default:
+                    return ShapeFactory.makeSphere(key.sx / 2, center, material);
+            }
+        });
+        renderable.thenRun(() -> AppMetrics.RENDERABLE_BUILD.recordSince(start));
+        return renderable;
+    }
+}
@@ -0,0 +1,118 @@
+package com.jtmnf.fcm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.iid.FirebaseInstanceId;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.jtmnf.fcm.messaging.TopicBackend;
+import com.jtmnf.fcm.messaging.TopicRegistry;
+import com.jtmnf.fcm.messaging.TopicStorage;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The process-wide {@link TopicRegistry}, shared by {@link MessagingService}, which hears about
+ * new tokens, and the activity, which says which topics to listen to. It lives on the main thread
+ * and keeps its state in a preferences file between runs.
+ */
+public final class Subscriptions {
+
+    private static final String TAG = Subscriptions.class.getSimpleName();
+
+    private static final String PREFERENCES = "fcm_topics";
+    private static final String KEY_TOKEN = "token";
+    private static final String KEY_WANTED = "wanted";
+    private static final String KEY_CONFIRMED = "confirmed";
+    // Topic changes made while the app starts up go out together
+    private static final long WINDOW_MILLIS = 500;
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final int ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MILLIS = 2000;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private static TopicRegistry registry;
+
+    private Subscriptions() {
+    }
+
+    /** Creates the registry on first use, which reads the preferences file. Main thread only. */
+    public static TopicRegistry get(Context context) {
+        if (registry == null) {
+            SharedPreferences preferences =
+                    context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+            registry = new TopicRegistry(new FirebaseTopicBackend(), new PreferencesStorage(preferences),
+                    MAIN_HANDLER::postDelayed, WINDOW_MILLIS, MAX_IN_FLIGHT, ATTEMPTS, BASE_BACKOFF_MILLIS,
+                    MAX_BACKOFF_MILLIS, new Random());
+        }
+        return registry;
+    }
+
+    /** Called from the FCM thread whenever the token changes. */
+    public static void onNewToken(Context context, String token) {
+        Context application = context.getApplicationContext();
+        MAIN_HANDLER.post(() -> get(application).setToken(token));
+    }
+
+    /**
+     * Asks FCM for the current token. onNewToken only comes when it changes, so a fresh install of
+     * the registry would otherwise wait for a refresh that never happens.
+     */
+    public static void fetchToken(Context context) {
+        Context application = context.getApplicationContext();
+        FirebaseInstanceId.getInstance().getInstanceId()
+                .addOnSuccessListener(result -> get(application).setToken(result.getToken()))
+                .addOnFailureListener(e -> Log.w(TAG, "No FCM token yet", e));
+    }
+
+    private static final class FirebaseTopicBackend implements TopicBackend {
+        @Override
+        public void subscribe(String topic, Callback callback) {
+            complete(FirebaseMessaging.getInstance().subscribeToTopic(topic), callback);
+        }
+
+        @Override
+        public void unsubscribe(String topic, Callback callback) {
+            complete(FirebaseMessaging.getInstance().unsubscribeFromTopic(topic), callback);
+        }
+
+        private static void complete(Task<Void> task, Callback callback) {
+            // Task listeners run on the main thread
+            task.addOnCompleteListener(done -> callback.onComplete(done.isSuccessful() ? null : done.getException()));
+        }
+    }
+
+    private static final class PreferencesStorage implements TopicStorage {
+        private final SharedPreferences preferences;
+
+        PreferencesStorage(SharedPreferences preferences) {
+            this.preferences = preferences;
+        }
+
+        @Override
+        public String load(Set<String> wanted, Set<String> confirmed) {
+            // The sets returned must not be modified
+            wanted.addAll(preferences.getStringSet(KEY_WANTED, Collections.emptySet()));
+            confirmed.addAll(preferences.getStringSet(KEY_CONFIRMED, Collections.emptySet()));
+            return preferences.getString(KEY_TOKEN, null);
+        }
+
+        @Override
+        public void save(String token, Set<String> wanted, Set<String> confirmed) {
+            preferences.edit()
+                    .putString(KEY_TOKEN, token)
+                    .putStringSet(KEY_WANTED, new HashSet<>(wanted))
+                    .putStringSet(KEY_CONFIRMED, new HashSet<>(confirmed))
+                    .apply();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.jtmnf.fcm;
+
+import android.util.Log;
+
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.ux.TransformableNode;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.stream.Transform;
+import com.jtmnf.fcm.stream.TransformDecoder;
+import com.jtmnf.fcm.stream.TransformEncoder;
+import com.jtmnf.fcm.stream.TransformInterpolator;
+import com.jtmnf.fcm.stream.TransformQuantizer;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the drag, twist and pinch gestures on our own anchors to the other devices, and plays
+ * theirs back on the remote anchors, under "transforms/&lt;anchor id&gt;" in the room. Our own
+ * anchors are those with this device's owner id, whether placed in this session or coming back
+ * from the journal or the room; as a scene listener it picks them up as they arrive.
+ *
+ * <p>Each frame the local node being handled, and any let go of within the settle time, is
+ * offered to its {@link TransformEncoder}, which sends at most {@link #SEND_INTERVAL_MILLIS} apart
+ * and only while the node moves; a write that the database confirms becomes the baseline for the
+ * next deltas. Remote packets are decoded as they arrive and
+ * interpolated onto the node every frame, so a 20 Hz stream still looks smooth at 60 fps. Once
+ * playback has caught up with a stream that went quiet, the node is left alone and goes back in
+ * its batch until the next packet.
+ *
+ * <p>The stream only carries a gesture while it goes on. Once a node has settled its final pose
+ * goes out as a keyframe, the anchor's stream is removed and the {@link Listener} is told, so the
+ * pose can be saved with the anchor itself.
+ *
+ * <p>Main thread only; Sceneform updates and Firebase callbacks both run there.
+ */
+public class TransformStreamer implements Scene.OnUpdateListener, AnchorSyncEngine.SceneListener {
+
+    public interface Listener {
+        /** A gesture on a local anchor is over; its node holds the pose it ended at. */
+        void onGestureEnded(String anchorId);
+    }
+
+    private static final String TAG = TransformStreamer.class.getSimpleName();
+
+    // Millimeters, about 0.1 degree and 1% scale steps: below what shows on a phone screen
+    private static final TransformQuantizer QUANTIZER = new TransformQuantizer(0.001f, 10, 0.01f);
+    static final long SEND_INTERVAL_MILLIS = 50;
+    private static final long KEYFRAME_INTERVAL_MILLIS = 1_000;
+    // Two packet intervals, so a late packet still lands before it is needed
+    private static final long PLAYBACK_DELAY_MILLIS = 2 * SEND_INTERVAL_MILLIS + 20;
+
+    // Gestures only move selected nodes; offering a node a little past its deselection lets the last pose out
+    private static final long SETTLE_MILLIS = 2 * SEND_INTERVAL_MILLIS;
+
+    private static final class Outgoing {
+        final String anchorId;
+        final TransformEncoder encoder = new TransformEncoder(QUANTIZER, SEND_INTERVAL_MILLIS, KEYFRAME_INTERVAL_MILLIS);
+        long lastSelectedMillis = Long.MIN_VALUE / 2;
+        // Whether a packet went out since the last gesture ended
+        boolean streaming;
+        // Whether it is in the list of nodes offered each frame
+        boolean active;
+
+        Outgoing(String anchorId) {
+            this.anchorId = anchorId;
+        }
+    }
+
+    private static final class Incoming {
+        final String anchorId;
+        final TransformDecoder decoder = new TransformDecoder(QUANTIZER);
+        final TransformInterpolator interpolator = new TransformInterpolator(PLAYBACK_DELAY_MILLIS);
+        long lastArrivalMillis;
+        // Whether there is anything left to play back, which puts it in the playing list
+        boolean playing;
+
+        Incoming(String anchorId) {
+            this.anchorId = anchorId;
+        }
+    }
+
+    private final DatabaseReference reference;
+    private final RemoteAnchorRenderer remoteAnchors;
+    private final long ownerId;
+    private final Map<String, Outgoing> outgoing = new HashMap<>();
+    private final Map<String, Incoming> incoming = new HashMap<>();
+    // What each frame walks, by index so it doesn't allocate an iterator
+    private final List<Outgoing> active = new ArrayList<>();
+    private final List<Incoming> playing = new ArrayList<>();
+    private Listener listener;
+    private final Transform transform = new Transform();
+    // Sceneform copies what it is given, so one of each serves every node
+    private final Vector3 scratchPosition = new Vector3();
+    private final Quaternion scratchRotation = new Quaternion();
+    private final Vector3 scratchScale = new Vector3();
+    private final char[] base64 = new char[(TransformEncoder.MAX_PACKET_SIZE + 2) / 3 * 4];
+    // Decoding pads up to a whole base64 group
+    private final byte[] packet = new byte[base64.length / 4 * 3];
+    private final ChildEventListener childListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+            receive(snapshot);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+            receive(snapshot);
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {
+            if (dropIncoming(snapshot.getKey())) {
+                // The gesture is over; the shape can go back in its batch
+                remoteAnchors.setIndividual(snapshot.getKey(), false);
+            }
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            Log.w(TAG, "Transform stream unavailable", error.toException());
+        }
+    };
+
+    /** @param ownerId - this device's, as written in the records of the anchors it placed */
+    public TransformStreamer(DatabaseReference reference, RemoteAnchorRenderer remoteAnchors, long ownerId) {
+        this.reference = reference;
+        this.remoteAnchors = remoteAnchors;
+        this.ownerId = ownerId;
+    }
+
+    public void start() {
+        reference.addChildEventListener(childListener);
+    }
+
+    public void stop() {
+        reference.removeEventListener(childListener);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Streams the gestures made on an anchor placed on this device, through whichever node the
+     * renderer has for it; none while its cell is paged out.
+     */
+    public void trackLocal(String anchorId) {
+        if (!outgoing.containsKey(anchorId)) {
+            outgoing.put(anchorId, new Outgoing(anchorId));
+        }
+    }
+
+    @Override
+    public void onAnchorAdded(String anchorId, AnchorRecord record) {
+        if (record.owner == ownerId) {
+            trackLocal(anchorId);
+        }
+    }
+
+    @Override
+    public void onAnchorChanged(String anchorId, AnchorRecord record) {
+    }
+
+    @Override
+    public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+        // Paged out or deleted; a paged-out anchor of ours is tracked again when it comes back
+        Outgoing out = outgoing.remove(anchorId);
+        if (out != null) {
+            if (out.active) {
+                active.remove(out);
+            }
+            if (out.streaming) {
+                reference.child(anchorId).removeValue();
+            }
+        }
+        dropIncoming(anchorId);
+    }
+
+    @Override
+    public void onUpdate(FrameTime frameTime) {
+        long now = System.currentTimeMillis();
+        String selectedId = remoteAnchors.getSelectedAnchorId();
+        Outgoing picked = selectedId == null ? null : outgoing.get(selectedId);
+        if (picked != null && !picked.active) {
+            picked.active = true;
+            active.add(picked);
+        }
+        // Backwards, so the last entry can be swapped into a finished one's place
+        for (int i = active.size() - 1; i >= 0; i--) {
+            Outgoing out = active.get(i);
+            TransformableNode node = remoteAnchors.getShapeNode(out.anchorId);
+            // Nodes at rest aren't read at all, since reading a transform allocates
+            if (node != null && node.isSelected()) {
+                out.lastSelectedMillis = now;
+            } else if (node == null || now - out.lastSelectedMillis > SETTLE_MILLIS) {
+                if (node != null && out.streaming) {
+                    finish(node, out, now);
+                }
+                out.active = false;
+                removeAt(active, i);
+                continue;
+            }
+            send(node, out, now);
+        }
+        for (int i = playing.size() - 1; i >= 0; i--) {
+            Incoming in = playing.get(i);
+            Node node = remoteAnchors.getShapeNode(in.anchorId);
+            if (node == null || !in.interpolator.sample(now, transform)) {
+                continue;
+            }
+            remoteAnchors.setIndividual(in.anchorId, true);
+            scratchPosition.set(transform.px, transform.py, transform.pz);
+            scratchRotation.set(transform.qx, transform.qy, transform.qz, transform.qw);
+            scratchScale.set(transform.sx, transform.sy, transform.sz);
+            node.setLocalPosition(scratchPosition);
+            node.setLocalRotation(scratchRotation);
+            node.setLocalScale(scratchScale);
+            // That was the newest packet; the decoder is kept, since the next one may be a delta
+            if (now - in.lastArrivalMillis > PLAYBACK_DELAY_MILLIS) {
+                in.playing = false;
+                removeAt(playing, i);
+                remoteAnchors.setIndividual(in.anchorId, false);
+            }
+        }
+    }
+
+    private void finish(TransformableNode node, Outgoing out, long now) {
+        // A keyframe, for whoever missed the baseline of the last deltas
+        out.encoder.reset();
+        send(node, out, now);
+        out.streaming = false;
+        // Left in place, the stream would be a delta late joiners can't decode, over the saved pose
+        reference.child(out.anchorId).removeValue();
+        if (listener != null) {
+            listener.onGestureEnded(out.anchorId);
+        }
+    }
+
+    private void send(TransformableNode node, Outgoing out, long now) {
+        String anchorId = out.anchorId;
+        Vector3 position = node.getLocalPosition();
+        Quaternion rotation = node.getLocalRotation();
+        Vector3 scale = node.getLocalScale();
+        transform.setPosition(position.x, position.y, position.z)
+                .setRotation(rotation.x, rotation.y, rotation.z, rotation.w)
+                .setScale(scale.x, scale.y, scale.z);
+        int len = out.encoder.encode(now, transform, packet, 0);
+        if (len == 0) {
+            return;
+        }
+        out.streaming = true;
+        AnchorCodec.encodeBase64(packet, 0, len, base64, 0);
+        long seq = out.encoder.getLastSeq();
+        reference.child(anchorId).setValue(new String(base64, 0, (len + 2) / 3 * 4), (error, ref) -> {
+            if (error == null) {
+                out.encoder.acknowledge(seq);
+            }
+        });
+    }
+
+    private void receive(DataSnapshot snapshot) {
+        String anchorId = snapshot.getKey();
+        String value = snapshot.getValue(String.class);
+        // Our own writes echo back; the node is already where they say
+        if (value == null || outgoing.containsKey(anchorId) || value.length() > base64.length) {
+            return;
+        }
+        Incoming in = incoming.get(anchorId);
+        if (in == null) {
+            in = new Incoming(anchorId);
+            incoming.put(anchorId, in);
+        }
+        try {
+            int len = AnchorCodec.decodeBase64(value, packet, 0);
+            if (in.decoder.decode(packet, 0, len, transform)) {
+                in.lastArrivalMillis = System.currentTimeMillis();
+                in.interpolator.add(in.decoder.getLastTime(), in.lastArrivalMillis, transform);
+                if (!in.playing) {
+                    in.playing = true;
+                    playing.add(in);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Dropped a malformed transform for " + anchorId, e);
+        }
+    }
+
+    /** @return whether the anchor had an incoming stream */
+    private boolean dropIncoming(String anchorId) {
+        Incoming in = incoming.remove(anchorId);
+        if (in == null) {
+            return false;
+        }
+        if (in.playing) {
+            playing.remove(in);
+        }
+        return true;
+    }
+
+    /** Removes without shifting, by moving the last element into the hole. */
+    private static <T> void removeAt(List<T> list, int index) {
+        int last = list.size() - 1;
+        list.set(index, list.get(last));
+        list.remove(last);
+    }
+}
@@ -0,0 +1,174 @@
+package com.jtmnf.fcm;
+
+import com.google.ar.core.Camera;
+import com.google.ar.core.Frame;
+import com.google.ar.core.TrackingState;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Renderable;
+import com.google.ar.sceneform.ux.ArFragment;
+import com.google.ar.sceneform.ux.TransformableNode;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.culling.Frustum;
+import com.jtmnf.fcm.culling.VisibilityCuller;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the number of drawn objects bounded in big rooms. Every frame, nodes outside the camera
+ * frustum or too far away lose their renderable, and if more are left than the budget allows
+ * only the closest keep theirs. Nodes are never destroyed, so they come back as soon as they
+ * are in view again. A selected node is always drawn.
+ *
+ * <p>Anchor nodes are followed as they move. Nodes that draw a world-space mesh, like the merged
+ * batches, are tracked by fixed bounds instead, and each counts once against the budget.
+ *
+ * <p>Register tracked nodes' renderables through {@link #setRenderable} instead of
+ * Node.setRenderable, so a node that is currently culled doesn't get drawn anyway.
+ */
+public class VisibilityManager implements Scene.OnUpdateListener {
+
+    private static final float NEAR = 0.1f;
+
+    private final ArFragment arFragment;
+    private final VisibilityCuller culler;
+    private final float far;
+    private final Frustum frustum = new Frustum();
+    private final float[] projection = new float[16];
+    private final float[] view = new float[16];
+
+    private final Map<Node, Integer> slots = new HashMap<>();
+    private Node[] nodes = new Node[16];
+    private Renderable[] renderables = new Renderable[16];
+    // Nodes whose bounds were given, and don't follow the node's position
+    private boolean[] fixed = new boolean[16];
+
+    /**
+     * @param maxDistance - nodes further than this from the camera are not drawn, in meters
+     * @param maxVisible  - at most this many nodes are drawn at once
+     */
+    public VisibilityManager(ArFragment arFragment, float maxDistance, int maxVisible) {
+        this.arFragment = arFragment;
+        this.culler = new VisibilityCuller(maxDistance, maxVisible);
+        this.far = maxDistance;
+    }
+
+    /**
+     * Starts managing a node. It is drawn from the next frame on if it passes the checks.
+     *
+     * @param radius - bounding sphere radius around the node's world position
+     */
+    public void track(Node node, float radius) {
+        if (slots.containsKey(node)) {
+            return;
+        }
+        Vector3 position = node.getWorldPosition();
+        add(node, position.x, position.y, position.z, radius, false);
+    }
+
+    /**
+     * Starts managing a node whose drawing doesn't follow its position, by a fixed bounding
+     * sphere in world coordinates.
+     */
+    public void track(Node node, float x, float y, float z, float radius) {
+        if (!slots.containsKey(node)) {
+            add(node, x, y, z, radius, true);
+        }
+    }
+
+    /** Stops managing a node that is being removed from the scene. */
+    public void untrack(Node node) {
+        Integer slot = slots.remove(node);
+        if (slot == null) {
+            return;
+        }
+        culler.remove(slot);
+        nodes[slot] = null;
+        renderables[slot] = null;
+    }
+
+    /** Sets what a tracked node draws; it is only attached while the node is visible. */
+    public void setRenderable(Node node, Renderable renderable) {
+        Integer slot = slots.get(node);
+        if (slot == null) {
+            node.setRenderable(renderable);
+            return;
+        }
+        renderables[slot] = renderable;
+        if (culler.isVisible(slot)) {
+            node.setRenderable(renderable);
+        }
+    }
+
+    private void add(Node node, float x, float y, float z, float radius, boolean fixedBounds) {
+        int slot = culler.add(x, y, z, radius);
+        if (slot >= nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            renderables = Arrays.copyOf(renderables, renderables.length * 2);
+            fixed = Arrays.copyOf(fixed, fixed.length * 2);
+        }
+        nodes[slot] = node;
+        renderables[slot] = node.getRenderable();
+        fixed[slot] = fixedBounds;
+        node.setRenderable(null);
+        slots.put(node, slot);
+    }
+
+    public int getVisibleCount() {
+        return culler.getVisibleCount();
+    }
+
+    @Override
+    public void onUpdate(FrameTime frameTime) {
+        Frame frame = arFragment.getArSceneView().getArFrame();
+        if (frame == null || slots.isEmpty()) {
+            return;
+        }
+        Camera camera = frame.getCamera();
+        if (camera.getTrackingState() != TrackingState.TRACKING) {
+            return;
+        }
+        camera.getProjectionMatrix(projection, 0, NEAR, far);
+        camera.getViewMatrix(view, 0);
+        frustum.setFromMatrices(projection, view);
+
+        for (int slot = 0; slot < nodes.length; slot++) {
+            Node node = nodes[slot];
+            if (node == null || fixed[slot]) {
+                continue;
+            }
+            // Anchors drift as tracking improves, and nodes get dragged around. The world matrix is
+            // read in place, where getWorldPosition() would allocate a Vector3 per node per frame
+            float[] world = node.getWorldModelMatrix().data;
+            culler.move(slot, world[12], world[13], world[14]);
+            culler.setPinned(slot, node instanceof TransformableNode && ((TransformableNode) node).isSelected());
+        }
+
+        // The camera sits at -R^T * t of the view matrix, which saves allocating its Pose
+        float cx = -(view[0] * view[12] + view[1] * view[13] + view[2] * view[14]);
+        float cy = -(view[4] * view[12] + view[5] * view[13] + view[6] * view[14]);
+        float cz = -(view[8] * view[12] + view[9] * view[13] + view[10] * view[14]);
+        culler.update(frustum, cx, cy, cz);
+
+        for (int i = 0; i < culler.getShownCount(); i++) {
+            int slot = culler.getShown(i);
+            nodes[slot].setRenderable(renderables[slot]);
+        }
+        for (int i = 0; i < culler.getHiddenCount(); i++) {
+            nodes[culler.getHidden(i)].setRenderable(null);
+        }
+    }
+
+    /**
+     * Bounding sphere of what a record draws, measured from its anchor: shapes sit 0.15f above
+     * the plane, and the sphere has to contain the whole box of the shape's extents.
+     */
+    public static float radiusOf(AnchorRecord record) {
+        float halfDiagonal = 0.5f * (float) Math.sqrt(record.sx * record.sx + record.sy * record.sy + record.sz * record.sz);
+        return 0.15f + halfDiagonal;
+    }
+}
@@ -0,0 +1,124 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.journal.AnchorJournal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending new anchors and drags of existing ones to the journal, and what startup costs with
+ * a journal of 100,000 entries: replaying it, and compacting it.
+ */
+public class AnchorJournalBenchmark {
+
+    private static final int ENTRIES = 100_000;
+
+    /** Same length as Firebase push keys. */
+    static String[] ids(int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = String.format("-Lb%017d", i);
+        }
+        return ids;
+    }
+
+    static AnchorRecord record() {
+        AnchorRecord record = new AnchorRecord().setPosition(1f, 0f, -2f).setSize(0.2f, 0.2f, 0.2f);
+        record.timestamp = 1_556_755_200_000L;
+        return record;
+    }
+
+    /** A journal started afresh for every iteration, so appends don't pile up across them. */
+    @State(Scope.Thread)
+    public static class Appending {
+        // Past this many puts in an iteration, "new" anchors are rewrites of the first ones
+        final String[] ids = ids(1_000_000);
+        final AnchorRecord record = record();
+        File file;
+        AnchorJournal journal;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            file = File.createTempFile("append", ".journal");
+            file.delete();
+            journal = AnchorJournal.open(file);
+            next = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            journal.close();
+            file.delete();
+        }
+    }
+
+    /** A journal of ENTRIES anchors on disk. */
+    @State(Scope.Thread)
+    public static class Written {
+        File file;
+
+        @Setup
+        public void write() throws IOException {
+            file = File.createTempFile("replay", ".journal");
+            file.delete();
+            AnchorRecord record = record();
+            String[] ids = ids(ENTRIES);
+            try (AnchorJournal journal = AnchorJournal.open(file)) {
+                for (int i = 0; i < ENTRIES; i++) {
+                    record.timestamp = i;
+                    journal.put(ids[i], record, false);
+                }
+            }
+        }
+
+        @TearDown
+        public void delete() throws IOException {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Benchmark
+    public int putNewAnchor(Appending state) throws IOException {
+        int n = state.next++;
+        state.record.timestamp = n;
+        state.journal.put(state.ids[n % state.ids.length], state.record, false);
+        return state.journal.size();
+    }
+
+    @Benchmark
+    public int putDragOf1kAnchors(Appending state) throws IOException {
+        int n = state.next++;
+        state.record.px = n;
+        state.journal.put(state.ids[n % 1_000], state.record, false);
+        return state.journal.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int replay(Written state) throws IOException {
+        try (AnchorJournal journal = AnchorJournal.open(state.file)) {
+            return journal.size();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long compact(Written state) throws IOException {
+        try (AnchorJournal journal = AnchorJournal.open(state.file)) {
+            journal.compact();
+            return journal.getUsedBytes();
+        }
+    }
+}
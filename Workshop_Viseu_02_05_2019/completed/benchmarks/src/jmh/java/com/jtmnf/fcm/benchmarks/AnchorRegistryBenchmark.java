@@ -0,0 +1,116 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.scene.AnchorRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scene model with 1M anchors against the obvious alternative, a list of records plus a map
+ * from id: a full pass over positions, id lookups, and churn (remove one anchor and add it back).
+ * The list's remove is an array shift, which is what the registry's swap-delete avoids.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnchorRegistryBenchmark {
+
+    private static final int ANCHORS = 1_000_000;
+    private static final float ROOM = 100f;
+
+    /** What a list-of-objects scene keeps per anchor. */
+    private static final class Entry {
+        final String id;
+        final AnchorRecord record = new AnchorRecord();
+
+        Entry(String id) {
+            this.id = id;
+        }
+    }
+
+    private final AnchorRecord record = new AnchorRecord().setSize(0.2f, 0.2f, 0.2f);
+    private final AnchorRegistry registry = new AnchorRegistry(ANCHORS);
+    private final List<Entry> list = new ArrayList<>(ANCHORS);
+    private final Map<String, Entry> byId = new HashMap<>(ANCHORS * 2);
+    private final String[] ids = new String[ANCHORS];
+    private final int[] lookups = new int[1 << 16];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < ANCHORS; i++) {
+            ids[i] = String.format("-Lb%017d", i);
+            registry.add(ids[i], record.setPosition(random.nextFloat() * ROOM, 1f, random.nextFloat() * ROOM));
+            Entry entry = new Entry(ids[i]);
+            entry.record.copyFrom(record);
+            list.add(entry);
+            byId.put(ids[i], entry);
+        }
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = random.nextInt(ANCHORS);
+        }
+    }
+
+    @Benchmark
+    public int registryPassOverPositions() {
+        int near = 0;
+        for (int i = 0; i < registry.size(); i++) {
+            float dx = registry.getX(i) - 50f;
+            float dz = registry.getZ(i) - 50f;
+            if (dx * dx + dz * dz < 400f) {
+                near++;
+            }
+        }
+        return near;
+    }
+
+    @Benchmark
+    public int listPassOverPositions() {
+        int near = 0;
+        for (int i = 0; i < list.size(); i++) {
+            AnchorRecord r = list.get(i).record;
+            float dx = r.px - 50f;
+            float dz = r.pz - 50f;
+            if (dx * dx + dz * dz < 400f) {
+                near++;
+            }
+        }
+        return near;
+    }
+
+    @Benchmark
+    public int registryLookup() {
+        return registry.indexOf(ids[lookups[next++ & (lookups.length - 1)]]);
+    }
+
+    @Benchmark
+    public long mapLookup() {
+        return byId.get(ids[lookups[next++ & (lookups.length - 1)]]).record.timestamp;
+    }
+
+    @Benchmark
+    public int registryRemoveAndAdd() {
+        String id = ids[next++ % ANCHORS];
+        registry.remove(id);
+        return registry.add(id, record);
+    }
+
+    @Benchmark
+    public int listRemoveAndAdd() {
+        Entry entry = byId.get(ids[next++ % ANCHORS]);
+        list.remove(entry);
+        list.add(entry);
+        return list.size();
+    }
+}
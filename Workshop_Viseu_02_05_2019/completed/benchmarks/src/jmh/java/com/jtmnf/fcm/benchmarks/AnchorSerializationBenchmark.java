@@ -0,0 +1,92 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The anchor payload written to and read from the database, against what the app wrote before
+ * the codec: transformableNode.toString(), which carries no pose and can't be decoded at all. A
+ * hand-built text form of the same fields shows what a readable format would cost instead.
+ */
+@State(Scope.Thread)
+public class AnchorSerializationBenchmark {
+
+    /** Sceneform's Node.toString(): its name around Object.toString(). */
+    private static final class LegacyNode {
+        private final String name = "Node";
+
+        @Override
+        public String toString() {
+            return name + "(" + super.toString() + ")";
+        }
+    }
+
+    private final AnchorCodec codec = new AnchorCodec();
+    private final AnchorRecord record = new AnchorRecord();
+    private final AnchorRecord decoded = new AnchorRecord();
+    private final byte[] buffer = new byte[AnchorCodec.RECORD_SIZE];
+    private final LegacyNode node = new LegacyNode();
+    private String base64;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        record.setPosition(1.25f, -0.5f, 3.75f).setRotation(0f, 0.38268343f, 0f, 0.9238795f)
+                .setSize(0.2f, 0.2f, 0.2f);
+        record.shape = ShapeType.CUBE;
+        record.color = 0xFFFF0000;
+        record.owner = 0x1234_5678_9ABC_DEF0L;
+        record.timestamp = 1_556_755_200_000L;
+        base64 = codec.toBase64(record);
+        AnchorCodec.encode(record, buffer, 0);
+    }
+
+    @Benchmark
+    public String legacyToString() {
+        return node.toString();
+    }
+
+    @Benchmark
+    public String textEncode() {
+        record.timestamp = ++timestamp;
+        return toText(record);
+    }
+
+    @Benchmark
+    public int binaryEncode() {
+        record.timestamp = ++timestamp;
+        return AnchorCodec.encode(record, buffer, 0);
+    }
+
+    @Benchmark
+    public AnchorRecord binaryDecode() {
+        return AnchorCodec.decode(buffer, 0, decoded);
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        record.timestamp = ++timestamp;
+        return codec.toBase64(record);
+    }
+
+    @Benchmark
+    public AnchorRecord base64Decode() {
+        return codec.fromBase64(base64, decoded);
+    }
+
+    private static String toText(AnchorRecord r) {
+        return "{\"p\":[" + r.px + "," + r.py + "," + r.pz + "],"
+                + "\"q\":[" + r.qx + "," + r.qy + "," + r.qz + "," + r.qw + "],"
+                + "\"shape\":\"" + r.shape + "\","
+                + "\"s\":[" + r.sx + "," + r.sy + "," + r.sz + "],"
+                + "\"color\":" + r.color + ","
+                + "\"owner\":" + r.owner + ","
+                + "\"t\":" + r.timestamp + "}";
+    }
+}
@@ -0,0 +1,51 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.metrics.LatencyHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Recording a sample, alone and together with the two System.nanoTime() reads that usually
+ * surround it, reading a percentile, and four threads recording into the same histogram.
+ */
+@State(Scope.Benchmark)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram histogram = new LatencyHistogram("bench");
+
+    /** Per thread, so the contended case only shares the histogram. */
+    @State(Scope.Thread)
+    public static class Sample {
+        long next;
+    }
+
+    @Benchmark
+    public long record(Sample sample) {
+        long nanos = sample.next++ * 977L;
+        histogram.record(nanos);
+        return nanos;
+    }
+
+    @Benchmark
+    public long nanoTimeAndRecordSince() {
+        long start = System.nanoTime();
+        histogram.recordSince(start);
+        return start;
+    }
+
+    @Benchmark
+    public long snapshotP99() {
+        return histogram.snapshot().getValueAt(0.99);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long recordFromFourThreads(Sample sample) {
+        long nanos = sample.next++ * 977L;
+        histogram.record(nanos);
+        return nanos;
+    }
+}
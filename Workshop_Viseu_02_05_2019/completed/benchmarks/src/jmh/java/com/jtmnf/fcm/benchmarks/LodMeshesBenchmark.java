@@ -0,0 +1,46 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.ShapeType;
+import com.jtmnf.fcm.mesh.LodMeshes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Generating spheres and cylinders at each level of detail, all levels of a new size at once
+ * (what a cache miss costs), and a cache hit. Sizes cycle through eight values, as a room of
+ * differently scaled shapes would.
+ */
+@State(Scope.Thread)
+public class LodMeshesBenchmark {
+
+    @Param({"SPHERE", "CYLINDER"})
+    public ShapeType shape;
+
+    @Param({"0", "1", "2", "3"})
+    public int level;
+
+    private final LodMeshes cache = new LodMeshes(0f, 0.15f, 0f);
+    private int next;
+
+    @Benchmark
+    public int build() {
+        float size = 0.2f + (next++ & 7) * 0.01f;
+        return LodMeshes.build(shape, size, size, size, level, 0f, 0.15f, 0f).vertexCount;
+    }
+
+    @Benchmark
+    public int allLevelsOfANewSize() {
+        LodMeshes meshes = new LodMeshes(0f, 0.15f, 0f);
+        float size = 0.2f + (next++ & 7) * 0.01f;
+        return meshes.get(shape, size, size, size, level).vertexCount;
+    }
+
+    @Benchmark
+    public int cachedLevel() {
+        float size = 0.2f + (next++ & 7) * 0.01f;
+        return cache.get(shape, size, size, size, level).vertexCount;
+    }
+}
@@ -0,0 +1,93 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+import com.jtmnf.fcm.mesh.MeshBatcher;
+import com.jtmnf.fcm.mesh.MeshData;
+import com.jtmnf.fcm.mesh.PrimitiveMeshes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging the meshes of rooms of 1k and 10k objects in four colors over 20m x 20m, with 2m
+ * cells: building every batch, moving one object within its cell (an in-place patch), and
+ * moving one across cells (a rebuild of the cell it left).
+ */
+@State(Scope.Thread)
+public class MeshBatcherBenchmark {
+
+    private static final float ROOM = 20f;
+    private static final float CELL = 2f;
+
+    @Param({"1000", "10000"})
+    public int objects;
+
+    private final Map<ShapeType, MeshData> meshes = new EnumMap<>(ShapeType.class);
+    private final MeshBatcher.MeshSource source = (record, level) -> meshes.get(record.shape);
+    private final AnchorRecord moved = new AnchorRecord();
+    private String[] ids;
+    private AnchorRecord[] records;
+    private MeshBatcher batcher;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (ShapeType shape : ShapeType.values()) {
+            meshes.put(shape, PrimitiveMeshes.forShape(shape, 0.2f, 0.2f, 0.2f, 0f, 0.15f, 0f));
+        }
+        Random random = new Random(objects);
+        ids = new String[objects];
+        records = new AnchorRecord[objects];
+        for (int i = 0; i < objects; i++) {
+            ids[i] = "a" + i;
+            records[i] = new AnchorRecord().setPosition(random.nextFloat() * ROOM, 0f, random.nextFloat() * ROOM)
+                    .setSize(0.2f, 0.2f, 0.2f);
+            records[i].shape = ShapeType.values()[i % 3];
+            records[i].color = i % 4;
+        }
+        batcher = buildAllBatches();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public MeshBatcher buildAllBatches() {
+        MeshBatcher built = new MeshBatcher(CELL, source);
+        for (int i = 0; i < objects; i++) {
+            built.put(ids[i], records[i]);
+        }
+        built.flush();
+        return built;
+    }
+
+    @Benchmark
+    public int moveWithinCell() {
+        int n = next % objects;
+        // Every other pass over the room lifts each object a little, so each put is a change
+        int pass = next++ / objects;
+        moved.copyFrom(records[n]);
+        moved.py = (pass & 1) * 0.01f;
+        batcher.put(ids[n], moved);
+        return batcher.flush();
+    }
+
+    @Benchmark
+    public int moveAcrossCells() {
+        int n = next % objects;
+        int pass = next++ / objects;
+        moved.copyFrom(records[n]);
+        // Alternate between the object's own cell and the one next to it
+        moved.px = (pass & 1) == 0 ? records[n].px : (records[n].px + CELL) % ROOM;
+        batcher.put(ids[n], moved);
+        return batcher.flush();
+    }
+}
@@ -0,0 +1,61 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.messaging.SceneEvent;
+import com.jtmnf.fcm.messaging.SceneMessageParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parsing FCM data payloads as MessagingService hands them over: a put carrying an encoded
+ * anchor, a remove, and a payload from an older build that has to be rejected.
+ */
+@State(Scope.Thread)
+public class MessageParsingBenchmark {
+
+    private final SceneMessageParser parser = new SceneMessageParser();
+    private final SceneEvent event = new SceneEvent();
+    private final Map<String, String> put = new HashMap<>();
+    private final Map<String, String> remove = new HashMap<>();
+    private final Map<String, String> legacy = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        AnchorRecord record = new AnchorRecord().setPosition(1f, 0f, -2f).setSize(0.2f, 0.2f, 0.2f);
+        record.timestamp = 1_556_755_200_000L;
+        put.put(SceneMessageParser.KEY_OP, SceneMessageParser.OP_PUT);
+        put.put(SceneMessageParser.KEY_ID, "-Lb00000000000000042");
+        put.put(SceneMessageParser.KEY_VALUE, new AnchorCodec().toBase64(record));
+        remove.put(SceneMessageParser.KEY_OP, SceneMessageParser.OP_REMOVE);
+        remove.put(SceneMessageParser.KEY_ID, "-Lb00000000000000042");
+        legacy.put(SceneMessageParser.KEY_OP, SceneMessageParser.OP_PUT);
+        legacy.put(SceneMessageParser.KEY_ID, "-Lb00000000000000042");
+        legacy.put(SceneMessageParser.KEY_VALUE, "Node(com.google.ar.sceneform.ux.TransformableNode@5c0a8d1)");
+    }
+
+    @Benchmark
+    public SceneEvent parsePut() {
+        return parser.parse(put, event);
+    }
+
+    @Benchmark
+    public SceneEvent parseRemove() {
+        return parser.parse(remove, event);
+    }
+
+    @Benchmark
+    public Object parseLegacyPayload() {
+        try {
+            return parser.parse(legacy, event);
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.paging.InMemoryCellDatabase;
+import com.jtmnf.fcm.paging.ProximityPager;
+import com.jtmnf.fcm.scene.AnchorRegistry;
+import com.jtmnf.fcm.spatial.AnchorSpatialIndex;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * One frame of a walk across a 100k-anchor room, 400m x 400m, corner to corner and back at
+ * walking pace and 60 frames a second: the pager's update, including the page-ins and page-outs
+ * of the frames that cross a cell and the scene updates they cause (the network isn't modeled).
+ * ProximityPagerReport in core's tests has the per-page-in times and the memory held.
+ */
+@State(Scope.Thread)
+public class ProximityPagerBenchmark {
+
+    private static final int ANCHORS = 100_000;
+    private static final float ROOM = 400f;
+    private static final float CELL = 8f;
+    private static final float STEP = (float) (1.4 / 60 / Math.sqrt(2));
+
+    private final InMemoryCellDatabase cells = new InMemoryCellDatabase(CELL);
+    private final AnchorSyncEngine engine = new AnchorSyncEngine();
+    private final ProximityPager pager = new ProximityPager(cells, CELL, 2, 36);
+    private float position = 1;
+    private float step = STEP;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        AnchorRecord record = new AnchorRecord();
+        for (int i = 0; i < ANCHORS; i++) {
+            record.setPosition(random.nextFloat() * ROOM, random.nextFloat() * 2, random.nextFloat() * ROOM);
+            record.timestamp = i;
+            cells.put(String.format("-a%06d", i), record);
+        }
+        // What MainActivity keeps per anchor, minus the nodes
+        engine.addSceneListener(new AnchorSpatialIndex(0.2f));
+        engine.addSceneListener(new AnchorRegistry(256));
+        engine.start(pager);
+        pager.update(position, position);
+    }
+
+    @Benchmark
+    public boolean walkFrame() {
+        if (position + step < 1 || position + step > ROOM - 1) {
+            step = -step;
+        }
+        position += step;
+        return pager.update(position, position);
+    }
+}
@@ -0,0 +1,80 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.crdt.AnchorChange;
+import com.jtmnf.fcm.crdt.ReplicatedAnchorSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Merging remote edits into rooms of 1k to 1M anchors: one field group per change, as a drag
+ * produces them, whole anchors, and changes already known. The time per merge should not grow
+ * with the room. Taking a snapshot for a newcomer is the one operation that does.
+ */
+@State(Scope.Thread)
+public class ReplicatedAnchorSetBenchmark {
+
+    private static final int REMOTE = 7;
+
+    @Param({"1000", "100000", "1000000"})
+    public int roomSize;
+
+    private final ReplicatedAnchorSet room = new ReplicatedAnchorSet(1);
+    private final AnchorChange change = new AnchorChange();
+    private String[] ids;
+    // Each merge carries a version newer than anything before, so it always wins
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        ids = new String[roomSize];
+        AnchorRecord record = new AnchorRecord().setSize(0.2f, 0.2f, 0.2f);
+        for (int i = 0; i < roomSize; i++) {
+            ids[i] = String.format("-Lb%017d", i);
+            room.put(ids[i], record.setPosition(i, 0f, 0f));
+        }
+        room.takeChanges();
+        counter = roomSize + 1L;
+        // Versions of 0, older than anything the room holds: what mergeDuplicate keeps sending
+        change.anchorId = ids[0];
+        change.mask = ReplicatedAnchorSet.ALL;
+    }
+
+    @Benchmark
+    public long mergePoseChange() {
+        change.anchorId = ids[(int) (counter * 7919 % roomSize)];
+        change.mask = 1 << ReplicatedAnchorSet.POSE;
+        change.versions[ReplicatedAnchorSet.POSE] = counter++ << 16 | REMOTE;
+        change.record.px = counter;
+        room.merge(change);
+        return room.getMergedGroupCount();
+    }
+
+    @Benchmark
+    public long mergeWholeAnchor() {
+        change.anchorId = ids[(int) (counter * 7919 % roomSize)];
+        change.mask = ReplicatedAnchorSet.ALL;
+        long version = counter++ << 16 | REMOTE;
+        change.versions[ReplicatedAnchorSet.POSE] = version;
+        change.versions[ReplicatedAnchorSet.SHAPE] = version;
+        change.versions[ReplicatedAnchorSet.COLOR] = version;
+        change.record.color = (int) counter;
+        room.merge(change);
+        return room.getMergedGroupCount();
+    }
+
+    @Benchmark
+    public long mergeDuplicate() {
+        room.merge(change);
+        return room.getIgnoredGroupCount();
+    }
+
+    @Benchmark
+    public int snapshot() {
+        return room.snapshot().size();
+    }
+}
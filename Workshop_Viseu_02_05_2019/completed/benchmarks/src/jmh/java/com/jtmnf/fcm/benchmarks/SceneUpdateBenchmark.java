@@ -0,0 +1,72 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.scene.AnchorRegistry;
+import com.jtmnf.fcm.spatial.AnchorSpatialIndex;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One anchor update arriving while the room holds many others, applied the way the activity
+ * wires it: through the sync engine into the spatial index and the scene model. The time should
+ * not grow with the room.
+ */
+@State(Scope.Thread)
+public class SceneUpdateBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int roomSize;
+
+    private final AnchorSyncEngine engine = new AnchorSyncEngine();
+    private final AnchorRecord record = new AnchorRecord();
+    private String[] ids;
+    // Two values per anchor, so every update is a real change
+    private String[] values;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        engine.addSceneListener(new AnchorSpatialIndex(0.2f));
+        engine.addSceneListener(new AnchorRegistry(roomSize));
+        AnchorCodec codec = new AnchorCodec();
+        ids = new String[roomSize];
+        for (int i = 0; i < roomSize; i++) {
+            ids[i] = String.format("-Lb%017d", i);
+            record.setPosition(i % 100, 0f, i / 100f).setSize(0.2f, 0.2f, 0.2f);
+            engine.onAdded(ids[i], codec.toBase64(record));
+        }
+        values = new String[2];
+        values[0] = codec.toBase64(record.setPosition(1f, 0f, 1f));
+        values[1] = codec.toBase64(record.setPosition(1f, 0f, 1.05f));
+    }
+
+    @Benchmark
+    public long childChanged() {
+        int n = next++;
+        engine.onChanged(ids[n % roomSize], values[(n / roomSize) & 1]);
+        return engine.getSceneUpdateCount();
+    }
+
+    @Benchmark
+    public long changedThenEchoed() {
+        int n = next++;
+        String id = ids[n % roomSize];
+        engine.onChanged(id, values[0]);
+        engine.onChanged(id, values[0]);
+        return engine.getIgnoredCount();
+    }
+
+    @Benchmark
+    public long pushedRestore() {
+        int n = next++;
+        record.pz = n;
+        engine.restore(ids[n % roomSize], record);
+        return engine.getSceneUpdateCount();
+    }
+}
@@ -0,0 +1,54 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.trace.HeadlessSession;
+import com.jtmnf.fcm.trace.SessionReplayer;
+import com.jtmnf.fcm.trace.SyntheticTrace;
+import com.jtmnf.fcm.trace.TraceReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replaying a whole session trace through a {@link HeadlessSession} as fast as it goes. By
+ * default the trace is a generated 10 minute session; a trace pulled from a device can be given
+ * with JMH's -p trace=&lt;file&gt;. SessionReplayReport in core's tests breaks the time down by
+ * event.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionReplayBenchmark {
+
+    private static final String SYNTHETIC = "synthetic";
+
+    // Or the path of a trace file
+    @Param(SYNTHETIC)
+    public String trace;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        bytes = SYNTHETIC.equals(trace)
+                ? SyntheticTrace.generate(1, 10 * 60_000)
+                : Files.readAllBytes(Paths.get(trace));
+    }
+
+    @Benchmark
+    public long replayWholeTrace() throws IOException, InterruptedException {
+        HeadlessSession session = new HeadlessSession();
+        new SessionReplayer(SessionReplayer.Clock.SYSTEM).replay(
+                new TraceReader(new ByteArrayInputStream(bytes)), session, 0);
+        session.finish();
+        return session.getWriteCallCount();
+    }
+}
@@ -0,0 +1,94 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.spatial.SpatialHashGrid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Move, radius and k-nearest queries on the spatial hash grid at 1k, 100k and 1M points spread
+ * over a 100m x 3m x 100m room, next to the linear scan a scene-graph walk amounts to.
+ */
+@State(Scope.Thread)
+public class SpatialHashGridBenchmark {
+
+    private static final float ROOM = 100f;
+    private static final float CELL = 0.5f;
+    private static final int QUERIES = 1 << 16;
+
+    @Param({"1000", "100000", "1000000"})
+    public int points;
+
+    private final float[] qx = new float[QUERIES];
+    private final float[] qz = new float[QUERIES];
+    private final int[] out = new int[1024];
+    private float[] xs;
+    private float[] ys;
+    private float[] zs;
+    private SpatialHashGrid grid;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(points);
+        xs = new float[points];
+        ys = new float[points];
+        zs = new float[points];
+        grid = new SpatialHashGrid(CELL, points);
+        for (int i = 0; i < points; i++) {
+            xs[i] = random.nextFloat() * ROOM;
+            ys[i] = random.nextFloat() * 3f;
+            zs[i] = random.nextFloat() * ROOM;
+            grid.insert(xs[i], ys[i], zs[i]);
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            qx[i] = random.nextFloat() * ROOM;
+            qz[i] = random.nextFloat() * ROOM;
+        }
+    }
+
+    @Benchmark
+    public int moveByFiveCentimeters() {
+        int n = next++;
+        int h = n % points;
+        grid.move(h, xs[h] + (n / points & 1) * 0.05f, ys[h], zs[h]);
+        return h;
+    }
+
+    @Benchmark
+    public boolean anyWithinTenCentimeters() {
+        int q = next++ & (QUERIES - 1);
+        return grid.anyWithin(qx[q], 1.5f, qz[q], 0.1f);
+    }
+
+    @Benchmark
+    public int queryRadiusOneMeter() {
+        int q = next++ & (QUERIES - 1);
+        return grid.queryRadius(qx[q], 1.5f, qz[q], 1f, out);
+    }
+
+    @Benchmark
+    public int nearestEight() {
+        int q = next++ & (QUERIES - 1);
+        return grid.nearest(qx[q], 1.5f, qz[q], 8, out);
+    }
+
+    @Benchmark
+    public boolean linearScanAnyWithinTenCentimeters() {
+        int q = next++ & (QUERIES - 1);
+        float x = qx[q];
+        float z = qz[q];
+        for (int p = 0; p < points; p++) {
+            float dx = xs[p] - x, dy = ys[p] - 1.5f, dz = zs[p] - z;
+            if (dx * dx + dy * dy + dz * dz <= 0.01f) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
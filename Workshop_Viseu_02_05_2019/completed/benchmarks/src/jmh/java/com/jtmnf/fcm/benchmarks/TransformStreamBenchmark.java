@@ -0,0 +1,43 @@
+package com.jtmnf.fcm.benchmarks;
+
+import com.jtmnf.fcm.stream.Transform;
+import com.jtmnf.fcm.stream.TransformEncoder;
+import com.jtmnf.fcm.stream.TransformQuantizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The sending side of a gesture stream, once per 16 ms frame: quantizing a moving node's
+ * transform, delta-encoding it against the last acknowledged packet, and the acknowledgement.
+ * The encoder sends on every call here, so each one does the whole job.
+ */
+@State(Scope.Thread)
+public class TransformStreamBenchmark {
+
+    private static final long FRAME_MILLIS = 16;
+    private static final long START = 1_556_755_200_000L;
+
+    private final TransformEncoder encoder =
+            new TransformEncoder(new TransformQuantizer(0.001f, 10, 0.005f), 0, 1_000);
+    private final Transform transform = new Transform();
+    private final byte[] packet = new byte[TransformEncoder.MAX_PACKET_SIZE];
+    private long frame;
+
+    @Benchmark
+    public int encodeAndAcknowledge() {
+        long millis = frame++ * FRAME_MILLIS;
+        // A hand dragging and twisting the node
+        double t = millis / 1000.0;
+        double angle = 1.5 * Math.sin(t * 0.9);
+        float scale = (float) (1 + 0.3 * Math.sin(t * 0.7));
+        transform.setPosition((float) (0.8 * Math.sin(t * 1.3)), (float) (0.2 * Math.sin(t * 0.4)),
+                (float) (-1.5 + 0.5 * Math.cos(t * 1.1)))
+                .setRotation(0f, (float) Math.sin(angle / 2), 0f, (float) Math.cos(angle / 2))
+                .setScale(scale, scale, scale);
+        int len = encoder.encode(START + millis, transform, packet, 0);
+        encoder.acknowledge(encoder.getLastSeq());
+        return len;
+    }
+}
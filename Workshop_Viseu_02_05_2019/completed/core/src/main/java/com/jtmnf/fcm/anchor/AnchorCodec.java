@@ -0,0 +1,252 @@
+package com.jtmnf.fcm.anchor;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-layout binary codec for {@link AnchorRecord}, plus a base64 form that can be stored as a
+ * Realtime Database string value.
+ *
+ * <p>Layout (big-endian, {@value #RECORD_SIZE} bytes):
+ * <pre>
+ *   0  version   byte
+ *   1  shape     byte
+ *   2  position  3 x float
+ *  14  rotation  4 x float
+ *  30  size      3 x float
+ *  42  color     int
+ *  46  owner     long
+ *  54  timestamp long
+ * </pre>
+ *
+ * <p>The static methods never allocate. An instance keeps its own scratch buffers for the base64
+ * helpers, so it must not be shared between threads.
+ *
+ * <p>Base64 is implemented here because java.util.Base64 needs API 26 and we support 24.
+ */
+public final class AnchorCodec {
+
+    public static final int VERSION = 1;
+    public static final int RECORD_SIZE = 62;
+    public static final int BASE64_LENGTH = (RECORD_SIZE + 2) / 3 * 4;
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private final byte[] bytes = new byte[RECORD_SIZE];
+    private final char[] chars = new char[BASE64_LENGTH];
+
+    // ------------------------
+    // -------- Binary --------
+    // ------------------------
+
+    /**
+     * Writes the record into dst at offset.
+     *
+     * @return offset just past the written record
+     */
+    public static int encode(AnchorRecord record, byte[] dst, int offset) {
+        int p = offset;
+        dst[p++] = VERSION;
+        dst[p++] = record.shape.code;
+        p = putFloat(dst, p, record.px);
+        p = putFloat(dst, p, record.py);
+        p = putFloat(dst, p, record.pz);
+        p = putFloat(dst, p, record.qx);
+        p = putFloat(dst, p, record.qy);
+        p = putFloat(dst, p, record.qz);
+        p = putFloat(dst, p, record.qw);
+        p = putFloat(dst, p, record.sx);
+        p = putFloat(dst, p, record.sy);
+        p = putFloat(dst, p, record.sz);
+        p = putInt(dst, p, record.color);
+        p = putLong(dst, p, record.owner);
+        p = putLong(dst, p, record.timestamp);
+        return p;
+    }
+
+    /**
+     * Reads a record written by {@link #encode} into an existing instance.
+     *
+     * @throws IllegalArgumentException if the version or shape code is unknown
+     */
+    public static AnchorRecord decode(byte[] src, int offset, AnchorRecord into) {
+        if (src[offset] != VERSION) {
+            throw new IllegalArgumentException("Unsupported anchor record version " + src[offset]);
+        }
+        int p = offset + 1;
+        into.shape = ShapeType.fromCode(src[p++]);
+        into.px = getFloat(src, p);
+        into.py = getFloat(src, p + 4);
+        into.pz = getFloat(src, p + 8);
+        into.qx = getFloat(src, p + 12);
+        into.qy = getFloat(src, p + 16);
+        into.qz = getFloat(src, p + 20);
+        into.qw = getFloat(src, p + 24);
+        into.sx = getFloat(src, p + 28);
+        into.sy = getFloat(src, p + 32);
+        into.sz = getFloat(src, p + 36);
+        into.color = getInt(src, p + 40);
+        into.owner = getLong(src, p + 44);
+        into.timestamp = getLong(src, p + 52);
+        return into;
+    }
+
+    // ------------------------
+    // -------- Base64 --------
+    // ------------------------
+
+    /**
+     * Encodes a record as a {@value #BASE64_LENGTH} character string for the database.
+     * The returned String is the only allocation.
+     */
+    public String toBase64(AnchorRecord record) {
+        encode(record, bytes, 0);
+        encodeBase64(bytes, 0, RECORD_SIZE, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Decodes a string produced by {@link #toBase64} into an existing instance.
+     *
+     * @throws IllegalArgumentException if the value is not a valid encoded record
+     */
+    public AnchorRecord fromBase64(CharSequence value, AnchorRecord into) {
+        if (value == null || value.length() != BASE64_LENGTH) {
+            throw new IllegalArgumentException("Not an encoded anchor record: " + value);
+        }
+        // Checked before decoding too, but a shorter record would leave stale bytes behind
+        if (decodedLength(value) != RECORD_SIZE) {
+            throw new IllegalArgumentException("Not an encoded anchor record: " + value);
+        }
+        decodeBase64(value, bytes, 0);
+        return decode(bytes, 0, into);
+    }
+
+    /** Writes (len + 2) / 3 * 4 padded base64 characters into dst. */
+    public static void encodeBase64(byte[] src, int offset, int len, char[] dst, int dstOffset) {
+        int end = offset + len;
+        int d = dstOffset;
+        int s = offset;
+        while (end - s >= 3) {
+            int bits = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8 | (src[s + 2] & 0xff);
+            dst[d++] = ALPHABET[bits >>> 18];
+            dst[d++] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d++] = ALPHABET[(bits >>> 6) & 0x3f];
+            dst[d++] = ALPHABET[bits & 0x3f];
+            s += 3;
+        }
+        int rest = end - s;
+        if (rest > 0) {
+            int bits = (src[s] & 0xff) << 16 | (rest == 2 ? (src[s + 1] & 0xff) << 8 : 0);
+            dst[d++] = ALPHABET[bits >>> 18];
+            dst[d++] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d++] = rest == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : '=';
+            dst[d] = '=';
+        }
+    }
+
+    /**
+     * Decodes padded base64 characters into dst.
+     *
+     * @return number of bytes written
+     * @throws IllegalArgumentException on characters outside the alphabet, a bad length, or more
+     *                                  bytes than fit in dst
+     */
+    public static int decodeBase64(CharSequence src, byte[] dst, int dstOffset) {
+        int len = src.length();
+        int decoded = decodedLength(src);
+        if (decoded > dst.length - dstOffset) {
+            throw new IllegalArgumentException("Base64 value decodes to " + decoded + " bytes, room for "
+                    + (dst.length - dstOffset));
+        }
+        int d = dstOffset;
+        for (int s = 0; s < len; s += 4) {
+            int c0 = sextet(src.charAt(s));
+            int c1 = sextet(src.charAt(s + 1));
+            char ch2 = src.charAt(s + 2);
+            char ch3 = src.charAt(s + 3);
+            boolean last = s + 4 == len;
+            int bits = c0 << 18 | c1 << 12;
+            dst[d++] = (byte) (bits >>> 16);
+            if (last && ch2 == '=') {
+                if (ch3 != '=') {
+                    throw new IllegalArgumentException("Bad base64 padding");
+                }
+                break;
+            }
+            bits |= sextet(ch2) << 6;
+            dst[d++] = (byte) (bits >>> 8);
+            if (last && ch3 == '=') {
+                break;
+            }
+            bits |= sextet(ch3);
+            dst[d++] = (byte) bits;
+        }
+        return d - dstOffset;
+    }
+
+    /** Bytes that padded base64 characters decode to, going by their length and padding. */
+    private static int decodedLength(CharSequence src) {
+        int len = src.length();
+        if (len % 4 != 0) {
+            throw new IllegalArgumentException("Base64 length must be a multiple of 4, got " + len);
+        }
+        int padding = 0;
+        if (len > 0 && src.charAt(len - 1) == '=') {
+            padding = src.charAt(len - 2) == '=' ? 2 : 1;
+        }
+        return len / 4 * 3 - padding;
+    }
+
+    private static int sextet(char c) {
+        int v = c < 128 ? DECODE[c] : -1;
+        if (v < 0) {
+            throw new IllegalArgumentException("Invalid base64 character '" + c + "'");
+        }
+        return v;
+    }
+
+    // ----------------------------
+    // -------- Primitives --------
+    // ----------------------------
+
+    private static int putFloat(byte[] dst, int p, float value) {
+        return putInt(dst, p, Float.floatToRawIntBits(value));
+    }
+
+    private static int putInt(byte[] dst, int p, int value) {
+        dst[p] = (byte) (value >>> 24);
+        dst[p + 1] = (byte) (value >>> 16);
+        dst[p + 2] = (byte) (value >>> 8);
+        dst[p + 3] = (byte) value;
+        return p + 4;
+    }
+
+    private static int putLong(byte[] dst, int p, long value) {
+        putInt(dst, p, (int) (value >>> 32));
+        return putInt(dst, p + 4, (int) value);
+    }
+
+    private static float getFloat(byte[] src, int p) {
+        return Float.intBitsToFloat(getInt(src, p));
+    }
+
+    private static int getInt(byte[] src, int p) {
+        return (src[p] & 0xff) << 24
+                | (src[p + 1] & 0xff) << 16
+                | (src[p + 2] & 0xff) << 8
+                | (src[p + 3] & 0xff);
+    }
+
+    private static long getLong(byte[] src, int p) {
+        return (long) getInt(src, p) << 32 | (getInt(src, p + 4) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,126 @@
+package com.jtmnf.fcm.anchor;
+
+/**
+ * Everything needed to rebuild a placed object on another device: the world pose of its anchor
+ * and what was drawn on top of it.
+ *
+ * <p>Fields are public and mutable, like Sceneform's Vector3, so a single instance can be reused
+ * for every encode/decode instead of allocating one per tap or per database update.
+ */
+public final class AnchorRecord {
+
+    // World position, in meters
+    public float px, py, pz;
+
+    // World rotation, as a unit quaternion
+    public float qx, qy, qz, qw = 1f;
+
+    public ShapeType shape = ShapeType.SPHERE;
+
+    // Bounding box extents of the shape, in meters
+    public float sx, sy, sz;
+
+    // ARGB, as in android.graphics.Color
+    public int color;
+
+    // Id of the device that placed the object
+    public long owner;
+
+    // Milliseconds since the epoch
+    public long timestamp;
+
+    public AnchorRecord setPosition(float x, float y, float z) {
+        px = x;
+        py = y;
+        pz = z;
+        return this;
+    }
+
+    public AnchorRecord setRotation(float x, float y, float z, float w) {
+        qx = x;
+        qy = y;
+        qz = z;
+        qw = w;
+        return this;
+    }
+
+    public AnchorRecord setSize(float x, float y, float z) {
+        sx = x;
+        sy = y;
+        sz = z;
+        return this;
+    }
+
+    public AnchorRecord copyFrom(AnchorRecord other) {
+        px = other.px;
+        py = other.py;
+        pz = other.pz;
+        qx = other.qx;
+        qy = other.qy;
+        qz = other.qz;
+        qw = other.qw;
+        shape = other.shape;
+        sx = other.sx;
+        sy = other.sy;
+        sz = other.sz;
+        color = other.color;
+        owner = other.owner;
+        timestamp = other.timestamp;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AnchorRecord)) {
+            return false;
+        }
+        AnchorRecord other = (AnchorRecord) o;
+        return Float.compare(px, other.px) == 0
+                && Float.compare(py, other.py) == 0
+                && Float.compare(pz, other.pz) == 0
+                && Float.compare(qx, other.qx) == 0
+                && Float.compare(qy, other.qy) == 0
+                && Float.compare(qz, other.qz) == 0
+                && Float.compare(qw, other.qw) == 0
+                && shape == other.shape
+                && Float.compare(sx, other.sx) == 0
+                && Float.compare(sy, other.sy) == 0
+                && Float.compare(sz, other.sz) == 0
+                && color == other.color
+                && owner == other.owner
+                && timestamp == other.timestamp;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(px);
+        result = 31 * result + Float.floatToIntBits(py);
+        result = 31 * result + Float.floatToIntBits(pz);
+        result = 31 * result + Float.floatToIntBits(qx);
+        result = 31 * result + Float.floatToIntBits(qy);
+        result = 31 * result + Float.floatToIntBits(qz);
+        result = 31 * result + Float.floatToIntBits(qw);
+        result = 31 * result + shape.hashCode();
+        result = 31 * result + Float.floatToIntBits(sx);
+        result = 31 * result + Float.floatToIntBits(sy);
+        result = 31 * result + Float.floatToIntBits(sz);
+        result = 31 * result + color;
+        result = 31 * result + Long.hashCode(owner);
+        result = 31 * result + Long.hashCode(timestamp);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "AnchorRecord{" + shape
+                + " at (" + px + ", " + py + ", " + pz + ")"
+                + " rot (" + qx + ", " + qy + ", " + qz + ", " + qw + ")"
+                + " size (" + sx + ", " + sy + ", " + sz + ")"
+                + " color #" + Integer.toHexString(color)
+                + " owner " + Long.toHexString(owner)
+                + " at " + timestamp + "}";
+    }
+}
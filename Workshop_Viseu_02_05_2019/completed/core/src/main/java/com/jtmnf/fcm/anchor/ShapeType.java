@@ -0,0 +1,39 @@
+package com.jtmnf.fcm.anchor;
+
+/**
+ * Shapes that can be placed in the scene.
+ *
+ * <p>The code is what gets written to the database, so never reorder or reuse codes.
+ */
+public enum ShapeType {
+    SPHERE(1),
+    CUBE(2),
+    CYLINDER(3);
+
+    private static final ShapeType[] BY_CODE = new ShapeType[4];
+
+    static {
+        for (ShapeType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    public final byte code;
+
+    ShapeType(int code) {
+        this.code = (byte) code;
+    }
+
+    /**
+     * Looks up a shape by its wire code without allocating.
+     *
+     * @param code - code written by {@link AnchorCodec}
+     * @throws IllegalArgumentException if no shape has that code
+     */
+    public static ShapeType fromCode(int code) {
+        if (code <= 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IllegalArgumentException("Unknown shape code " + code);
+        }
+        return BY_CODE[code];
+    }
+}
@@ -0,0 +1,24 @@
+package com.jtmnf.fcm.cloud;
+
+/**
+ * The ARCore Cloud Anchor calls the queue needs. On the device this wraps Session.hostCloudAnchor
+ * and resolveCloudAnchor; tests use a fake with made-up latency and failures.
+ *
+ * <p>Callbacks must arrive on the thread the queue is used from.
+ */
+public interface CloudAnchorBackend {
+
+    interface Callback {
+        /**
+         * @param cloudAnchorId - the id the anchor was hosted under or resolved from; null on error
+         * @param error         - null on success; a {@link CloudAnchorException} says whether to retry
+         */
+        void onComplete(String cloudAnchorId, Exception error);
+    }
+
+    /** Uploads the local anchor known by this id. */
+    void host(String anchorId, Callback callback);
+
+    /** Finds a hosted anchor and creates it in this session. */
+    void resolve(String cloudAnchorId, Callback callback);
+}
@@ -0,0 +1,22 @@
+package com.jtmnf.fcm.cloud;
+
+/** A failed host or resolve, and whether trying again could help. */
+public class CloudAnchorException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean retryable;
+
+    /**
+     * @param retryable - false for errors that will repeat, such as a missing API key or an
+     *                  unknown cloud anchor id; true for timeouts, quotas and tracking trouble
+     */
+    public CloudAnchorException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,337 @@
+package com.jtmnf.fcm.cloud;
+
+import com.jtmnf.fcm.util.Backoff;
+import com.jtmnf.fcm.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Hosts and resolves Cloud Anchors with a bounded number of operations in flight.
+ *
+ * <p>Requests wait in a queue; whenever a slot frees up, the one nearest to the viewer goes next,
+ * so what the user is looking at gets shared (or shows up) first. Asking again for an anchor that
+ * is already queued, running or done is a no-op apart from updating its position.
+ *
+ * <p>A failed operation is retried after an exponential backoff with jitter: the delay for the
+ * n-th retry is drawn from [cap / 2, cap], cap being base * 2^(n - 1) up to a maximum, so a
+ * burst of failures doesn't come back as a burst of retries. Errors marked as not retryable, and
+ * operations that run out of attempts, are reported to the listener.
+ *
+ * <p>Not thread-safe: call it from the main thread, and have the scheduler and backend callbacks
+ * run there too.
+ */
+public class CloudAnchorQueue {
+
+    public enum Kind {
+        HOST, RESOLVE
+    }
+
+    public interface Listener {
+        void onHosted(String anchorId, String cloudAnchorId);
+
+        void onResolved(String cloudAnchorId);
+
+        /**
+         * An operation gave up.
+         *
+         * @param key - the anchor id for a host, the cloud anchor id for a resolve
+         */
+        void onFailed(Kind kind, String key, Exception error);
+    }
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int BACKING_OFF = 2;
+    private static final int DONE = 3;
+
+    private static final class Operation {
+        final Kind kind;
+        final String key;
+        float x, y, z;
+        int state;
+        int attempts;
+        // Bumped on cancel, so a late callback or retry timer for the old request does nothing
+        int generation;
+        String cloudAnchorId;
+
+        Operation(Kind kind, String key) {
+            this.kind = kind;
+            this.key = key;
+        }
+    }
+
+    private final CloudAnchorBackend backend;
+    private final Scheduler scheduler;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final Backoff backoff;
+
+    private final Map<String, Operation> hosts = new HashMap<>();
+    private final Map<String, Operation> resolves = new HashMap<>();
+    private final List<Operation> queued = new ArrayList<>();
+    private Listener listener;
+    private float viewerX, viewerY, viewerZ;
+    private int inFlight;
+    private int backingOff;
+    private boolean dispatching;
+
+    private long requests;
+    private long deduped;
+    private long calls;
+    private long retries;
+    private long succeeded;
+    private long failed;
+
+    /**
+     * @param maxInFlight       - operations the backend may be running at once
+     * @param maxAttempts       - calls per operation before it is reported as failed
+     * @param baseBackoffMillis - cap of the delay before the first retry
+     * @param maxBackoffMillis  - largest cap, however many retries
+     * @param random            - source of jitter; pass a seeded one for repeatable tests
+     */
+    public CloudAnchorQueue(CloudAnchorBackend backend, Scheduler scheduler, int maxInFlight, int maxAttempts,
+                            long baseBackoffMillis, long maxBackoffMillis, Random random) {
+        if (maxInFlight < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxAttempts must be >= 1");
+        }
+        this.backend = backend;
+        this.scheduler = scheduler;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.backoff = new Backoff(baseBackoffMillis, maxBackoffMillis, random);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Where the user is; queued operations nearest to it go first. */
+    public void setViewerPosition(float x, float y, float z) {
+        viewerX = x;
+        viewerY = y;
+        viewerZ = z;
+    }
+
+    /**
+     * Hosts a local anchor at the given position.
+     *
+     * @return false if this anchor is already queued, being hosted or hosted
+     */
+    public boolean host(String anchorId, float x, float y, float z) {
+        return submit(hosts, Kind.HOST, anchorId, x, y, z);
+    }
+
+    /**
+     * Resolves a cloud anchor expected near the given position (the last one it was seen at).
+     *
+     * @return false if this cloud anchor is already queued, being resolved or resolved
+     */
+    public boolean resolve(String cloudAnchorId, float x, float y, float z) {
+        return submit(resolves, Kind.RESOLVE, cloudAnchorId, x, y, z);
+    }
+
+    /**
+     * Drops an operation, whatever its state; a result still on its way is ignored. Asking for
+     * it again afterwards starts over.
+     */
+    public void cancel(Kind kind, String key) {
+        Operation op = (kind == Kind.HOST ? hosts : resolves).remove(key);
+        if (op == null) {
+            return;
+        }
+        op.generation++;
+        if (op.state == QUEUED) {
+            queued.remove(op);
+        } else if (op.state == BACKING_OFF) {
+            backingOff--;
+        } else if (op.state == RUNNING) {
+            // The slot stays taken until the backend answers
+            op.state = DONE;
+        }
+    }
+
+    /** @return the id the anchor was hosted under, or null if it isn't hosted (yet) */
+    public String getCloudAnchorId(String anchorId) {
+        Operation op = hosts.get(anchorId);
+        return op == null ? null : op.cloudAnchorId;
+    }
+
+    public boolean isResolved(String cloudAnchorId) {
+        Operation op = resolves.get(cloudAnchorId);
+        return op != null && op.state == DONE;
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private boolean submit(Map<String, Operation> ops, Kind kind, String key, float x, float y, float z) {
+        requests++;
+        Operation op = ops.get(key);
+        if (op != null) {
+            deduped++;
+            op.x = x;
+            op.y = y;
+            op.z = z;
+            return false;
+        }
+        op = new Operation(kind, key);
+        op.x = x;
+        op.y = y;
+        op.z = z;
+        ops.put(key, op);
+        op.state = QUEUED;
+        queued.add(op);
+        dispatch();
+        return true;
+    }
+
+    private void dispatch() {
+        // A backend that answers synchronously calls back into here; the outer loop carries on
+        if (dispatching) {
+            return;
+        }
+        dispatching = true;
+        try {
+            while (inFlight < maxInFlight && !queued.isEmpty()) {
+                Operation op = queued.remove(nearest());
+                start(op);
+            }
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    private int nearest() {
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < queued.size(); i++) {
+            Operation op = queued.get(i);
+            float dx = op.x - viewerX;
+            float dy = op.y - viewerY;
+            float dz = op.z - viewerZ;
+            float distance = dx * dx + dy * dy + dz * dz;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void start(Operation op) {
+        op.state = RUNNING;
+        op.attempts++;
+        inFlight++;
+        calls++;
+        int generation = op.generation;
+        CloudAnchorBackend.Callback callback = (cloudAnchorId, error) -> onComplete(op, generation, cloudAnchorId, error);
+        if (op.kind == Kind.HOST) {
+            backend.host(op.key, callback);
+        } else {
+            backend.resolve(op.key, callback);
+        }
+    }
+
+    private void onComplete(Operation op, int generation, String cloudAnchorId, Exception error) {
+        inFlight--;
+        if (generation != op.generation) {
+            // Cancelled while running
+            dispatch();
+            return;
+        }
+        if (error == null) {
+            op.state = DONE;
+            op.cloudAnchorId = cloudAnchorId;
+            succeeded++;
+            if (listener != null) {
+                if (op.kind == Kind.HOST) {
+                    listener.onHosted(op.key, cloudAnchorId);
+                } else {
+                    listener.onResolved(op.key);
+                }
+            }
+        } else if (op.attempts < maxAttempts
+                && !(error instanceof CloudAnchorException && !((CloudAnchorException) error).isRetryable())) {
+            op.state = BACKING_OFF;
+            backingOff++;
+            scheduler.schedule(() -> retry(op, generation), backoffMillis(op.attempts));
+        } else {
+            // Forget it, so it can be asked for again
+            (op.kind == Kind.HOST ? hosts : resolves).remove(op.key);
+            op.state = DONE;
+            failed++;
+            if (listener != null) {
+                listener.onFailed(op.kind, op.key, error);
+            }
+        }
+        dispatch();
+    }
+
+    private void retry(Operation op, int generation) {
+        if (generation != op.generation) {
+            return;
+        }
+        backingOff--;
+        retries++;
+        op.state = QUEUED;
+        queued.add(op);
+        dispatch();
+    }
+
+    /** Delay before the retry that follows this many attempts. */
+    long backoffMillis(int attempts) {
+        return backoff.delayMillis(attempts);
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** Operations calling the backend right now. */
+    public int getInFlightCount() {
+        return inFlight;
+    }
+
+    /** Operations waiting for a slot. */
+    public int getQueuedCount() {
+        return queued.size();
+    }
+
+    /** Failed operations waiting to be retried. */
+    public int getBackingOffCount() {
+        return backingOff;
+    }
+
+    /** host and resolve calls made to the queue. */
+    public long getRequestCount() {
+        return requests;
+    }
+
+    /** Requests for something already queued, running or done. */
+    public long getDedupedCount() {
+        return deduped;
+    }
+
+    /** Calls made to the backend, retries included. */
+    public long getCallCount() {
+        return calls;
+    }
+
+    public long getRetryCount() {
+        return retries;
+    }
+
+    public long getSucceededCount() {
+        return succeeded;
+    }
+
+    /** Operations reported as failed to the listener. */
+    public long getFailedCount() {
+        return failed;
+    }
+}
@@ -0,0 +1,44 @@
+package com.jtmnf.fcm.crdt;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+/**
+ * What one replica knows about one anchor, limited to the fields it is passing on: each field
+ * group in the mask comes with the version it was written at, and a removal with its own.
+ * Changes are the unit {@link ReplicatedAnchorSet} sends and merges.
+ */
+public final class AnchorChange {
+
+    public String anchorId;
+
+    // Field groups of ReplicatedAnchorSet present in this change
+    public int mask;
+
+    // Version per field group, for the groups in the mask
+    public final long[] versions = new long[ReplicatedAnchorSet.FIELD_GROUPS];
+
+    // Version of the latest removal, or 0 if none is known
+    public long removed;
+
+    // Values of the groups in the mask; the rest is meaningless
+    public final AnchorRecord record = new AnchorRecord();
+
+    public AnchorChange copyFrom(AnchorChange other) {
+        anchorId = other.anchorId;
+        mask = other.mask;
+        System.arraycopy(other.versions, 0, versions, 0, versions.length);
+        removed = other.removed;
+        record.copyFrom(other.record);
+        return this;
+    }
+
+    /** Number of field groups carried, plus one for a removal; a measure of the change's size. */
+    public int size() {
+        return Integer.bitCount(mask) + (removed != 0 ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "AnchorChange{" + anchorId + " mask " + Integer.toBinaryString(mask) + " removed " + removed + "}";
+    }
+}
@@ -0,0 +1,316 @@
+package com.jtmnf.fcm.crdt;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The room's anchors as a state-based CRDT, so devices can edit concurrently and still end up
+ * with the same scene, without locks, transactions or a server deciding the order.
+ *
+ * <p>Each anchor is split into field groups ({@link #POSE}, {@link #SHAPE}, {@link #COLOR}), and
+ * each group is a last-writer-wins register stamped with a version: a Lamport counter in the high
+ * bits and the writing replica's id in the low 16, so no two writes share a version and every
+ * replica orders them the same way. One device moving an anchor while another recolors it keeps
+ * both edits. A removal is stamped the same way; an anchor is visible once its pose and shape
+ * are known, while its newest field write is newer than its newest removal. An edit of one group
+ * that arrives before the anchor's placement is kept, but shows nothing until the rest does.
+ * That is last-writer-wins by version, not by causality: an edit made after seeing the removal
+ * always brings the anchor back, while one that raced it wins or loses like any concurrent
+ * write, bringing the anchor back when its replica's counter was ahead. Either way every
+ * replica agrees on the outcome.
+ *
+ * <p>Local edits are collected as {@link AnchorChange}s carrying only the groups that changed;
+ * {@link #takeChanges} hands them out for sending. {@link #merge} takes the newer version of
+ * each group it carries, which makes merging commutative, associative and idempotent: changes can
+ * arrive late, twice or out of order. Its cost depends on the change, not on the room. Removed
+ * anchors are kept as tombstones so late edits are judged correctly.
+ *
+ * <p>It is a building block: {@link AnchorSyncEngine} still keeps whole records under the room's
+ * Firebase nodes, so nothing sends these changes yet.
+ *
+ * <p>Not thread-safe; use it from the main thread.
+ */
+public class ReplicatedAnchorSet {
+
+    /** Position, rotation and timestamp. */
+    public static final int POSE = 0;
+    /** Shape, extents and owner. */
+    public static final int SHAPE = 1;
+    public static final int COLOR = 2;
+    public static final int FIELD_GROUPS = 3;
+    public static final int ALL = (1 << FIELD_GROUPS) - 1;
+
+    private static final int REPLICA_BITS = 16;
+
+    private static final class Entry {
+        final AnchorRecord value = new AnchorRecord();
+        final long[] versions = new long[FIELD_GROUPS];
+        long removed;
+        boolean visible;
+
+        long newestWrite() {
+            return Math.max(versions[POSE], Math.max(versions[SHAPE], versions[COLOR]));
+        }
+
+        // Without these there is nothing to draw; the color can default
+        boolean isComplete() {
+            return versions[POSE] != 0 && versions[SHAPE] != 0;
+        }
+    }
+
+    private final int replicaId;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, AnchorChange> outgoing = new LinkedHashMap<>();
+    private final List<AnchorSyncEngine.SceneListener> listeners = new ArrayList<>();
+    private long counter;
+    private int visibleCount;
+
+    private long mergedGroups;
+    private long ignoredGroups;
+
+    /** @param replicaId - unique per device in the room, 0 to 65535 */
+    public ReplicatedAnchorSet(int replicaId) {
+        if (replicaId < 0 || replicaId >= 1 << REPLICA_BITS) {
+            throw new IllegalArgumentException("replicaId must fit in " + REPLICA_BITS + " bits, got " + replicaId);
+        }
+        this.replicaId = replicaId;
+    }
+
+    /** Hears about anchors appearing, changing and disappearing, locally or through merges. */
+    public void addSceneListener(AnchorSyncEngine.SceneListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeSceneListener(AnchorSyncEngine.SceneListener listener) {
+        listeners.remove(listener);
+    }
+
+    // -----------------------------
+    // -------- Local edits --------
+    // -----------------------------
+
+    /** Places an anchor, or rewrites every field of an existing one. */
+    public void put(String anchorId, AnchorRecord record) {
+        update(anchorId, ALL, record);
+    }
+
+    /**
+     * Writes the given field groups of an anchor, leaving the others as they are.
+     *
+     * @param mask - bits of {@link #POSE}, {@link #SHAPE} and {@link #COLOR}
+     */
+    public void update(String anchorId, int mask, AnchorRecord record) {
+        if (mask == 0 || (mask & ~ALL) != 0) {
+            throw new IllegalArgumentException("bad field mask " + mask);
+        }
+        AnchorChange change = outgoingFor(anchorId);
+        long version = nextVersion();
+        change.mask |= mask;
+        for (int group = 0; group < FIELD_GROUPS; group++) {
+            if ((mask & 1 << group) != 0) {
+                change.versions[group] = version;
+                copyGroup(group, record, change.record);
+            }
+        }
+        apply(anchorId, mask, change.versions, 0, change.record);
+    }
+
+    public void remove(String anchorId) {
+        Entry entry = entries.get(anchorId);
+        if (entry == null || !entry.visible) {
+            return;
+        }
+        AnchorChange change = outgoingFor(anchorId);
+        change.removed = nextVersion();
+        apply(anchorId, 0, change.versions, change.removed, change.record);
+    }
+
+    /**
+     * @return the local edits since the last call, one change per anchor with only the groups
+     * written; send them to the other replicas
+     */
+    public List<AnchorChange> takeChanges() {
+        if (outgoing.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<AnchorChange> changes = new ArrayList<>(outgoing.values());
+        outgoing.clear();
+        return changes;
+    }
+
+    // -----------------------
+    // -------- Merge --------
+    // -----------------------
+
+    /** Folds in a change from another replica. Late, repeated and reordered changes are fine. */
+    public void merge(AnchorChange change) {
+        // Keep our clock ahead of everything seen, so our next edit wins over what we merged
+        for (int group = 0; group < FIELD_GROUPS; group++) {
+            if ((change.mask & 1 << group) != 0) {
+                observe(change.versions[group]);
+            }
+        }
+        observe(change.removed);
+        apply(change.anchorId, change.mask, change.versions, change.removed, change.record);
+    }
+
+    /**
+     * Everything this replica knows, tombstones included, for a replica joining the room. The
+     * only operation whose cost grows with the room.
+     */
+    public List<AnchorChange> snapshot() {
+        List<AnchorChange> changes = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            AnchorChange change = new AnchorChange();
+            change.anchorId = e.getKey();
+            change.removed = entry.removed;
+            for (int group = 0; group < FIELD_GROUPS; group++) {
+                if (entry.versions[group] != 0) {
+                    change.mask |= 1 << group;
+                    change.versions[group] = entry.versions[group];
+                }
+            }
+            change.record.copyFrom(entry.value);
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    // ------------------------
+    // -------- Lookup --------
+    // ------------------------
+
+    /** @return the anchor's current value, or null if it isn't visible; don't modify it */
+    public AnchorRecord get(String anchorId) {
+        Entry entry = entries.get(anchorId);
+        return entry == null || !entry.visible ? null : entry.value;
+    }
+
+    /** @return the version the group was last written at, or 0 */
+    public long getVersion(String anchorId, int group) {
+        Entry entry = entries.get(anchorId);
+        return entry == null ? 0 : entry.versions[group];
+    }
+
+    /** Visible anchors. */
+    public int size() {
+        return visibleCount;
+    }
+
+    /** Anchors known, visible or removed. */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public int getReplicaId() {
+        return replicaId;
+    }
+
+    /** Field groups taken from merged changes because they were newer. */
+    public long getMergedGroupCount() {
+        return mergedGroups;
+    }
+
+    /** Field groups in merged changes that were already known or older. */
+    public long getIgnoredGroupCount() {
+        return ignoredGroups;
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private long nextVersion() {
+        return ++counter << REPLICA_BITS | replicaId;
+    }
+
+    private void observe(long version) {
+        counter = Math.max(counter, version >>> REPLICA_BITS);
+    }
+
+    private AnchorChange outgoingFor(String anchorId) {
+        AnchorChange change = outgoing.get(anchorId);
+        if (change == null) {
+            change = new AnchorChange();
+            change.anchorId = anchorId;
+            outgoing.put(anchorId, change);
+        }
+        return change;
+    }
+
+    private void apply(String anchorId, int mask, long[] versions, long removed, AnchorRecord values) {
+        Entry entry = entries.get(anchorId);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(anchorId, entry);
+        }
+        boolean changed = false;
+        for (int group = 0; group < FIELD_GROUPS; group++) {
+            if ((mask & 1 << group) == 0) {
+                continue;
+            }
+            if (versions[group] > entry.versions[group]) {
+                entry.versions[group] = versions[group];
+                copyGroup(group, values, entry.value);
+                changed = true;
+                mergedGroups++;
+            } else {
+                ignoredGroups++;
+            }
+        }
+        if (removed > entry.removed) {
+            entry.removed = removed;
+        }
+
+        boolean wasVisible = entry.visible;
+        entry.visible = entry.isComplete() && entry.newestWrite() > entry.removed;
+        if (entry.visible && !wasVisible) {
+            visibleCount++;
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAnchorAdded(anchorId, entry.value);
+            }
+        } else if (!entry.visible && wasVisible) {
+            visibleCount--;
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAnchorRemoved(anchorId, entry.value);
+            }
+        } else if (entry.visible && changed) {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAnchorChanged(anchorId, entry.value);
+            }
+        }
+    }
+
+    private static void copyGroup(int group, AnchorRecord from, AnchorRecord to) {
+        switch (group) {
+            case POSE:
+                to.px = from.px;
+                to.py = from.py;
+                to.pz = from.pz;
+                to.qx = from.qx;
+                to.qy = from.qy;
+                to.qz = from.qz;
+                to.qw = from.qw;
+                to.timestamp = from.timestamp;
+                break;
+            case SHAPE:
+                to.shape = from.shape;
+                to.sx = from.sx;
+                to.sy = from.sy;
+                to.sz = from.sz;
+                to.owner = from.owner;
+                break;
+            default:
+                to.color = from.color;
+                break;
+        }
+    }
+}
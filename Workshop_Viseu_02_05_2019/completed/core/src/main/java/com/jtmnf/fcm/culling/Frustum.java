@@ -0,0 +1,86 @@
+package com.jtmnf.fcm.culling;
+
+/**
+ * Camera view volume as six inward-facing planes, for sphere visibility tests.
+ *
+ * <p>Matrices are column-major, as ARCore's Camera.getViewMatrix/getProjectionMatrix return them.
+ * The camera looks down its local -Z axis, like OpenGL.
+ */
+public final class Frustum {
+
+    private static final int PLANES = 6;
+
+    // a, b, c, d per plane; a point is inside a plane when a*x + b*y + c*z + d >= 0
+    private final float[] planes = new float[PLANES * 4];
+    private final float[] viewProjection = new float[16];
+
+    /**
+     * Builds the frustum from a camera pose and a symmetric perspective.
+     *
+     * @param fovY   - vertical field of view, in radians
+     * @param aspect - width / height
+     */
+    public Frustum setFromCamera(float px, float py, float pz, float qx, float qy, float qz, float qw,
+                                 float fovY, float aspect, float near, float far) {
+        // Camera axes in world space, from the rotation quaternion
+        float rx = 1 - 2 * (qy * qy + qz * qz), ry = 2 * (qx * qy + qw * qz), rz = 2 * (qx * qz - qw * qy);
+        float ux = 2 * (qx * qy - qw * qz), uy = 1 - 2 * (qx * qx + qz * qz), uz = 2 * (qy * qz + qw * qx);
+        float fx = -2 * (qx * qz + qw * qy), fy = -2 * (qy * qz - qw * qx), fz = -(1 - 2 * (qx * qx + qy * qy));
+
+        float tanV = (float) Math.tan(fovY / 2);
+        float tanH = tanV * aspect;
+        // Side planes go through the eye; their inward normals lean towards the view direction
+        setPlane(0, fx * tanH + rx, fy * tanH + ry, fz * tanH + rz, px, py, pz);
+        setPlane(1, fx * tanH - rx, fy * tanH - ry, fz * tanH - rz, px, py, pz);
+        setPlane(2, fx * tanV + ux, fy * tanV + uy, fz * tanV + uz, px, py, pz);
+        setPlane(3, fx * tanV - ux, fy * tanV - uy, fz * tanV - uz, px, py, pz);
+        setPlane(4, fx, fy, fz, px + fx * near, py + fy * near, pz + fz * near);
+        setPlane(5, -fx, -fy, -fz, px + fx * far, py + fy * far, pz + fz * far);
+        return this;
+    }
+
+    /**
+     * Builds the frustum from a view and a projection matrix (Gribb/Hartmann plane extraction).
+     */
+    public Frustum setFromMatrices(float[] projection, float[] view) {
+        float[] m = viewProjection;
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                m[col * 4 + row] = projection[row] * view[col * 4]
+                        + projection[4 + row] * view[col * 4 + 1]
+                        + projection[8 + row] * view[col * 4 + 2]
+                        + projection[12 + row] * view[col * 4 + 3];
+            }
+        }
+        // Row i of a column-major matrix is m[i], m[4 + i], m[8 + i], m[12 + i]
+        for (int i = 0; i < 3; i++) {
+            setRaw(2 * i, m[3] + m[i], m[7] + m[4 + i], m[11] + m[8 + i], m[15] + m[12 + i]);
+            setRaw(2 * i + 1, m[3] - m[i], m[7] - m[4 + i], m[11] - m[8 + i], m[15] - m[12 + i]);
+        }
+        return this;
+    }
+
+    /** True if any part of the sphere may be inside the frustum. */
+    public boolean intersectsSphere(float x, float y, float z, float radius) {
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            if (planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setPlane(int index, float nx, float ny, float nz, float x, float y, float z) {
+        setRaw(index, nx, ny, nz, -(nx * x + ny * y + nz * z));
+    }
+
+    /** Stores a plane, normalized so distances come out in world units. */
+    private void setRaw(int index, float a, float b, float c, float d) {
+        float inverseLength = (float) (1 / Math.sqrt(a * a + b * b + c * c));
+        int i = index * 4;
+        planes[i] = a * inverseLength;
+        planes[i + 1] = b * inverseLength;
+        planes[i + 2] = c * inverseLength;
+        planes[i + 3] = d * inverseLength;
+    }
+}
@@ -0,0 +1,268 @@
+package com.jtmnf.fcm.culling;
+
+import java.util.Arrays;
+
+/**
+ * Decides each frame which objects should have their renderable attached.
+ *
+ * <p>An object is a candidate if its bounding sphere touches the frustum and it is within the
+ * maximum distance of the camera. If there are more candidates than the budget allows, only the
+ * closest ones stay visible. Pinned objects (the one being manipulated, say) are always visible
+ * and don't count against the budget.
+ *
+ * <p>{@link #update} reports only the objects whose visibility changed, so the caller touches
+ * the scene graph for those and nothing else. Nothing is allocated once the arrays have grown
+ * to fit the scene. Not thread-safe.
+ */
+public class VisibilityCuller {
+
+    private static final int NONE = -1;
+
+    private float maxDistance;
+    private int maxVisible;
+
+    private float[] xs = new float[16];
+    private float[] ys = new float[16];
+    private float[] zs = new float[16];
+    private float[] radii = new float[16];
+    private boolean[] used = new boolean[16];
+    private boolean[] pinned = new boolean[16];
+    private boolean[] visible = new boolean[16];
+    private boolean[] wanted = new boolean[16];
+    private int[] freeNext = new int[16];
+    private int freeHead = NONE;
+    private int highWater;
+    private int size;
+
+    // Per-frame scratch
+    private int[] candidates = new int[16];
+    private float[] candidateDistances = new float[16];
+    private int[] shown = new int[16];
+    private int[] hidden = new int[16];
+    private int shownCount;
+    private int hiddenCount;
+    private int visibleCount;
+
+    /**
+     * @param maxDistance - objects further than this from the camera are hidden, in meters
+     * @param maxVisible  - at most this many unpinned objects are visible at once
+     */
+    public VisibilityCuller(float maxDistance, int maxVisible) {
+        setMaxDistance(maxDistance);
+        setMaxVisible(maxVisible);
+    }
+
+    public void setMaxDistance(float maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    public void setMaxVisible(int maxVisible) {
+        if (maxVisible < 0) {
+            throw new IllegalArgumentException("maxVisible must be >= 0, got " + maxVisible);
+        }
+        this.maxVisible = maxVisible;
+    }
+
+    /**
+     * Adds an object, initially not visible. The next {@link #update} decides.
+     *
+     * @return slot used to refer to the object
+     */
+    public int add(float x, float y, float z, float radius) {
+        int slot;
+        if (freeHead != NONE) {
+            slot = freeHead;
+            freeHead = freeNext[slot];
+        } else {
+            if (highWater == xs.length) {
+                grow(xs.length * 2);
+            }
+            slot = highWater++;
+        }
+        used[slot] = true;
+        pinned[slot] = false;
+        visible[slot] = false;
+        xs[slot] = x;
+        ys[slot] = y;
+        zs[slot] = z;
+        radii[slot] = radius;
+        size++;
+        return slot;
+    }
+
+    public void remove(int slot) {
+        checkSlot(slot);
+        if (visible[slot]) {
+            visibleCount--;
+        }
+        used[slot] = false;
+        visible[slot] = false;
+        freeNext[slot] = freeHead;
+        freeHead = slot;
+        size--;
+    }
+
+    public void move(int slot, float x, float y, float z) {
+        checkSlot(slot);
+        xs[slot] = x;
+        ys[slot] = y;
+        zs[slot] = z;
+    }
+
+    public void setRadius(int slot, float radius) {
+        checkSlot(slot);
+        radii[slot] = radius;
+    }
+
+    public void setPinned(int slot, boolean pin) {
+        checkSlot(slot);
+        pinned[slot] = pin;
+    }
+
+    public boolean isVisible(int slot) {
+        return used[slot] && visible[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    /**
+     * Recomputes visibility for a frame.
+     *
+     * @param frustum - the camera's view volume
+     */
+    public void update(Frustum frustum, float cameraX, float cameraY, float cameraZ) {
+        shownCount = 0;
+        hiddenCount = 0;
+        int count = 0;
+
+        for (int slot = 0; slot < highWater; slot++) {
+            if (!used[slot]) {
+                continue;
+            }
+            if (pinned[slot]) {
+                wanted[slot] = true;
+                continue;
+            }
+            wanted[slot] = false;
+            float dx = xs[slot] - cameraX, dy = ys[slot] - cameraY, dz = zs[slot] - cameraZ;
+            float d2 = dx * dx + dy * dy + dz * dz;
+            float reach = maxDistance + radii[slot];
+            if (d2 > reach * reach) {
+                continue;
+            }
+            if (!frustum.intersectsSphere(xs[slot], ys[slot], zs[slot], radii[slot])) {
+                continue;
+            }
+            candidates[count] = slot;
+            candidateDistances[count] = d2;
+            count++;
+        }
+
+        if (count > maxVisible) {
+            // Partition so the closest maxVisible candidates come first
+            select(count, maxVisible);
+            count = maxVisible;
+        }
+        for (int i = 0; i < count; i++) {
+            wanted[candidates[i]] = true;
+        }
+
+        for (int slot = 0; slot < highWater; slot++) {
+            if (!used[slot] || wanted[slot] == visible[slot]) {
+                continue;
+            }
+            visible[slot] = wanted[slot];
+            if (wanted[slot]) {
+                shown[shownCount++] = slot;
+                visibleCount++;
+            } else {
+                hidden[hiddenCount++] = slot;
+                visibleCount--;
+            }
+        }
+    }
+
+    /** Number of objects that became visible in the last update. */
+    public int getShownCount() {
+        return shownCount;
+    }
+
+    public int getShown(int i) {
+        return shown[i];
+    }
+
+    /** Number of objects that were hidden in the last update. */
+    public int getHiddenCount() {
+        return hiddenCount;
+    }
+
+    public int getHidden(int i) {
+        return hidden[i];
+    }
+
+    /** Quickselect on distance: afterwards candidates[0..k) are the k closest, in any order. */
+    private void select(int n, int k) {
+        int left = 0;
+        int right = n - 1;
+        while (left < right) {
+            float pivot = candidateDistances[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (candidateDistances[i] < pivot) {
+                    i++;
+                }
+                while (candidateDistances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k - 1 <= j) {
+                right = j;
+            } else if (k - 1 >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        int slot = candidates[a];
+        candidates[a] = candidates[b];
+        candidates[b] = slot;
+        float d = candidateDistances[a];
+        candidateDistances[a] = candidateDistances[b];
+        candidateDistances[b] = d;
+    }
+
+    private void grow(int capacity) {
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        radii = Arrays.copyOf(radii, capacity);
+        used = Arrays.copyOf(used, capacity);
+        pinned = Arrays.copyOf(pinned, capacity);
+        visible = Arrays.copyOf(visible, capacity);
+        wanted = Arrays.copyOf(wanted, capacity);
+        freeNext = Arrays.copyOf(freeNext, capacity);
+        candidates = Arrays.copyOf(candidates, capacity);
+        candidateDistances = Arrays.copyOf(candidateDistances, capacity);
+        shown = Arrays.copyOf(shown, capacity);
+        hidden = Arrays.copyOf(hidden, capacity);
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= highWater || !used[slot]) {
+            throw new IllegalArgumentException("No object in slot " + slot);
+        }
+    }
+}
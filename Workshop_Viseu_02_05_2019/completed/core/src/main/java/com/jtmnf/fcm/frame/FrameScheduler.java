@@ -0,0 +1,351 @@
+package com.jtmnf.fcm.frame;
+
+import com.jtmnf.fcm.util.IdTable;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Spreads scene work over frames. Tasks are queued by priority and {@link #runFrame()}, called
+ * once per frame, runs them until the frame's time budget is spent; whatever is left waits for
+ * the next frame. A big remote update then costs a few frames of a few milliseconds each rather
+ * than one frame of a hundred.
+ *
+ * <p>Tasks posted with a key, normally an anchor id, are coalesced: posting again for a key that
+ * is still queued replaces its task. The task keeps its place in the queue, unless the new
+ * priority is higher, in which case it is queued again at that priority. Only the latest task
+ * for an anchor runs, so keyed tasks should apply the anchor's current state rather than a
+ * single change.
+ *
+ * <p>Higher priorities go first, but each step of priority is only worth {@code agingFrames}
+ * frames of waiting: the next task is the one with the earliest posting frame plus
+ * {@code agingFrames} per step below HIGH. A LOW task thus goes before HIGH ones posted more than
+ * two aging periods after it, and a steady stream of urgent work can't starve the rest.
+ *
+ * <p>Tasks can't be preempted: one is started only while budget remains, and at least one runs
+ * every frame, so a frame goes over by at most one task. Posting from a running task is fine.
+ * Queueing allocates nothing once the tables have grown to the working size.
+ *
+ * <p>Not thread-safe; use it from the main thread.
+ */
+public class FrameScheduler {
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    private static final int LEVELS = Priority.values().length;
+
+    private final LongSupplier nanoClock;
+    private final int agingFrames;
+    private long budgetNanos;
+
+    // Queued tasks live in slots; queues hold (stamp << 32 | slot), and bumping a slot's stamp
+    // leaves its older queue entries behind as stale, to be skipped when they come up
+    private final IdTable slotsByKey = new IdTable(64);
+    private Runnable[] tasks = new Runnable[64];
+    private String[] keys = new String[64];
+    private int[] levels = new int[64];
+    private long[] queuedFrames = new long[64];
+    private int[] stamps = new int[64];
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int highWater;
+    private final Queue[] queues = new Queue[LEVELS];
+    private int pending;
+    private long frame;
+
+    private long posted;
+    private long coalesced;
+    private long run;
+    private long frames;
+    private long carriedOverFrames;
+    private long overBudgetFrames;
+    private long maxFrameNanos;
+
+    /**
+     * @param budgetMillis - time per frame to spend on tasks; 0 runs a single task per frame
+     * @param agingFrames  - frames of waiting that make up for one step of priority
+     * @param nanoClock    - usually System::nanoTime
+     */
+    public FrameScheduler(float budgetMillis, int agingFrames, LongSupplier nanoClock) {
+        if (agingFrames < 1) {
+            throw new IllegalArgumentException("agingFrames must be >= 1, got " + agingFrames);
+        }
+        setBudgetMillis(budgetMillis);
+        this.agingFrames = agingFrames;
+        this.nanoClock = nanoClock;
+        for (int i = 0; i < LEVELS; i++) {
+            queues[i] = new Queue();
+        }
+    }
+
+    public void setBudgetMillis(float budgetMillis) {
+        if (!(budgetMillis >= 0)) {
+            throw new IllegalArgumentException("budgetMillis must be >= 0, got " + budgetMillis);
+        }
+        budgetNanos = (long) (budgetMillis * 1_000_000L);
+    }
+
+    /** Queues a task that isn't coalesced with any other. */
+    public void post(Priority priority, Runnable task) {
+        post(null, priority, task);
+    }
+
+    /**
+     * Queues a task, or replaces the one still queued for the same key.
+     *
+     * @param key - what the task applies to, usually an anchor id; null if it stands alone
+     * @return false if it replaced a queued task
+     */
+    public boolean post(String key, Priority priority, Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task must not be null");
+        }
+        posted++;
+        int level = priority.ordinal();
+        if (key != null) {
+            int slot = slotsByKey.get(key);
+            if (slot != IdTable.NONE) {
+                coalesced++;
+                tasks[slot] = task;
+                if (level < levels[slot]) {
+                    queuedFrames[slot] = frame;
+                    enqueue(slot, level);
+                }
+                return false;
+            }
+        }
+        int slot = allocate();
+        tasks[slot] = task;
+        keys[slot] = key;
+        queuedFrames[slot] = frame;
+        enqueue(slot, level);
+        if (key != null) {
+            slotsByKey.put(key, slot);
+        }
+        pending++;
+        return true;
+    }
+
+    /** @return whether a task was queued for the key */
+    public boolean cancel(String key) {
+        int slot = slotsByKey.remove(key);
+        if (slot == IdTable.NONE) {
+            return false;
+        }
+        release(slot);
+        return true;
+    }
+
+    public boolean isPending(String key) {
+        return slotsByKey.contains(key);
+    }
+
+    /** Drops every queued task. */
+    public void clear() {
+        for (int i = 0; i < LEVELS; i++) {
+            queues[i].clear();
+        }
+        slotsByKey.clear();
+        Arrays.fill(tasks, 0, highWater, null);
+        Arrays.fill(keys, 0, highWater, null);
+        freeCount = 0;
+        highWater = 0;
+        pending = 0;
+    }
+
+    /**
+     * Runs queued tasks, most urgent first, until the budget is spent or nothing is left.
+     *
+     * @return number of tasks run
+     */
+    public int runFrame() {
+        frame++;
+        frames++;
+        long start = nanoClock.getAsLong();
+        long elapsed = 0;
+        int count = 0;
+        while (pending > 0 && (count == 0 || elapsed < budgetNanos)) {
+            int slot = poll();
+            Runnable task = tasks[slot];
+            if (keys[slot] != null) {
+                slotsByKey.remove(keys[slot]);
+            }
+            // Freed first, so the task may post again for its own key
+            release(slot);
+            task.run();
+            count++;
+            elapsed = nanoClock.getAsLong() - start;
+        }
+        run += count;
+        if (pending > 0) {
+            carriedOverFrames++;
+        }
+        if (elapsed > budgetNanos) {
+            overBudgetFrames++;
+        }
+        maxFrameNanos = Math.max(maxFrameNanos, elapsed);
+        return count;
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** @return tasks waiting to run */
+    public int getPendingCount() {
+        return pending;
+    }
+
+    public int getPendingCount(Priority priority) {
+        int level = priority.ordinal();
+        Queue queue = queues[level];
+        int count = 0;
+        for (int i = 0; i < queue.size; i++) {
+            long entry = queue.get(i);
+            if (!isStale(entry) && levels[slotOf(entry)] == level) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getPostedCount() {
+        return posted;
+    }
+
+    /** @return posts that replaced a queued task for the same key */
+    public long getCoalescedCount() {
+        return coalesced;
+    }
+
+    public long getRunCount() {
+        return run;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /** @return frames that ended with tasks still queued */
+    public long getCarriedOverFrameCount() {
+        return carriedOverFrames;
+    }
+
+    /** @return frames whose tasks took longer than the budget */
+    public long getOverBudgetFrameCount() {
+        return overBudgetFrames;
+    }
+
+    public long getMaxFrameNanos() {
+        return maxFrameNanos;
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    /** Takes the most urgent task: each queue is in posting order, so it's one of their heads. */
+    private int poll() {
+        Queue best = null;
+        long bestRank = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            Queue queue = queues[level];
+            while (queue.size > 0 && isStale(queue.peek())) {
+                queue.poll();
+            }
+            if (queue.size > 0) {
+                long rank = queuedFrames[slotOf(queue.peek())] + (long) level * agingFrames;
+                // Ties go to the higher priority
+                if (rank < bestRank) {
+                    best = queue;
+                    bestRank = rank;
+                }
+            }
+        }
+        if (best == null) {
+            throw new IllegalStateException("no queued task, but " + pending + " pending");
+        }
+        return slotOf(best.poll());
+    }
+
+    private void enqueue(int slot, int level) {
+        stamps[slot]++;
+        levels[slot] = level;
+        queues[level].add((long) stamps[slot] << 32 | slot);
+    }
+
+    private boolean isStale(long entry) {
+        int slot = slotOf(entry);
+        return tasks[slot] == null || stamps[slot] != (int) (entry >>> 32);
+    }
+
+    private static int slotOf(long entry) {
+        return (int) entry;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (highWater == tasks.length) {
+            int size = tasks.length * 2;
+            tasks = Arrays.copyOf(tasks, size);
+            keys = Arrays.copyOf(keys, size);
+            levels = Arrays.copyOf(levels, size);
+            queuedFrames = Arrays.copyOf(queuedFrames, size);
+            stamps = Arrays.copyOf(stamps, size);
+            freeSlots = Arrays.copyOf(freeSlots, size);
+        }
+        return highWater++;
+    }
+
+    private void release(int slot) {
+        tasks[slot] = null;
+        keys[slot] = null;
+        stamps[slot]++;
+        freeSlots[freeCount++] = slot;
+        pending--;
+    }
+
+    /** Growable ring of queue entries. */
+    private static final class Queue {
+        long[] entries = new long[64];
+        int head;
+        int size;
+
+        void add(long entry) {
+            if (size == entries.length) {
+                long[] grown = new long[entries.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = get(i);
+                }
+                entries = grown;
+                head = 0;
+            }
+            entries[(head + size) & (entries.length - 1)] = entry;
+            size++;
+        }
+
+        long get(int i) {
+            return entries[(head + i) & (entries.length - 1)];
+        }
+
+        long peek() {
+            return entries[head];
+        }
+
+        long poll() {
+            long entry = entries[head];
+            head = (head + 1) & (entries.length - 1);
+            size--;
+            return entry;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package com.jtmnf.fcm.journal;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped log of anchor operations, so placements survive being offline or
+ * the app being killed, and the scene can be rebuilt from disk before the network answers.
+ *
+ * <p>Layout (big-endian): an 8 byte header ({@code AJNL}, version), then one entry per operation:
+ * <pre>
+ *   0  length   int     bytes in body
+ *   4  crc      int     CRC32 of body
+ *   8  body     op byte, flags byte, seq long, id length short, id UTF-8, then for a put
+ *               the {@link AnchorCodec} record
+ * </pre>
+ * The file is preallocated with zeros and the length is written last, so an entry cut short by a
+ * crash either reads as length 0 or fails its CRC. Replay stops at the first such entry and the
+ * rest of the file is discarded.
+ *
+ * <p>Writes reach the page cache right away, which survives the process dying; {@link #sync()}
+ * is only needed to survive the device losing power.
+ *
+ * <p>The current state (latest value and whether the server has it) is kept in memory. When most
+ * of the file is superseded operations, {@link #compactIfNeeded()} rewrites it as one entry per
+ * anchor, dropping acknowledged removals.
+ *
+ * <p>Not thread-safe.
+ */
+public class AnchorJournal implements Closeable {
+
+    public interface Visitor {
+        /**
+         * @param record - the journal's copy, null for a removal; copy it to keep it
+         */
+        void visit(String anchorId, AnchorRecord record, boolean acknowledged);
+    }
+
+    static final int MAGIC = 0x414a4e4c;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int ENTRY_HEADER_SIZE = 8;
+
+    static final byte OP_PUT = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_ACK = 3;
+    static final byte FLAG_ACKNOWLEDGED = 1;
+
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    // Firebase keys are at most 768 bytes
+    private static final int MAX_ID_BYTES = 768;
+    private static final int MAX_BODY_SIZE = 12 + MAX_ID_BYTES + AnchorCodec.RECORD_SIZE;
+    // Smaller files aren't worth rewriting
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+
+    private static final class Entry {
+        final AnchorRecord record = new AnchorRecord();
+        boolean removed;
+        boolean acknowledged;
+        long seq;
+        // Size this entry takes once compacted
+        int compactSize;
+    }
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final byte[] body = new byte[MAX_BODY_SIZE];
+    private final ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+    private final CRC32 crc = new CRC32();
+    private final AnchorRecord scratch = new AnchorRecord();
+
+    private long nextSeq = 1;
+    private int liveBytes;
+    private int unacknowledged;
+    private long discardedBytes;
+
+    private AnchorJournal(File file) {
+        this.file = file;
+    }
+
+    /** Opens the journal, creating it if needed, and replays it into memory. */
+    public static AnchorJournal open(File file) throws IOException {
+        AnchorJournal journal = new AnchorJournal(file);
+        journal.load();
+        return journal;
+    }
+
+    // -------------------------
+    // -------- Writing --------
+    // -------------------------
+
+    /**
+     * Records the latest value of an anchor. Does nothing if the journal already holds exactly
+     * this, e.g. when a restored anchor comes back from the server.
+     *
+     * @param acknowledged - true if the value came from the server, false if it still has to be sent
+     */
+    public void put(String anchorId, AnchorRecord record, boolean acknowledged) throws IOException {
+        Entry entry = entries.get(anchorId);
+        if (entry != null && !entry.removed && entry.record.equals(record)
+                && (entry.acknowledged || !acknowledged)) {
+            return;
+        }
+        long seq = nextSeq++;
+        append(OP_PUT, acknowledged, seq, anchorId, record);
+        apply(OP_PUT, acknowledged, seq, anchorId, record);
+    }
+
+    /**
+     * Records that an anchor was deleted. Does nothing for anchors the journal doesn't hold.
+     *
+     * @param acknowledged - true if the removal came from the server
+     */
+    public void remove(String anchorId, boolean acknowledged) throws IOException {
+        Entry entry = entries.get(anchorId);
+        if (entry == null || (entry.removed && (entry.acknowledged || !acknowledged))) {
+            return;
+        }
+        long seq = nextSeq++;
+        append(OP_REMOVE, acknowledged, seq, anchorId, null);
+        apply(OP_REMOVE, acknowledged, seq, anchorId, null);
+    }
+
+    /** Marks the latest operation on an anchor as stored on the server. */
+    public void acknowledge(String anchorId) throws IOException {
+        Entry entry = entries.get(anchorId);
+        if (entry == null || entry.acknowledged) {
+            return;
+        }
+        append(OP_ACK, false, entry.seq, anchorId, null);
+        apply(OP_ACK, false, entry.seq, anchorId, null);
+    }
+
+    /** Flushes written entries to the storage device. */
+    public void sync() {
+        map.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            map.force();
+            channel.close();
+            raf.close();
+            channel = null;
+        }
+    }
+
+    // -------------------------
+    // -------- Reading --------
+    // -------------------------
+
+    /** Visits every anchor that currently exists, in the order they were first written. */
+    public void forEachLive(Visitor visitor) {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (!entry.removed) {
+                visitor.visit(e.getKey(), entry.record, entry.acknowledged);
+            }
+        }
+    }
+
+    /** Visits every put or removal the server hasn't acknowledged yet. */
+    public void forEachUnacknowledged(Visitor visitor) {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (!entry.acknowledged) {
+                visitor.visit(e.getKey(), entry.removed ? null : entry.record, false);
+            }
+        }
+    }
+
+    public int getUnacknowledgedCount() {
+        return unacknowledged;
+    }
+
+    /** Number of anchors the journal tracks, including removals not yet acknowledged. */
+    public int size() {
+        return entries.size();
+    }
+
+    /** Bytes used in the file, header included. */
+    public long getUsedBytes() {
+        return map.position();
+    }
+
+    /** Bytes of a torn or corrupt tail that were dropped when the journal was opened. */
+    public long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    // ----------------------------
+    // -------- Compaction --------
+    // ----------------------------
+
+    /**
+     * Compacts when superseded entries take more than half of the file.
+     *
+     * @return true if it compacted
+     */
+    public boolean compactIfNeeded() throws IOException {
+        long used = getUsedBytes();
+        if (used < MIN_COMPACT_BYTES || used < 2L * (HEADER_SIZE + liveBytes)) {
+            return false;
+        }
+        compact();
+        return true;
+    }
+
+    /**
+     * Rewrites the journal with one entry per anchor. The new file is written next to the old
+     * one and renamed over it, so a crash leaves one or the other intact.
+     */
+    public void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        AnchorJournal compacted = new AnchorJournal(tmp);
+        compacted.create(Math.max(DEFAULT_CAPACITY, HEADER_SIZE + liveBytes));
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.removed && entry.acknowledged) {
+                continue;
+            }
+            compacted.append(entry.removed ? OP_REMOVE : OP_PUT, entry.acknowledged, entry.seq, e.getKey(),
+                    entry.removed ? null : entry.record);
+        }
+        compacted.close();
+        close();
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+        entries.clear();
+        liveBytes = 0;
+        unacknowledged = 0;
+        discardedBytes = 0;
+        load();
+    }
+
+    // --------------------------
+    // -------- Internal --------
+    // --------------------------
+
+    private void load() throws IOException {
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            create(DEFAULT_CAPACITY);
+            return;
+        }
+        mapFile(file.length());
+        if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+            close();
+            throw new IOException(file + " is not an anchor journal");
+        }
+        replay();
+    }
+
+    private void create(int capacity) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not reset " + file);
+        }
+        mapFile(capacity);
+        map.putInt(MAGIC).putInt(VERSION);
+    }
+
+    private void mapFile(long capacity) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(capacity);
+        channel = raf.getChannel();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void replay() {
+        while (true) {
+            int start = map.position();
+            if (map.remaining() < ENTRY_HEADER_SIZE) {
+                return;
+            }
+            int length = map.getInt();
+            int checksum = map.getInt();
+            if (length == 0 && checksum == 0) {
+                // Clean end: never written past here
+                map.position(start);
+                return;
+            }
+            if (length < 12 || length > MAX_BODY_SIZE || length > map.remaining()) {
+                truncate(start);
+                return;
+            }
+            map.get(body, 0, length);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != checksum || !applyBody(length)) {
+                truncate(start);
+                return;
+            }
+        }
+    }
+
+    /** Drops everything from a torn or corrupt entry on, so later appends can't be confused with it. */
+    private void truncate(int from) {
+        int end = map.capacity();
+        while (end > from && map.get(end - 1) == 0) {
+            end--;
+        }
+        discardedBytes = end - from;
+        for (int i = from; i < end; i++) {
+            map.put(i, (byte) 0);
+        }
+        map.position(from);
+    }
+
+    private boolean applyBody(int length) {
+        bodyBuffer.clear();
+        bodyBuffer.limit(length);
+        byte op = bodyBuffer.get();
+        boolean acknowledged = (bodyBuffer.get() & FLAG_ACKNOWLEDGED) != 0;
+        long seq = bodyBuffer.getLong();
+        int idLength = bodyBuffer.getShort() & 0xffff;
+        int recordSize = op == OP_PUT ? AnchorCodec.RECORD_SIZE : 0;
+        if (bodyBuffer.remaining() != idLength + recordSize) {
+            return false;
+        }
+        String anchorId = new String(body, bodyBuffer.position(), idLength, StandardCharsets.UTF_8);
+        AnchorRecord record = null;
+        if (op == OP_PUT) {
+            try {
+                record = AnchorCodec.decode(body, bodyBuffer.position() + idLength, scratch);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        } else if (op != OP_REMOVE && op != OP_ACK) {
+            return false;
+        }
+        apply(op, acknowledged, seq, anchorId, record);
+        nextSeq = Math.max(nextSeq, seq + 1);
+        return true;
+    }
+
+    private void append(byte op, boolean acknowledged, long seq, String anchorId, AnchorRecord record)
+            throws IOException {
+        byte[] id = anchorId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Anchor id is longer than " + MAX_ID_BYTES + " bytes");
+        }
+        bodyBuffer.clear();
+        bodyBuffer.put(op)
+                .put(acknowledged ? FLAG_ACKNOWLEDGED : 0)
+                .putLong(seq)
+                .putShort((short) id.length)
+                .put(id);
+        if (record != null) {
+            bodyBuffer.position(AnchorCodec.encode(record, body, bodyBuffer.position()));
+        }
+        int length = bodyBuffer.position();
+        crc.reset();
+        crc.update(body, 0, length);
+
+        ensureCapacity(ENTRY_HEADER_SIZE + length);
+        int start = map.position();
+        map.position(start + 4);
+        map.putInt((int) crc.getValue());
+        map.put(body, 0, length);
+        // Length goes in last: until then a reader sees a clean end at this entry
+        map.putInt(start, length);
+    }
+
+    private void ensureCapacity(int bytes) throws IOException {
+        if (map.remaining() >= bytes) {
+            return;
+        }
+        int position = map.position();
+        long capacity = map.capacity();
+        while (capacity - position < bytes) {
+            capacity *= 2;
+        }
+        raf.setLength(capacity);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        map.position(position);
+    }
+
+    private void apply(byte op, boolean acknowledged, long seq, String anchorId, AnchorRecord record) {
+        Entry entry = entries.get(anchorId);
+        if (op == OP_ACK) {
+            // An ack for an older operation doesn't cover the newer one
+            if (entry != null && entry.seq == seq && !entry.acknowledged) {
+                entry.acknowledged = true;
+                unacknowledged--;
+                if (entry.removed) {
+                    entries.remove(anchorId);
+                    liveBytes -= entry.compactSize;
+                }
+            }
+            return;
+        }
+        if (entry == null) {
+            if (op == OP_REMOVE && acknowledged) {
+                return;
+            }
+            entry = new Entry();
+            entry.acknowledged = true;
+            entries.put(anchorId, entry);
+        } else {
+            liveBytes -= entry.compactSize;
+        }
+        if (entry.acknowledged != acknowledged) {
+            unacknowledged += acknowledged ? -1 : 1;
+        }
+        entry.acknowledged = acknowledged;
+        entry.seq = seq;
+        entry.removed = op == OP_REMOVE;
+        if (record != null) {
+            entry.record.copyFrom(record);
+        }
+        if (entry.removed && acknowledged) {
+            entries.remove(anchorId);
+            return;
+        }
+        entry.compactSize = ENTRY_HEADER_SIZE + 12 + utf8Length(anchorId)
+                + (entry.removed ? 0 : AnchorCodec.RECORD_SIZE);
+        liveBytes += entry.compactSize;
+    }
+
+    private static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
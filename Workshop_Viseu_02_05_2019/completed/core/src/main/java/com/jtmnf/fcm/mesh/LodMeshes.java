@@ -0,0 +1,105 @@
+package com.jtmnf.fcm.mesh;
+
+import com.jtmnf.fcm.anchor.ShapeType;
+import com.jtmnf.fcm.render.ShapeKey;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares the meshes of every primitive at several levels of detail. Level 0 is what ShapeFactory
+ * builds; each level after it has fewer segments around (and rings, for spheres). All levels of a
+ * shape and size are generated together the first time one is asked for, so switching levels
+ * later never builds anything.
+ *
+ * <p>Cubes have a single level, shared by every index.
+ *
+ * <p>Not thread-safe; use it from the main thread.
+ */
+public final class LodMeshes {
+
+    /** Segments around spheres and cylinders per level; spheres use as many rings. */
+    static final int[] LEVEL_SEGMENTS = {PrimitiveMeshes.DEFAULT_SEGMENTS, 16, 10, 6};
+    public static final int LEVEL_COUNT = LEVEL_SEGMENTS.length;
+
+    private final float cx, cy, cz;
+    private final Map<ShapeKey, MeshData[]> levels = new HashMap<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param cx - center of every mesh, in the node's space
+     */
+    public LodMeshes(float cx, float cy, float cz) {
+        this.cx = cx;
+        this.cy = cy;
+        this.cz = cz;
+    }
+
+    /** Builds one level of a primitive, with the extents as in {@link com.jtmnf.fcm.anchor.AnchorRecord}. */
+    public static MeshData build(ShapeType shape, float sx, float sy, float sz, int level,
+                                 float cx, float cy, float cz) {
+        if (level < 0 || level >= LEVEL_COUNT) {
+            throw new IllegalArgumentException("level must be in [0, " + LEVEL_COUNT + "), got " + level);
+        }
+        int segments = LEVEL_SEGMENTS[level];
+        switch (shape) {
+            case CUBE:
+                return PrimitiveMeshes.cube(sx, sy, sz, cx, cy, cz);
+            case CYLINDER:
+                return PrimitiveMeshes.cylinder(sx / 2, sy, segments, cx, cy, cz);
+            case SPHERE:
+            default:
+                return PrimitiveMeshes.sphere(sx / 2, segments, segments, cx, cy, cz);
+        }
+    }
+
+    /** @return the shared mesh of this shape and size at the level, built with its siblings if new */
+    public MeshData get(ShapeType shape, float sx, float sy, float sz, int level) {
+        if (level < 0 || level >= LEVEL_COUNT) {
+            throw new IllegalArgumentException("level must be in [0, " + LEVEL_COUNT + "), got " + level);
+        }
+        ShapeKey key = new ShapeKey(shape, sx, sy, sz, 0);
+        MeshData[] meshes = levels.get(key);
+        if (meshes != null) {
+            hits++;
+            return meshes[level];
+        }
+        misses++;
+        meshes = new MeshData[LEVEL_COUNT];
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            meshes[i] = shape == ShapeType.CUBE && i > 0
+                    ? meshes[0]
+                    : build(shape, sx, sy, sz, i, cx, cy, cz);
+            if (shape != ShapeType.CUBE || i == 0) {
+                bytes += meshes[i].estimatedBytes();
+            }
+        }
+        levels.put(key, meshes);
+        return meshes[level];
+    }
+
+    public void clear() {
+        levels.clear();
+        bytes = 0;
+    }
+
+    /** Shapes and sizes held, each with all its levels. */
+    public int size() {
+        return levels.size();
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    /** Lookups that generated a new set of levels. */
+    public long getMissCount() {
+        return misses;
+    }
+}
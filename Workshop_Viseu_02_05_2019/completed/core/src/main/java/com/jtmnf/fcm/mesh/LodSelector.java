@@ -0,0 +1,82 @@
+package com.jtmnf.fcm.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Picks a level of detail from how big an object looks on screen, measured as the fraction of
+ * the viewport height its bounding sphere covers.
+ *
+ * <p>Each boundary between two levels is widened by the hysteresis into a band: an object has to
+ * grow past the top of the band to get the finer level, and shrink below its bottom to get the
+ * coarser one. An object hovering at a boundary, or a camera jittering, keeps its level instead
+ * of popping back and forth every frame.
+ */
+public final class LodSelector {
+
+    private final float[] minSizes;
+    private final float[] finerAbove;
+    private final float[] coarserBelow;
+
+    /**
+     * @param minSizes   - screen size down to which each level is used, finest first and
+     *                   decreasing; the last level, which needs no entry, takes everything smaller
+     * @param hysteresis - half the width of each band, as a fraction of its boundary, in [0, 1)
+     */
+    public LodSelector(float[] minSizes, float hysteresis) {
+        if (!(hysteresis >= 0 && hysteresis < 1)) {
+            throw new IllegalArgumentException("hysteresis must be in [0, 1), got " + hysteresis);
+        }
+        for (int i = 0; i < minSizes.length; i++) {
+            if (!(minSizes[i] > 0) || i > 0 && !(minSizes[i] < minSizes[i - 1])) {
+                throw new IllegalArgumentException("minSizes must be positive and decreasing: " + Arrays.toString(minSizes));
+            }
+        }
+        this.minSizes = minSizes.clone();
+        finerAbove = new float[minSizes.length];
+        coarserBelow = new float[minSizes.length];
+        for (int i = 0; i < minSizes.length; i++) {
+            finerAbove[i] = minSizes[i] * (1 + hysteresis);
+            coarserBelow[i] = minSizes[i] * (1 - hysteresis);
+        }
+    }
+
+    public int getLevelCount() {
+        return finerAbove.length + 1;
+    }
+
+    /**
+     * Fraction of the viewport height covered by a sphere, under a perspective projection.
+     *
+     * @param tanHalfFovY - tangent of half the vertical field of view
+     */
+    public static float screenSize(float radius, float distance, float tanHalfFovY) {
+        if (distance <= radius) {
+            // Camera inside or touching it
+            return Float.POSITIVE_INFINITY;
+        }
+        return radius / (distance * tanHalfFovY);
+    }
+
+    /**
+     * @param current    - the level in use, or -1 if none yet (then no hysteresis applies)
+     * @param screenSize - as from {@link #screenSize}
+     * @return the level to use this frame
+     */
+    public int select(int current, float screenSize) {
+        if (current < 0) {
+            int level = 0;
+            while (level < minSizes.length && screenSize < minSizes[level]) {
+                level++;
+            }
+            return level;
+        }
+        int level = Math.min(current, finerAbove.length);
+        while (level > 0 && screenSize >= finerAbove[level - 1]) {
+            level--;
+        }
+        while (level < finerAbove.length && screenSize < coarserBelow[level]) {
+            level++;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,405 @@
+package com.jtmnf.fcm.mesh;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups static objects into one merged mesh per (spatial cell, color), so a dense room costs a
+ * draw call per occupied cell and material instead of one per object.
+ *
+ * <p>Objects are placed in the cell holding their position. Changes are applied lazily: a move
+ * within the cell that keeps the shape rewrites just that object's vertices, an added object is
+ * appended, and only a removal (or leaving the cell) rebuilds the cell's mesh. {@link #flush}
+ * reports the batches that changed since the last call, once per frame at most.
+ *
+ * <p>Objects being manipulated should be drawn on their own, since they change every frame:
+ * {@link #setIndividual} takes one out of its batch until it is put back.
+ *
+ * <p>Each batch is drawn at one level of detail, picked per frame by {@link #updateLevels} from
+ * how large its cell looks from the camera; a batch whose level changes is rebuilt. Individual
+ * objects always use level 0.
+ *
+ * <p>Not thread-safe; use it from the main thread.
+ */
+public class MeshBatcher implements AnchorSyncEngine.SceneListener {
+
+    /**
+     * Supplies the untransformed mesh of an object at a level of detail, 0 being the finest;
+     * meshes should be cached and shared.
+     */
+    public interface MeshSource {
+        MeshData meshFor(AnchorRecord record, int level);
+    }
+
+    public interface Listener {
+        /** The batch's mesh changed, or the batch is new. */
+        void onBatchUpdated(Batch batch);
+
+        /** The batch lost its last object. */
+        void onBatchRemoved(Batch batch);
+    }
+
+    /** Objects of one color in one cell, and their merged mesh. */
+    public static final class Batch {
+        public final long cell;
+        public final int color;
+        public final MeshData mesh = new MeshData(64, 96);
+        final float centerX, centerY, centerZ;
+        final List<Member> members = new ArrayList<>();
+        int level;
+        boolean needsRebuild;
+        // Whether the listener has heard of it, so it isn't told about batches that never showed
+        boolean reported;
+
+        Batch(long cell, int color, float centerX, float centerY, float centerZ) {
+            this.cell = cell;
+            this.color = color;
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+        }
+
+        public int getObjectCount() {
+            return members.size();
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /** Center of the batch's cell, in world coordinates. */
+        public float getCenterX() {
+            return centerX;
+        }
+
+        public float getCenterY() {
+            return centerY;
+        }
+
+        public float getCenterZ() {
+            return centerZ;
+        }
+    }
+
+    private static final class Member {
+        final String anchorId;
+        final AnchorRecord record = new AnchorRecord();
+        MeshData source;
+        Batch batch;
+        int firstVertex;
+        boolean individual;
+
+        Member(String anchorId) {
+            this.anchorId = anchorId;
+        }
+    }
+
+    /** Lookup key for batches; one scratch instance is reused for lookups. */
+    private static final class BatchKey {
+        long cell;
+        int color;
+
+        BatchKey set(long cell, int color) {
+            this.cell = cell;
+            this.color = color;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BatchKey && ((BatchKey) o).cell == cell && ((BatchKey) o).color == color;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(cell) * 31 + color;
+        }
+    }
+
+    // Cell coordinates are packed into 21 bits each
+    private static final int CELL_BITS = 21;
+    private static final int CELL_MASK = (1 << CELL_BITS) - 1;
+
+    private final float cellSize;
+    private final float inverseCellSize;
+    // Bounding sphere of a cell, for the level of detail
+    private final float cellRadius;
+    private final MeshSource source;
+    private final Map<String, Member> members = new HashMap<>();
+    private final Map<BatchKey, Batch> batches = new HashMap<>();
+    // The same batches, for walking them every frame without an iterator
+    private final List<Batch> batchList = new ArrayList<>();
+    private final Set<Batch> changed = new LinkedHashSet<>();
+    private final BatchKey scratchKey = new BatchKey();
+    private Listener listener;
+    private int individualCount;
+
+    private long rebuilds;
+    private long patches;
+    private long appends;
+    private long levelChanges;
+
+    /**
+     * @param cellSize - edge of a batching cell in meters; larger cells mean fewer draw calls
+     *                 but bigger rebuilds and coarser culling
+     */
+    public MeshBatcher(float cellSize, MeshSource source) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be > 0, got " + cellSize);
+        }
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+        this.cellRadius = cellSize * (float) Math.sqrt(3) / 2;
+        this.source = source;
+    }
+
+    /** Radius of the sphere around a cell; shapes near its faces reach out by their own size. */
+    public float getCellRadius() {
+        return cellRadius;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Adds an object, or moves or restyles it if it is already known. */
+    public void put(String anchorId, AnchorRecord record) {
+        Member member = members.get(anchorId);
+        if (member == null) {
+            member = new Member(anchorId);
+            members.put(anchorId, member);
+        }
+        member.record.copyFrom(record);
+        if (member.individual) {
+            member.source = source.meshFor(record, 0);
+            return;
+        }
+
+        Batch target = batchFor(record);
+        MeshData mesh = source.meshFor(record, target.level);
+        boolean sameMesh = member.source == mesh;
+        member.source = mesh;
+        if (member.batch == target && sameMesh) {
+            if (!target.needsRebuild) {
+                MeshMerger.transform(mesh, member.record, target.mesh, member.firstVertex);
+                patches++;
+            }
+            changed.add(target);
+            return;
+        }
+        leaveBatch(member);
+        joinBatch(member, target);
+    }
+
+    public void remove(String anchorId) {
+        Member member = members.remove(anchorId);
+        if (member == null) {
+            return;
+        }
+        if (member.individual) {
+            individualCount--;
+        }
+        leaveBatch(member);
+    }
+
+    /**
+     * Takes an object out of its batch to be drawn on its own, for instance while it is selected,
+     * or puts it back.
+     */
+    public void setIndividual(String anchorId, boolean individual) {
+        Member member = members.get(anchorId);
+        if (member == null || member.individual == individual) {
+            return;
+        }
+        member.individual = individual;
+        if (individual) {
+            individualCount++;
+            leaveBatch(member);
+        } else {
+            individualCount--;
+            Batch target = batchFor(member.record);
+            member.source = source.meshFor(member.record, target.level);
+            joinBatch(member, target);
+        }
+    }
+
+    public boolean isBatched(String anchorId) {
+        Member member = members.get(anchorId);
+        return member != null && member.batch != null;
+    }
+
+    /**
+     * Picks each batch's level of detail for a camera at the given position; batches that change
+     * level are rebuilt on the next {@link #flush}.
+     *
+     * @param tanHalfFovY - tangent of half the camera's vertical field of view
+     * @return number of batches whose level changed
+     */
+    public int updateLevels(LodSelector selector, float cameraX, float cameraY, float cameraZ, float tanHalfFovY) {
+        int count = 0;
+        for (int i = 0; i < batchList.size(); i++) {
+            Batch batch = batchList.get(i);
+            float dx = batch.centerX - cameraX;
+            float dy = batch.centerY - cameraY;
+            float dz = batch.centerZ - cameraZ;
+            float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            int level = selector.select(batch.level, LodSelector.screenSize(cellRadius, distance, tanHalfFovY));
+            if (level != batch.level) {
+                batch.level = level;
+                batch.needsRebuild = true;
+                changed.add(batch);
+                count++;
+            }
+        }
+        levelChanges += count;
+        return count;
+    }
+
+    /**
+     * Rebuilds the cells that lost objects and tells the listener about every batch that changed.
+     *
+     * @return number of batches that changed
+     */
+    public int flush() {
+        int count = changed.size();
+        if (count == 0) {
+            return 0;
+        }
+        for (Batch batch : changed) {
+            if (batch.members.isEmpty()) {
+                batches.remove(scratchKey.set(batch.cell, batch.color));
+                batchList.remove(batch);
+                if (listener != null && batch.reported) {
+                    listener.onBatchRemoved(batch);
+                }
+                continue;
+            }
+            if (batch.needsRebuild) {
+                rebuild(batch);
+            }
+            if (listener != null) {
+                listener.onBatchUpdated(batch);
+                batch.reported = true;
+            }
+        }
+        changed.clear();
+        return count;
+    }
+
+    // ------------------------------
+    // -------- Scene events --------
+    // ------------------------------
+
+    @Override
+    public void onAnchorAdded(String anchorId, AnchorRecord record) {
+        put(anchorId, record);
+    }
+
+    @Override
+    public void onAnchorChanged(String anchorId, AnchorRecord record) {
+        put(anchorId, record);
+    }
+
+    @Override
+    public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+        remove(anchorId);
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    public int getBatchCount() {
+        return batches.size();
+    }
+
+    public int getIndividualCount() {
+        return individualCount;
+    }
+
+    /** Draw calls for everything known: one per batch plus one per individual object. */
+    public int getDrawCallCount() {
+        return batches.size() + individualCount;
+    }
+
+    /** Batches whose mesh was rebuilt from all their objects. */
+    public long getRebuildCount() {
+        return rebuilds;
+    }
+
+    /** Moves applied by rewriting one object's vertices in place. */
+    public long getPatchCount() {
+        return patches;
+    }
+
+    /** Objects appended to a batch without rebuilding it. */
+    public long getAppendCount() {
+        return appends;
+    }
+
+    /** Batches moved to another level of detail. */
+    public long getLevelChangeCount() {
+        return levelChanges;
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private Batch batchFor(AnchorRecord record) {
+        long x = cell(record.px);
+        long y = cell(record.py);
+        long z = cell(record.pz);
+        long cell = (x & CELL_MASK) << 2 * CELL_BITS | (y & CELL_MASK) << CELL_BITS | z & CELL_MASK;
+        Batch batch = batches.get(scratchKey.set(cell, record.color));
+        if (batch == null) {
+            batch = new Batch(cell, record.color, (x + 0.5f) * cellSize, (y + 0.5f) * cellSize, (z + 0.5f) * cellSize);
+            batches.put(new BatchKey().set(cell, record.color), batch);
+            batchList.add(batch);
+        }
+        return batch;
+    }
+
+    private long cell(float v) {
+        return (long) Math.floor(v * inverseCellSize);
+    }
+
+    private void joinBatch(Member member, Batch batch) {
+        member.batch = batch;
+        batch.members.add(member);
+        if (!batch.needsRebuild) {
+            member.firstVertex = MeshMerger.append(member.source, member.record, batch.mesh);
+            appends++;
+        }
+        changed.add(batch);
+    }
+
+    private void leaveBatch(Member member) {
+        Batch batch = member.batch;
+        if (batch == null) {
+            return;
+        }
+        batch.members.remove(member);
+        batch.needsRebuild = true;
+        member.batch = null;
+        changed.add(batch);
+    }
+
+    private void rebuild(Batch batch) {
+        batch.mesh.clear();
+        for (int i = 0; i < batch.members.size(); i++) {
+            Member member = batch.members.get(i);
+            member.source = source.meshFor(member.record, batch.level);
+            member.firstVertex = MeshMerger.append(member.source, member.record, batch.mesh);
+        }
+        batch.needsRebuild = false;
+        rebuilds++;
+    }
+}
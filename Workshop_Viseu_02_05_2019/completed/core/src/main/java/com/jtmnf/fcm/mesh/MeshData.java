@@ -0,0 +1,78 @@
+package com.jtmnf.fcm.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Triangle mesh in flat arrays: per vertex a position (x, y, z), a normal and a texture
+ * coordinate (u, v), plus indices, three per triangle. The layout matches what a Sceneform
+ * RenderableDefinition is built from, without depending on it.
+ *
+ * <p>Arrays grow as needed and may be longer than the counts; only the first vertexCount and
+ * indexCount entries are meaningful.
+ */
+public final class MeshData {
+
+    public float[] positions;
+    public float[] normals;
+    public float[] uvs;
+    public int[] indices;
+    public int vertexCount;
+    public int indexCount;
+
+    public MeshData(int vertexCapacity, int indexCapacity) {
+        positions = new float[vertexCapacity * 3];
+        normals = new float[vertexCapacity * 3];
+        uvs = new float[vertexCapacity * 2];
+        indices = new int[indexCapacity];
+    }
+
+    public int getTriangleCount() {
+        return indexCount / 3;
+    }
+
+    /** Approximate size of the data, for cache budgets. */
+    public long estimatedBytes() {
+        return (long) vertexCount * (3 + 3 + 2) * 4 + (long) indexCount * 4;
+    }
+
+    public void clear() {
+        vertexCount = 0;
+        indexCount = 0;
+    }
+
+    /** Makes room for this many more vertices and indices. */
+    public void reserve(int vertices, int indexes) {
+        int neededVertices = vertexCount + vertices;
+        if (neededVertices * 3 > positions.length) {
+            int capacity = Math.max(neededVertices, positions.length / 3 * 2);
+            positions = Arrays.copyOf(positions, capacity * 3);
+            normals = Arrays.copyOf(normals, capacity * 3);
+            uvs = Arrays.copyOf(uvs, capacity * 2);
+        }
+        int neededIndices = indexCount + indexes;
+        if (neededIndices > indices.length) {
+            indices = Arrays.copyOf(indices, Math.max(neededIndices, indices.length * 2));
+        }
+    }
+
+    /** Adds a vertex and returns its index. Call {@link #reserve} first. */
+    public int vertex(float x, float y, float z, float nx, float ny, float nz, float u, float v) {
+        int i = vertexCount++;
+        positions[i * 3] = x;
+        positions[i * 3 + 1] = y;
+        positions[i * 3 + 2] = z;
+        normals[i * 3] = nx;
+        normals[i * 3 + 1] = ny;
+        normals[i * 3 + 2] = nz;
+        uvs[i * 2] = u;
+        uvs[i * 2 + 1] = v;
+        return i;
+    }
+
+    /** Adds a triangle. Call {@link #reserve} first. */
+    public void triangle(int a, int b, int c) {
+        indices[indexCount++] = a;
+        indices[indexCount++] = b;
+        indices[indexCount++] = c;
+    }
+}
@@ -0,0 +1,64 @@
+package com.jtmnf.fcm.mesh;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+/**
+ * Copies meshes into a larger one, moved to an anchor's pose: positions are rotated and
+ * translated, normals rotated, and indices shifted to the vertices' new place. Nothing is
+ * allocated beyond growing the destination.
+ */
+public final class MeshMerger {
+
+    private MeshMerger() {
+    }
+
+    /**
+     * Appends src, placed at the record's position and rotation, to dst.
+     *
+     * @return index of the first vertex written
+     */
+    public static int append(MeshData src, AnchorRecord pose, MeshData dst) {
+        dst.reserve(src.vertexCount, src.indexCount);
+        int first = dst.vertexCount;
+        transform(src, pose, dst, first);
+        dst.vertexCount += src.vertexCount;
+        for (int i = 0; i < src.indexCount; i++) {
+            dst.indices[dst.indexCount++] = src.indices[i] + first;
+        }
+        return first;
+    }
+
+    /**
+     * Overwrites src.vertexCount vertices of dst from index first, for an object that moved but
+     * kept its mesh. Indices don't change.
+     */
+    public static void transform(MeshData src, AnchorRecord pose, MeshData dst, int first) {
+        float qx = pose.qx, qy = pose.qy, qz = pose.qz, qw = pose.qw;
+        // Rotation matrix of the quaternion
+        float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+        float xy = qx * qy, xz = qx * qz, yz = qy * qz;
+        float wx = qw * qx, wy = qw * qy, wz = qw * qz;
+        float m00 = 1 - 2 * (yy + zz), m01 = 2 * (xy - wz), m02 = 2 * (xz + wy);
+        float m10 = 2 * (xy + wz), m11 = 1 - 2 * (xx + zz), m12 = 2 * (yz - wx);
+        float m20 = 2 * (xz - wy), m21 = 2 * (yz + wx), m22 = 1 - 2 * (xx + yy);
+
+        float[] sp = src.positions;
+        float[] sn = src.normals;
+        float[] dp = dst.positions;
+        float[] dn = dst.normals;
+        int out = first * 3;
+        for (int i = 0, n = src.vertexCount * 3; i < n; i += 3, out += 3) {
+            float x = sp[i], y = sp[i + 1], z = sp[i + 2];
+            dp[out] = m00 * x + m01 * y + m02 * z + pose.px;
+            dp[out + 1] = m10 * x + m11 * y + m12 * z + pose.py;
+            dp[out + 2] = m20 * x + m21 * y + m22 * z + pose.pz;
+            x = sn[i];
+            y = sn[i + 1];
+            z = sn[i + 2];
+            dn[out] = m00 * x + m01 * y + m02 * z;
+            dn[out + 1] = m10 * x + m11 * y + m12 * z;
+            dn[out + 2] = m20 * x + m21 * y + m22 * z;
+        }
+        System.arraycopy(src.uvs, 0, dst.uvs, first * 2, src.vertexCount * 2);
+    }
+}
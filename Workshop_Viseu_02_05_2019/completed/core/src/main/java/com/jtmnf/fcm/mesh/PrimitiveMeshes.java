@@ -0,0 +1,143 @@
+package com.jtmnf.fcm.mesh;
+
+import com.jtmnf.fcm.anchor.ShapeType;
+
+/**
+ * Builds the same primitives as Sceneform's ShapeFactory, as plain {@link MeshData}: a cube with
+ * flat faces, a UV sphere and a capped cylinder, each around a given center.
+ */
+public final class PrimitiveMeshes {
+
+    /** Segments around spheres and cylinders, and rings of a sphere, in ShapeFactory. */
+    public static final int DEFAULT_SEGMENTS = 24;
+    public static final int DEFAULT_RINGS = 24;
+
+    private PrimitiveMeshes() {
+    }
+
+    /** The mesh ShapeFactory would build for a shape, with the extents as in {@link com.jtmnf.fcm.anchor.AnchorRecord}. */
+    public static MeshData forShape(ShapeType shape, float sx, float sy, float sz, float cx, float cy, float cz) {
+        switch (shape) {
+            case CUBE:
+                return cube(sx, sy, sz, cx, cy, cz);
+            case CYLINDER:
+                return cylinder(sx / 2, sy, DEFAULT_SEGMENTS, cx, cy, cz);
+            case SPHERE:
+            default:
+                return sphere(sx / 2, DEFAULT_SEGMENTS, DEFAULT_RINGS, cx, cy, cz);
+        }
+    }
+
+    /** 24 vertices (4 per face, so faces stay flat) and 12 triangles. */
+    public static MeshData cube(float sx, float sy, float sz, float cx, float cy, float cz) {
+        MeshData mesh = new MeshData(24, 36);
+        float hx = sx / 2;
+        float hy = sy / 2;
+        float hz = sz / 2;
+        // Normal, then the two in-plane axes, per face
+        float[][] faces = {
+                {0, 0, 1, 1, 0, 0, 0, 1, 0},
+                {0, 0, -1, -1, 0, 0, 0, 1, 0},
+                {1, 0, 0, 0, 0, -1, 0, 1, 0},
+                {-1, 0, 0, 0, 0, 1, 0, 1, 0},
+                {0, 1, 0, 1, 0, 0, 0, 0, -1},
+                {0, -1, 0, 1, 0, 0, 0, 0, 1}};
+        for (float[] f : faces) {
+            int first = mesh.vertexCount;
+            for (int corner = 0; corner < 4; corner++) {
+                float a = corner == 1 || corner == 2 ? 1 : -1;
+                float b = corner >= 2 ? 1 : -1;
+                float x = f[0] + a * f[3] + b * f[6];
+                float y = f[1] + a * f[4] + b * f[7];
+                float z = f[2] + a * f[5] + b * f[8];
+                mesh.vertex(cx + x * hx, cy + y * hy, cz + z * hz, f[0], f[1], f[2], (a + 1) / 2, (b + 1) / 2);
+            }
+            mesh.triangle(first, first + 1, first + 2);
+            mesh.triangle(first, first + 2, first + 3);
+        }
+        return mesh;
+    }
+
+    /** (segments + 1) * (rings + 1) vertices and 2 * segments * (rings - 1) triangles. */
+    public static MeshData sphere(float radius, int segments, int rings, float cx, float cy, float cz) {
+        if (segments < 3 || rings < 2) {
+            throw new IllegalArgumentException("need at least 3 segments and 2 rings");
+        }
+        MeshData mesh = new MeshData((segments + 1) * (rings + 1), 6 * segments * (rings - 1));
+        for (int ring = 0; ring <= rings; ring++) {
+            double polar = Math.PI * ring / rings;
+            float y = (float) Math.cos(polar);
+            float r = (float) Math.sin(polar);
+            for (int segment = 0; segment <= segments; segment++) {
+                double azimuth = 2 * Math.PI * segment / segments;
+                float x = r * (float) Math.cos(azimuth);
+                float z = r * (float) Math.sin(azimuth);
+                mesh.vertex(cx + x * radius, cy + y * radius, cz + z * radius, x, y, z,
+                        (float) segment / segments, (float) ring / rings);
+            }
+        }
+        int stride = segments + 1;
+        for (int ring = 0; ring < rings; ring++) {
+            for (int segment = 0; segment < segments; segment++) {
+                int a = ring * stride + segment;
+                int b = a + stride;
+                // The poles collapse one triangle of each quad
+                if (ring != 0) {
+                    mesh.triangle(a, a + 1, b);
+                }
+                if (ring != rings - 1) {
+                    mesh.triangle(a + 1, b + 1, b);
+                }
+            }
+        }
+        return mesh;
+    }
+
+    /**
+     * Side as one quad per segment, plus two fans for the caps: 4 * (segments + 1) + 2 vertices
+     * and 4 * segments triangles.
+     */
+    public static MeshData cylinder(float radius, float height, int segments, float cx, float cy, float cz) {
+        if (segments < 3) {
+            throw new IllegalArgumentException("need at least 3 segments");
+        }
+        MeshData mesh = new MeshData(4 * (segments + 1) + 2, 12 * segments);
+        float bottom = cy - height / 2;
+        float top = cy + height / 2;
+        // Side: a bottom and a top vertex per segment, with outward normals
+        for (int segment = 0; segment <= segments; segment++) {
+            double azimuth = 2 * Math.PI * segment / segments;
+            float x = (float) Math.cos(azimuth);
+            float z = (float) Math.sin(azimuth);
+            float u = (float) segment / segments;
+            mesh.vertex(cx + x * radius, bottom, cz + z * radius, x, 0, z, u, 0);
+            mesh.vertex(cx + x * radius, top, cz + z * radius, x, 0, z, u, 1);
+        }
+        for (int segment = 0; segment < segments; segment++) {
+            int a = segment * 2;
+            mesh.triangle(a, a + 1, a + 3);
+            mesh.triangle(a, a + 3, a + 2);
+        }
+        // Caps: a center plus a ring each, facing up and down
+        for (int cap = 0; cap < 2; cap++) {
+            float y = cap == 0 ? top : bottom;
+            float ny = cap == 0 ? 1 : -1;
+            int center = mesh.vertex(cx, y, cz, 0, ny, 0, 0.5f, 0.5f);
+            for (int segment = 0; segment <= segments; segment++) {
+                double azimuth = 2 * Math.PI * segment / segments;
+                float x = (float) Math.cos(azimuth);
+                float z = (float) Math.sin(azimuth);
+                mesh.vertex(cx + x * radius, y, cz + z * radius, 0, ny, 0, (x + 1) / 2, (z + 1) / 2);
+            }
+            for (int segment = 0; segment < segments; segment++) {
+                int a = center + 1 + segment;
+                if (cap == 0) {
+                    mesh.triangle(center, a + 1, a);
+                } else {
+                    mesh.triangle(center, a, a + 1);
+                }
+            }
+        }
+        return mesh;
+    }
+}
@@ -0,0 +1,28 @@
+package com.jtmnf.fcm.messaging;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+/** One change to the room, parsed from a data message. */
+public final class SceneEvent {
+
+    public enum Type {
+        PUT, REMOVE
+    }
+
+    public Type type;
+    public String anchorId;
+    // Only meaningful for PUT
+    public final AnchorRecord record = new AnchorRecord();
+
+    public SceneEvent copyFrom(SceneEvent other) {
+        type = other.type;
+        anchorId = other.anchorId;
+        record.copyFrom(other.record);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.PUT ? "put " + anchorId + " " + record : "remove " + anchorId;
+    }
+}
@@ -0,0 +1,202 @@
+package com.jtmnf.fcm.messaging;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Turns a stream of data messages into batches of scene events for the main thread.
+ *
+ * <p>Messages are parsed on one background thread, which keeps them in arrival order without any
+ * per-anchor bookkeeping. Parsed events are coalesced by anchor id (the latest wins) until the main
+ * thread takes them; at most one main-thread task is outstanding at a time, however many messages
+ * arrive in between.
+ *
+ * <p>Memory is bounded on both sides: {@link #offer} blocks while the raw message queue is full,
+ * and the parser blocks while the main thread hasn't taken the coalesced events and too many
+ * distinct anchors are waiting.
+ */
+public class SceneMessageDispatcher {
+
+    public interface Listener {
+        /** Called on the main thread. The events are only valid during the call. */
+        void onSceneEvents(List<SceneEvent> events);
+    }
+
+    private final BlockingQueue<Map<String, String>> messages;
+    private final Executor mainThread;
+    private final int maxPendingEvents;
+    private final Thread parserThread;
+    private volatile Listener listener;
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private LinkedHashMap<String, SceneEvent> pending = new LinkedHashMap<>();
+    private LinkedHashMap<String, SceneEvent> spare = new LinkedHashMap<>();
+    private final List<SceneEvent> recycled = new ArrayList<>();
+    private boolean posted;
+    private long received;
+    private long rejected;
+    private long coalesced;
+    private long batches;
+    private long delivered;
+
+    // Only touched by the main thread
+    private final List<SceneEvent> batch = new ArrayList<>();
+
+    /**
+     * @param mainThread       - runs the hand-off on the UI thread, ideally on the next frame
+     * @param queueCapacity    - raw messages that may wait to be parsed before offer blocks
+     * @param maxPendingEvents - distinct anchors that may wait for the main thread before parsing blocks
+     */
+    public SceneMessageDispatcher(Executor mainThread, int queueCapacity, int maxPendingEvents) {
+        if (queueCapacity < 1 || maxPendingEvents < 1) {
+            throw new IllegalArgumentException("capacities must be >= 1");
+        }
+        this.messages = new ArrayBlockingQueue<>(queueCapacity);
+        this.mainThread = mainThread;
+        this.maxPendingEvents = maxPendingEvents;
+        this.parserThread = new Thread(this::parseLoop, "scene-messages");
+        this.parserThread.setDaemon(true);
+        this.parserThread.start();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a message's data payload, waiting for room if the parser is behind.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void offer(Map<String, String> data) throws InterruptedException {
+        messages.put(data);
+    }
+
+    /** Stops the parser thread. Messages still queued are discarded. */
+    public void shutdown() {
+        parserThread.interrupt();
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** Messages parsed so far, including rejected ones. */
+    public long getReceivedCount() {
+        synchronized (lock) {
+            return received;
+        }
+    }
+
+    /** Messages that weren't scene events. */
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejected;
+        }
+    }
+
+    /** Events replaced by a newer one for the same anchor before the main thread saw them. */
+    public long getCoalescedCount() {
+        synchronized (lock) {
+            return coalesced;
+        }
+    }
+
+    /** Main-thread hand-offs so far. */
+    public long getBatchCount() {
+        synchronized (lock) {
+            return batches;
+        }
+    }
+
+    /** Events handed to the main thread so far. */
+    public long getDeliveredCount() {
+        synchronized (lock) {
+            return delivered;
+        }
+    }
+
+    // --------------------------
+    // -------- Internal --------
+    // --------------------------
+
+    private void parseLoop() {
+        SceneMessageParser parser = new SceneMessageParser();
+        SceneEvent parsed = new SceneEvent();
+        try {
+            while (true) {
+                Map<String, String> data = messages.take();
+                boolean valid;
+                try {
+                    parser.parse(data, parsed);
+                    valid = true;
+                } catch (IllegalArgumentException e) {
+                    valid = false;
+                }
+                enqueue(parsed, valid);
+            }
+        } catch (InterruptedException e) {
+            // shutdown()
+        }
+    }
+
+    private void enqueue(SceneEvent parsed, boolean valid) throws InterruptedException {
+        synchronized (lock) {
+            received++;
+            if (!valid) {
+                rejected++;
+                return;
+            }
+            SceneEvent existing = pending.get(parsed.anchorId);
+            if (existing != null) {
+                existing.copyFrom(parsed);
+                coalesced++;
+            } else {
+                while (pending.size() >= maxPendingEvents) {
+                    lock.wait();
+                }
+                SceneEvent event = recycled.isEmpty() ? new SceneEvent() : recycled.remove(recycled.size() - 1);
+                pending.put(parsed.anchorId, event.copyFrom(parsed));
+            }
+            if (!posted) {
+                // Posted under the lock so the counters never show an event that has no hand-off yet
+                posted = true;
+                mainThread.execute(this::deliver);
+            }
+        }
+    }
+
+    private void deliver() {
+        LinkedHashMap<String, SceneEvent> events;
+        synchronized (lock) {
+            events = pending;
+            pending = spare;
+            spare = null;
+            posted = false;
+            batches++;
+            delivered += events.size();
+            lock.notifyAll();
+        }
+
+        batch.addAll(events.values());
+        Listener current = listener;
+        try {
+            if (current != null && !batch.isEmpty()) {
+                current.onSceneEvents(batch);
+            }
+        } finally {
+            synchronized (lock) {
+                recycled.addAll(batch);
+                events.clear();
+                spare = events;
+            }
+            batch.clear();
+        }
+    }
+}
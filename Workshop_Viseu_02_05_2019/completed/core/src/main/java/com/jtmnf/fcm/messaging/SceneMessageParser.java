@@ -0,0 +1,52 @@
+package com.jtmnf.fcm.messaging;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+
+import java.util.Map;
+
+/**
+ * Reads the data payload of an FCM message into a {@link SceneEvent}.
+ *
+ * <pre>
+ *   op     "put" or "remove"
+ *   id     anchor id, the same key used in the database
+ *   value  for a put, the base64 {@link AnchorCodec} record
+ * </pre>
+ *
+ * <p>Keeps scratch buffers, so each thread needs its own instance.
+ */
+public class SceneMessageParser {
+
+    public static final String KEY_OP = "op";
+    public static final String KEY_ID = "id";
+    public static final String KEY_VALUE = "value";
+    public static final String OP_PUT = "put";
+    public static final String OP_REMOVE = "remove";
+
+    private final AnchorCodec codec = new AnchorCodec();
+
+    /**
+     * @throws IllegalArgumentException if the payload isn't a scene event
+     */
+    public SceneEvent parse(Map<String, String> data, SceneEvent into) {
+        String op = data.get(KEY_OP);
+        String anchorId = data.get(KEY_ID);
+        if (anchorId == null || anchorId.isEmpty()) {
+            throw new IllegalArgumentException("Missing anchor id");
+        }
+        if (OP_PUT.equals(op)) {
+            String value = data.get(KEY_VALUE);
+            if (value == null) {
+                throw new IllegalArgumentException("Put without a value");
+            }
+            codec.fromBase64(value, into.record);
+            into.type = SceneEvent.Type.PUT;
+        } else if (OP_REMOVE.equals(op)) {
+            into.type = SceneEvent.Type.REMOVE;
+        } else {
+            throw new IllegalArgumentException("Unknown op " + op);
+        }
+        into.anchorId = anchorId;
+        return into;
+    }
+}
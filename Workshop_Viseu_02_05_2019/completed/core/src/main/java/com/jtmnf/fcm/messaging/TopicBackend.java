@@ -0,0 +1,19 @@
+package com.jtmnf.fcm.messaging;
+
+/**
+ * The FCM topic calls {@link TopicRegistry} needs. On the device this wraps
+ * FirebaseMessaging.subscribeToTopic and unsubscribeFromTopic; tests use a fake that counts them.
+ *
+ * <p>Callbacks must arrive on the thread the registry is used from.
+ */
+public interface TopicBackend {
+
+    interface Callback {
+        /** @param error - null on success */
+        void onComplete(Exception error);
+    }
+
+    void subscribe(String topic, Callback callback);
+
+    void unsubscribe(String topic, Callback callback);
+}
@@ -0,0 +1,410 @@
+package com.jtmnf.fcm.messaging;
+
+import com.jtmnf.fcm.util.Backoff;
+import com.jtmnf.fcm.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers the FCM registration token and the topics this install should be subscribed to,
+ * across runs, and makes the subscribe and unsubscribe calls that get it there.
+ *
+ * <p>Two sets are kept: the topics wanted and the topics the backend confirmed. Changes to the
+ * wanted set are collected for a short window, then only the difference goes out: a topic already
+ * confirmed costs nothing, and one wanted and dropped again inside the window never reaches the
+ * network. Both sets are saved with the token, so a launch that wants what the last one got makes
+ * no calls at all.
+ *
+ * <p>Subscriptions belong to a token: when it changes, nothing counts as confirmed anymore and
+ * every wanted topic is subscribed again. Calls run a few at a time. A failed call is retried
+ * after an exponential backoff with jitter, as {@link com.jtmnf.fcm.cloud.CloudAnchorQueue} does;
+ * a topic whose call runs out of attempts is left alone until {@link #retryFailed()}, the next
+ * token or the next launch.
+ *
+ * <p>Nothing is called before a token is known, either saved by an earlier run or given to
+ * {@link #setToken}.
+ *
+ * <p>Not thread-safe: call it from the main thread, and have the scheduler, storage and backend
+ * callbacks run there too.
+ */
+public class TopicRegistry {
+
+    // What FCM accepts as a topic name
+    private static final Pattern TOPIC = Pattern.compile("[a-zA-Z0-9-_.~%]{1,900}");
+
+    private static final int RUNNING = 0;
+    private static final int BACKING_OFF = 1;
+    private static final int READY = 2;
+
+    private static final class Call {
+        final String topic;
+        // The token generation it was made for; a new token makes it stale
+        final int generation;
+        boolean subscribe;
+        int state;
+        int attempts;
+
+        Call(String topic, int generation) {
+            this.topic = topic;
+            this.generation = generation;
+        }
+    }
+
+    private final TopicBackend backend;
+    private final TopicStorage storage;
+    private final Scheduler scheduler;
+    private final long windowMillis;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final Backoff backoff;
+
+    private String token;
+    private final Set<String> wanted = new LinkedHashSet<>();
+    private final Set<String> confirmed = new LinkedHashSet<>();
+    // Topics asked for or dropped since the last flush, to count the ones that needed no call
+    private final Set<String> touched = new HashSet<>();
+    // Calls running, backing off or waiting for a slot, by topic
+    private final Map<String, Call> calls = new HashMap<>();
+    // Topics whose calls ran out of attempts
+    private final Set<String> failedTopics = new HashSet<>();
+    private int generation;
+    private int inFlight;
+    private boolean flushScheduled;
+    private boolean dispatching;
+    private boolean dirty;
+
+    private long callCount;
+    private long avoided;
+    private long retries;
+    private long failures;
+    private long saves;
+
+    /**
+     * Loads what the last run saved.
+     *
+     * @param windowMillis      - how long changes are collected before the calls go out
+     * @param maxInFlight       - calls running at once
+     * @param maxAttempts       - calls made for one change before giving up, at least 1
+     * @param baseBackoffMillis - delay cap before the first retry; it doubles with each one
+     * @param maxBackoffMillis  - the most the cap grows to
+     */
+    public TopicRegistry(TopicBackend backend, TopicStorage storage, Scheduler scheduler, long windowMillis,
+                         int maxInFlight, int maxAttempts, long baseBackoffMillis, long maxBackoffMillis,
+                         Random random) {
+        if (windowMillis < 0 || maxInFlight < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("bad limits");
+        }
+        this.backend = backend;
+        this.storage = storage;
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.backoff = new Backoff(baseBackoffMillis, maxBackoffMillis, random);
+
+        token = storage.load(wanted, confirmed);
+        if (token != null && !wanted.equals(confirmed)) {
+            // The last run ended before everything was confirmed
+            scheduleFlush();
+        }
+    }
+
+    /** @return whether FCM accepts this as a topic name */
+    public static boolean isValidTopic(String topic) {
+        return topic != null && TOPIC.matcher(topic).matches();
+    }
+
+    /** Takes the token FCM handed out; a different one than before means subscribing all over. */
+    public void setToken(String token) {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("no token");
+        }
+        if (token.equals(this.token)) {
+            return;
+        }
+        if (this.token != null) {
+            // Calls still running for the old token are ignored when they come back
+            generation++;
+            confirmed.clear();
+            calls.clear();
+            failedTopics.clear();
+        }
+        this.token = token;
+        dirty = true;
+        flush();
+    }
+
+    /** Wants exactly these topics, dropping any others. */
+    public void setTopics(Collection<String> topics) {
+        for (String topic : topics) {
+            checkTopic(topic);
+        }
+        for (String topic : new ArrayList<>(wanted)) {
+            if (!topics.contains(topic)) {
+                unsubscribe(topic);
+            }
+        }
+        for (String topic : topics) {
+            subscribe(topic);
+        }
+    }
+
+    public void subscribe(String topic) {
+        checkTopic(topic);
+        touched.add(topic);
+        failedTopics.remove(topic);
+        if (wanted.add(topic)) {
+            dirty = true;
+        }
+        scheduleFlush();
+    }
+
+    public void unsubscribe(String topic) {
+        checkTopic(topic);
+        touched.add(topic);
+        failedTopics.remove(topic);
+        if (wanted.remove(topic)) {
+            dirty = true;
+        }
+        scheduleFlush();
+    }
+
+    /** Sends the changes collected so far without waiting for the window to end. */
+    public void flush() {
+        flushScheduled = false;
+        if (token == null) {
+            return;
+        }
+        for (String topic : touched) {
+            Call call = calls.get(topic);
+            boolean subscribe = wanted.contains(topic);
+            if (subscribe == confirmed.contains(topic)) {
+                avoided++;
+            } else if (call != null && call.subscribe == subscribe) {
+                // Already on its way
+                avoided++;
+            }
+        }
+        touched.clear();
+        // Retries for topics that are where they should be again aren't needed
+        for (Iterator<Call> it = calls.values().iterator(); it.hasNext(); ) {
+            Call call = it.next();
+            if (call.state != RUNNING && wanted.contains(call.topic) == confirmed.contains(call.topic)) {
+                it.remove();
+            }
+        }
+        if (dirty) {
+            save();
+        }
+        dispatch();
+    }
+
+    /** Tries the topics that gave up again, e.g. once the device is back online. */
+    public void retryFailed() {
+        failedTopics.clear();
+        dispatch();
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /** @return the topics wanted, confirmed or not */
+    public Set<String> getTopics() {
+        return Collections.unmodifiableSet(wanted);
+    }
+
+    public boolean isConfirmed(String topic) {
+        return confirmed.contains(topic);
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private static void checkTopic(String topic) {
+        if (!isValidTopic(topic)) {
+            throw new IllegalArgumentException("not a topic name: " + topic);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, windowMillis);
+        }
+    }
+
+    private void save() {
+        dirty = false;
+        saves++;
+        storage.save(token, wanted, confirmed);
+    }
+
+    private void dispatch() {
+        // A backend that answers synchronously calls back into here; the outer loop carries on
+        if (dispatching || token == null) {
+            return;
+        }
+        dispatching = true;
+        try {
+            List<String> due = new ArrayList<>();
+            boolean started = true;
+            while (started && inFlight < maxInFlight) {
+                started = false;
+                due.clear();
+                for (String topic : wanted) {
+                    if (!confirmed.contains(topic)) {
+                        due.add(topic);
+                    }
+                }
+                for (String topic : confirmed) {
+                    if (!wanted.contains(topic)) {
+                        due.add(topic);
+                    }
+                }
+                for (int i = 0; i < due.size() && inFlight < maxInFlight; i++) {
+                    started |= startIfIdle(due.get(i));
+                }
+            }
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    private boolean startIfIdle(String topic) {
+        boolean subscribe = wanted.contains(topic);
+        if (subscribe == confirmed.contains(topic)) {
+            // Settled by a call that answered while this pass was running
+            return false;
+        }
+        Call call = calls.get(topic);
+        if (call == null) {
+            if (failedTopics.contains(topic)) {
+                return false;
+            }
+            call = new Call(topic, generation);
+            calls.put(topic, call);
+        } else if (call.state != READY) {
+            return false;
+        }
+        call.subscribe = subscribe;
+        call.state = RUNNING;
+        call.attempts++;
+        inFlight++;
+        callCount++;
+        Call running = call;
+        TopicBackend.Callback callback = error -> onComplete(running, error);
+        if (subscribe) {
+            backend.subscribe(topic, callback);
+        } else {
+            backend.unsubscribe(topic, callback);
+        }
+        return true;
+    }
+
+    private void onComplete(Call call, Exception error) {
+        inFlight--;
+        if (call.generation != generation) {
+            // Made for a token that has been replaced since
+            dispatch();
+            return;
+        }
+        if (error == null) {
+            calls.remove(call.topic);
+            if (call.subscribe) {
+                confirmed.add(call.topic);
+            } else {
+                confirmed.remove(call.topic);
+            }
+            save();
+        } else if (call.attempts < maxAttempts) {
+            call.state = BACKING_OFF;
+            scheduler.schedule(() -> retry(call), backoffMillis(call.attempts));
+        } else {
+            calls.remove(call.topic);
+            failedTopics.add(call.topic);
+            failures++;
+        }
+        dispatch();
+    }
+
+    private void retry(Call call) {
+        if (calls.get(call.topic) != call || call.state != BACKING_OFF) {
+            // Replaced by a new token, or no longer needed
+            return;
+        }
+        retries++;
+        call.state = READY;
+        dispatch();
+    }
+
+    /** Delay before the retry that follows this many attempts. */
+    long backoffMillis(int attempts) {
+        return backoff.delayMillis(attempts);
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** Wanted topics not confirmed yet, plus confirmed ones no longer wanted. */
+    public int getPendingCount() {
+        int pending = 0;
+        for (String topic : wanted) {
+            if (!confirmed.contains(topic)) {
+                pending++;
+            }
+        }
+        for (String topic : confirmed) {
+            if (!wanted.contains(topic)) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    /** Calls waiting for the backend to answer. */
+    public int getInFlightCount() {
+        return inFlight;
+    }
+
+    /** Calls made to the backend, retries included. */
+    public long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * Topics asked for or dropped that needed no call: already where they should be once the
+     * window ended, or already on their way.
+     */
+    public long getAvoidedCount() {
+        return avoided;
+    }
+
+    /** Calls made again after failing. */
+    public long getRetryCount() {
+        return retries;
+    }
+
+    /** Topics that ran out of attempts. */
+    public long getFailureCount() {
+        return failures;
+    }
+
+    /** Times the state was written to storage. */
+    public long getSaveCount() {
+        return saves;
+    }
+}
@@ -0,0 +1,22 @@
+package com.jtmnf.fcm.messaging;
+
+import java.util.Set;
+
+/**
+ * Where {@link TopicRegistry} keeps its state between runs. On the device this is a
+ * SharedPreferences file; tests keep it in memory.
+ */
+public interface TopicStorage {
+
+    /**
+     * Reads what was saved last.
+     *
+     * @param wanted    - filled in with the topics that were wanted
+     * @param confirmed - filled in with the topics the backend confirmed
+     * @return the token they were confirmed for, or null if nothing was saved
+     */
+    String load(Set<String> wanted, Set<String> confirmed);
+
+    /** Replaces what was saved; the sets are the registry's own, so copy them to keep them. */
+    void save(String token, Set<String> wanted, Set<String> confirmed);
+}
@@ -0,0 +1,135 @@
+package com.jtmnf.fcm.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Set of named counters and histograms, and their export.
+ *
+ * <p>Look metrics up once and keep the reference: registering is synchronized and allocates,
+ * recording is neither. Dumps are taken from snapshots, so they can run while other threads keep
+ * recording.
+ */
+public class Metrics {
+
+    private final List<Counter> counters = new ArrayList<>();
+    private final List<LatencyHistogram> histograms = new ArrayList<>();
+
+    /** Returns the counter with this name, creating it the first time. */
+    public synchronized Counter counter(String name) {
+        for (Counter counter : counters) {
+            if (counter.getName().equals(name)) {
+                return counter;
+            }
+        }
+        Counter counter = new Counter(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    /** Returns the histogram with this name, creating it the first time. */
+    public synchronized LatencyHistogram histogram(String name) {
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram.getName().equals(name)) {
+                return histogram;
+            }
+        }
+        LatencyHistogram histogram = new LatencyHistogram(name);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    public synchronized void reset() {
+        for (Counter counter : counters) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * One line per metric, meant for logcat. Latencies are in milliseconds.
+     */
+    public synchronized List<String> toLines() {
+        List<String> lines = new ArrayList<>();
+        for (LatencyHistogram histogram : histograms) {
+            LatencyHistogram.Snapshot s = histogram.snapshot();
+            lines.add(String.format(Locale.US, "%s: n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f ms",
+                    s.getName(), s.getCount(), millis(s.getMean()), millis(s.getValueAt(0.5)),
+                    millis(s.getValueAt(0.9)), millis(s.getValueAt(0.99)), millis(s.getMax())));
+        }
+        for (Counter counter : counters) {
+            lines.add(counter.getName() + ": " + counter.get());
+        }
+        return lines;
+    }
+
+    /**
+     * Writes every metric as one JSON object. Latencies are in nanoseconds.
+     *
+     * <pre>
+     * {"counters":{"name":1},"histograms":{"name":{"count":1,"mean":1.0,"p50":1,"p90":1,"p99":1,"p999":1,"max":1}}}
+     * </pre>
+     */
+    public synchronized void writeJson(Appendable out) throws IOException {
+        out.append("{\"counters\":{");
+        for (int i = 0; i < counters.size(); i++) {
+            Counter counter = counters.get(i);
+            if (i > 0) {
+                out.append(',');
+            }
+            appendString(out, counter.getName());
+            out.append(':').append(Long.toString(counter.get()));
+        }
+        out.append("},\"histograms\":{");
+        for (int i = 0; i < histograms.size(); i++) {
+            LatencyHistogram.Snapshot s = histograms.get(i).snapshot();
+            if (i > 0) {
+                out.append(',');
+            }
+            appendString(out, s.getName());
+            out.append(":{\"count\":").append(Long.toString(s.getCount()))
+                    .append(",\"mean\":").append(String.format(Locale.US, "%.1f", s.getMean()))
+                    .append(",\"p50\":").append(Long.toString(s.getValueAt(0.5)))
+                    .append(",\"p90\":").append(Long.toString(s.getValueAt(0.9)))
+                    .append(",\"p99\":").append(Long.toString(s.getValueAt(0.99)))
+                    .append(",\"p999\":").append(Long.toString(s.getValueAt(0.999)))
+                    .append(",\"max\":").append(Long.toString(s.getMax()))
+                    .append('}');
+        }
+        out.append("}}");
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeJson(builder);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static void appendString(Appendable out, String value) throws IOException {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
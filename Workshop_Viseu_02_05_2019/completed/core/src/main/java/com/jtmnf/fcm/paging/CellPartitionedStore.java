@@ -0,0 +1,124 @@
+package com.jtmnf.fcm.paging;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorStore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores anchors under the cell they stand in, for {@link ProximityPager} to read back. Callers
+ * keep writing plain anchor ids; each value is decoded for its position and sent to
+ * "cell/anchorId" instead. An anchor written to a different cell than before is deleted from
+ * the old one in the same multi-path write.
+ *
+ * <p>A deletion, like a move, needs the cell the anchor was last written to. For anchors this
+ * store didn't write, such as those placed in an earlier session, it asks the {@link Locator}.
+ * A deletion that still can't be located is left out of the write, and the write is reported as
+ * failed, so the caller keeps it for a later attempt.
+ *
+ * <p>Not thread-safe; use it from the main thread.
+ */
+public class CellPartitionedStore implements AnchorStore {
+
+    /** Knows where anchors are stored besides what this store wrote itself. */
+    public interface Locator {
+        /** @return the key of the cell the anchor is stored under, or null if unknown */
+        String getCellKey(String anchorId);
+    }
+
+    private final AnchorStore delegate;
+    private final float cellSize;
+    private final AnchorCodec codec = new AnchorCodec();
+    private final AnchorRecord scratch = new AnchorRecord();
+    // Cell key each anchor was last written to
+    private final Map<String, String> cells = new HashMap<>();
+    private Locator locator;
+
+    private long moves;
+    private long unlocated;
+
+    /** @param cellSize - cell edge in meters; readers must use the same */
+    public CellPartitionedStore(AnchorStore delegate, float cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be > 0, got " + cellSize);
+        }
+        this.delegate = delegate;
+        this.cellSize = cellSize;
+    }
+
+    public void setLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public String newKey() {
+        return delegate.newKey();
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> updates, Callback callback) {
+        Map<String, Object> routed = new HashMap<>(updates.size() * 2);
+        String lost = null;
+        for (Map.Entry<String, Object> e : updates.entrySet()) {
+            String anchorId = e.getKey();
+            String previous = locate(anchorId);
+            if (e.getValue() == null) {
+                if (previous == null) {
+                    unlocated++;
+                    lost = anchorId;
+                    continue;
+                }
+                cells.remove(anchorId);
+                routed.put(RoomCells.path(previous, anchorId), null);
+                continue;
+            }
+            codec.fromBase64((String) e.getValue(), scratch);
+            String cellKey = RoomCells.key(RoomCells.cellOf(scratch.px, scratch.pz, cellSize));
+            routed.put(RoomCells.path(cellKey, anchorId), e.getValue());
+            if (previous != null && !previous.equals(cellKey)) {
+                routed.put(RoomCells.path(previous, anchorId), null);
+                moves++;
+            }
+            cells.put(anchorId, cellKey);
+        }
+        if (lost == null) {
+            delegate.updateChildren(routed, callback);
+            return;
+        }
+        Exception unlocatedError = new IllegalStateException("No cell known to delete " + lost + " from");
+        if (routed.isEmpty()) {
+            callback.onComplete(unlocatedError);
+            return;
+        }
+        delegate.updateChildren(routed, error -> callback.onComplete(error != null ? error : unlocatedError));
+    }
+
+    /** @return the key of the cell this anchor was last written to or is found in, or null */
+    public String getCellKey(String anchorId) {
+        return locate(anchorId);
+    }
+
+    private String locate(String anchorId) {
+        String cellKey = cells.get(anchorId);
+        if (cellKey == null && locator != null) {
+            cellKey = locator.getCellKey(anchorId);
+        }
+        return cellKey;
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** Writes that took an anchor to another cell. */
+    public long getMoveCount() {
+        return moves;
+    }
+
+    /** Deletions left out because the anchor's cell wasn't known. */
+    public long getUnlocatedCount() {
+        return unlocated;
+    }
+}
@@ -0,0 +1,82 @@
+package com.jtmnf.fcm.paging;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Anchors known from an earlier session (the local journal), held back by cell until the
+ * {@link ProximityPager} loads the cell they stand in. Only then are they put in the scene, and
+ * claimed by that cell so they page out with it. The server's version of an anchor wins: one the
+ * cell already sent is not restored.
+ *
+ * <p>Each anchor is restored at most once; after that the cell's events keep it up to date.
+ * Not thread-safe; use it from the main thread.
+ */
+public class ParkedAnchors {
+
+    private final float cellSize;
+    private final Map<Long, Map<String, AnchorRecord>> cells = new HashMap<>();
+    private int size;
+
+    /** @param cellSize - cell edge in meters, the same as the pager's */
+    public ParkedAnchors(float cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be > 0, got " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    /** Holds a copy of the record until its cell is loaded; replaces an anchor held before. */
+    public void park(String anchorId, AnchorRecord record) {
+        long cell = RoomCells.cellOf(record.px, record.pz, cellSize);
+        Map<String, AnchorRecord> anchors = cells.get(cell);
+        if (anchors == null) {
+            anchors = new HashMap<>();
+            cells.put(cell, anchors);
+        }
+        if (anchors.put(anchorId, new AnchorRecord().copyFrom(record)) == null) {
+            size++;
+        }
+    }
+
+    /**
+     * Restores the anchors of every loaded cell into the engine. Cheap when nothing is parked;
+     * call it whenever the pager moved to another cell.
+     *
+     * @return anchors restored
+     */
+    public int restoreLoaded(ProximityPager pager, AnchorSyncEngine engine) {
+        int restored = 0;
+        Iterator<Map.Entry<Long, Map<String, AnchorRecord>>> it = cells.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Map<String, AnchorRecord>> e = it.next();
+            if (!pager.isLoaded(e.getKey())) {
+                continue;
+            }
+            it.remove();
+            for (Map.Entry<String, AnchorRecord> anchor : e.getValue().entrySet()) {
+                size--;
+                String anchorId = anchor.getKey();
+                AnchorRecord record = anchor.getValue();
+                if (engine.get(anchorId) == null && pager.claim(anchorId, record.px, record.pz)) {
+                    engine.restore(anchorId, record);
+                    restored++;
+                }
+            }
+        }
+        return restored;
+    }
+
+    /** Anchors still waiting for their cell. */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
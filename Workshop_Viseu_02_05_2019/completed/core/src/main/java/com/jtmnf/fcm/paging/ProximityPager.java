@@ -0,0 +1,289 @@
+package com.jtmnf.fcm.paging;
+
+import com.jtmnf.fcm.sync.AnchorEventSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An {@link AnchorEventSource} for rooms too large to load whole: it only listens to the cells
+ * (see {@link RoomCells}) within a radius of the user, and moves those subscriptions along as
+ * the user walks.
+ *
+ * <p>Cells are paged in nearest first. A cell is paged out once it is more than one ring beyond
+ * the radius, so walking along a cell border doesn't subscribe and unsubscribe on every step;
+ * the extra ring is kept only while there is room for it under the cell cap, the farthest cell
+ * going first. Anchors of a paged-out cell are reported with
+ * {@link AnchorEventSource.Listener#onUnloaded}, not as removals.
+ *
+ * <p>An anchor that moves between two loaded cells may be added to the new one before it is
+ * removed from the old; it belongs to whichever cell added it last, so it stays in the scene.
+ *
+ * <p>Listeners should be added before the first {@link #update}; one added later only hears
+ * about cells paged in after it. Not thread-safe; use it from the main thread.
+ */
+public class ProximityPager implements AnchorEventSource {
+
+    /** Opens the child events of one cell node. */
+    public interface CellSources {
+        AnchorEventSource open(String cellKey);
+    }
+
+    private final class Cell implements AnchorEventSource.Listener {
+        final long code;
+        final AnchorEventSource source;
+        final Set<String> anchors = new HashSet<>();
+
+        Cell(long code, AnchorEventSource source) {
+            this.code = code;
+            this.source = source;
+        }
+
+        @Override
+        public void onAdded(String anchorId, String value) {
+            claim(anchorId);
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAdded(anchorId, value);
+            }
+        }
+
+        @Override
+        public void onChanged(String anchorId, String value) {
+            claim(anchorId);
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onChanged(anchorId, value);
+            }
+        }
+
+        @Override
+        public void onRemoved(String anchorId) {
+            anchors.remove(anchorId);
+            if (owners.get(anchorId) != this) {
+                // Moved to another cell, which already reported it
+                return;
+            }
+            owners.remove(anchorId);
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onRemoved(anchorId);
+            }
+        }
+
+        @Override
+        public void onError(Exception error) {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onError(error);
+            }
+        }
+
+        private void claim(String anchorId) {
+            Cell previous = owners.put(anchorId, this);
+            if (previous != this) {
+                if (previous != null) {
+                    previous.anchors.remove(anchorId);
+                }
+                anchors.add(anchorId);
+            }
+        }
+    }
+
+    private final CellSources sources;
+    private final float cellSize;
+    private final int radius;
+    private final int maxCells;
+
+    private final Map<Long, Cell> loaded = new HashMap<>();
+    // Which loaded cell each anchor belongs to
+    private final Map<String, Cell> owners = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private long center;
+    private boolean positioned;
+
+    private long pagedIn;
+    private long pagedOut;
+    private long unloadedAnchors;
+    private int peakCells;
+
+    /**
+     * @param cellSize - cell edge in meters, as the anchors were stored with
+     * @param radius   - rings of cells to load around the user's cell; 0 loads just that one
+     * @param maxCells - most cells loaded at once; at least the (2 * radius + 1)^2 in range
+     */
+    public ProximityPager(CellSources sources, float cellSize, int radius, int maxCells) {
+        if (!(cellSize > 0) || radius < 0) {
+            throw new IllegalArgumentException("need cellSize > 0 and radius >= 0, got " + cellSize + " and " + radius);
+        }
+        int inRange = (2 * radius + 1) * (2 * radius + 1);
+        if (maxCells < inRange) {
+            throw new IllegalArgumentException("maxCells must be >= " + inRange + " for radius " + radius + ", got " + maxCells);
+        }
+        this.sources = sources;
+        this.cellSize = cellSize;
+        this.radius = radius;
+        this.maxCells = maxCells;
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Moves the loaded cells to the user's position. Cheap while the user stays in the same
+     * cell, so it can be called every frame.
+     *
+     * @return true if the user entered another cell
+     */
+    public boolean update(float x, float z) {
+        long cell = RoomCells.cellOf(x, z, cellSize);
+        if (positioned && cell == center) {
+            return false;
+        }
+        positioned = true;
+        center = cell;
+
+        for (Iterator<Cell> it = loaded.values().iterator(); it.hasNext(); ) {
+            Cell c = it.next();
+            if (RoomCells.distance(c.code, center) > radius + 1) {
+                it.remove();
+                unload(c);
+            }
+        }
+
+        int cx = RoomCells.cellX(center);
+        int cz = RoomCells.cellZ(center);
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                // The ring's top and bottom rows in full, its sides only at the two ends
+                int step = dx == -ring || dx == ring ? 1 : Math.max(1, 2 * ring);
+                for (int dz = -ring; dz <= ring; dz += step) {
+                    load(RoomCells.cell(cx + dx, cz + dz));
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Stops listening to every cell and unloads their anchors. */
+    public void clear() {
+        List<Cell> cells = new ArrayList<>(loaded.values());
+        loaded.clear();
+        for (int i = 0; i < cells.size(); i++) {
+            unload(cells.get(i));
+        }
+        positioned = false;
+    }
+
+    /**
+     * Gives an anchor learned outside the cells' events (the local journal, a pushed message) to
+     * the loaded cell it stands in, so it is unloaded with that cell like the anchors the cell
+     * sent. The caller puts it in the scene.
+     *
+     * @return false if that cell isn't loaded; the anchor should be held back until it is
+     */
+    public boolean claim(String anchorId, float x, float z) {
+        Cell cell = loaded.get(RoomCells.cellOf(x, z, cellSize));
+        if (cell == null) {
+            return false;
+        }
+        cell.claim(anchorId);
+        return true;
+    }
+
+    /** @return the key of the loaded cell holding this anchor, or null */
+    public String getCellKey(String anchorId) {
+        Cell cell = owners.get(anchorId);
+        return cell == null ? null : RoomCells.key(cell.code);
+    }
+
+    public boolean isLoaded(long cell) {
+        return loaded.containsKey(cell);
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private void load(long code) {
+        if (loaded.containsKey(code)) {
+            return;
+        }
+        while (loaded.size() >= maxCells) {
+            evictFarthest();
+        }
+        Cell cell = new Cell(code, sources.open(RoomCells.key(code)));
+        loaded.put(code, cell);
+        pagedIn++;
+        peakCells = Math.max(peakCells, loaded.size());
+        // Existing anchors arrive as added events from here
+        cell.source.addListener(cell);
+    }
+
+    private void evictFarthest() {
+        Cell farthest = null;
+        int farthestDistance = -1;
+        for (Cell c : loaded.values()) {
+            int distance = RoomCells.distance(c.code, center);
+            if (distance > farthestDistance) {
+                farthestDistance = distance;
+                farthest = c;
+            }
+        }
+        loaded.remove(farthest.code);
+        unload(farthest);
+    }
+
+    private void unload(Cell cell) {
+        cell.source.removeListener(cell);
+        pagedOut++;
+        for (String anchorId : cell.anchors) {
+            owners.remove(anchorId);
+            unloadedAnchors++;
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onUnloaded(anchorId);
+            }
+        }
+        cell.anchors.clear();
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    public int getLoadedCellCount() {
+        return loaded.size();
+    }
+
+    /** Anchors in the loaded cells. */
+    public int getLoadedAnchorCount() {
+        return owners.size();
+    }
+
+    /** Most cells that were loaded at once. */
+    public int getPeakCellCount() {
+        return peakCells;
+    }
+
+    /** Cell subscriptions opened so far. */
+    public long getPageInCount() {
+        return pagedIn;
+    }
+
+    public long getPageOutCount() {
+        return pagedOut;
+    }
+
+    /** Anchors reported as unloaded by page-outs. */
+    public long getUnloadedAnchorCount() {
+        return unloadedAnchors;
+    }
+}
@@ -0,0 +1,50 @@
+package com.jtmnf.fcm.paging;
+
+/**
+ * Splits the floor of a room into square cells, so anchors can be stored under the cell they
+ * stand in (".../c3_-2/&lt;anchorId&gt;", within a shard of the room; see
+ * {@link com.jtmnf.fcm.room.RoomShards}) and a device only reads the cells around it.
+ *
+ * <p>A cell code packs the two cell coordinates into a long; its key is the database child name.
+ * Height is ignored: rooms are much wider than they are tall.
+ */
+public final class RoomCells {
+
+    private RoomCells() {
+    }
+
+    /** @return the code of the cell holding this point */
+    public static long cellOf(float x, float z, float cellSize) {
+        return cell((int) Math.floor(x / cellSize), (int) Math.floor(z / cellSize));
+    }
+
+    public static long cell(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xffffffffL);
+    }
+
+    public static int cellX(long cell) {
+        return (int) (cell >> 32);
+    }
+
+    public static int cellZ(long cell) {
+        return (int) cell;
+    }
+
+    /** Cells between the two, counting diagonal steps as one; 0 for the same cell. */
+    public static int distance(long a, long b) {
+        return Math.max(Math.abs(cellX(a) - cellX(b)), Math.abs(cellZ(a) - cellZ(b)));
+    }
+
+    /**
+     * The database key of a cell. It starts with a letter so Firebase never takes a run of
+     * cells for an array.
+     */
+    public static String key(long cell) {
+        return "c" + cellX(cell) + "_" + cellZ(cell);
+    }
+
+    /** Path of an anchor below the node holding all cells. */
+    public static String path(String cellKey, String anchorId) {
+        return cellKey + "/" + anchorId;
+    }
+}
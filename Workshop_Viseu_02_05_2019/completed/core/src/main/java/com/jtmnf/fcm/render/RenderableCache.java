@@ -0,0 +1,123 @@
+package com.jtmnf.fcm.render;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * LRU cache of asynchronously built values (materials, renderables) with a byte budget.
+ *
+ * <p>Callers asking for a key that is still being built get the same future, so each key is
+ * built once and every node ends up sharing one instance. Builds that fail are forgotten so the
+ * next request tries again. Values still being built are never evicted.
+ *
+ * @param <K> - what identifies a value; needs equals/hashCode
+ * @param <V> - the cached value
+ */
+public class RenderableCache<K, V> {
+
+    private static final class Entry<V> {
+        final CompletableFuture<V> future;
+        final long bytes;
+
+        Entry(CompletableFuture<V> future, long bytes) {
+            this.future = future;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private final Function<? super K, CompletableFuture<V>> loader;
+    private final ToLongFunction<? super K> weigher;
+    // Access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes - budget for the summed weight of cached values
+     * @param loader   - builds the value for a key
+     * @param weigher  - estimated size of the value for a key, in bytes
+     */
+    public RenderableCache(long maxBytes, Function<? super K, CompletableFuture<V>> loader,
+                           ToLongFunction<? super K> weigher) {
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+        this.weigher = weigher;
+    }
+
+    /** Returns the cached or in-flight value for the key, building it if needed. */
+    public synchronized CompletableFuture<V> get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+            return entry.future;
+        }
+        misses++;
+
+        CompletableFuture<V> future = loader.apply(key);
+        entry = new Entry<>(future, weigher.applyAsLong(key));
+        entries.put(key, entry);
+        bytes += entry.bytes;
+        final Entry<V> added = entry;
+        future.whenComplete((value, error) -> {
+            if (error != null) {
+                forget(key, added);
+            }
+        });
+        trim();
+        return future;
+    }
+
+    /** Drops everything, e.g. when the AR session goes away. */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private synchronized void forget(K key, Entry<V> entry) {
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+            bytes -= entry.bytes;
+        }
+    }
+
+    private void trim() {
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry<V> eldest = it.next();
+            if (!eldest.future.isDone()) {
+                continue;
+            }
+            it.remove();
+            bytes -= eldest.bytes;
+            evictions++;
+        }
+    }
+}
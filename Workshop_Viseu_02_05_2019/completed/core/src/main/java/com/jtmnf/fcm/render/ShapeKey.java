@@ -0,0 +1,94 @@
+package com.jtmnf.fcm.render;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+
+/**
+ * Identifies one renderable: two anchors with equal keys can share the same mesh and material.
+ */
+public final class ShapeKey {
+
+    // Sceneform builds spheres and cylinders with 24 segments around
+    private static final int SEGMENTS = 24;
+    // position + normal + uv, as floats
+    private static final int VERTEX_BYTES = (3 + 3 + 2) * 4;
+    private static final int INDEX_BYTES = 4;
+
+    public final ShapeType shape;
+    public final float sx, sy, sz;
+    public final int color;
+
+    public ShapeKey(ShapeType shape, float sx, float sy, float sz, int color) {
+        this.shape = shape;
+        this.sx = sx;
+        this.sy = sy;
+        this.sz = sz;
+        this.color = color;
+    }
+
+    public static ShapeKey of(AnchorRecord record) {
+        return new ShapeKey(record.shape, record.sx, record.sy, record.sz, record.color);
+    }
+
+    /** True if this key describes what the record draws, without building a key for it. */
+    public boolean matches(AnchorRecord record) {
+        return shape == record.shape
+                && Float.compare(sx, record.sx) == 0
+                && Float.compare(sy, record.sy) == 0
+                && Float.compare(sz, record.sz) == 0
+                && color == record.color;
+    }
+
+    /** Rough size of the mesh on the GPU, used as the cache weight. */
+    public long estimatedBytes() {
+        int vertices;
+        int indices;
+        switch (shape) {
+            case CUBE:
+                vertices = 24;
+                indices = 36;
+                break;
+            case CYLINDER:
+                vertices = (SEGMENTS + 1) * 4 + 2;
+                indices = SEGMENTS * 12;
+                break;
+            case SPHERE:
+            default:
+                vertices = (SEGMENTS + 1) * (SEGMENTS + 1);
+                indices = SEGMENTS * SEGMENTS * 6;
+                break;
+        }
+        return (long) vertices * VERTEX_BYTES + (long) indices * INDEX_BYTES;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ShapeKey)) {
+            return false;
+        }
+        ShapeKey other = (ShapeKey) o;
+        return shape == other.shape
+                && Float.compare(sx, other.sx) == 0
+                && Float.compare(sy, other.sy) == 0
+                && Float.compare(sz, other.sz) == 0
+                && color == other.color;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = shape.hashCode();
+        result = 31 * result + Float.floatToIntBits(sx);
+        result = 31 * result + Float.floatToIntBits(sy);
+        result = 31 * result + Float.floatToIntBits(sz);
+        result = 31 * result + color;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return shape + "(" + sx + ", " + sy + ", " + sz + ") #" + Integer.toHexString(color);
+    }
+}
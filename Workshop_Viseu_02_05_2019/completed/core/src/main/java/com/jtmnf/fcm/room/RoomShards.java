@@ -0,0 +1,102 @@
+package com.jtmnf.fcm.room;
+
+import java.util.Map;
+
+/**
+ * Where a room keeps its anchors: "rooms/&lt;roomId&gt;/s&lt;shard&gt;/&lt;cellKey&gt;/&lt;anchorId&gt;".
+ * Each floor cell (see {@link com.jtmnf.fcm.paging.RoomCells}) lives in one of the room's shards,
+ * picked by hashing its key, so a busy room spreads over several nodes (or database instances)
+ * instead of one.
+ *
+ * <p>The shard count is a power of two kept in "meta/shards". A room grows by doubling it: a
+ * cell in shard k either stays there or moves to k + count, so half the cells move. While the
+ * cells are being moved, "meta/previousShards" holds the old count and readers follow both.
+ */
+public final class RoomShards {
+
+    /** Root of all rooms. */
+    public static final String ROOMS = "rooms";
+    /** Below a room: the node holding its shard counts. */
+    public static final String META = "meta";
+    /** Below the meta node: the shard count. */
+    public static final String SHARDS = "shards";
+    /** Below the meta node: the count before the split in progress, absent otherwise. */
+    public static final String PREVIOUS_SHARDS = "previousShards";
+    public static final String META_SHARDS = META + "/" + SHARDS;
+    public static final String META_PREVIOUS_SHARDS = META + "/" + PREVIOUS_SHARDS;
+
+    private RoomShards() {
+    }
+
+    /**
+     * @param shardCount - a power of two
+     * @return the shard holding a cell
+     */
+    public static int shardOf(String cellKey, int shardCount) {
+        checkCount(shardCount);
+        return hash(cellKey) & (shardCount - 1);
+    }
+
+    /** The database key of a shard below its room. */
+    public static String key(int shard) {
+        return "s" + shard;
+    }
+
+    /** Path of a cell below its room. */
+    public static String path(int shard, String cellKey) {
+        return key(shard) + "/" + cellKey;
+    }
+
+    /** Path of a room below the database root. */
+    public static String roomPath(String roomId) {
+        return ROOMS + "/" + roomId;
+    }
+
+    /** The writes, below the room, that start doubling its shard count. */
+    public static void beginSplit(int shardCount, Map<String, Object> updates) {
+        checkCount(shardCount);
+        updates.put(META_SHARDS, shardCount * 2);
+        updates.put(META_PREVIOUS_SHARDS, shardCount);
+    }
+
+    /**
+     * The writes, below the room, that take one cell's anchors from its shard before a split to
+     * its shard after. Nothing is added for cells that stay where they are.
+     *
+     * @param anchors - anchor id to value, as read from the old shard
+     */
+    public static void moveCell(String cellKey, Map<String, ?> anchors, int fromCount, int toCount,
+                                Map<String, Object> updates) {
+        int from = shardOf(cellKey, fromCount);
+        int to = shardOf(cellKey, toCount);
+        if (from == to) {
+            return;
+        }
+        for (Map.Entry<String, ?> e : anchors.entrySet()) {
+            updates.put(path(to, cellKey) + "/" + e.getKey(), e.getValue());
+            updates.put(path(from, cellKey) + "/" + e.getKey(), null);
+        }
+    }
+
+    /** The write, below the room, that ends a split once every cell has moved. */
+    public static void finishSplit(Map<String, Object> updates) {
+        updates.put(META_PREVIOUS_SHARDS, null);
+    }
+
+    static void checkCount(int shardCount) {
+        if (shardCount < 1 || Integer.bitCount(shardCount) != 1) {
+            throw new IllegalArgumentException("shardCount must be a power of two, got " + shardCount);
+        }
+    }
+
+    // FNV-1a over the key's chars. Cell keys differ in a char or two, which String.hashCode
+    // leaves in its low bits almost unmixed; this is also easy to repeat in a server-side script
+    private static int hash(String key) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x01000193;
+        }
+        return h ^ h >>> 16;
+    }
+}
@@ -0,0 +1,81 @@
+package com.jtmnf.fcm.room;
+
+import com.jtmnf.fcm.sync.AnchorStore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes "cell/anchorId" paths, as {@link com.jtmnf.fcm.paging.CellPartitionedStore} produces
+ * them, to the shard of the room that holds the cell: "s&lt;shard&gt;/cell/anchorId" below the
+ * room's node.
+ *
+ * <p>While a split is going on, a write to a moving cell also deletes the anchor from the cell's
+ * old shard, in the same multi-path write, so it is never left in both. A device that hasn't
+ * heard of the split yet still writes to the old shard; whoever runs the split should move the
+ * cells once more before ending it.
+ *
+ * <p>Not thread-safe; use it from the main thread.
+ */
+public class ShardedAnchorStore implements AnchorStore {
+
+    private final AnchorStore delegate;
+    private int shardCount;
+    private int previousShardCount;
+
+    private long splitWrites;
+
+    /** @param delegate - the room's node */
+    public ShardedAnchorStore(AnchorStore delegate, int shardCount) {
+        RoomShards.checkCount(shardCount);
+        this.delegate = delegate;
+        this.shardCount = shardCount;
+    }
+
+    /** @param previousShardCount - the count before the split in progress, or 0 if there is none */
+    public void setShardCount(int shardCount, int previousShardCount) {
+        RoomShards.checkCount(shardCount);
+        if (previousShardCount != 0) {
+            RoomShards.checkCount(previousShardCount);
+        }
+        this.shardCount = shardCount;
+        this.previousShardCount = previousShardCount;
+    }
+
+    @Override
+    public String newKey() {
+        return delegate.newKey();
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> updates, Callback callback) {
+        Map<String, Object> routed = new HashMap<>(updates.size() * 2);
+        for (Map.Entry<String, Object> e : updates.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash <= 0) {
+                throw new IllegalArgumentException("expected a cell/anchorId path, got " + path);
+            }
+            String cellKey = path.substring(0, slash);
+            int shard = RoomShards.shardOf(cellKey, shardCount);
+            routed.put(RoomShards.key(shard) + "/" + path, e.getValue());
+            if (previousShardCount != 0) {
+                int previous = RoomShards.shardOf(cellKey, previousShardCount);
+                if (previous != shard) {
+                    routed.put(RoomShards.key(previous) + "/" + path, null);
+                    splitWrites++;
+                }
+            }
+        }
+        delegate.updateChildren(routed, callback);
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** Writes that also cleared a moving cell's old shard. */
+    public long getSplitWriteCount() {
+        return splitWrites;
+    }
+}
@@ -0,0 +1,247 @@
+package com.jtmnf.fcm.room;
+
+import com.jtmnf.fcm.paging.ProximityPager;
+import com.jtmnf.fcm.sync.AnchorEventSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Opens the cells of one room in the shards that hold them (see {@link RoomShards}), for a
+ * {@link ProximityPager} to read. Only the cells the pager asks for are listened to, so a device
+ * pays for what happens around it in the room it joined and nothing else.
+ *
+ * <p>When the room's shard count changes, open cells follow: during a split a moving cell is
+ * read from both its old and its new shard, and an anchor belongs to whichever reported it last.
+ * The old shard may report a move's removal before the new one reports the addition, so its
+ * removals are held back until the split ends; moving an anchor then never takes it out of the
+ * scene, at the cost of deletions in moving cells showing late. Once the split is over the old
+ * shard is let go, and anything still only there is unloaded.
+ *
+ * <p>Each opened cell takes a single listener, as the pager adds. Not thread-safe; use it from
+ * the main thread.
+ */
+public class ShardedCellSources implements ProximityPager.CellSources {
+
+    /** Opens the child events of a node below the room, e.g. "s3/c1_-2". */
+    public interface PathSources {
+        AnchorEventSource open(String path);
+    }
+
+    private final PathSources paths;
+    private final List<Cell> open = new ArrayList<>();
+    private int shardCount;
+    private int previousShardCount;
+
+    private long subscribes;
+    private long strays;
+
+    /** @param shardCount - the room's shard count, as read from its meta node */
+    public ShardedCellSources(PathSources paths, int shardCount) {
+        RoomShards.checkCount(shardCount);
+        this.paths = paths;
+        this.shardCount = shardCount;
+    }
+
+    @Override
+    public AnchorEventSource open(String cellKey) {
+        return new Cell(cellKey);
+    }
+
+    /**
+     * Moves open cells to where the room's meta node says they are.
+     *
+     * @param previousShardCount - the count before the split in progress, or 0 if there is none
+     */
+    public void setShardCount(int shardCount, int previousShardCount) {
+        RoomShards.checkCount(shardCount);
+        if (previousShardCount != 0) {
+            RoomShards.checkCount(previousShardCount);
+        }
+        if (shardCount == this.shardCount && previousShardCount == this.previousShardCount) {
+            return;
+        }
+        this.shardCount = shardCount;
+        this.previousShardCount = previousShardCount;
+        for (int i = 0; i < open.size(); i++) {
+            open.get(i).resubscribe();
+        }
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public boolean isSplitting() {
+        return previousShardCount != 0;
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** Shard nodes listened to right now; more than the open cells while a split is going on. */
+    public int getPathCount() {
+        int count = 0;
+        for (int i = 0; i < open.size(); i++) {
+            count += open.get(i).subscriptions.size();
+        }
+        return count;
+    }
+
+    /** Shard nodes subscribed to so far. */
+    public long getSubscribeCount() {
+        return subscribes;
+    }
+
+    /** Anchors unloaded because they were still in a shard their cell had left. */
+    public long getStrayCount() {
+        return strays;
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private final class Cell implements AnchorEventSource {
+        final String cellKey;
+        final List<Subscription> subscriptions = new ArrayList<>(2);
+        // The subscription that last reported each anchor
+        final Map<String, Subscription> owners = new HashMap<>();
+        // Removed from the old shard during a split, and not reported by the new one yet
+        final Set<String> leaving = new HashSet<>();
+        String currentPath;
+        Listener listener;
+
+        Cell(String cellKey) {
+            this.cellKey = cellKey;
+        }
+
+        @Override
+        public void addListener(Listener listener) {
+            if (this.listener != null) {
+                throw new IllegalStateException("cell " + cellKey + " already has a listener");
+            }
+            this.listener = listener;
+            open.add(this);
+            resubscribe();
+        }
+
+        @Override
+        public void removeListener(Listener listener) {
+            if (this.listener != listener) {
+                return;
+            }
+            for (int i = 0; i < subscriptions.size(); i++) {
+                Subscription subscription = subscriptions.get(i);
+                subscription.source.removeListener(subscription);
+            }
+            subscriptions.clear();
+            owners.clear();
+            leaving.clear();
+            open.remove(this);
+            this.listener = null;
+        }
+
+        void resubscribe() {
+            String current = RoomShards.path(RoomShards.shardOf(cellKey, shardCount), cellKey);
+            currentPath = current;
+            String previous = previousShardCount == 0
+                    ? null : RoomShards.path(RoomShards.shardOf(cellKey, previousShardCount), cellKey);
+            // New shards first, so anchors already moved are claimed before the old shard goes
+            subscribe(current);
+            if (previous != null) {
+                subscribe(previous);
+            }
+            for (int i = subscriptions.size() - 1; i >= 0; i--) {
+                Subscription subscription = subscriptions.get(i);
+                if (!subscription.path.equals(current) && !subscription.path.equals(previous)) {
+                    subscriptions.remove(i);
+                    unsubscribe(subscription);
+                }
+            }
+        }
+
+        private void subscribe(String path) {
+            for (int i = 0; i < subscriptions.size(); i++) {
+                if (subscriptions.get(i).path.equals(path)) {
+                    return;
+                }
+            }
+            Subscription subscription = new Subscription(this, path, paths.open(path));
+            subscriptions.add(subscription);
+            subscribes++;
+            subscription.source.addListener(subscription);
+        }
+
+        private void unsubscribe(Subscription subscription) {
+            subscription.source.removeListener(subscription);
+            List<String> left = new ArrayList<>();
+            for (Map.Entry<String, Subscription> e : owners.entrySet()) {
+                if (e.getValue() == subscription) {
+                    left.add(e.getKey());
+                }
+            }
+            for (int i = 0; i < left.size(); i++) {
+                String anchorId = left.get(i);
+                owners.remove(anchorId);
+                if (leaving.remove(anchorId)) {
+                    listener.onRemoved(anchorId);
+                } else {
+                    strays++;
+                    listener.onUnloaded(anchorId);
+                }
+            }
+        }
+    }
+
+    private static final class Subscription implements AnchorEventSource.Listener {
+        final Cell cell;
+        final String path;
+        final AnchorEventSource source;
+
+        Subscription(Cell cell, String path, AnchorEventSource source) {
+            this.cell = cell;
+            this.path = path;
+            this.source = source;
+        }
+
+        @Override
+        public void onAdded(String anchorId, String value) {
+            cell.owners.put(anchorId, this);
+            cell.leaving.remove(anchorId);
+            cell.listener.onAdded(anchorId, value);
+        }
+
+        @Override
+        public void onChanged(String anchorId, String value) {
+            cell.owners.put(anchorId, this);
+            cell.leaving.remove(anchorId);
+            cell.listener.onChanged(anchorId, value);
+        }
+
+        @Override
+        public void onRemoved(String anchorId) {
+            if (cell.owners.get(anchorId) != this) {
+                // Moved to the cell's other shard, which already reported it
+                return;
+            }
+            if (!path.equals(cell.currentPath)) {
+                // Likely on its way to the new shard; decided when the split ends
+                cell.leaving.add(anchorId);
+                return;
+            }
+            cell.owners.remove(anchorId);
+            cell.listener.onRemoved(anchorId);
+        }
+
+        @Override
+        public void onError(Exception error) {
+            cell.listener.onError(error);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.jtmnf.fcm.scene;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+import com.jtmnf.fcm.util.IdTable;
+
+import java.util.Arrays;
+
+/**
+ * Every anchor in the scene, held as a structure of arrays: one primitive array per field, with
+ * the live anchors packed at indices 0 to size() - 1. Walking a field for the whole room touches
+ * one contiguous array and allocates nothing, so sync, culling and persistence can loop over it
+ * every frame.
+ *
+ * <pre>
+ * for (int i = 0; i &lt; registry.size(); i++) {
+ *     float x = registry.getX(i);
+ * }
+ * </pre>
+ *
+ * <p>Removal moves the last anchor into the hole, so indices change. Handles don't: each anchor
+ * gets an int handle when added that maps to its current index until it is removed, and a handle
+ * of a removed anchor stops resolving even if its slot is reused. Anchor ids map to handles
+ * through an {@link IdTable}. Add, remove and lookup are O(1), and nothing is allocated
+ * once the arrays reach their working size.
+ *
+ * <p>To remove while iterating, walk the indices backwards. Not thread-safe; feed it from the
+ * main thread, as a scene listener on {@link AnchorSyncEngine} and with {@link #put} for local
+ * placements.
+ */
+public class AnchorRegistry implements AnchorSyncEngine.SceneListener {
+
+    public static final int NONE = -1;
+
+    // A handle is a slot in its low bits and the slot's generation above them
+    private static final int SLOT_BITS = 24;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = 0x7F;
+    public static final int MAX_SIZE = 1 << SLOT_BITS;
+
+    private static final ShapeType[] SHAPES = ShapeType.values();
+
+    // Per anchor, indexed 0 to size - 1
+    private String[] ids;
+    private float[] px, py, pz;
+    private float[] qx, qy, qz, qw;
+    private float[] sx, sy, sz;
+    private byte[] shapes;
+    private int[] colors;
+    private long[] owners;
+    private long[] timestamps;
+    private int[] handles;
+    private int size;
+
+    // Per handle slot: current index, or the next free slot once removed
+    private int[] slotIndex;
+    private int[] slotGeneration;
+    private int freeHead = NONE;
+    private int highWater;
+
+    // Anchor id -> handle
+    private final IdTable handlesById;
+
+    /** @param initialCapacity - number of anchors to size the arrays for */
+    public AnchorRegistry(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        ids = new String[capacity];
+        px = new float[capacity];
+        py = new float[capacity];
+        pz = new float[capacity];
+        qx = new float[capacity];
+        qy = new float[capacity];
+        qz = new float[capacity];
+        qw = new float[capacity];
+        sx = new float[capacity];
+        sy = new float[capacity];
+        sz = new float[capacity];
+        shapes = new byte[capacity];
+        colors = new int[capacity];
+        owners = new long[capacity];
+        timestamps = new long[capacity];
+        handles = new int[capacity];
+        slotIndex = new int[capacity];
+        slotGeneration = new int[capacity];
+        handlesById = new IdTable(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // --------------------------------
+    // -------- Add and remove --------
+    // --------------------------------
+
+    /**
+     * Adds the anchor, or overwrites it if the id is already registered.
+     *
+     * @return its handle
+     */
+    public int put(String anchorId, AnchorRecord record) {
+        int handle = handleOf(anchorId);
+        if (handle == NONE) {
+            return add(anchorId, record);
+        }
+        set(slotIndex[handle & SLOT_MASK], record);
+        return handle;
+    }
+
+    /**
+     * @return the new anchor's handle
+     * @throws IllegalArgumentException if the id is already registered
+     */
+    public int add(String anchorId, AnchorRecord record) {
+        if (handlesById.contains(anchorId)) {
+            throw new IllegalArgumentException(anchorId + " is already registered");
+        }
+        if (size == MAX_SIZE) {
+            throw new IllegalStateException("registry is full at " + MAX_SIZE + " anchors");
+        }
+        if (size == ids.length) {
+            grow();
+        }
+        int slot;
+        if (freeHead != NONE) {
+            slot = freeHead;
+            freeHead = slotIndex[slot];
+        } else {
+            slot = highWater++;
+        }
+        int handle = slotGeneration[slot] << SLOT_BITS | slot;
+        int index = size++;
+        slotIndex[slot] = index;
+        handles[index] = handle;
+        ids[index] = anchorId;
+        set(index, record);
+
+        handlesById.put(anchorId, handle);
+        return handle;
+    }
+
+    /** @return false if the id wasn't registered */
+    public boolean remove(String anchorId) {
+        int handle = handlesById.get(anchorId);
+        if (handle == NONE) {
+            return false;
+        }
+        removeAt(slotIndex[handle & SLOT_MASK]);
+        return true;
+    }
+
+    /** Removes the anchor at index; the last anchor takes its place. */
+    public void removeAt(int index) {
+        checkIndex(index);
+        handlesById.remove(ids[index]);
+        int slot = handles[index] & SLOT_MASK;
+        slotGeneration[slot] = (slotGeneration[slot] + 1) & GENERATION_MASK;
+        slotIndex[slot] = freeHead;
+        freeHead = slot;
+
+        int last = --size;
+        if (index != last) {
+            ids[index] = ids[last];
+            px[index] = px[last];
+            py[index] = py[last];
+            pz[index] = pz[last];
+            qx[index] = qx[last];
+            qy[index] = qy[last];
+            qz[index] = qz[last];
+            qw[index] = qw[last];
+            sx[index] = sx[last];
+            sy[index] = sy[last];
+            sz[index] = sz[last];
+            shapes[index] = shapes[last];
+            colors[index] = colors[last];
+            owners[index] = owners[last];
+            timestamps[index] = timestamps[last];
+            handles[index] = handles[last];
+            slotIndex[handles[index] & SLOT_MASK] = index;
+        }
+        ids[last] = null;
+    }
+
+    public void clear() {
+        while (size > 0) {
+            removeAt(size - 1);
+        }
+    }
+
+    // -------------------------
+    // -------- Lookups --------
+    // -------------------------
+
+    /** @return the anchor's handle, or {@link #NONE} */
+    public int handleOf(String anchorId) {
+        return handlesById.get(anchorId);
+    }
+
+    /** @return the anchor's index, or {@link #NONE} */
+    public int indexOf(String anchorId) {
+        int handle = handleOf(anchorId);
+        return handle == NONE ? NONE : slotIndex[handle & SLOT_MASK];
+    }
+
+    /** @return the current index of the anchor with this handle, or {@link #NONE} once it was removed */
+    public int indexOfHandle(int handle) {
+        int slot = handle & SLOT_MASK;
+        if (handle < 0 || slot >= highWater || slotGeneration[slot] != handle >>> SLOT_BITS) {
+            return NONE;
+        }
+        return slotIndex[slot];
+    }
+
+    public int getHandle(int index) {
+        checkIndex(index);
+        return handles[index];
+    }
+
+    // ----------------------------------
+    // -------- Fields, by index --------
+    // ----------------------------------
+
+    public String getId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    public float getX(int index) {
+        return px[index];
+    }
+
+    public float getY(int index) {
+        return py[index];
+    }
+
+    public float getZ(int index) {
+        return pz[index];
+    }
+
+    public float getRotationX(int index) {
+        return qx[index];
+    }
+
+    public float getRotationY(int index) {
+        return qy[index];
+    }
+
+    public float getRotationZ(int index) {
+        return qz[index];
+    }
+
+    public float getRotationW(int index) {
+        return qw[index];
+    }
+
+    /** Largest extent of the shape, in meters. */
+    public float getSize(int index) {
+        return Math.max(sx[index], Math.max(sy[index], sz[index]));
+    }
+
+    public ShapeType getShape(int index) {
+        return SHAPES[shapes[index]];
+    }
+
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    public long getOwner(int index) {
+        return owners[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public AnchorRecord get(int index, AnchorRecord into) {
+        checkIndex(index);
+        into.px = px[index];
+        into.py = py[index];
+        into.pz = pz[index];
+        into.qx = qx[index];
+        into.qy = qy[index];
+        into.qz = qz[index];
+        into.qw = qw[index];
+        into.sx = sx[index];
+        into.sy = sy[index];
+        into.sz = sz[index];
+        into.shape = SHAPES[shapes[index]];
+        into.color = colors[index];
+        into.owner = owners[index];
+        into.timestamp = timestamps[index];
+        return into;
+    }
+
+    public void set(int index, AnchorRecord record) {
+        checkIndex(index);
+        px[index] = record.px;
+        py[index] = record.py;
+        pz[index] = record.pz;
+        qx[index] = record.qx;
+        qy[index] = record.qy;
+        qz[index] = record.qz;
+        qw[index] = record.qw;
+        sx[index] = record.sx;
+        sy[index] = record.sy;
+        sz[index] = record.sz;
+        shapes[index] = (byte) record.shape.ordinal();
+        colors[index] = record.color;
+        owners[index] = record.owner;
+        timestamps[index] = record.timestamp;
+    }
+
+    public void setPosition(int index, float x, float y, float z) {
+        checkIndex(index);
+        px[index] = x;
+        py[index] = y;
+        pz[index] = z;
+    }
+
+    public void setRotation(int index, float x, float y, float z, float w) {
+        checkIndex(index);
+        qx[index] = x;
+        qy[index] = y;
+        qz[index] = z;
+        qw[index] = w;
+    }
+
+    public void setColor(int index, int color) {
+        checkIndex(index);
+        colors[index] = color;
+    }
+
+    // ------------------------------
+    // -------- Scene events --------
+    // ------------------------------
+
+    @Override
+    public void onAnchorAdded(String anchorId, AnchorRecord record) {
+        put(anchorId, record);
+    }
+
+    @Override
+    public void onAnchorChanged(String anchorId, AnchorRecord record) {
+        put(anchorId, record);
+    }
+
+    @Override
+    public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+        remove(anchorId);
+    }
+
+    private void grow() {
+        int capacity = Math.min(ids.length * 2, MAX_SIZE);
+        ids = Arrays.copyOf(ids, capacity);
+        px = Arrays.copyOf(px, capacity);
+        py = Arrays.copyOf(py, capacity);
+        pz = Arrays.copyOf(pz, capacity);
+        qx = Arrays.copyOf(qx, capacity);
+        qy = Arrays.copyOf(qy, capacity);
+        qz = Arrays.copyOf(qz, capacity);
+        qw = Arrays.copyOf(qw, capacity);
+        sx = Arrays.copyOf(sx, capacity);
+        sy = Arrays.copyOf(sy, capacity);
+        sz = Arrays.copyOf(sz, capacity);
+        shapes = Arrays.copyOf(shapes, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        owners = Arrays.copyOf(owners, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+        slotIndex = Arrays.copyOf(slotIndex, capacity);
+        slotGeneration = Arrays.copyOf(slotGeneration, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.jtmnf.fcm.spatial;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+import com.jtmnf.fcm.util.IdTable;
+
+import java.util.Arrays;
+
+/**
+ * Positions of every anchor in the room, local and remote, indexed for "what's near here"
+ * questions such as rejecting a tap that lands on an existing object.
+ *
+ * <p>Register it as a scene listener on {@link AnchorSyncEngine} for remote anchors and call
+ * {@link #put} for local placements.
+ */
+public class AnchorSpatialIndex implements AnchorSyncEngine.SceneListener {
+
+    private final SpatialHashGrid grid;
+    private final IdTable handles = new IdTable(16);
+    private String[] ids = new String[16];
+
+    /** @param cellSize - grid cell edge in meters; about the radius you query with */
+    public AnchorSpatialIndex(float cellSize) {
+        grid = new SpatialHashGrid(cellSize, 16);
+    }
+
+    /** Adds the anchor, or moves it if it is already indexed. */
+    public void put(String anchorId, float x, float y, float z) {
+        int handle = handles.get(anchorId);
+        if (handle != IdTable.NONE) {
+            grid.move(handle, x, y, z);
+            return;
+        }
+        int added = grid.insert(x, y, z);
+        if (added >= ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(added + 1, ids.length * 2));
+        }
+        ids[added] = anchorId;
+        handles.put(anchorId, added);
+    }
+
+    public void remove(String anchorId) {
+        int handle = handles.remove(anchorId);
+        if (handle != IdTable.NONE) {
+            grid.remove(handle);
+            ids[handle] = null;
+        }
+    }
+
+    public boolean contains(String anchorId) {
+        return handles.contains(anchorId);
+    }
+
+    public int size() {
+        return handles.size();
+    }
+
+    /** True if an anchor is already within radius of (x, y, z). */
+    public boolean isOccupied(float x, float y, float z, float radius) {
+        return grid.anyWithin(x, y, z, radius);
+    }
+
+    /**
+     * @param out - receives anchor ids; only the first out.length are written
+     * @return number of anchors within radius, which may exceed out.length
+     */
+    public int within(float x, float y, float z, float radius, String[] out, int[] scratch) {
+        int found = grid.queryRadius(x, y, z, radius, scratch);
+        int n = Math.min(Math.min(found, scratch.length), out.length);
+        for (int i = 0; i < n; i++) {
+            out[i] = ids[scratch[i]];
+        }
+        return found;
+    }
+
+    /**
+     * @param out - receives up to k anchor ids, closest first
+     * @return number of ids written
+     */
+    public int nearest(float x, float y, float z, int k, String[] out, int[] scratch) {
+        int n = grid.nearest(x, y, z, Math.min(k, out.length), scratch);
+        for (int i = 0; i < n; i++) {
+            out[i] = ids[scratch[i]];
+        }
+        return n;
+    }
+
+    @Override
+    public void onAnchorAdded(String anchorId, AnchorRecord record) {
+        put(anchorId, record.px, record.py, record.pz);
+    }
+
+    @Override
+    public void onAnchorChanged(String anchorId, AnchorRecord record) {
+        put(anchorId, record.px, record.py, record.pz);
+    }
+
+    @Override
+    public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+        remove(anchorId);
+    }
+}
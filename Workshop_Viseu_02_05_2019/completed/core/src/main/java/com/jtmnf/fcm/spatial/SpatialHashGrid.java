@@ -0,0 +1,450 @@
+package com.jtmnf.fcm.spatial;
+
+import java.util.Arrays;
+
+/**
+ * Uniform hash grid over 3D points, stored in primitive arrays.
+ *
+ * <p>Points are addressed by an int handle returned from {@link #insert}. Each occupied cell
+ * keeps an intrusive doubly linked list of its points, and cells are found through an
+ * open-addressing table keyed by the packed cell coordinates, so insert, remove and move are
+ * O(1) and queries only look at the cells they overlap. Nothing is allocated after the arrays
+ * reach their working size.
+ *
+ * <p>Pick a cell size around the typical query radius. Not thread-safe.
+ */
+public class SpatialHashGrid {
+
+    private static final int NONE = -1;
+    private static final long EMPTY = Long.MIN_VALUE;
+    // Cell coordinates are packed into 21 bits each
+    private static final int CELL_BITS = 21;
+    private static final int CELL_MASK = (1 << CELL_BITS) - 1;
+    private static final int CELL_LIMIT = 1 << (CELL_BITS - 1);
+
+    private final float cellSize;
+    private final float inverseCellSize;
+
+    // Per point, indexed by handle
+    private float[] xs;
+    private float[] ys;
+    private float[] zs;
+    private long[] cellOf;
+    private int[] next;
+    private int[] prev;
+    private int freeHead = NONE;
+    private int highWater;
+    private int size;
+
+    // Cell table: packed cell key -> first point in that cell
+    private long[] cellKeys;
+    private int[] cellHeads;
+    private int cellCount;
+
+    // Bounds of every cell ever occupied, so nearest-neighbour search knows when to stop
+    private int minCx = Integer.MAX_VALUE, minCy = Integer.MAX_VALUE, minCz = Integer.MAX_VALUE;
+    private int maxCx = Integer.MIN_VALUE, maxCy = Integer.MIN_VALUE, maxCz = Integer.MIN_VALUE;
+
+    // k-nearest scratch, a max-heap on distance
+    private int[] heapHandles = new int[16];
+    private float[] heapDistances = new float[16];
+
+    /**
+     * @param cellSize        - edge of a grid cell, in meters
+     * @param initialCapacity - number of points to size the arrays for
+     */
+    public SpatialHashGrid(float cellSize, int initialCapacity) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be > 0, got " + cellSize);
+        }
+        int capacity = Math.max(initialCapacity, 16);
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+        xs = new float[capacity];
+        ys = new float[capacity];
+        zs = new float[capacity];
+        cellOf = new long[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        int tableSize = Integer.highestOneBit(capacity - 1) << 2;
+        cellKeys = new long[tableSize];
+        cellHeads = new int[tableSize];
+        Arrays.fill(cellKeys, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public float getX(int handle) {
+        return xs[handle];
+    }
+
+    public float getY(int handle) {
+        return ys[handle];
+    }
+
+    public float getZ(int handle) {
+        return zs[handle];
+    }
+
+    /** Adds a point and returns its handle. Handles of removed points are reused. */
+    public int insert(float x, float y, float z) {
+        int handle;
+        if (freeHead != NONE) {
+            handle = freeHead;
+            freeHead = next[handle];
+        } else {
+            if (highWater == xs.length) {
+                growPoints();
+            }
+            handle = highWater++;
+        }
+        xs[handle] = x;
+        ys[handle] = y;
+        zs[handle] = z;
+        link(handle, cellKey(x, y, z));
+        size++;
+        return handle;
+    }
+
+    public void remove(int handle) {
+        checkHandle(handle);
+        unlink(handle);
+        cellOf[handle] = EMPTY;
+        next[handle] = freeHead;
+        freeHead = handle;
+        size--;
+    }
+
+    /** Moves a point; only touches the cell lists if it crossed into another cell. */
+    public void move(int handle, float x, float y, float z) {
+        checkHandle(handle);
+        xs[handle] = x;
+        ys[handle] = y;
+        zs[handle] = z;
+        long key = cellKey(x, y, z);
+        if (key != cellOf[handle]) {
+            unlink(handle);
+            link(handle, key);
+        }
+    }
+
+    /** True if any point lies within radius of (x, y, z). */
+    public boolean anyWithin(float x, float y, float z, float radius) {
+        float r2 = radius * radius;
+        int x0 = cell(x - radius), x1 = cell(x + radius);
+        int y0 = cell(y - radius), y1 = cell(y + radius);
+        int z0 = cell(z - radius), z1 = cell(z + radius);
+        for (int cx = x0; cx <= x1; cx++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                for (int cz = z0; cz <= z1; cz++) {
+                    for (int p = head(pack(cx, cy, cz)); p != NONE; p = next[p]) {
+                        if (distance2(p, x, y, z) <= r2) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the handles of points within radius of (x, y, z), in no particular order.
+     *
+     * @param out - receives handles; only the first out.length are written
+     * @return number of points found, which may exceed out.length
+     */
+    public int queryRadius(float x, float y, float z, float radius, int[] out) {
+        float r2 = radius * radius;
+        int found = 0;
+        int x0 = cell(x - radius), x1 = cell(x + radius);
+        int y0 = cell(y - radius), y1 = cell(y + radius);
+        int z0 = cell(z - radius), z1 = cell(z + radius);
+        for (int cx = x0; cx <= x1; cx++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                for (int cz = z0; cz <= z1; cz++) {
+                    for (int p = head(pack(cx, cy, cz)); p != NONE; p = next[p]) {
+                        if (distance2(p, x, y, z) <= r2) {
+                            if (found < out.length) {
+                                out[found] = p;
+                            }
+                            found++;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the k points closest to (x, y, z), closest first.
+     *
+     * @param out - receives up to k handles
+     * @return number of handles written, less than k if the grid holds fewer points
+     */
+    public int nearest(float x, float y, float z, int k, int[] out) {
+        k = Math.min(k, Math.min(size, out.length));
+        if (k <= 0) {
+            return 0;
+        }
+        if (heapHandles.length < k) {
+            heapHandles = new int[k];
+            heapDistances = new float[k];
+        }
+        int count = 0;
+        int cx = cell(x), cy = cell(y), cz = cell(z);
+        int maxRing = Math.max(
+                Math.max(Math.max(cx - minCx, maxCx - cx), Math.max(cy - minCy, maxCy - cy)),
+                Math.max(cz - minCz, maxCz - cz));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Everything from this ring outwards lies outside the box of cells already scanned
+            if (ring > 0 && count == k) {
+                float bound = Math.min(
+                        Math.min(x - (cx - ring + 1) * cellSize, (cx + ring) * cellSize - x),
+                        Math.min(
+                                Math.min(y - (cy - ring + 1) * cellSize, (cy + ring) * cellSize - y),
+                                Math.min(z - (cz - ring + 1) * cellSize, (cz + ring) * cellSize - z)));
+                if (heapDistances[0] <= bound * bound) {
+                    break;
+                }
+            }
+            // Only the cells on this ring's shell that can hold points
+            int x0 = Math.max(cx - ring, minCx), x1 = Math.min(cx + ring, maxCx);
+            int y0 = Math.max(cy - ring, minCy), y1 = Math.min(cy + ring, maxCy);
+            int z0 = Math.max(cz - ring, minCz), z1 = Math.min(cz + ring, maxCz);
+            for (int ix = x0; ix <= x1; ix++) {
+                for (int iy = y0; iy <= y1; iy++) {
+                    if (ring == 0 || ix == cx - ring || ix == cx + ring || iy == cy - ring || iy == cy + ring) {
+                        for (int iz = z0; iz <= z1; iz++) {
+                            count = scanCell(ix, iy, iz, x, y, z, k, count);
+                        }
+                    } else {
+                        // Inside the shell only the two z faces are new
+                        if (cz - ring >= minCz) {
+                            count = scanCell(ix, iy, cz - ring, x, y, z, k, count);
+                        }
+                        if (cz + ring <= maxCz) {
+                            count = scanCell(ix, iy, cz + ring, x, y, z, k, count);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Pop the max-heap from the back so out ends up closest first
+        for (int i = count - 1; i >= 0; i--) {
+            out[i] = heapHandles[0];
+            siftDown(heapHandles[i], heapDistances[i], i);
+        }
+        return count;
+    }
+
+    // ---------------------
+    // -------- Heap --------
+    // ---------------------
+
+    /** Offers every point of a cell to the k-nearest heap; returns the new heap size. */
+    private int scanCell(int ix, int iy, int iz, float x, float y, float z, int k, int count) {
+        for (int p = head(pack(ix, iy, iz)); p != NONE; p = next[p]) {
+            float d2 = distance2(p, x, y, z);
+            if (count < k) {
+                siftUp(count++, p, d2);
+            } else if (d2 < heapDistances[0]) {
+                siftDown(p, d2, k);
+            }
+        }
+        return count;
+    }
+
+    private void siftUp(int i, int handle, float d2) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapDistances[parent] >= d2) {
+                break;
+            }
+            heapHandles[i] = heapHandles[parent];
+            heapDistances[i] = heapDistances[parent];
+            i = parent;
+        }
+        heapHandles[i] = handle;
+        heapDistances[i] = d2;
+    }
+
+    /** Replaces the root with (handle, d2) and restores the heap over the first n slots. */
+    private void siftDown(int handle, float d2, int n) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && heapDistances[child + 1] > heapDistances[child]) {
+                child++;
+            }
+            if (heapDistances[child] <= d2) {
+                break;
+            }
+            heapHandles[i] = heapHandles[child];
+            heapDistances[i] = heapDistances[child];
+            i = child;
+        }
+        if (n > 0) {
+            heapHandles[i] = handle;
+            heapDistances[i] = d2;
+        }
+    }
+
+    // ----------------------
+    // -------- Cells --------
+    // ----------------------
+
+    private int cell(float v) {
+        int c = (int) Math.floor(v * inverseCellSize);
+        if (c < -CELL_LIMIT || c >= CELL_LIMIT) {
+            throw new IllegalArgumentException("Coordinate " + v + " is outside the grid");
+        }
+        return c;
+    }
+
+    private long cellKey(float x, float y, float z) {
+        int cx = cell(x), cy = cell(y), cz = cell(z);
+        minCx = Math.min(minCx, cx);
+        minCy = Math.min(minCy, cy);
+        minCz = Math.min(minCz, cz);
+        maxCx = Math.max(maxCx, cx);
+        maxCy = Math.max(maxCy, cy);
+        maxCz = Math.max(maxCz, cz);
+        return pack(cx, cy, cz);
+    }
+
+    private static long pack(int cx, int cy, int cz) {
+        return ((long) (cx & CELL_MASK) << (2 * CELL_BITS))
+                | ((long) (cy & CELL_MASK) << CELL_BITS)
+                | (cz & CELL_MASK);
+    }
+
+    private float distance2(int p, float x, float y, float z) {
+        float dx = xs[p] - x;
+        float dy = ys[p] - y;
+        float dz = zs[p] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void link(int handle, long key) {
+        int slot = findSlot(key);
+        if (cellKeys[slot] == EMPTY) {
+            cellKeys[slot] = key;
+            cellHeads[slot] = NONE;
+            cellCount++;
+        }
+        int first = cellHeads[slot];
+        next[handle] = first;
+        prev[handle] = NONE;
+        if (first != NONE) {
+            prev[first] = handle;
+        }
+        cellHeads[slot] = handle;
+        cellOf[handle] = key;
+
+        if (cellCount * 2 > cellKeys.length) {
+            rehash(cellKeys.length * 2);
+        }
+    }
+
+    private void unlink(int handle) {
+        int before = prev[handle];
+        int after = next[handle];
+        if (after != NONE) {
+            prev[after] = before;
+        }
+        if (before != NONE) {
+            next[before] = after;
+            return;
+        }
+        int slot = findSlot(cellOf[handle]);
+        cellHeads[slot] = after;
+        if (after == NONE) {
+            deleteSlot(slot);
+        }
+    }
+
+    private int head(long key) {
+        int slot = findSlot(key);
+        return cellKeys[slot] == EMPTY ? NONE : cellHeads[slot];
+    }
+
+    private int findSlot(long key) {
+        int mask = cellKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (cellKeys[slot] != EMPTY && cellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Linear-probing delete: shift later entries of the probe run back into the hole. */
+    private void deleteSlot(int hole) {
+        int mask = cellKeys.length - 1;
+        cellKeys[hole] = EMPTY;
+        cellCount--;
+        int slot = (hole + 1) & mask;
+        while (cellKeys[slot] != EMPTY) {
+            int home = hash(cellKeys[slot]) & mask;
+            // Move the entry if the hole lies between its home slot and where it sits now
+            boolean movable = hole <= slot ? (home <= hole || home > slot) : (home <= hole && home > slot);
+            if (movable) {
+                cellKeys[hole] = cellKeys[slot];
+                cellHeads[hole] = cellHeads[slot];
+                cellKeys[slot] = EMPTY;
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int newSize) {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        cellKeys = new long[newSize];
+        cellHeads = new int[newSize];
+        Arrays.fill(cellKeys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findSlot(oldKeys[i]);
+                cellKeys[slot] = oldKeys[i];
+                cellHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private void growPoints() {
+        int capacity = xs.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    private void checkHandle(int handle) {
+        if (handle < 0 || handle >= highWater || cellOf[handle] == EMPTY) {
+            throw new IllegalArgumentException("No point with handle " + handle);
+        }
+    }
+}
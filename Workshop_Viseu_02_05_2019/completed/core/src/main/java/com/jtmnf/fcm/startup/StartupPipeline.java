@@ -0,0 +1,248 @@
+package com.jtmnf.fcm.startup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs startup work as a small dependency graph instead of one long block in onCreate.
+ *
+ * <p>Each phase says which thread it needs and which phases must finish first. A phase starts
+ * as soon as its dependencies are done, so background work (database, messaging) overlaps with
+ * main-thread work (layout, AR setup) and a main-thread phase only waits for what it really uses.
+ * When several phases become ready at once, background ones are handed off first so they are
+ * never held up by a main-thread phase running inline.
+ *
+ * <p>If a phase throws, the phases that depend on it are skipped; the others still run. Every
+ * phase gets a {@link Timing}, reported to the listener once all of them are done.
+ */
+public class StartupPipeline {
+
+    public enum Affinity {
+        MAIN, BACKGROUND
+    }
+
+    public interface Listener {
+        /** Called once, on the thread that finished the last phase, in the order phases were added. */
+        void onFinished(List<Timing> timings);
+    }
+
+    /** What happened to one phase. Times are nanoseconds since {@link #start()}. */
+    public static final class Timing {
+        public final String name;
+        public final Affinity affinity;
+        private String thread;
+        private long startNanos = -1;
+        private long endNanos = -1;
+        private Throwable error;
+        private boolean skipped;
+
+        Timing(String name, Affinity affinity) {
+            this.name = name;
+            this.affinity = affinity;
+        }
+
+        /** Name of the thread the phase ran on, or null if it was skipped. */
+        public String getThread() {
+            return thread;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getEndNanos() {
+            return endNanos;
+        }
+
+        public long getDurationNanos() {
+            return endNanos - startNanos;
+        }
+
+        /** What the phase threw, or null. */
+        public Throwable getError() {
+            return error;
+        }
+
+        /** True if the phase never ran because a dependency failed. */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        @Override
+        public String toString() {
+            if (skipped) {
+                return name + " skipped";
+            }
+            return String.format("%s on %s: %.2f ms at +%.2f ms%s", name, thread, getDurationNanos() / 1e6,
+                    startNanos / 1e6, error != null ? " failed: " + error : "");
+        }
+    }
+
+    private static final class Phase {
+        final Timing timing;
+        final Runnable work;
+        final List<Phase> dependents = new ArrayList<>();
+        int remaining;
+        boolean failed;
+
+        Phase(String name, Affinity affinity, Runnable work) {
+            this.timing = new Timing(name, affinity);
+            this.work = work;
+        }
+    }
+
+    private final Executor mainExecutor;
+    private final Executor backgroundExecutor;
+    private final LongSupplier nanoClock;
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private Listener listener;
+
+    private long startNanos;
+    private boolean started;
+    private int unfinished;
+
+    /**
+     * @param mainExecutor       - runs MAIN phases; may run them inline when already on the main thread
+     * @param backgroundExecutor - runs BACKGROUND phases
+     * @param nanoClock          - usually System::nanoTime
+     */
+    public StartupPipeline(Executor mainExecutor, Executor backgroundExecutor, LongSupplier nanoClock) {
+        this.mainExecutor = mainExecutor;
+        this.backgroundExecutor = backgroundExecutor;
+        this.nanoClock = nanoClock;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a phase. Dependencies must have been added before, which keeps the graph acyclic.
+     *
+     * @param dependsOn - names of the phases that must finish before this one starts
+     */
+    public synchronized StartupPipeline add(String name, Affinity affinity, Runnable work, String... dependsOn) {
+        if (started) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        if (phases.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate phase " + name);
+        }
+        Phase phase = new Phase(name, affinity, work);
+        for (String dependency : dependsOn) {
+            Phase before = phases.get(dependency);
+            if (before == null) {
+                throw new IllegalArgumentException(name + " depends on unknown phase " + dependency);
+            }
+            before.dependents.add(phase);
+            phase.remaining++;
+        }
+        phases.put(name, phase);
+        return this;
+    }
+
+    /** Starts every phase that has no dependencies. */
+    public void start() {
+        List<Phase> ready = new ArrayList<>();
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("Pipeline already started");
+            }
+            started = true;
+            startNanos = nanoClock.getAsLong();
+            unfinished = phases.size();
+            for (Phase phase : phases.values()) {
+                if (phase.remaining == 0) {
+                    ready.add(phase);
+                }
+            }
+        }
+        if (ready.isEmpty()) {
+            finish();
+            return;
+        }
+        dispatch(ready);
+    }
+
+    /** Timings so far; phases that haven't run yet have negative times. */
+    public synchronized List<Timing> getTimings() {
+        List<Timing> timings = new ArrayList<>(phases.size());
+        for (Phase phase : phases.values()) {
+            timings.add(phase.timing);
+        }
+        return Collections.unmodifiableList(timings);
+    }
+
+    private void dispatch(List<Phase> ready) {
+        for (Phase phase : ready) {
+            if (phase.timing.affinity == Affinity.BACKGROUND) {
+                backgroundExecutor.execute(() -> run(phase));
+            }
+        }
+        for (Phase phase : ready) {
+            if (phase.timing.affinity == Affinity.MAIN) {
+                mainExecutor.execute(() -> run(phase));
+            }
+        }
+    }
+
+    private void run(Phase phase) {
+        Timing timing = phase.timing;
+        Throwable error = null;
+        long start = nanoClock.getAsLong();
+        try {
+            phase.work.run();
+        } catch (RuntimeException | Error e) {
+            error = e;
+        }
+        long end = nanoClock.getAsLong();
+
+        List<Phase> ready = new ArrayList<>();
+        boolean last;
+        synchronized (this) {
+            timing.thread = Thread.currentThread().getName();
+            timing.startNanos = start - startNanos;
+            timing.endNanos = end - startNanos;
+            timing.error = error;
+            unfinished--;
+            if (error != null) {
+                unfinished -= skipDependents(phase);
+            } else {
+                for (Phase dependent : phase.dependents) {
+                    if (--dependent.remaining == 0 && !dependent.failed) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+            last = unfinished == 0;
+        }
+        dispatch(ready);
+        if (last) {
+            finish();
+        }
+    }
+
+    /** Marks everything downstream of a failed phase as skipped, returning how many were newly skipped. */
+    private int skipDependents(Phase failed) {
+        int skipped = 0;
+        for (Phase dependent : failed.dependents) {
+            if (!dependent.failed) {
+                dependent.failed = true;
+                dependent.timing.skipped = true;
+                skipped += 1 + skipDependents(dependent);
+            }
+        }
+        return skipped;
+    }
+
+    private void finish() {
+        if (listener != null) {
+            listener.onFinished(getTimings());
+        }
+    }
+}
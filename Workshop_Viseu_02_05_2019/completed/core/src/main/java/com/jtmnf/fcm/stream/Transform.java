@@ -0,0 +1,79 @@
+package com.jtmnf.fcm.stream;
+
+/**
+ * Local transform of a node while it is being manipulated: position, rotation and scale, as in
+ * Sceneform's Node. Mutable and reused, like {@link com.jtmnf.fcm.anchor.AnchorRecord}.
+ */
+public final class Transform {
+
+    public float px, py, pz;
+
+    // Unit quaternion
+    public float qx, qy, qz, qw = 1f;
+
+    public float sx = 1f, sy = 1f, sz = 1f;
+
+    public Transform setPosition(float x, float y, float z) {
+        px = x;
+        py = y;
+        pz = z;
+        return this;
+    }
+
+    public Transform setRotation(float x, float y, float z, float w) {
+        qx = x;
+        qy = y;
+        qz = z;
+        qw = w;
+        return this;
+    }
+
+    public Transform setScale(float x, float y, float z) {
+        sx = x;
+        sy = y;
+        sz = z;
+        return this;
+    }
+
+    public Transform copyFrom(Transform other) {
+        px = other.px;
+        py = other.py;
+        pz = other.pz;
+        qx = other.qx;
+        qy = other.qy;
+        qz = other.qz;
+        qw = other.qw;
+        sx = other.sx;
+        sy = other.sy;
+        sz = other.sz;
+        return this;
+    }
+
+    /** Angle in radians between this rotation and another. */
+    public double angleTo(Transform other) {
+        // From the chord between the quaternions rather than acos of their dot product, which
+        // loses small angles to float rounding
+        double dot = (double) qx * other.qx + (double) qy * other.qy + (double) qz * other.qz
+                + (double) qw * other.qw;
+        double sign = dot < 0 ? -1 : 1;
+        double dx = qx - sign * other.qx;
+        double dy = qy - sign * other.qy;
+        double dz = qz - sign * other.qz;
+        double dw = qw - sign * other.qw;
+        return 4 * Math.asin(Math.min(1, Math.sqrt(dx * dx + dy * dy + dz * dz + dw * dw) / 2));
+    }
+
+    /** Distance in meters between this position and another. */
+    public double distanceTo(Transform other) {
+        double dx = px - other.px;
+        double dy = py - other.py;
+        double dz = pz - other.pz;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    @Override
+    public String toString() {
+        return "Transform{p=(" + px + ", " + py + ", " + pz + "), q=(" + qx + ", " + qy + ", " + qz + ", " + qw
+                + "), s=(" + sx + ", " + sy + ", " + sz + ")}";
+    }
+}
@@ -0,0 +1,156 @@
+package com.jtmnf.fcm.stream;
+
+/**
+ * Reads the packets of one {@link TransformEncoder}.
+ *
+ * <p>Keeps the last few decoded states so deltas can find their baseline. A delta whose baseline
+ * this side never saw, or a packet older than the last one decoded, is refused; the sender's next
+ * keyframe gets it back in step.
+ *
+ * <p>Not thread-safe.
+ */
+public final class TransformDecoder {
+
+    private static final int HISTORY = 32;
+
+    private final TransformQuantizer quantizer;
+    private final TransformQuantizer.Quantized[] states = new TransformQuantizer.Quantized[HISTORY];
+    private final long[] seqs = new long[HISTORY];
+    private final long[] times = new long[HISTORY];
+    private final TransformQuantizer.Quantized scratch = new TransformQuantizer.Quantized();
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    private long lastSeq = -1;
+    private long lastTime;
+    private long refused;
+
+    public TransformDecoder(TransformQuantizer quantizer) {
+        this.quantizer = quantizer;
+        for (int i = 0; i < HISTORY; i++) {
+            states[i] = new TransformQuantizer.Quantized();
+            seqs[i] = -1;
+        }
+    }
+
+    /**
+     * @param into - receives the transform if the packet was accepted
+     * @return false if the packet was stale or its baseline is unknown
+     * @throws IllegalArgumentException if the bytes are not a packet
+     */
+    public boolean decode(byte[] packet, int off, int len, Transform into) {
+        buffer = packet;
+        position = off;
+        limit = off + len;
+        byte type = readByte();
+        long seq = readVarLong();
+        if (seq <= lastSeq) {
+            refused++;
+            return false;
+        }
+
+        // Decoded aside and only kept once the whole packet checks out
+        TransformQuantizer.Quantized state = scratch;
+        long time;
+        if (type == TransformPacket.KEYFRAME) {
+            time = readVarLong();
+            state.px = readSigned();
+            state.py = readSigned();
+            state.pz = readSigned();
+            state.rotation = readVarLong();
+            state.sx = readSigned();
+            state.sy = readSigned();
+            state.sz = readSigned();
+        } else if (type == TransformPacket.DELTA) {
+            long baselineSeq = readVarLong();
+            int baseSlot = (int) (baselineSeq % HISTORY);
+            if (baselineSeq >= seq || seqs[baseSlot] != baselineSeq) {
+                refused++;
+                return false;
+            }
+            TransformQuantizer.Quantized base = states[baseSlot];
+            time = times[baseSlot] + readVarLong();
+            int mask = readByte() & 0xFF;
+            state.px = (mask & TransformPacket.MASK_PX) != 0 ? base.px + readSigned() : base.px;
+            state.py = (mask & TransformPacket.MASK_PY) != 0 ? base.py + readSigned() : base.py;
+            state.pz = (mask & TransformPacket.MASK_PZ) != 0 ? base.pz + readSigned() : base.pz;
+            state.rotation = readRotation(mask, base.rotation);
+            state.sx = (mask & TransformPacket.MASK_SX) != 0 ? base.sx + readSigned() : base.sx;
+            state.sy = (mask & TransformPacket.MASK_SY) != 0 ? base.sy + readSigned() : base.sy;
+            state.sz = (mask & TransformPacket.MASK_SZ) != 0 ? base.sz + readSigned() : base.sz;
+        } else {
+            throw new IllegalArgumentException("unknown packet type " + type);
+        }
+        if (position != limit) {
+            throw new IllegalArgumentException("trailing bytes in packet");
+        }
+
+        int slot = (int) (seq % HISTORY);
+        states[slot].copyFrom(state);
+        seqs[slot] = seq;
+        times[slot] = time;
+        lastSeq = seq;
+        lastTime = time;
+        quantizer.dequantize(state, into);
+        return true;
+    }
+
+    /** Sender time of the last accepted packet. */
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /** Packets turned down as stale or missing their baseline. */
+    public long getRefusedCount() {
+        return refused;
+    }
+
+    private long readRotation(int mask, long base) {
+        if ((mask & TransformPacket.MASK_ROTATION) != 0) {
+            return readVarLong();
+        }
+        if ((mask & TransformPacket.MASK_ROTATION_DELTA) == 0) {
+            return base;
+        }
+        int bits = quantizer.rotationBits;
+        int max = (1 << bits) - 1;
+        long rotation = base >>> 3 * bits << 3 * bits;
+        for (int k = 0; k < 3; k++) {
+            int component = TransformPacket.rotationComponent(base, k, bits) + readSigned();
+            if (component < 0 || component > max) {
+                throw new IllegalArgumentException("rotation out of range");
+            }
+            rotation |= (long) component << k * bits;
+        }
+        return rotation;
+    }
+
+    private byte readByte() {
+        if (position >= limit) {
+            throw new IllegalArgumentException("truncated packet");
+        }
+        return buffer[position++];
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    private int readSigned() {
+        return TransformPacket.decodeSigned(readVarLong());
+    }
+}
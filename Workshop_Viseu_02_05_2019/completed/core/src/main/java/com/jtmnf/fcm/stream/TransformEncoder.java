@@ -0,0 +1,214 @@
+package com.jtmnf.fcm.stream;
+
+/**
+ * Turns the transform of a node being dragged into small packets, at a bounded rate.
+ *
+ * <p>Call {@link #encode} every frame. It writes nothing if the last packet went out less than
+ * the minimum interval ago or if the quantized transform hasn't changed, so a node at rest costs
+ * no traffic. Otherwise it writes a delta against the last packet the server acknowledged, or a
+ * keyframe if nothing was acknowledged yet or the keyframe interval has passed; keyframes let a
+ * receiver that missed packets catch up.
+ *
+ * <p>Not thread-safe; use it from the main thread.
+ */
+public final class TransformEncoder {
+
+    /** Largest packet {@link #encode} writes. */
+    public static final int MAX_PACKET_SIZE = 64;
+
+    // Sent packets that may still be acknowledged; older ones can no longer become a baseline
+    private static final int HISTORY = 32;
+
+    private final TransformQuantizer quantizer;
+    private final long minIntervalMillis;
+    private final long keyframeIntervalMillis;
+
+    private final TransformQuantizer.Quantized current = new TransformQuantizer.Quantized();
+    private final TransformQuantizer.Quantized last = new TransformQuantizer.Quantized();
+    private final TransformQuantizer.Quantized[] sent = new TransformQuantizer.Quantized[HISTORY];
+    private final long[] sentSeqs = new long[HISTORY];
+    private final long[] sentTimes = new long[HISTORY];
+
+    private long seq;
+    private long lastSentTime = Long.MIN_VALUE;
+    private long lastKeyframeTime = Long.MIN_VALUE;
+    private boolean hasLast;
+
+    private TransformQuantizer.Quantized baseline;
+    private long baselineSeq = -1;
+    private long baselineTime;
+
+    private long packets;
+    private long keyframes;
+    private long bytes;
+
+    /**
+     * @param quantizer              - precision of the stream
+     * @param minIntervalMillis      - least time between two packets; 50 sends at most 20 per second
+     * @param keyframeIntervalMillis - most time between two keyframes while the node moves
+     */
+    public TransformEncoder(TransformQuantizer quantizer, long minIntervalMillis, long keyframeIntervalMillis) {
+        if (minIntervalMillis < 0 || keyframeIntervalMillis <= 0) {
+            throw new IllegalArgumentException("intervals must be >= 0 and > 0");
+        }
+        this.quantizer = quantizer;
+        this.minIntervalMillis = minIntervalMillis;
+        this.keyframeIntervalMillis = keyframeIntervalMillis;
+        for (int i = 0; i < HISTORY; i++) {
+            sent[i] = new TransformQuantizer.Quantized();
+            sentSeqs[i] = -1;
+        }
+    }
+
+    /**
+     * @param nowMillis - sender clock, also carried in the packet for the receiver's interpolation
+     * @param transform - the node's current local transform
+     * @param out       - room for {@link #MAX_PACKET_SIZE} bytes from off
+     * @return the packet length, or 0 if nothing needs to be sent
+     */
+    public int encode(long nowMillis, Transform transform, byte[] out, int off) {
+        if (hasLast && nowMillis - lastSentTime < minIntervalMillis) {
+            return 0;
+        }
+        quantizer.quantize(transform, current);
+        if (hasLast && current.sameAs(last)) {
+            return 0;
+        }
+
+        long packetSeq = ++seq;
+        int end;
+        if (baseline == null || nowMillis - lastKeyframeTime >= keyframeIntervalMillis || nowMillis < baselineTime) {
+            end = writeKeyframe(packetSeq, nowMillis, out, off);
+            lastKeyframeTime = nowMillis;
+            keyframes++;
+        } else {
+            end = writeDelta(packetSeq, nowMillis, out, off);
+        }
+
+        int slot = (int) (packetSeq % HISTORY);
+        sent[slot].copyFrom(current);
+        sentSeqs[slot] = packetSeq;
+        sentTimes[slot] = nowMillis;
+        last.copyFrom(current);
+        hasLast = true;
+        lastSentTime = nowMillis;
+        packets++;
+        bytes += end - off;
+        return end - off;
+    }
+
+    /**
+     * Marks a packet as stored by the server, so later deltas can be based on it. Acknowledgements
+     * of packets older than the current baseline, or too old to remember, are ignored.
+     */
+    public void acknowledge(long packetSeq) {
+        if (packetSeq <= baselineSeq) {
+            return;
+        }
+        int slot = (int) (packetSeq % HISTORY);
+        if (sentSeqs[slot] != packetSeq) {
+            return;
+        }
+        baseline = sent[slot];
+        baselineSeq = packetSeq;
+        baselineTime = sentTimes[slot];
+    }
+
+    /** Sequence number of the last packet written, which is what to pass to {@link #acknowledge}. */
+    public long getLastSeq() {
+        return seq;
+    }
+
+    /** Forgets the baseline, so the next packet is a keyframe; for when the receivers change. */
+    public void reset() {
+        baseline = null;
+        baselineSeq = -1;
+        hasLast = false;
+        lastKeyframeTime = Long.MIN_VALUE;
+        for (int i = 0; i < HISTORY; i++) {
+            sentSeqs[i] = -1;
+        }
+    }
+
+    private int writeKeyframe(long packetSeq, long nowMillis, byte[] out, int off) {
+        out[off++] = TransformPacket.KEYFRAME;
+        off = TransformPacket.writeVarLong(packetSeq, out, off);
+        off = TransformPacket.writeVarLong(nowMillis, out, off);
+        off = TransformPacket.writeSigned(current.px, out, off);
+        off = TransformPacket.writeSigned(current.py, out, off);
+        off = TransformPacket.writeSigned(current.pz, out, off);
+        off = TransformPacket.writeVarLong(current.rotation, out, off);
+        off = TransformPacket.writeSigned(current.sx, out, off);
+        off = TransformPacket.writeSigned(current.sy, out, off);
+        return TransformPacket.writeSigned(current.sz, out, off);
+    }
+
+    private int writeDelta(long packetSeq, long nowMillis, byte[] out, int off) {
+        TransformQuantizer.Quantized base = baseline;
+        int mask = (current.px != base.px ? TransformPacket.MASK_PX : 0)
+                | (current.py != base.py ? TransformPacket.MASK_PY : 0)
+                | (current.pz != base.pz ? TransformPacket.MASK_PZ : 0)
+                | rotationMask(current.rotation, base.rotation)
+                | (current.sx != base.sx ? TransformPacket.MASK_SX : 0)
+                | (current.sy != base.sy ? TransformPacket.MASK_SY : 0)
+                | (current.sz != base.sz ? TransformPacket.MASK_SZ : 0);
+        out[off++] = TransformPacket.DELTA;
+        off = TransformPacket.writeVarLong(packetSeq, out, off);
+        off = TransformPacket.writeVarLong(baselineSeq, out, off);
+        off = TransformPacket.writeVarLong(nowMillis - baselineTime, out, off);
+        out[off++] = (byte) mask;
+        if ((mask & TransformPacket.MASK_PX) != 0) {
+            off = TransformPacket.writeSigned(current.px - base.px, out, off);
+        }
+        if ((mask & TransformPacket.MASK_PY) != 0) {
+            off = TransformPacket.writeSigned(current.py - base.py, out, off);
+        }
+        if ((mask & TransformPacket.MASK_PZ) != 0) {
+            off = TransformPacket.writeSigned(current.pz - base.pz, out, off);
+        }
+        if ((mask & TransformPacket.MASK_ROTATION) != 0) {
+            off = TransformPacket.writeVarLong(current.rotation, out, off);
+        } else if ((mask & TransformPacket.MASK_ROTATION_DELTA) != 0) {
+            int bits = quantizer.rotationBits;
+            for (int k = 0; k < 3; k++) {
+                off = TransformPacket.writeSigned(TransformPacket.rotationComponent(current.rotation, k, bits)
+                        - TransformPacket.rotationComponent(base.rotation, k, bits), out, off);
+            }
+        }
+        if ((mask & TransformPacket.MASK_SX) != 0) {
+            off = TransformPacket.writeSigned(current.sx - base.sx, out, off);
+        }
+        if ((mask & TransformPacket.MASK_SY) != 0) {
+            off = TransformPacket.writeSigned(current.sy - base.sy, out, off);
+        }
+        if ((mask & TransformPacket.MASK_SZ) != 0) {
+            off = TransformPacket.writeSigned(current.sz - base.sz, out, off);
+        }
+        return off;
+    }
+
+    private int rotationMask(long rotation, long base) {
+        if (rotation == base) {
+            return 0;
+        }
+        int shift = 3 * quantizer.rotationBits;
+        return rotation >>> shift == base >>> shift ? TransformPacket.MASK_ROTATION_DELTA : TransformPacket.MASK_ROTATION;
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    public long getPacketCount() {
+        return packets;
+    }
+
+    public long getKeyframeCount() {
+        return keyframes;
+    }
+
+    /** Bytes written so far, before any transport encoding. */
+    public long getByteCount() {
+        return bytes;
+    }
+}
@@ -0,0 +1,125 @@
+package com.jtmnf.fcm.stream;
+
+/**
+ * Plays back a stream of received transforms smoothly on the receiving side.
+ *
+ * <p>Packets arrive a few times per second and with jitter, while frames are drawn at 60 Hz. The
+ * interpolator keeps the last few samples, keyed by sender time, and renders slightly in the past
+ * (the delay) so there are usually samples on both sides of the frame time: position and scale
+ * are blended linearly and rotation by normalized lerp. Past the newest sample it holds still
+ * rather than guess.
+ *
+ * <p>The sender's clock is mapped to ours with the offset of the fastest packet seen, so a packet
+ * that was held up doesn't pull playback late.
+ *
+ * <p>Not thread-safe; use it from the main thread.
+ */
+public final class TransformInterpolator {
+
+    private static final int CAPACITY = 16;
+
+    private final long delayMillis;
+    private final Transform[] samples = new Transform[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private int head;
+    private int count;
+    private long offset = Long.MIN_VALUE;
+
+    /**
+     * @param delayMillis - how far behind the newest data to render; about two packet intervals
+     */
+    public TransformInterpolator(long delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("delay must be >= 0");
+        }
+        this.delayMillis = delayMillis;
+        for (int i = 0; i < CAPACITY; i++) {
+            samples[i] = new Transform();
+        }
+    }
+
+    /**
+     * @param senderMillis  - time the sender took the sample, from the packet
+     * @param arrivalMillis - local time it got here
+     */
+    public void add(long senderMillis, long arrivalMillis, Transform transform) {
+        if (count > 0 && senderMillis <= times[(head + count - 1) % CAPACITY]) {
+            return;
+        }
+        offset = Math.max(offset, senderMillis - arrivalMillis);
+        int slot;
+        if (count == CAPACITY) {
+            slot = head;
+            head = (head + 1) % CAPACITY;
+        } else {
+            slot = (head + count++) % CAPACITY;
+        }
+        samples[slot].copyFrom(transform);
+        times[slot] = senderMillis;
+    }
+
+    /**
+     * @param nowMillis - local frame time
+     * @param into      - receives the transform to render
+     * @return false if nothing has been received yet
+     */
+    public boolean sample(long nowMillis, Transform into) {
+        if (count == 0) {
+            return false;
+        }
+        long target = nowMillis + offset - delayMillis;
+        int oldest = head;
+        int newest = (head + count - 1) % CAPACITY;
+        if (target <= times[oldest]) {
+            into.copyFrom(samples[oldest]);
+            return true;
+        }
+        if (target >= times[newest]) {
+            into.copyFrom(samples[newest]);
+            return true;
+        }
+        int i = 0;
+        while (times[(head + i + 1) % CAPACITY] < target) {
+            i++;
+        }
+        int from = (head + i) % CAPACITY;
+        int to = (head + i + 1) % CAPACITY;
+        float t = (float) (target - times[from]) / (times[to] - times[from]);
+        blend(samples[from], samples[to], t, into);
+        return true;
+    }
+
+    /** Forgets all samples, such as when the node is dropped and picked up again. */
+    public void clear() {
+        head = 0;
+        count = 0;
+        offset = Long.MIN_VALUE;
+    }
+
+    /** Sender time of the newest sample, or Long.MIN_VALUE if there is none. */
+    public long getNewestTime() {
+        return count == 0 ? Long.MIN_VALUE : times[(head + count - 1) % CAPACITY];
+    }
+
+    static void blend(Transform a, Transform b, float t, Transform into) {
+        into.px = a.px + (b.px - a.px) * t;
+        into.py = a.py + (b.py - a.py) * t;
+        into.pz = a.pz + (b.pz - a.pz) * t;
+        into.sx = a.sx + (b.sx - a.sx) * t;
+        into.sy = a.sy + (b.sy - a.sy) * t;
+        into.sz = a.sz + (b.sz - a.sz) * t;
+
+        // Take the short way round
+        float dot = a.qx * b.qx + a.qy * b.qy + a.qz * b.qz + a.qw * b.qw;
+        float sign = dot < 0 ? -1 : 1;
+        float x = a.qx + (sign * b.qx - a.qx) * t;
+        float y = a.qy + (sign * b.qy - a.qy) * t;
+        float z = a.qz + (sign * b.qz - a.qz) * t;
+        float w = a.qw + (sign * b.qw - a.qw) * t;
+        float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        into.qx = x / length;
+        into.qy = y / length;
+        into.qz = z / length;
+        into.qw = w / length;
+    }
+}
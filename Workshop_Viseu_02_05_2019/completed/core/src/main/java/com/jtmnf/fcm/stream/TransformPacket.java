@@ -0,0 +1,54 @@
+package com.jtmnf.fcm.stream;
+
+/**
+ * Wire format shared by {@link TransformEncoder} and {@link TransformDecoder}.
+ *
+ * <pre>
+ * keyframe: [KEYFRAME] [seq] [time] [px py pz] [rotation] [sx sy sz]
+ * delta:    [DELTA] [seq] [baseline seq] [time - baseline time] [mask] [changed fields...]
+ * </pre>
+ *
+ * Numbers are varints; signed ones are zigzag encoded. Delta fields are differences from the
+ * baseline. Rotation is sent as three component differences when it dropped the same component
+ * as the baseline, and whole otherwise.
+ */
+final class TransformPacket {
+
+    static final byte KEYFRAME = 1;
+    static final byte DELTA = 2;
+
+    static final int MASK_PX = 1;
+    static final int MASK_PY = 1 << 1;
+    static final int MASK_PZ = 1 << 2;
+    static final int MASK_ROTATION = 1 << 3;
+    static final int MASK_SX = 1 << 4;
+    static final int MASK_SY = 1 << 5;
+    static final int MASK_SZ = 1 << 6;
+    static final int MASK_ROTATION_DELTA = 1 << 7;
+
+    private TransformPacket() {
+    }
+
+    static int writeVarLong(long value, byte[] out, int off) {
+        while ((value & ~0x7FL) != 0) {
+            out[off++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out[off++] = (byte) value;
+        return off;
+    }
+
+    /** Component k (0 is the lowest) of a packed rotation. */
+    static int rotationComponent(long rotation, int k, int bits) {
+        return (int) (rotation >>> k * bits) & (1 << bits) - 1;
+    }
+
+    static int writeSigned(int value, byte[] out, int off) {
+        return writeVarLong((value << 1 ^ value >> 31) & 0xFFFFFFFFL, out, off);
+    }
+
+    static int decodeSigned(long zigzag) {
+        int value = (int) zigzag;
+        return value >>> 1 ^ -(value & 1);
+    }
+}
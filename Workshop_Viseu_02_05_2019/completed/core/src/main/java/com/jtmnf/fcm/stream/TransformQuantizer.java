@@ -0,0 +1,150 @@
+package com.jtmnf.fcm.stream;
+
+/**
+ * Maps transforms to integers and back with a known precision.
+ *
+ * <p>Position and scale are rounded to a fixed step. Rotation uses "smallest three": the largest
+ * quaternion component is dropped (it follows from the other three, since the quaternion is unit
+ * length and can be flipped to make it positive), and the other three, which are within
+ * +-1/sqrt(2), are stored with a fixed number of bits each, plus 2 bits for which one was dropped.
+ */
+public final class TransformQuantizer {
+
+    /** Quantized form of a {@link Transform}. */
+    public static final class Quantized {
+        public int px, py, pz;
+        // Index of the dropped component in the top 2 bits, then three components
+        public long rotation;
+        public int sx, sy, sz;
+
+        public Quantized copyFrom(Quantized other) {
+            px = other.px;
+            py = other.py;
+            pz = other.pz;
+            rotation = other.rotation;
+            sx = other.sx;
+            sy = other.sy;
+            sz = other.sz;
+            return this;
+        }
+
+        public boolean sameAs(Quantized other) {
+            return px == other.px && py == other.py && pz == other.pz && rotation == other.rotation
+                    && sx == other.sx && sy == other.sy && sz == other.sz;
+        }
+    }
+
+    private static final float RANGE = (float) (1 / Math.sqrt(2));
+
+    public final float positionStep;
+    public final int rotationBits;
+    public final float scaleStep;
+    private final int rotationMax;
+    private final float[] components = new float[4];
+
+    /**
+     * @param positionStep - meters per unit, e.g. 0.001f for millimeters
+     * @param rotationBits - bits per rotation component, 4 to 20
+     * @param scaleStep    - scale per unit, e.g. 0.001f
+     */
+    public TransformQuantizer(float positionStep, int rotationBits, float scaleStep) {
+        if (!(positionStep > 0) || !(scaleStep > 0) || rotationBits < 4 || rotationBits > 20) {
+            throw new IllegalArgumentException("steps must be > 0 and rotation bits in [4, 20]");
+        }
+        this.positionStep = positionStep;
+        this.rotationBits = rotationBits;
+        this.scaleStep = scaleStep;
+        this.rotationMax = (1 << rotationBits) - 1;
+    }
+
+    /** Largest position error per axis, in meters. */
+    public float maxPositionError() {
+        return positionStep / 2;
+    }
+
+    /**
+     * Upper bound on the angle between a rotation and its round trip, in radians. Each stored
+     * component is off by at most half a step; the dropped one, which is at least 0.5, adds at most
+     * sqrt(2) times that per stored component. The angle is at most twice the quaternion distance.
+     */
+    public double maxRotationError() {
+        double e = RANGE / rotationMax;
+        double dropped = 3 * RANGE / 0.5 * e;
+        return 2 * Math.sqrt(3 * e * e + dropped * dropped);
+    }
+
+    public float maxScaleError() {
+        return scaleStep / 2;
+    }
+
+    public Quantized quantize(Transform t, Quantized into) {
+        into.px = Math.round(t.px / positionStep);
+        into.py = Math.round(t.py / positionStep);
+        into.pz = Math.round(t.pz / positionStep);
+        into.rotation = quantizeRotation(t.qx, t.qy, t.qz, t.qw);
+        into.sx = Math.round(t.sx / scaleStep);
+        into.sy = Math.round(t.sy / scaleStep);
+        into.sz = Math.round(t.sz / scaleStep);
+        return into;
+    }
+
+    public Transform dequantize(Quantized q, Transform into) {
+        into.px = q.px * positionStep;
+        into.py = q.py * positionStep;
+        into.pz = q.pz * positionStep;
+        dequantizeRotation(q.rotation, into);
+        into.sx = q.sx * scaleStep;
+        into.sy = q.sy * scaleStep;
+        into.sz = q.sz * scaleStep;
+        return into;
+    }
+
+    private long quantizeRotation(float x, float y, float z, float w) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        if (length == 0) {
+            w = 1;
+            length = 1;
+        }
+        float[] c = components;
+        c[0] = x / length;
+        c[1] = y / length;
+        c[2] = z / length;
+        c[3] = w / length;
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (Math.abs(c[i]) > Math.abs(c[largest])) {
+                largest = i;
+            }
+        }
+        // q and -q are the same rotation; make the dropped one positive
+        float sign = c[largest] < 0 ? -1 : 1;
+        long packed = largest;
+        for (int i = 0; i < 4; i++) {
+            if (i != largest) {
+                float v = Math.max(-RANGE, Math.min(RANGE, c[i] * sign));
+                packed = packed << rotationBits | Math.round((v + RANGE) / (2 * RANGE) * rotationMax);
+            }
+        }
+        return packed;
+    }
+
+    private void dequantizeRotation(long packed, Transform into) {
+        float[] c = components;
+        int largest = (int) (packed >>> 3 * rotationBits) & 3;
+        float sum = 0;
+        for (int i = 3, shift = 0; i >= 0; i--) {
+            if (i == largest) {
+                continue;
+            }
+            int v = (int) (packed >>> shift) & rotationMax;
+            c[i] = v / (float) rotationMax * 2 * RANGE - RANGE;
+            sum += c[i] * c[i];
+            shift += rotationBits;
+        }
+        c[largest] = (float) Math.sqrt(Math.max(0, 1 - sum));
+        into.qx = c[0];
+        into.qy = c[1];
+        into.qz = c[2];
+        into.qw = c[3];
+    }
+}
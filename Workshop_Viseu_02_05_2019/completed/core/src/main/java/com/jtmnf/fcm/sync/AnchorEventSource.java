@@ -0,0 +1,30 @@
+package com.jtmnf.fcm.sync;
+
+/**
+ * Child-level events for the anchors under one database node, the same shape as Firebase's
+ * ChildEventListener: one callback per anchor that changed instead of the whole subtree.
+ */
+public interface AnchorEventSource {
+
+    interface Listener {
+        void onAdded(String anchorId, String value);
+
+        void onChanged(String anchorId, String value);
+
+        void onRemoved(String anchorId);
+
+        void onError(Exception error);
+
+        /**
+         * The anchor is still in the room but this source stopped following it, e.g. because it
+         * was paged out. Unless overridden, treated as a removal.
+         */
+        default void onUnloaded(String anchorId) {
+            onRemoved(anchorId);
+        }
+    }
+
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+}
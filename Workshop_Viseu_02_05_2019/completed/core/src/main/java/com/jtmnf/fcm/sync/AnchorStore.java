@@ -0,0 +1,26 @@
+package com.jtmnf.fcm.sync;
+
+import java.util.Map;
+
+/**
+ * The part of a Firebase DatabaseReference that anchor writes need. Keeping it behind an
+ * interface lets the write path run against an in-memory store in tests.
+ */
+public interface AnchorStore {
+
+    interface Callback {
+        /** @param error - null if the write was acknowledged by the server */
+        void onComplete(Exception error);
+    }
+
+    /** Generates a new, chronologically ordered child key, like push().getKey(). */
+    String newKey();
+
+    /**
+     * Applies all updates in one multi-path write. A null value deletes that child.
+     *
+     * @param updates  - child key to value
+     * @param callback - called once the write is acknowledged or rejected
+     */
+    void updateChildren(Map<String, Object> updates, Callback callback);
+}
@@ -0,0 +1,274 @@
+package com.jtmnf.fcm.sync;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.util.IdTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a local replica of the room's anchors, keyed by anchor id, up to date from child events.
+ *
+ * <p>Each event decodes one value and touches one entry, so the cost of an update doesn't depend
+ * on how many anchors the room holds. Scene listeners only hear about real differences: an event
+ * whose value matches the replica (such as the echo of our own write) is dropped.
+ *
+ * <p>Records live in slots that are reused once their anchor is removed, so a room where anchors
+ * come and go allocates nothing per anchor after it reached its working size.
+ *
+ * <p>Not thread-safe; Firebase delivers child events on the main thread.
+ */
+public class AnchorSyncEngine implements AnchorEventSource.Listener {
+
+    /**
+     * Receives the deltas to apply to the scene. The record belongs to the replica, and a removed
+     * anchor's record is reused for the next one added; copy it to keep it.
+     */
+    public interface SceneListener {
+        void onAnchorAdded(String anchorId, AnchorRecord record);
+
+        void onAnchorChanged(String anchorId, AnchorRecord record);
+
+        void onAnchorRemoved(String anchorId, AnchorRecord record);
+
+        /** The anchor was paged out rather than deleted. Unless overridden, treated as a removal. */
+        default void onAnchorUnloaded(String anchorId, AnchorRecord record) {
+            onAnchorRemoved(anchorId, record);
+        }
+    }
+
+    // Anchor id -> slot in the arrays below
+    private final IdTable slots = new IdTable(256);
+    private String[] ids = new String[256];
+    private AnchorRecord[] records = new AnchorRecord[256];
+    private int[] freeSlots = new int[256];
+    private int freeCount;
+    private int highWater;
+    private final List<SceneListener> listeners = new ArrayList<>();
+    private final AnchorCodec codec = new AnchorCodec();
+    private final AnchorRecord scratch = new AnchorRecord();
+    private AnchorEventSource source;
+
+    private long decoded;
+    private long ignored;
+    private long rejected;
+    private long sceneUpdates;
+
+    public void addSceneListener(SceneListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeSceneListener(SceneListener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Starts listening to the source; existing anchors arrive as added events. */
+    public void start(AnchorEventSource source) {
+        stop();
+        this.source = source;
+        source.addListener(this);
+    }
+
+    public void stop() {
+        if (source != null) {
+            source.removeListener(this);
+            source = null;
+        }
+    }
+
+    /**
+     * Records an anchor placed on this device, so the echo of its write is not applied twice.
+     * Listeners are not notified; the caller already put it in the scene.
+     */
+    public void putLocal(String anchorId, AnchorRecord record) {
+        AnchorRecord existing = get(anchorId);
+        if (existing == null) {
+            int slot = allocate(anchorId);
+            records[slot].copyFrom(record);
+        } else {
+            existing.copyFrom(record);
+        }
+    }
+
+    /**
+     * Puts an anchor learned outside the child events into the replica and the scene: one known
+     * from an earlier session (the local journal) or pushed in a message. If the server later
+     * sends the same value, nothing happens; a different one arrives as a change.
+     */
+    public void restore(String anchorId, AnchorRecord record) {
+        AnchorRecord existing = get(anchorId);
+        if (existing != null && existing.equals(record)) {
+            return;
+        }
+        sceneUpdates++;
+        if (existing == null) {
+            int slot = allocate(anchorId);
+            AnchorRecord added = records[slot].copyFrom(record);
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAnchorAdded(anchorId, added);
+            }
+        } else {
+            existing.copyFrom(record);
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAnchorChanged(anchorId, existing);
+            }
+        }
+    }
+
+    /** @return the replica's record for this anchor, or null */
+    public AnchorRecord get(String anchorId) {
+        int slot = slots.get(anchorId);
+        return slot == IdTable.NONE ? null : records[slot];
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /** A copy of the replica, for tests and tools; it allocates, so not for per-frame use. */
+    public Map<String, AnchorRecord> getReplica() {
+        Map<String, AnchorRecord> copy = new HashMap<>(slots.size() * 2);
+        for (int slot = 0; slot < highWater; slot++) {
+            if (ids[slot] != null) {
+                copy.put(ids[slot], new AnchorRecord().copyFrom(records[slot]));
+            }
+        }
+        return copy;
+    }
+
+    // ------------------------------
+    // -------- Child events --------
+    // ------------------------------
+
+    @Override
+    public void onAdded(String anchorId, String value) {
+        apply(anchorId, value);
+    }
+
+    @Override
+    public void onChanged(String anchorId, String value) {
+        apply(anchorId, value);
+    }
+
+    @Override
+    public void onRemoved(String anchorId) {
+        AnchorRecord removed = release(anchorId);
+        if (removed == null) {
+            ignored++;
+            return;
+        }
+        sceneUpdates++;
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onAnchorRemoved(anchorId, removed);
+        }
+    }
+
+    @Override
+    public void onUnloaded(String anchorId) {
+        AnchorRecord unloaded = release(anchorId);
+        if (unloaded == null) {
+            ignored++;
+            return;
+        }
+        sceneUpdates++;
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onAnchorUnloaded(anchorId, unloaded);
+        }
+    }
+
+    @Override
+    public void onError(Exception error) {
+        rejected++;
+    }
+
+    private void apply(String anchorId, String value) {
+        try {
+            codec.fromBase64(value, scratch);
+            decoded++;
+        } catch (IllegalArgumentException e) {
+            // Written by an older build, or not an anchor at all
+            rejected++;
+            return;
+        }
+
+        AnchorRecord existing = get(anchorId);
+        if (existing == null) {
+            int slot = allocate(anchorId);
+            AnchorRecord added = records[slot].copyFrom(scratch);
+            sceneUpdates++;
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAnchorAdded(anchorId, added);
+            }
+        } else if (existing.equals(scratch)) {
+            ignored++;
+        } else {
+            existing.copyFrom(scratch);
+            sceneUpdates++;
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAnchorChanged(anchorId, existing);
+            }
+        }
+    }
+
+    // -----------------------
+    // -------- Slots --------
+    // -----------------------
+
+    private int allocate(String anchorId) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (highWater == records.length) {
+                int capacity = records.length * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                records = Arrays.copyOf(records, capacity);
+                freeSlots = Arrays.copyOf(freeSlots, capacity);
+            }
+            slot = highWater++;
+            records[slot] = new AnchorRecord();
+        }
+        ids[slot] = anchorId;
+        slots.put(anchorId, slot);
+        return slot;
+    }
+
+    /** @return the removed anchor's record, valid until the next add; null if it wasn't there */
+    private AnchorRecord release(String anchorId) {
+        int slot = slots.remove(anchorId);
+        if (slot == IdTable.NONE) {
+            return null;
+        }
+        ids[slot] = null;
+        freeSlots[freeCount++] = slot;
+        return records[slot];
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** Values decoded so far; one per add/change event. */
+    public long getDecodeCount() {
+        return decoded;
+    }
+
+    /** Events that matched the replica and were not passed on. */
+    public long getIgnoredCount() {
+        return ignored;
+    }
+
+    /** Events whose value could not be decoded, plus source errors. */
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    /** Calls made to scene listeners. */
+    public long getSceneUpdateCount() {
+        return sceneUpdates;
+    }
+}
@@ -0,0 +1,260 @@
+package com.jtmnf.fcm.sync;
+
+import com.jtmnf.fcm.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-behind queue for anchor values.
+ *
+ * <p>Writes are held for up to a time window and coalesced per anchor id (last value wins), then
+ * sent as one multi-path {@link AnchorStore#updateChildren} call. A batch is also sent as soon as
+ * it reaches the size limit. Every write gets a sequence number that can later be checked with
+ * {@link #isConfirmed(String, long)}. While the queue is {@link #setHeld held} nothing is sent.
+ *
+ * <p>Not thread-safe: call it from the main thread, and have the scheduler and store callbacks
+ * run there too (which is what Handler and Firebase do by default).
+ */
+public class AnchorWriteQueue {
+
+    public interface Listener {
+        /** The server acknowledged the latest values of these anchors. */
+        void onConfirmed(Collection<String> anchorIds);
+
+        /**
+         * A batch was rejected.
+         *
+         * @param dropped - anchors that ran out of attempts and will not be retried
+         */
+        void onFailed(Collection<String> anchorIds, Collection<String> dropped, Exception error);
+    }
+
+    private static final class Entry {
+        Object value;
+        // Newest write folded into this entry
+        long seq;
+        int attempts;
+
+        Entry(Object value, long seq) {
+            this.value = value;
+            this.seq = seq;
+        }
+    }
+
+    private final AnchorStore store;
+    private final Scheduler scheduler;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final int maxAttempts;
+
+    private LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private final List<Map<String, Entry>> inFlight = new ArrayList<>();
+    // Highest acknowledged sequence number per anchor
+    private final Map<String, Long> confirmed = new HashMap<>();
+    private Listener listener;
+
+    private long nextSeq = 1;
+    // Bumped on every flush so a timer armed for an earlier window does nothing
+    private long window;
+    private boolean timerArmed;
+    private boolean held;
+
+    private long writes;
+    private long flushes;
+
+    /**
+     * @param store        - where batches are written
+     * @param scheduler    - used to flush when the time window closes
+     * @param windowMillis - how long a write may wait for others to join its batch
+     * @param maxBatchSize - number of distinct anchors that triggers an immediate flush
+     * @param maxAttempts  - how many times a rejected write is sent before it is dropped
+     */
+    public AnchorWriteQueue(AnchorStore store, Scheduler scheduler, long windowMillis, int maxBatchSize,
+                            int maxAttempts) {
+        if (windowMillis < 0 || maxBatchSize < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("window must be >= 0, batch size and attempts >= 1");
+        }
+        this.store = store;
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a new value for an anchor.
+     *
+     * @return sequence number of this write
+     */
+    public long put(String anchorId, Object value) {
+        return enqueue(anchorId, value);
+    }
+
+    /**
+     * Queues the deletion of an anchor.
+     *
+     * @return sequence number of this write
+     */
+    public long remove(String anchorId) {
+        return enqueue(anchorId, null);
+    }
+
+    /**
+     * Holds back every write, for as long as the store can't tell where they belong yet. Writes
+     * are still queued and coalesced meanwhile, past the size limit if need be; letting go sends
+     * them at once.
+     */
+    public void setHeld(boolean held) {
+        this.held = held;
+        if (!held) {
+            flush();
+        }
+    }
+
+    /** Sends everything that is pending right away, unless the queue is held. */
+    public void flush() {
+        window++;
+        timerArmed = false;
+        if (held || pending.isEmpty()) {
+            return;
+        }
+        Map<String, Entry> entries = pending;
+        pending = new LinkedHashMap<>();
+
+        Map<String, Object> updates = new HashMap<>(entries.size() * 2);
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            e.getValue().attempts++;
+            updates.put(e.getKey(), e.getValue().value);
+        }
+        inFlight.add(entries);
+        flushes++;
+        store.updateChildren(updates, error -> onBatchComplete(entries, error));
+    }
+
+    /**
+     * True once the server acknowledged this write of the anchor, or a newer one that replaced it.
+     *
+     * @param seq - value returned by {@link #put} or {@link #remove} for that anchor
+     */
+    public boolean isConfirmed(String anchorId, long seq) {
+        Long acknowledged = confirmed.get(anchorId);
+        return acknowledged != null && acknowledged >= seq;
+    }
+
+    /** True while a write for this anchor is queued or waiting for the server. */
+    public boolean isPending(String anchorId) {
+        return pending.containsKey(anchorId) || isInFlightAfter(anchorId, 0);
+    }
+
+    /** Number of writes waiting for the current window to close. */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public int getInFlightBatchCount() {
+        return inFlight.size();
+    }
+
+    /** Number of put/remove calls so far. */
+    public long getWriteCount() {
+        return writes;
+    }
+
+    /** Number of updateChildren calls so far. */
+    public long getFlushCount() {
+        return flushes;
+    }
+
+    private long enqueue(String anchorId, Object value) {
+        long seq = nextSeq++;
+        writes++;
+        Entry entry = pending.get(anchorId);
+        if (entry == null) {
+            pending.put(anchorId, new Entry(value, seq));
+        } else {
+            entry.value = value;
+            entry.seq = seq;
+        }
+
+        if (pending.size() >= maxBatchSize) {
+            flush();
+        } else {
+            armTimer();
+        }
+        return seq;
+    }
+
+    private void armTimer() {
+        if (timerArmed || pending.isEmpty()) {
+            return;
+        }
+        timerArmed = true;
+        final long armedFor = window;
+        scheduler.schedule(() -> {
+            if (armedFor == window) {
+                flush();
+            }
+        }, windowMillis);
+    }
+
+    private void onBatchComplete(Map<String, Entry> batch, Exception error) {
+        int index = 0;
+        while (inFlight.get(index) != batch) {
+            index++;
+        }
+        inFlight.remove(index);
+
+        if (error == null) {
+            for (Map.Entry<String, Entry> e : batch.entrySet()) {
+                Long previous = confirmed.get(e.getKey());
+                if (previous == null || previous < e.getValue().seq) {
+                    confirmed.put(e.getKey(), e.getValue().seq);
+                }
+            }
+            if (listener != null) {
+                listener.onConfirmed(Collections.unmodifiableSet(batch.keySet()));
+            }
+            return;
+        }
+
+        List<String> dropped = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : batch.entrySet()) {
+            String anchorId = e.getKey();
+            Entry failed = e.getValue();
+
+            // A newer value for this anchor is queued or already on its way; it replaces this one.
+            if (pending.containsKey(anchorId) || isInFlightAfter(anchorId, index)) {
+                continue;
+            }
+            if (failed.attempts < maxAttempts) {
+                pending.put(anchorId, failed);
+            } else {
+                dropped.add(anchorId);
+            }
+        }
+        armTimer();
+
+        if (listener != null) {
+            listener.onFailed(Collections.unmodifiableSet(batch.keySet()), dropped, error);
+        }
+    }
+
+    private boolean isInFlightAfter(String anchorId, int from) {
+        for (int i = from; i < inFlight.size(); i++) {
+            if (inFlight.get(i).containsKey(anchorId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,246 @@
+package com.jtmnf.fcm.trace;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.messaging.SceneEvent;
+import com.jtmnf.fcm.messaging.SceneMessageParser;
+import com.jtmnf.fcm.metrics.Counter;
+import com.jtmnf.fcm.metrics.LatencyHistogram;
+import com.jtmnf.fcm.metrics.Metrics;
+import com.jtmnf.fcm.scene.AnchorRegistry;
+import com.jtmnf.fcm.spatial.AnchorSpatialIndex;
+import com.jtmnf.fcm.sync.AnchorEventSource;
+import com.jtmnf.fcm.sync.AnchorStore;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+import com.jtmnf.fcm.sync.AnchorWriteQueue;
+import com.jtmnf.fcm.util.ManualScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The non-rendering part of MainActivity, driven by a trace: taps go through the duplicate check
+ * into the sync engine, spatial index, scene model and write queue; database child events feed
+ * the sync engine, page-outs included; FCM messages are parsed and applied like a dispatched
+ * batch.
+ *
+ * <p>Time is the trace's: before each event the scheduler is moved to its recorded time, so the
+ * write window closes when it did on the device whether the replay runs fast or paced. Writes go
+ * to a store that acknowledges at once without echoing; the echoes the device got are in the
+ * trace as child events.
+ *
+ * <p>The time each kind of event took to apply is recorded in {@link #getMetrics()}.
+ *
+ * <p>Not thread-safe.
+ */
+public class HeadlessSession implements SessionReplayer.Target {
+
+    // Same settings as MainActivity
+    static final float DUPLICATE_RADIUS = 0.1f;
+    static final long WRITE_WINDOW_MILLIS = 100;
+    static final int WRITE_BATCH_SIZE = 32;
+    static final int WRITE_ATTEMPTS = 3;
+
+    /** Child events from the trace, handed to whoever listens, the way Firebase would. */
+    private static final class TraceEventSource implements AnchorEventSource {
+        final List<Listener> listeners = new ArrayList<>();
+
+        @Override
+        public void addListener(Listener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(Listener listener) {
+            listeners.remove(listener);
+        }
+    }
+
+    /** Acknowledges every write right away and keeps count. */
+    private static final class AcknowledgingStore implements AnchorStore {
+        int keys;
+        long calls;
+        long values;
+
+        @Override
+        public String newKey() {
+            return String.format("-replay%06d", keys++);
+        }
+
+        @Override
+        public void updateChildren(Map<String, Object> updates, Callback callback) {
+            calls++;
+            values += updates.size();
+            callback.onComplete(null);
+        }
+    }
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final AnchorSyncEngine syncEngine = new AnchorSyncEngine();
+    private final AnchorSpatialIndex spatialIndex = new AnchorSpatialIndex(2 * DUPLICATE_RADIUS);
+    private final AnchorRegistry sceneModel = new AnchorRegistry(256);
+    private final AcknowledgingStore store = new AcknowledgingStore();
+    private final AnchorWriteQueue writeQueue =
+            new AnchorWriteQueue(store, scheduler, WRITE_WINDOW_MILLIS, WRITE_BATCH_SIZE, WRITE_ATTEMPTS);
+    private final TraceEventSource source = new TraceEventSource();
+    private final AnchorCodec codec = new AnchorCodec();
+    private final SceneMessageParser parser = new SceneMessageParser();
+    private final SceneEvent sceneEvent = new SceneEvent();
+
+    private final Metrics metrics = new Metrics();
+    private final LatencyHistogram tapTime = metrics.histogram("replay_tap");
+    private final LatencyHistogram childTime = metrics.histogram("replay_child");
+    private final LatencyHistogram messageTime = metrics.histogram("replay_message");
+    private final Counter frames = metrics.counter("replay_frames");
+    private final Counter duplicateTaps = metrics.counter("replay_duplicate_taps");
+    private final Counter rejectedMessages = metrics.counter("replay_rejected_messages");
+    // Taps the device skipped as duplicates that the replay would have placed
+    private final Counter divergedTaps = metrics.counter("replay_diverged_taps");
+
+    private final float[] cameraPose = {0, 0, 0, 0, 0, 0, 1};
+
+    public HeadlessSession() {
+        syncEngine.addSceneListener(spatialIndex);
+        syncEngine.addSceneListener(sceneModel);
+        syncEngine.start(source);
+    }
+
+    /** Adds a listener next to the spatial index and scene model, such as a renderer stand-in. */
+    public void addSceneListener(AnchorSyncEngine.SceneListener listener) {
+        syncEngine.addSceneListener(listener);
+    }
+
+    @Override
+    public void apply(TraceEvent event) {
+        if (event.timeMillis > scheduler.now()) {
+            scheduler.advance(event.timeMillis - scheduler.now());
+        }
+        long start = System.nanoTime();
+        switch (event.type) {
+            case CAMERA:
+                cameraPose[0] = event.px;
+                cameraPose[1] = event.py;
+                cameraPose[2] = event.pz;
+                cameraPose[3] = event.qx;
+                cameraPose[4] = event.qy;
+                cameraPose[5] = event.qz;
+                cameraPose[6] = event.qw;
+                frames.increment();
+                break;
+            case TAP:
+                tap(event.key, event.record);
+                tapTime.recordSince(start);
+                break;
+            case CHILD_ADDED:
+                for (int i = 0; i < source.listeners.size(); i++) {
+                    source.listeners.get(i).onAdded(event.key, event.value);
+                }
+                childTime.recordSince(start);
+                break;
+            case CHILD_CHANGED:
+                for (int i = 0; i < source.listeners.size(); i++) {
+                    source.listeners.get(i).onChanged(event.key, event.value);
+                }
+                childTime.recordSince(start);
+                break;
+            case CHILD_REMOVED:
+                for (int i = 0; i < source.listeners.size(); i++) {
+                    source.listeners.get(i).onRemoved(event.key);
+                }
+                childTime.recordSince(start);
+                break;
+            case CHILD_UNLOADED:
+                for (int i = 0; i < source.listeners.size(); i++) {
+                    source.listeners.get(i).onUnloaded(event.key);
+                }
+                childTime.recordSince(start);
+                break;
+            case MESSAGE:
+            default:
+                message(event.data);
+                messageTime.recordSince(start);
+                break;
+        }
+    }
+
+    /** Sends whatever is still in the write window, as pausing the app would. */
+    public void finish() {
+        writeQueue.flush();
+    }
+
+    // Same steps as the tap listener in MainActivity, minus the nodes
+    private void tap(String anchorId, AnchorRecord placement) {
+        if (spatialIndex.isOccupied(placement.px, placement.py, placement.pz, DUPLICATE_RADIUS)) {
+            duplicateTaps.increment();
+            return;
+        }
+        if (anchorId.isEmpty()) {
+            divergedTaps.increment();
+            return;
+        }
+        syncEngine.putLocal(anchorId, placement);
+        spatialIndex.put(anchorId, placement.px, placement.py, placement.pz);
+        sceneModel.put(anchorId, placement);
+        writeQueue.put(anchorId, codec.toBase64(placement));
+    }
+
+    // As MainActivity.applySceneEvents, one message at a time
+    private void message(Map<String, String> data) {
+        try {
+            parser.parse(data, sceneEvent);
+        } catch (IllegalArgumentException e) {
+            rejectedMessages.increment();
+            return;
+        }
+        if (sceneEvent.type == SceneEvent.Type.PUT) {
+            syncEngine.restore(sceneEvent.anchorId, sceneEvent.record);
+        } else {
+            syncEngine.onRemoved(sceneEvent.anchorId);
+        }
+    }
+
+    // -------------------------
+    // -------- Results --------
+    // -------------------------
+
+    public AnchorSyncEngine getSyncEngine() {
+        return syncEngine;
+    }
+
+    public AnchorSpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    public AnchorRegistry getSceneModel() {
+        return sceneModel;
+    }
+
+    public AnchorWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    /** The trace time reached so far. */
+    public long getTimeMillis() {
+        return scheduler.now();
+    }
+
+    /** Position and rotation of the last camera frame. */
+    public float[] getCameraPose() {
+        return cameraPose.clone();
+    }
+
+    /** updateChildren calls the write queue made. */
+    public long getWriteCallCount() {
+        return store.calls;
+    }
+
+    /** Anchor values sent in those calls. */
+    public long getWrittenValueCount() {
+        return store.values;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+}
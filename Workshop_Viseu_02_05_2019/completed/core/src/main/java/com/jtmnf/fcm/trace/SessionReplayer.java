@@ -0,0 +1,80 @@
+package com.jtmnf.fcm.trace;
+
+import java.io.IOException;
+
+/**
+ * Feeds a trace to a target, either as fast as it can take it or paced to the recorded times.
+ *
+ * <p>When paced, the replayer sleeps until each event is due. An event the target can't keep up
+ * with goes out late rather than being dropped; {@link #getMaxLagMillis()} shows by how much.
+ */
+public class SessionReplayer {
+
+    /** Receives the events; the instance is reused, so copy what needs to be kept. */
+    public interface Target {
+        void apply(TraceEvent event);
+    }
+
+    /** Time source for pacing; tests pass a fake one. */
+    public interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void sleep(long millis) throws InterruptedException {
+                Thread.sleep(millis);
+            }
+        };
+
+        long nanoTime();
+
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    private final Clock clock;
+    private final TraceEvent event = new TraceEvent();
+    private long events;
+    private long maxLagMillis;
+
+    public SessionReplayer(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Plays a whole trace.
+     *
+     * @param speed - 1 for real time, 2 for twice as fast and so on; 0 or less for no pacing at all
+     * @return number of events played
+     */
+    public long replay(TraceReader reader, Target target, double speed) throws IOException, InterruptedException {
+        long start = clock.nanoTime();
+        long played = 0;
+        while (reader.next(event)) {
+            if (speed > 0) {
+                long due = start + (long) (event.timeMillis * 1_000_000L / speed);
+                long wait = due - clock.nanoTime();
+                if (wait >= 1_000_000L) {
+                    clock.sleep(wait / 1_000_000L);
+                } else if (wait < 0) {
+                    maxLagMillis = Math.max(maxLagMillis, -wait / 1_000_000L);
+                }
+            }
+            target.apply(event);
+            played++;
+        }
+        events += played;
+        return played;
+    }
+
+    public long getEventCount() {
+        return events;
+    }
+
+    /** Furthest a paced replay fell behind the recorded times. */
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+}
@@ -0,0 +1,56 @@
+package com.jtmnf.fcm.trace;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+import java.util.Map;
+
+/**
+ * One entry of a session trace. Which fields are meaningful depends on the type; readers reuse a
+ * single instance, so copy what needs to outlive the next event.
+ */
+public final class TraceEvent {
+
+    public enum Type {
+        /** Camera pose of a frame: position and rotation. */
+        CAMERA,
+        /**
+         * A placement: the new anchor's id in key, what was placed (at the hit pose) in record.
+         * The id is empty for a tap the device skipped as a duplicate.
+         */
+        TAP,
+        /** Database child events for the room's anchors: key and value. */
+        CHILD_ADDED,
+        CHILD_CHANGED,
+        /** Key only. */
+        CHILD_REMOVED,
+        /** An FCM data message, in data. */
+        MESSAGE,
+        /** An anchor whose cell was paged out, which is not a deletion: key only. */
+        CHILD_UNLOADED
+    }
+
+    public Type type;
+    /** Milliseconds since the recording started. */
+    public long timeMillis;
+    public float px, py, pz;
+    public float qx, qy, qz, qw = 1f;
+    public String key;
+    public String value;
+    public final AnchorRecord record = new AnchorRecord();
+    /** A new map for every message, since the dispatcher may hold on to it. */
+    public Map<String, String> data;
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case CAMERA:
+                return timeMillis + " CAMERA " + px + "," + py + "," + pz;
+            case TAP:
+                return timeMillis + " TAP " + key + " " + record;
+            case MESSAGE:
+                return timeMillis + " MESSAGE " + data;
+            default:
+                return timeMillis + " " + type + " " + key + (value == null ? "" : "=" + value);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.jtmnf.fcm.trace;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a trace written by {@link TraceWriter}, one event at a time.
+ *
+ * <p>A recording cut short (the app killed mid-write) ends in a partial event; reading stops
+ * there as if the trace ended, and {@link #isTruncated()} says so. Anything else that doesn't
+ * parse is an IOException.
+ */
+public class TraceReader implements Closeable {
+
+    private static final TraceEvent.Type[] TYPES = TraceEvent.Type.values();
+
+    private final DataInputStream in;
+    private final byte[] record = new byte[AnchorCodec.RECORD_SIZE];
+    private byte[] chars = new byte[64];
+    private long time;
+    private long events;
+    private boolean truncated;
+
+    public TraceReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 16 * 1024));
+        if (this.in.readInt() != TraceWriter.MAGIC) {
+            throw new IOException("not a session trace");
+        }
+        int version = this.in.readUnsignedByte();
+        if (version < 1 || version > TraceWriter.VERSION) {
+            throw new IOException("unsupported trace version " + version);
+        }
+    }
+
+    /** @return false at the end of the trace, with into left as it was */
+    public boolean next(TraceEvent into) throws IOException {
+        int type = in.read();
+        if (type < 0 || truncated) {
+            return false;
+        }
+        if (type < 1 || type > TYPES.length) {
+            throw new IOException("unknown event type " + type + " after " + events + " events");
+        }
+        try {
+            long eventTime = time + readVarint();
+            TraceEvent.Type t = TYPES[type - 1];
+            switch (t) {
+                case CAMERA:
+                    into.px = in.readFloat();
+                    into.py = in.readFloat();
+                    into.pz = in.readFloat();
+                    into.qx = in.readFloat();
+                    into.qy = in.readFloat();
+                    into.qz = in.readFloat();
+                    into.qw = in.readFloat();
+                    break;
+                case TAP:
+                    into.key = readString();
+                    in.readFully(record);
+                    try {
+                        AnchorCodec.decode(record, 0, into.record);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("bad placement after " + events + " events", e);
+                    }
+                    break;
+                case CHILD_ADDED:
+                case CHILD_CHANGED:
+                    into.key = readString();
+                    into.value = readString();
+                    break;
+                case CHILD_REMOVED:
+                case CHILD_UNLOADED:
+                    into.key = readString();
+                    into.value = null;
+                    break;
+                case MESSAGE:
+                default:
+                    int size = (int) readVarint();
+                    Map<String, String> data = new HashMap<>(size * 2);
+                    for (int i = 0; i < size; i++) {
+                        data.put(readString(), readString());
+                    }
+                    into.data = data;
+                    break;
+            }
+            into.type = t;
+            into.timeMillis = eventTime;
+            time = eventTime;
+            events++;
+            return true;
+        } catch (EOFException e) {
+            truncated = true;
+            return false;
+        }
+    }
+
+    /** Events read so far. */
+    public long getEventCount() {
+        return events;
+    }
+
+    /** True if the trace ended in the middle of an event. */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private String readString() throws IOException {
+        int length = (int) readVarint();
+        if (length > chars.length) {
+            chars = new byte[Math.max(length, chars.length * 2)];
+        }
+        in.readFully(chars, 0, length);
+        return new String(chars, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("malformed varint after " + events + " events");
+    }
+}
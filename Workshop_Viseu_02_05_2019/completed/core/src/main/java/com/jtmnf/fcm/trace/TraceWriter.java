@@ -0,0 +1,167 @@
+package com.jtmnf.fcm.trace;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes a session trace: what the app saw (camera poses, taps, database child events and FCM
+ * messages) with when it saw them, so a session can be replayed without a phone.
+ *
+ * <p>Layout (big-endian): a 5 byte header ({@code FTRC}, version), then one entry per event:
+ * <pre>
+ *   type      byte      {@link TraceEvent.Type} ordinal + 1
+ *   delta     varint    milliseconds since the previous event
+ *   payload   CAMERA: 7 floats (position, rotation); TAP: id string, {@link AnchorCodec} record;
+ *             CHILD_ADDED/CHANGED: key string, value string; CHILD_REMOVED/UNLOADED: key
+ *             string; MESSAGE: varint count, then key and value strings
+ * </pre>
+ * Strings are a varint length and UTF-8. A camera frame takes 30 bytes, a tap about 85.
+ * Version 2 added CHILD_UNLOADED; version 1 traces read the same.
+ *
+ * <p>Events from other threads (FCM messages) can arrive with a slightly older timestamp than the
+ * last one written; they are written at the last time instead, so deltas stay non-negative.
+ * Methods are synchronized for that reason.
+ */
+public class TraceWriter implements Closeable {
+
+    static final int MAGIC = 0x46545243;
+    static final int VERSION = 2;
+
+    private final DataOutputStream out;
+    private final byte[] record = new byte[AnchorCodec.RECORD_SIZE];
+    private long lastTime;
+    private long events;
+
+    public TraceWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 16 * 1024));
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+    public synchronized void camera(long timeMillis, float px, float py, float pz,
+                                    float qx, float qy, float qz, float qw) throws IOException {
+        begin(TraceEvent.Type.CAMERA, timeMillis);
+        out.writeFloat(px);
+        out.writeFloat(py);
+        out.writeFloat(pz);
+        out.writeFloat(qx);
+        out.writeFloat(qy);
+        out.writeFloat(qz);
+        out.writeFloat(qw);
+    }
+
+    /** @param placement - what was placed, at the hit pose */
+    public synchronized void tap(long timeMillis, String anchorId, AnchorRecord placement) throws IOException {
+        begin(TraceEvent.Type.TAP, timeMillis);
+        writeString(anchorId);
+        AnchorCodec.encode(placement, record, 0);
+        out.write(record);
+    }
+
+    public synchronized void childAdded(long timeMillis, String key, String value) throws IOException {
+        begin(TraceEvent.Type.CHILD_ADDED, timeMillis);
+        writeString(key);
+        writeString(value);
+    }
+
+    public synchronized void childChanged(long timeMillis, String key, String value) throws IOException {
+        begin(TraceEvent.Type.CHILD_CHANGED, timeMillis);
+        writeString(key);
+        writeString(value);
+    }
+
+    public synchronized void childRemoved(long timeMillis, String key) throws IOException {
+        begin(TraceEvent.Type.CHILD_REMOVED, timeMillis);
+        writeString(key);
+    }
+
+    public synchronized void childUnloaded(long timeMillis, String key) throws IOException {
+        begin(TraceEvent.Type.CHILD_UNLOADED, timeMillis);
+        writeString(key);
+    }
+
+    public synchronized void message(long timeMillis, Map<String, String> data) throws IOException {
+        begin(TraceEvent.Type.MESSAGE, timeMillis);
+        writeVarint(data.size());
+        for (Map.Entry<String, String> e : data.entrySet()) {
+            writeString(e.getKey());
+            writeString(e.getValue());
+        }
+    }
+
+    /** Writes an event as read from another trace, for trimming or merging traces. */
+    public synchronized void write(TraceEvent event) throws IOException {
+        switch (event.type) {
+            case CAMERA:
+                camera(event.timeMillis, event.px, event.py, event.pz, event.qx, event.qy, event.qz, event.qw);
+                break;
+            case TAP:
+                tap(event.timeMillis, event.key, event.record);
+                break;
+            case CHILD_ADDED:
+                childAdded(event.timeMillis, event.key, event.value);
+                break;
+            case CHILD_CHANGED:
+                childChanged(event.timeMillis, event.key, event.value);
+                break;
+            case CHILD_REMOVED:
+                childRemoved(event.timeMillis, event.key);
+                break;
+            case CHILD_UNLOADED:
+                childUnloaded(event.timeMillis, event.key);
+                break;
+            case MESSAGE:
+            default:
+                message(event.timeMillis, event.data);
+                break;
+        }
+    }
+
+    public synchronized long getEventCount() {
+        return events;
+    }
+
+    /** Bytes written so far, header included; some may still be buffered. */
+    public synchronized long getSize() {
+        return out.size();
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void begin(TraceEvent.Type type, long timeMillis) throws IOException {
+        long time = Math.max(timeMillis, lastTime);
+        out.writeByte(type.ordinal() + 1);
+        writeVarint(time - lastTime);
+        lastTime = time;
+        events++;
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarint(long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+}
@@ -0,0 +1,43 @@
+package com.jtmnf.fcm.util;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff: the delay before a retry is drawn between half and all of a cap
+ * that starts at the base and doubles with each attempt, up to the maximum. The jitter keeps
+ * devices that failed together from retrying together.
+ *
+ * <p>Not thread-safe, like the Random it draws from when that is shared.
+ */
+public final class Backoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+
+    /**
+     * @param baseMillis - cap of the delay before the first retry
+     * @param maxMillis  - largest cap, however many retries
+     * @param random     - source of jitter; pass a seeded one for repeatable tests
+     */
+    public Backoff(long baseMillis, long maxMillis, Random random) {
+        if (baseMillis < 1 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("need 1 <= baseMillis <= maxMillis, got "
+                    + baseMillis + " and " + maxMillis);
+        }
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /** Delay before the retry that follows this many attempts. */
+    public long delayMillis(int attempts) {
+        long cap = baseMillis;
+        for (int i = 1; i < attempts && cap < maxMillis; i++) {
+            cap <<= 1;
+        }
+        cap = Math.min(cap, maxMillis);
+        long half = cap / 2;
+        return half + (long) (random.nextDouble() * (cap - half + 1));
+    }
+}
@@ -0,0 +1,143 @@
+package com.jtmnf.fcm.util;
+
+/**
+ * Map from anchor id to int, by open addressing with linear probing. Unlike a HashMap it
+ * allocates nothing per entry, so adding and removing anchors is garbage-free once the table
+ * reached its working size; the int is typically a slot or handle into parallel arrays.
+ *
+ * <p>Not thread-safe.
+ */
+public final class IdTable {
+
+    public static final int NONE = -1;
+
+    // With each key's hash, so probes rarely call equals
+    private String[] keys;
+    private int[] hashes;
+    private int[] values;
+    private int size;
+
+    /** @param expected - number of ids to size the table for */
+    public IdTable(int expected) {
+        int tableSize = Integer.highestOneBit(Math.max(expected, 16) - 1) << 2;
+        keys = new String[tableSize];
+        hashes = new int[tableSize];
+        values = new int[tableSize];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return the id's value, or {@link #NONE} */
+    public int get(String id) {
+        int slot = find(id);
+        return keys[slot] == null ? NONE : values[slot];
+    }
+
+    public boolean contains(String id) {
+        return keys[find(id)] != null;
+    }
+
+    /**
+     * @param value - anything but {@link #NONE}
+     * @return the value it replaced, or {@link #NONE}
+     */
+    public int put(String id, int value) {
+        int slot = find(id);
+        if (keys[slot] != null) {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        keys[slot] = id;
+        hashes[slot] = hash(id);
+        values[slot] = value;
+        size++;
+        // Keep the table at most half full
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return NONE;
+    }
+
+    /** @return the removed value, or {@link #NONE} if the id wasn't there */
+    public int remove(String id) {
+        int slot = find(id);
+        if (keys[slot] == null) {
+            return NONE;
+        }
+        int value = values[slot];
+        delete(slot);
+        size--;
+        return value;
+    }
+
+    public void clear() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = null;
+        }
+        size = 0;
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private int find(String id) {
+        int mask = keys.length - 1;
+        int h = hash(id);
+        int slot = h & mask;
+        while (keys[slot] != null && (hashes[slot] != h || !keys[slot].equals(id))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Linear-probing delete: shift later entries of the probe run back into the hole. */
+    private void delete(int hole) {
+        int mask = keys.length - 1;
+        keys[hole] = null;
+        int slot = (hole + 1) & mask;
+        while (keys[slot] != null) {
+            int home = hashes[slot] & mask;
+            // Move the entry if the hole lies between its home slot and where it sits now
+            boolean movable = hole <= slot ? (home <= hole || home > slot) : (home <= hole && home > slot);
+            if (movable) {
+                keys[hole] = keys[slot];
+                hashes[hole] = hashes[slot];
+                values[hole] = values[slot];
+                keys[slot] = null;
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int newSize) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+        keys = new String[newSize];
+        hashes = new int[newSize];
+        values = new int[newSize];
+        int mask = newSize - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // String caches its hash code, so this costs a multiply per lookup; the mix spreads similar ids
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+}
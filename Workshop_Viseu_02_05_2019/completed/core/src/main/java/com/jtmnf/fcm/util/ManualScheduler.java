@@ -0,0 +1,58 @@
+package com.jtmnf.fcm.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scheduler on a clock moved by hand: tasks only run when {@link #advance} moves it past them.
+ * Tests use it as a fake clock, and trace replay moves it to each event's recorded time.
+ */
+public class ManualScheduler implements Scheduler {
+
+    private static final class Task {
+        final long due;
+        final Runnable runnable;
+
+        Task(long due, Runnable runnable) {
+            this.due = due;
+            this.runnable = runnable;
+        }
+    }
+
+    private final List<Task> tasks = new ArrayList<>();
+    private long now;
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        tasks.add(new Task(now + delayMillis, task));
+    }
+
+    /** Moves the clock forward, running due tasks in order. */
+    public void advance(long millis) {
+        long target = now + millis;
+        while (true) {
+            Task next = null;
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                if (task.due <= target && (next == null || task.due < next.due)) {
+                    next = task;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            tasks.remove(next);
+            now = next.due;
+            next.runnable.run();
+        }
+        now = target;
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public int getScheduledCount() {
+        return tasks.size();
+    }
+}
@@ -0,0 +1,92 @@
+package com.jtmnf.fcm.util;
+
+import java.util.Arrays;
+
+/**
+ * Keeps released objects for reuse, so paths that create and drop objects all the time (scene
+ * nodes, per-anchor scratch state) stop producing garbage once the pool holds enough of them.
+ * The pool never holds more than its capacity; anything released beyond that is left to the GC.
+ *
+ * <p>The caller resets an object's state, typically before releasing it. Not thread-safe; use it
+ * from the main thread.
+ */
+public final class ObjectPool<T> {
+
+    public interface Factory<T> {
+        T create();
+    }
+
+    private final Factory<T> factory;
+    private final int capacity;
+    private Object[] free = new Object[16];
+    private int freeCount;
+
+    private long created;
+    private long reused;
+    private long dropped;
+
+    /** @param capacity - most released objects kept */
+    public ObjectPool(int capacity, Factory<T> factory) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be >= 0, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.factory = factory;
+    }
+
+    /** @return a released object, or a new one if there is none */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if (freeCount == 0) {
+            created++;
+            return factory.create();
+        }
+        reused++;
+        T object = (T) free[--freeCount];
+        free[freeCount] = null;
+        return object;
+    }
+
+    /** @return false if the pool is full and the object was not kept */
+    public boolean release(T object) {
+        if (freeCount == capacity) {
+            dropped++;
+            return false;
+        }
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, Math.min(capacity, free.length * 2));
+        }
+        free[freeCount++] = object;
+        return true;
+    }
+
+    /** Creates objects up front, e.g. during startup, so the first uses don't have to. */
+    public void prewarm(int count) {
+        while (freeCount < Math.min(count, capacity)) {
+            created++;
+            release(factory.create());
+        }
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** Objects waiting to be reused. */
+    public int getFreeCount() {
+        return freeCount;
+    }
+
+    public long getCreatedCount() {
+        return created;
+    }
+
+    public long getReusedCount() {
+        return reused;
+    }
+
+    /** Releases that found the pool full. */
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,14 @@
+package com.jtmnf.fcm.util;
+
+/**
+ * Runs a task later. On the device this is a Handler on the main looper; tests use a fake
+ * that only runs tasks when time is advanced by hand.
+ */
+public interface Scheduler {
+
+    /**
+     * @param task        - what to run
+     * @param delayMillis - how long to wait before running it
+     */
+    void schedule(Runnable task, long delayMillis);
+}
@@ -0,0 +1,175 @@
+package com.jtmnf.fcm.anchor;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnchorCodecTest {
+
+    // What Node.toString() produces for a TransformableNode: name + "(" + Object.toString() + ")"
+    private static final String LEGACY_PAYLOAD = "Node(com.google.ar.sceneform.ux.TransformableNode@5c0a8d1)";
+
+    static AnchorRecord sample() {
+        AnchorRecord record = new AnchorRecord()
+                .setPosition(0.25f, -1.5f, 3.75f)
+                .setRotation(0f, 0.70710677f, 0f, 0.70710677f)
+                .setSize(0.2f, 0.3f, 0.2f);
+        record.shape = ShapeType.CYLINDER;
+        record.color = 0xff00ff00;
+        record.owner = 0x1234567890abcdefL;
+        record.timestamp = 1556791200000L;
+        return record;
+    }
+
+    /** The same fields as JSON-like text, for comparing sizes. */
+    private static String toText(AnchorRecord r) {
+        return "{\"p\":[" + r.px + "," + r.py + "," + r.pz + "],"
+                + "\"q\":[" + r.qx + "," + r.qy + "," + r.qz + "," + r.qw + "],"
+                + "\"shape\":\"" + r.shape + "\","
+                + "\"s\":[" + r.sx + "," + r.sy + "," + r.sz + "],"
+                + "\"color\":" + r.color + ","
+                + "\"owner\":" + r.owner + ","
+                + "\"t\":" + r.timestamp + "}";
+    }
+
+    @Test
+    public void binary_roundTrips() {
+        byte[] buffer = new byte[AnchorCodec.RECORD_SIZE + 3];
+
+        int end = AnchorCodec.encode(sample(), buffer, 3);
+        AnchorRecord decoded = AnchorCodec.decode(buffer, 3, new AnchorRecord());
+
+        assertEquals(buffer.length, end);
+        assertEquals(sample(), decoded);
+    }
+
+    @Test
+    public void binary_matchesDocumentedLayout() {
+        byte[] buffer = new byte[AnchorCodec.RECORD_SIZE];
+        AnchorCodec.encode(sample(), buffer, 0);
+
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        assertEquals(AnchorCodec.VERSION, bb.get());
+        assertEquals(ShapeType.CYLINDER.code, bb.get());
+        assertEquals(0.25f, bb.getFloat(), 0f);
+        assertEquals(0xff00ff00, bb.getInt(42));
+        assertEquals(0x1234567890abcdefL, bb.getLong(46));
+        assertEquals(1556791200000L, bb.getLong(54));
+    }
+
+    @Test
+    public void base64_roundTripsAndMatchesJdk() {
+        AnchorCodec codec = new AnchorCodec();
+        byte[] raw = new byte[AnchorCodec.RECORD_SIZE];
+        AnchorCodec.encode(sample(), raw, 0);
+
+        String encoded = codec.toBase64(sample());
+
+        assertEquals(AnchorCodec.BASE64_LENGTH, encoded.length());
+        assertEquals(Base64.getEncoder().encodeToString(raw), encoded);
+        assertEquals(sample(), codec.fromBase64(encoded, new AnchorRecord()));
+    }
+
+    @Test
+    public void base64_handlesEveryPaddingLength() {
+        for (int len = 0; len < 10; len++) {
+            byte[] raw = new byte[len];
+            for (int i = 0; i < len; i++) {
+                raw[i] = (byte) (i * 37 - 100);
+            }
+            char[] chars = new char[(len + 2) / 3 * 4];
+            AnchorCodec.encodeBase64(raw, 0, len, chars, 0);
+            assertEquals(Base64.getEncoder().encodeToString(raw), new String(chars));
+
+            byte[] back = new byte[len];
+            assertEquals(len, AnchorCodec.decodeBase64(new String(chars), back, 0));
+            assertArrayEquals(raw, back);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsUnknownVersion() {
+        byte[] buffer = new byte[AnchorCodec.RECORD_SIZE];
+        AnchorCodec.encode(sample(), buffer, 0);
+        buffer[0] = 99;
+        AnchorCodec.decode(buffer, 0, new AnchorRecord());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsUnknownShape() {
+        byte[] buffer = new byte[AnchorCodec.RECORD_SIZE];
+        AnchorCodec.encode(sample(), buffer, 0);
+        buffer[1] = 42;
+        AnchorCodec.decode(buffer, 0, new AnchorRecord());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromBase64_rejectsLegacyToStringPayload() {
+        new AnchorCodec().fromBase64(LEGACY_PAYLOAD, new AnchorRecord());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromBase64_rejectsAnUnpaddedValueOfTheRightLength() {
+        String encoded = new AnchorCodec().toBase64(sample());
+        new AnchorCodec().fromBase64(encoded.substring(0, encoded.length() - 2) + "AA", new AnchorRecord());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromBase64_rejectsAnOverlongValue() {
+        new AnchorCodec().fromBase64(new AnchorCodec().toBase64(sample()) + "AAAA", new AnchorRecord());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromBase64_rejectsCharactersOutsideTheAlphabet() {
+        String encoded = new AnchorCodec().toBase64(sample());
+        new AnchorCodec().fromBase64("*" + encoded.substring(1), new AnchorRecord());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeBase64_rejectsMoreThanFitsInTheBuffer() {
+        AnchorCodec.decodeBase64("AAAAAAAA", new byte[5], 0);
+    }
+
+    @Test
+    public void encodedForm_isSmallerThanTextualFormOfSameData() {
+        String text = toText(sample());
+        int base64Bytes = new AnchorCodec().toBase64(sample()).getBytes(StandardCharsets.UTF_8).length;
+
+        assertTrue(AnchorCodec.RECORD_SIZE < base64Bytes);
+        assertTrue(base64Bytes < text.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void binaryPath_doesNotAllocate() {
+        AnchorRecord in = sample();
+        AnchorRecord out = new AnchorRecord();
+        byte[] buffer = new byte[AnchorCodec.RECORD_SIZE];
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // Warm up so class loading and JIT don't show up in the measurement
+        for (int i = 0; i < 20_000; i++) {
+            in.timestamp = i;
+            AnchorCodec.encode(in, buffer, 0);
+            AnchorCodec.decode(buffer, 0, out);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i++) {
+            in.timestamp = i;
+            AnchorCodec.encode(in, buffer, 0);
+            AnchorCodec.decode(buffer, 0, out);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(99_999L, out.timestamp);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
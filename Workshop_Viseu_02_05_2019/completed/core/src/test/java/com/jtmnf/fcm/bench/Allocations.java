@@ -0,0 +1,52 @@
+package com.jtmnf.fcm.bench;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes an operation allocates on the calling thread, using the JVM's per-thread
+ * allocation counter (HotSpot only), after running it long enough for the JIT to compile it.
+ *
+ * <p>HotSpot removes allocations it can prove don't escape, such as iterators; ART doesn't. The
+ * core tests therefore run with escape analysis off (see build.gradle), so what is counted here
+ * is what the device allocates.
+ */
+public final class Allocations {
+
+    public interface Op {
+        long run(int i);
+    }
+
+    private static final int WARMUP_CALLS = 50_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile long sink;
+
+    private Allocations() {
+    }
+
+    /**
+     * Runs op WARMUP_CALLS times, then calls more times while counting.
+     *
+     * @return bytes allocated per call, averaged over the counted calls
+     */
+    public static double perCall(int calls, Op op) {
+        long acc = 0;
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            acc += op.run(i);
+        }
+        long thread = Thread.currentThread().getId();
+        // What reading the counter costs, so it can be taken out again
+        long overhead = THREADS.getThreadAllocatedBytes(thread);
+        overhead = THREADS.getThreadAllocatedBytes(thread) - overhead;
+
+        long before = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < calls; i++) {
+            acc += op.run(WARMUP_CALLS + i);
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - before - overhead;
+        sink += acc;
+        return Math.max(0, allocated) / (double) calls;
+    }
+}
@@ -0,0 +1,165 @@
+package com.jtmnf.fcm.bench;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+import com.jtmnf.fcm.culling.Frustum;
+import com.jtmnf.fcm.culling.VisibilityCuller;
+import com.jtmnf.fcm.frame.FrameScheduler;
+import com.jtmnf.fcm.mesh.LodMeshes;
+import com.jtmnf.fcm.mesh.LodSelector;
+import com.jtmnf.fcm.mesh.MeshBatcher;
+import com.jtmnf.fcm.metrics.LatencyHistogram;
+import com.jtmnf.fcm.paging.InMemoryCellDatabase;
+import com.jtmnf.fcm.paging.ProximityPager;
+import com.jtmnf.fcm.scene.AnchorRegistry;
+import com.jtmnf.fcm.spatial.AnchorSpatialIndex;
+import com.jtmnf.fcm.stream.Transform;
+import com.jtmnf.fcm.stream.TransformInterpolator;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+import com.jtmnf.fcm.trace.HeadlessSession;
+import com.jtmnf.fcm.trace.TraceEvent;
+import com.jtmnf.fcm.util.ObjectPool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The plain-Java work done per frame and per tap must not allocate once warmed up, or bursts of
+ * taps and long sessions turn into GC pauses on the device. "Less than a byte per call" lets
+ * through one-off allocations such as a table growing, but not anything done per call, since the
+ * smallest object is 16 bytes.
+ *
+ * <p>Writing a placement to the database is not covered: the encoded value is a new String by
+ * nature, and the write queue keeps state per write until it is acknowledged.
+ */
+public class SteadyStateAllocationTest {
+
+    private static final int CALLS = 100_000;
+
+    private static void assertAllocatesNothing(String what, Allocations.Op op) {
+        double bytes = Allocations.perCall(CALLS, op);
+        assertTrue(what + " allocated " + bytes + " bytes per call", bytes < 1);
+    }
+
+    @Test
+    public void frame_allocatesNothing() {
+        HeadlessSession session = new HeadlessSession();
+        TraceEvent camera = new TraceEvent();
+        camera.type = TraceEvent.Type.CAMERA;
+
+        ProximityPager pager = new ProximityPager(new InMemoryCellDatabase(8f), 8f, 2, 36);
+        VisibilityCuller culler = new VisibilityCuller(20f, 150);
+        for (int i = 0; i < 500; i++) {
+            culler.add(i % 25, 0, i / 25f, 0.2f);
+        }
+        Frustum frustum = new Frustum();
+        LodMeshes meshes = new LodMeshes(0f, 0.15f, 0f);
+        MeshBatcher batcher = new MeshBatcher(2f, (record, level) -> meshes.get(record.shape, 0.2f, 0.2f, 0.2f, level));
+        AnchorRecord record = new AnchorRecord().setSize(0.2f, 0.2f, 0.2f);
+        record.shape = ShapeType.SPHERE;
+        for (int i = 0; i < 200; i++) {
+            batcher.put("-a" + i, record.setPosition(i % 20, 0, i / 20f));
+        }
+        batcher.flush();
+        LodSelector levels = new LodSelector(new float[]{0.5f, 0.25f, 0.1f}, 0.1f);
+        TransformInterpolator interpolator = new TransformInterpolator(100);
+        Transform transform = new Transform();
+        for (int i = 0; i < 20; i++) {
+            interpolator.add(i * 50L, i * 50L, transform.setPosition(i, 0, 0));
+        }
+        LatencyHistogram frameTime = new LatencyHistogram("frame");
+
+        assertAllocatesNothing("frame", i -> {
+            camera.timeMillis = i * 16L;
+            camera.px = (i % 600) * 0.01f;
+            session.apply(camera);
+            pager.update(camera.px, 0);
+            frustum.setFromCamera(camera.px, 1.5f, 0, 0, 0, 0, 1, 1f, 0.5f, 0.1f, 20f);
+            culler.update(frustum, camera.px, 1.5f, 0);
+            batcher.updateLevels(levels, camera.px, 1.5f, 0, 0.5f);
+            interpolator.sample(200 + i % 700, transform);
+            frameTime.record(16_000_000L + i % 1000);
+            return culler.getVisibleCount();
+        });
+    }
+
+    @Test
+    public void duplicateTap_allocatesNothing() {
+        HeadlessSession session = new HeadlessSession();
+        TraceEvent tap = new TraceEvent();
+        tap.type = TraceEvent.Type.TAP;
+        tap.key = "-placed";
+        tap.record.setPosition(1, 0, 1);
+        session.apply(tap);
+        tap.key = "";
+
+        assertAllocatesNothing("duplicate tap", i -> {
+            session.apply(tap);
+            return 0;
+        });
+    }
+
+    /** What a tap and a later removal do to the scene model, over a room of 1000 anchors. */
+    @Test
+    public void placementAndRemoval_allocateNothing() {
+        AnchorSyncEngine engine = new AnchorSyncEngine();
+        AnchorSpatialIndex spatialIndex = new AnchorSpatialIndex(0.2f);
+        AnchorRegistry sceneModel = new AnchorRegistry(256);
+        engine.addSceneListener(spatialIndex);
+        engine.addSceneListener(sceneModel);
+        String[] ids = new String[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "-id" + i;
+        }
+        AnchorRecord placement = new AnchorRecord();
+
+        assertAllocatesNothing("placement", i -> {
+            String anchorId = ids[i % ids.length];
+            placement.setPosition(i % 50, 0, (i / 50) % 20);
+            if (!spatialIndex.isOccupied(placement.px, placement.py, placement.pz, 0.1f)) {
+                engine.putLocal(anchorId, placement);
+                spatialIndex.put(anchorId, placement.px, placement.py, placement.pz);
+                sceneModel.put(anchorId, placement);
+            }
+            // The anchor placed half a room ago goes away again
+            engine.onRemoved(ids[(i + ids.length / 2) % ids.length]);
+            return engine.size();
+        });
+    }
+
+    @Test
+    public void frameScheduler_allocatesNothing() {
+        long[] nanos = new long[1];
+        FrameScheduler scheduler = new FrameScheduler(4f, 30, () -> nanos[0]);
+        Runnable task = () -> nanos[0] += 100_000;
+        String[] ids = new String[500];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "-id" + i;
+        }
+        FrameScheduler.Priority[] priorities = FrameScheduler.Priority.values();
+
+        assertAllocatesNothing("frame scheduler", i -> {
+            for (int k = 0; k < 50; k++) {
+                scheduler.post(ids[(i * 50 + k * 7) % ids.length], priorities[k % 3], task);
+            }
+            return scheduler.runFrame();
+        });
+    }
+
+    @Test
+    public void pooledObjects_allocateNothing() {
+        ObjectPool<Transform> pool = new ObjectPool<>(64, Transform::new);
+        Transform[] held = new Transform[32];
+
+        assertAllocatesNothing("pool", i -> {
+            for (int k = 0; k < held.length; k++) {
+                held[k] = pool.acquire().setPosition(k, i, 0);
+            }
+            for (int k = 0; k < held.length; k++) {
+                pool.release(held[k]);
+            }
+            return pool.getFreeCount();
+        });
+    }
+}
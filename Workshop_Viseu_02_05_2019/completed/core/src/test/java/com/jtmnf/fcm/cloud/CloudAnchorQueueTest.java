@@ -0,0 +1,284 @@
+package com.jtmnf.fcm.cloud;
+
+import com.jtmnf.fcm.util.ManualScheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CloudAnchorQueueTest {
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final List<String> events = new ArrayList<>();
+    // Manual clock time each key finished at
+    private final Map<String, Long> finishedAt = new HashMap<>();
+
+    private CloudAnchorQueue create(CloudAnchorBackend backend, int maxInFlight, int maxAttempts) {
+        CloudAnchorQueue queue = new CloudAnchorQueue(backend, scheduler, maxInFlight, maxAttempts, 1000, 8000, new Random(42));
+        queue.setListener(new CloudAnchorQueue.Listener() {
+            @Override
+            public void onHosted(String anchorId, String cloudAnchorId) {
+                events.add("hosted " + anchorId);
+                finishedAt.put(anchorId, scheduler.now());
+            }
+
+            @Override
+            public void onResolved(String cloudAnchorId) {
+                events.add("resolved " + cloudAnchorId);
+                finishedAt.put(cloudAnchorId, scheduler.now());
+            }
+
+            @Override
+            public void onFailed(CloudAnchorQueue.Kind kind, String key, Exception error) {
+                events.add("failed " + key);
+            }
+        });
+        return queue;
+    }
+
+    @Test
+    public void inFlightOperations_neverExceedTheLimit() {
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(scheduler, new Random(1), 100, 2000, 0.2);
+        CloudAnchorQueue queue = create(backend, 4, 10);
+        for (int i = 0; i < 50; i++) {
+            queue.host("a" + i, i, 0, 0);
+        }
+        assertEquals(4, queue.getInFlightCount());
+        assertEquals(46, queue.getQueuedCount());
+
+        scheduler.advance(600_000);
+
+        assertEquals(4, backend.getMaxRunning());
+        assertEquals(50, queue.getSucceededCount());
+        assertEquals(0, queue.getInFlightCount());
+        assertEquals("cloud-a7", queue.getCloudAnchorId("a7"));
+    }
+
+    @Test
+    public void nearestAnchors_goFirst() {
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(scheduler, new Random(1), 100, 100, 0);
+        CloudAnchorQueue queue = create(backend, 1, 1);
+        queue.setViewerPosition(10, 0, 0);
+        queue.host("first", 0, 0, 0);
+        for (int x : new int[]{0, 30, 9, 12, 20}) {
+            queue.host("x" + x, x, 0, 0);
+        }
+        scheduler.advance(10_000);
+
+        // "first" took the free slot before the others arrived
+        assertEquals(Arrays.asList("hosted first", "hosted x9", "hosted x12", "hosted x0", "hosted x20", "hosted x30"), events);
+    }
+
+    @Test
+    public void movingViewer_reordersWhatIsStillQueued() {
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(scheduler, new Random(1), 100, 100, 0);
+        CloudAnchorQueue queue = create(backend, 1, 1);
+        queue.host("busy", 0, 0, 0);
+        queue.host("left", -5, 0, 0);
+        queue.host("right", 5, 0, 0);
+
+        queue.setViewerPosition(4, 0, 0);
+        scheduler.advance(10_000);
+
+        assertEquals(Arrays.asList("hosted busy", "hosted right", "hosted left"), events);
+    }
+
+    @Test
+    public void repeatedRequests_areDeduped() {
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(scheduler, new Random(1), 100, 100, 0);
+        CloudAnchorQueue queue = create(backend, 1, 3);
+        assertTrue(queue.host("a", 0, 0, 0));
+        assertTrue(queue.host("b", 0, 0, 0));
+        assertFalse(queue.host("a", 0, 0, 0));
+        assertFalse(queue.host("b", 0, 0, 0));
+        scheduler.advance(1_000);
+        assertFalse(queue.host("a", 0, 0, 0));
+
+        assertEquals(1, backend.getCallCount("a"));
+        assertEquals(1, backend.getCallCount("b"));
+        assertEquals(3, queue.getDedupedCount());
+        assertEquals(Arrays.asList("hosted a", "hosted b"), events);
+    }
+
+    @Test
+    public void hostAndResolveOfTheSameKey_areSeparateOperations() {
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(scheduler, new Random(1), 100, 100, 0);
+        backend.addHosted("a");
+        CloudAnchorQueue queue = create(backend, 2, 1);
+
+        assertTrue(queue.host("a", 0, 0, 0));
+        assertTrue(queue.resolve("a", 0, 0, 0));
+        scheduler.advance(1_000);
+
+        assertTrue(queue.isResolved("a"));
+        assertEquals(2, backend.getCallCount("a"));
+    }
+
+    @Test
+    public void failures_areRetriedWithGrowingJitteredBackoff() {
+        CloudAnchorQueue queue = create(new FakeCloudAnchorBackend(scheduler, new Random(1), 0, 0, 0), 1, 10);
+        for (int attempts = 1; attempts <= 6; attempts++) {
+            long cap = Math.min(8000, 1000L << (attempts - 1));
+            long lowest = Long.MAX_VALUE;
+            long highest = 0;
+            for (int i = 0; i < 1000; i++) {
+                long delay = queue.backoffMillis(attempts);
+                lowest = Math.min(lowest, delay);
+                highest = Math.max(highest, delay);
+            }
+            assertTrue("attempt " + attempts + ": " + lowest, lowest >= cap / 2);
+            assertTrue("attempt " + attempts + ": " + highest, highest <= cap);
+            // Spread over the range rather than one fixed delay
+            assertTrue("attempt " + attempts, highest - lowest > cap / 4);
+        }
+    }
+
+    @Test
+    public void failedOperation_waitsOutItsBackoffThenSucceeds() {
+        CloudAnchorBackend flaky = new CloudAnchorBackend() {
+            int calls;
+
+            @Override
+            public void host(String anchorId, Callback callback) {
+                if (++calls < 3) {
+                    callback.onComplete(null, new CloudAnchorException("timed out", true));
+                } else {
+                    callback.onComplete("cloud-" + anchorId, null);
+                }
+            }
+
+            @Override
+            public void resolve(String cloudAnchorId, Callback callback) {
+            }
+        };
+        CloudAnchorQueue queue = create(flaky, 1, 5);
+        queue.host("a", 0, 0, 0);
+        assertEquals(1, queue.getBackingOffCount());
+
+        // First retry within [500, 1000] ms, the second within [1000, 2000] ms after that
+        scheduler.advance(499);
+        assertEquals(1, queue.getCallCount());
+        scheduler.advance(2501);
+
+        assertEquals(3, queue.getCallCount());
+        assertEquals(2, queue.getRetryCount());
+        assertEquals("cloud-a", queue.getCloudAnchorId("a"));
+    }
+
+    @Test
+    public void operationsThatKeepFailing_areReportedAndForgotten() {
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(scheduler, new Random(1), 100, 100, 1.0);
+        CloudAnchorQueue queue = create(backend, 2, 3);
+        queue.host("a", 0, 0, 0);
+        scheduler.advance(60_000);
+
+        assertEquals(3, backend.getCallCount("a"));
+        assertEquals(Arrays.asList("failed a"), events);
+        assertNull(queue.getCloudAnchorId("a"));
+        assertTrue(queue.host("a", 0, 0, 0));
+    }
+
+    @Test
+    public void permanentErrors_areNotRetried() {
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(scheduler, new Random(1), 100, 100, 0);
+        CloudAnchorQueue queue = create(backend, 2, 5);
+        queue.resolve("missing", 0, 0, 0);
+        scheduler.advance(60_000);
+
+        assertEquals(1, backend.getCallCount("missing"));
+        assertEquals(Arrays.asList("failed missing"), events);
+    }
+
+    @Test
+    public void cancel_dropsQueuedAndIgnoresRunningOperations() {
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(scheduler, new Random(1), 100, 100, 0);
+        CloudAnchorQueue queue = create(backend, 1, 1);
+        queue.host("running", 0, 0, 0);
+        queue.host("queued", 0, 0, 0);
+
+        queue.cancel(CloudAnchorQueue.Kind.HOST, "running");
+        queue.cancel(CloudAnchorQueue.Kind.HOST, "queued");
+        // The running call still holds its slot until the backend answers
+        assertEquals(1, queue.getInFlightCount());
+        queue.host("next", 0, 0, 0);
+        scheduler.advance(1_000);
+
+        assertEquals(Arrays.asList("hosted next"), events);
+        assertEquals(0, backend.getCallCount("queued"));
+        assertNull(queue.getCloudAnchorId("running"));
+    }
+
+    /**
+     * 60 anchors spread over 30 m against a service taking 0.5-3 s per call and failing 15% of
+     * the time. Running six at once should finish the room several times sooner than one at a
+     * time, and the anchors near the user should be done well before the far ones.
+     */
+    @Test
+    public void boundedConcurrency_cutsTotalAndNearbyLatency() {
+        long serial = hostRoom(1);
+        List<Long> nearby = new ArrayList<>();
+        List<Long> far = new ArrayList<>();
+        finishedAt.clear();
+        long parallel = hostRoom(6);
+        for (int i = 0; i < 60; i++) {
+            (i < 10 ? nearby : far).add(finishedAt.get("a" + i));
+        }
+
+        assertTrue("serial " + serial + " ms, parallel " + parallel + " ms", parallel * 4 < serial);
+        long nearbyP90 = percentile(nearby, 0.9);
+        long farP50 = percentile(far, 0.5);
+        assertTrue("nearby p90 " + nearbyP90 + " ms, far p50 " + farP50 + " ms", nearbyP90 < farP50);
+    }
+
+    /** @return manual clock time at which the last anchor was hosted */
+    private long hostRoom(int maxInFlight) {
+        ManualScheduler clock = new ManualScheduler();
+        FakeCloudAnchorBackend backend = new FakeCloudAnchorBackend(clock, new Random(7), 500, 3000, 0.15);
+        CloudAnchorQueue queue = new CloudAnchorQueue(backend, clock, maxInFlight, 10, 1000, 8000, new Random(42));
+        long[] last = {0};
+        queue.setListener(new CloudAnchorQueue.Listener() {
+            @Override
+            public void onHosted(String anchorId, String cloudAnchorId) {
+                last[0] = clock.now();
+                finishedAt.put(anchorId, clock.now());
+            }
+
+            @Override
+            public void onResolved(String cloudAnchorId) {
+            }
+
+            @Override
+            public void onFailed(CloudAnchorQueue.Kind kind, String key, Exception error) {
+            }
+        });
+        // Anchor i is i / 2 meters away, submitted in a shuffled order
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(3));
+        for (int i : order) {
+            queue.host("a" + i, i / 2f, 0, 0);
+        }
+        clock.advance(3_600_000);
+        assertEquals(60, queue.getSucceededCount());
+        return last[0];
+    }
+
+    private static long percentile(List<Long> values, double quantile) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get((int) Math.ceil(quantile * sorted.size()) - 1);
+    }
+}
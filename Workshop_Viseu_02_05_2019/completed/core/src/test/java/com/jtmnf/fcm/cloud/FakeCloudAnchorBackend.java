@@ -0,0 +1,96 @@
+package com.jtmnf.fcm.cloud;
+
+import com.jtmnf.fcm.util.ManualScheduler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Cloud Anchor service stand-in: each call answers after a random latency on the manual clock,
+ * and fails with the given probability. Hosting "a" yields "cloud-a"; resolving an id that was
+ * never hosted fails for good.
+ */
+public class FakeCloudAnchorBackend implements CloudAnchorBackend {
+
+    private final ManualScheduler scheduler;
+    private final Random random;
+    private final long minLatencyMillis;
+    private final long maxLatencyMillis;
+    private final double failureRate;
+    private final Set<String> hosted = new HashSet<>();
+    private final Map<String, Integer> callsPerKey = new HashMap<>();
+    private int running;
+    private int maxRunning;
+    private long calls;
+
+    public FakeCloudAnchorBackend(ManualScheduler scheduler, Random random, long minLatencyMillis, long maxLatencyMillis,
+                           double failureRate) {
+        this.scheduler = scheduler;
+        this.random = random;
+        this.minLatencyMillis = minLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public void host(String anchorId, Callback callback) {
+        call(anchorId, callback, () -> {
+            String cloudAnchorId = "cloud-" + anchorId;
+            hosted.add(cloudAnchorId);
+            callback.onComplete(cloudAnchorId, null);
+        });
+    }
+
+    @Override
+    public void resolve(String cloudAnchorId, Callback callback) {
+        call(cloudAnchorId, callback, () -> {
+            if (hosted.contains(cloudAnchorId)) {
+                callback.onComplete(cloudAnchorId, null);
+            } else {
+                callback.onComplete(null, new CloudAnchorException("not found: " + cloudAnchorId, false));
+            }
+        });
+    }
+
+    /** Makes resolving this id succeed without hosting it first. */
+    public void addHosted(String cloudAnchorId) {
+        hosted.add(cloudAnchorId);
+    }
+
+    private void call(String key, Callback callback, Runnable success) {
+        calls++;
+        callsPerKey.merge(key, 1, Integer::sum);
+        running++;
+        maxRunning = Math.max(maxRunning, running);
+        long latency = minLatencyMillis + (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis));
+        boolean fails = random.nextDouble() < failureRate;
+        scheduler.schedule(() -> {
+            running--;
+            if (fails) {
+                callback.onComplete(null, new CloudAnchorException("service unavailable", true));
+            } else {
+                success.run();
+            }
+        }, latency);
+    }
+
+    public int getCallCount(String key) {
+        return callsPerKey.getOrDefault(key, 0);
+    }
+
+    public long getCallCount() {
+        return calls;
+    }
+
+    public int getRunning() {
+        return running;
+    }
+
+    /** Most calls that were ever running at the same time. */
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+}
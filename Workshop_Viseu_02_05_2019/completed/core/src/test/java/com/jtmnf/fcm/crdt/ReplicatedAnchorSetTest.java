@@ -0,0 +1,309 @@
+package com.jtmnf.fcm.crdt;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicatedAnchorSetTest {
+
+    static AnchorRecord record(float x, int color) {
+        AnchorRecord record = new AnchorRecord().setPosition(x, 0f, 0f).setSize(0.2f, 0.2f, 0.2f);
+        record.shape = ShapeType.CUBE;
+        record.color = color;
+        return record;
+    }
+
+    private static void deliver(ReplicatedAnchorSet to, List<AnchorChange> changes) {
+        for (AnchorChange change : changes) {
+            to.merge(change);
+        }
+    }
+
+    /** Visible anchors with every field and version, in a form that compares across replicas. */
+    static String state(ReplicatedAnchorSet set) {
+        TreeMap<String, String> visible = new TreeMap<>();
+        for (AnchorChange change : set.snapshot()) {
+            AnchorRecord value = set.get(change.anchorId);
+            if (value != null) {
+                visible.put(change.anchorId, value + " " + set.getVersion(change.anchorId, ReplicatedAnchorSet.POSE)
+                        + "/" + set.getVersion(change.anchorId, ReplicatedAnchorSet.SHAPE)
+                        + "/" + set.getVersion(change.anchorId, ReplicatedAnchorSet.COLOR));
+            }
+        }
+        return visible.toString();
+    }
+
+    @Test
+    public void concurrentEditsOfDifferentFields_bothSurvive() {
+        ReplicatedAnchorSet a = new ReplicatedAnchorSet(1);
+        ReplicatedAnchorSet b = new ReplicatedAnchorSet(2);
+        a.put("x", record(1f, 0xFF0000FF));
+        deliver(b, a.takeChanges());
+
+        a.update("x", 1 << ReplicatedAnchorSet.POSE, record(5f, 0));
+        b.update("x", 1 << ReplicatedAnchorSet.COLOR, record(0f, 0xFF00FF00));
+        List<AnchorChange> fromA = a.takeChanges();
+        List<AnchorChange> fromB = b.takeChanges();
+        deliver(a, fromB);
+        deliver(b, fromA);
+
+        assertEquals(5f, a.get("x").px, 0f);
+        assertEquals(0xFF00FF00, a.get("x").color);
+        assertEquals(state(a), state(b));
+    }
+
+    @Test
+    public void concurrentEditsOfTheSameField_pickTheSameWinnerEverywhere() {
+        ReplicatedAnchorSet a = new ReplicatedAnchorSet(1);
+        ReplicatedAnchorSet b = new ReplicatedAnchorSet(2);
+        a.put("x", record(1f, 0));
+        b.put("x", record(2f, 0));
+        List<AnchorChange> fromA = a.takeChanges();
+        List<AnchorChange> fromB = b.takeChanges();
+        deliver(a, fromB);
+        deliver(b, fromA);
+
+        // Same counter, so the higher replica id breaks the tie
+        assertEquals(2f, a.get("x").px, 0f);
+        assertEquals(state(a), state(b));
+    }
+
+    @Test
+    public void editAfterSeeingARemoval_bringsTheAnchorBack() {
+        ReplicatedAnchorSet a = new ReplicatedAnchorSet(1);
+        ReplicatedAnchorSet b = new ReplicatedAnchorSet(2);
+        a.put("x", record(1f, 0));
+        deliver(b, a.takeChanges());
+        a.remove("x");
+        deliver(b, a.takeChanges());
+        assertNull(b.get("x"));
+
+        b.update("x", 1 << ReplicatedAnchorSet.POSE, record(3f, 0));
+        deliver(a, b.takeChanges());
+
+        assertEquals(3f, a.get("x").px, 0f);
+        assertEquals(state(a), state(b));
+    }
+
+    @Test
+    public void editRacingANewerRemoval_staysRemoved() {
+        ReplicatedAnchorSet a = new ReplicatedAnchorSet(1);
+        ReplicatedAnchorSet b = new ReplicatedAnchorSet(2);
+        a.put("x", record(1f, 0));
+        deliver(b, a.takeChanges());
+        // a has seen more of the room, so its removal is newer than b's concurrent move
+        for (int i = 0; i < 5; i++) {
+            a.put("other" + i, record(i, 0));
+        }
+        a.remove("x");
+        b.update("x", 1 << ReplicatedAnchorSet.POSE, record(3f, 0));
+        List<AnchorChange> fromA = a.takeChanges();
+        List<AnchorChange> fromB = b.takeChanges();
+        deliver(a, fromB);
+        deliver(b, fromA);
+
+        assertNull(a.get("x"));
+        assertNull(b.get("x"));
+        assertEquals(5, b.size());
+    }
+
+    @Test
+    public void editRacingAnOlderRemoval_bringsTheAnchorBack() {
+        ReplicatedAnchorSet a = new ReplicatedAnchorSet(1);
+        ReplicatedAnchorSet b = new ReplicatedAnchorSet(2);
+        a.put("x", record(1f, 0));
+        deliver(b, a.takeChanges());
+        // Last writer wins: b has seen more of the room, so its concurrent move is the newer write
+        for (int i = 0; i < 5; i++) {
+            b.put("other" + i, record(i, 0));
+        }
+        a.remove("x");
+        b.update("x", 1 << ReplicatedAnchorSet.POSE, record(3f, 0));
+        List<AnchorChange> fromA = a.takeChanges();
+        List<AnchorChange> fromB = b.takeChanges();
+        deliver(a, fromB);
+        deliver(b, fromA);
+
+        assertEquals(3f, a.get("x").px, 0f);
+        assertEquals(state(a), state(b));
+    }
+
+    @Test
+    public void editArrivingBeforeThePlacement_staysHiddenUntilPoseAndShapeArrive() {
+        ReplicatedAnchorSet a = new ReplicatedAnchorSet(1);
+        ReplicatedAnchorSet b = new ReplicatedAnchorSet(2);
+        ReplicatedAnchorSet c = new ReplicatedAnchorSet(3);
+        a.put("x", record(1f, 0));
+        List<AnchorChange> placed = a.takeChanges();
+        deliver(b, placed);
+        b.update("x", 1 << ReplicatedAnchorSet.COLOR, record(0f, 7));
+
+        deliver(c, b.takeChanges());
+        assertNull(c.get("x"));
+        assertEquals(0, c.size());
+
+        deliver(c, placed);
+        assertEquals(1f, c.get("x").px, 0f);
+        assertEquals(7, c.get("x").color);
+        assertEquals(state(b), state(c));
+    }
+
+    @Test
+    public void changes_carryOnlyWhatWasWritten() {
+        ReplicatedAnchorSet a = new ReplicatedAnchorSet(1);
+        a.put("x", record(1f, 0));
+        a.takeChanges();
+
+        for (int i = 0; i < 10; i++) {
+            a.update("x", 1 << ReplicatedAnchorSet.POSE, record(i, 0));
+        }
+        List<AnchorChange> changes = a.takeChanges();
+
+        assertEquals(1, changes.size());
+        assertEquals(1 << ReplicatedAnchorSet.POSE, changes.get(0).mask);
+        assertEquals(1, changes.get(0).size());
+        assertEquals(Collections.emptyList(), a.takeChanges());
+    }
+
+    @Test
+    public void listeners_hearVisibleDifferencesOnly() {
+        ReplicatedAnchorSet a = new ReplicatedAnchorSet(1);
+        ReplicatedAnchorSet b = new ReplicatedAnchorSet(2);
+        List<String> events = new ArrayList<>();
+        b.addSceneListener(new AnchorSyncEngine.SceneListener() {
+            @Override
+            public void onAnchorAdded(String anchorId, AnchorRecord record) {
+                events.add("added " + anchorId);
+            }
+
+            @Override
+            public void onAnchorChanged(String anchorId, AnchorRecord record) {
+                events.add("changed " + anchorId);
+            }
+
+            @Override
+            public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+                events.add("removed " + anchorId);
+            }
+        });
+        a.put("x", record(1f, 0));
+        List<AnchorChange> placed = a.takeChanges();
+        deliver(b, placed);
+        deliver(b, placed);
+        a.update("x", 1 << ReplicatedAnchorSet.COLOR, record(0f, 7));
+        deliver(b, a.takeChanges());
+        a.remove("x");
+        deliver(b, a.takeChanges());
+
+        assertEquals("[added x, changed x, removed x]", events.toString());
+    }
+
+    @Test
+    public void mergeWork_followsTheChangeNotTheRoom() {
+        for (int anchors : new int[]{100, 100_000}) {
+            ReplicatedAnchorSet source = new ReplicatedAnchorSet(1);
+            ReplicatedAnchorSet room = new ReplicatedAnchorSet(2);
+            for (int i = 0; i < anchors; i++) {
+                source.put("a" + i, record(i, 0));
+            }
+            deliver(room, source.takeChanges());
+            long before = room.getMergedGroupCount() + room.getIgnoredGroupCount();
+
+            for (int i = 0; i < 100; i++) {
+                source.update("a" + (i * 7 % anchors), 1 << ReplicatedAnchorSet.POSE, record(-i, 0));
+            }
+            deliver(room, source.takeChanges());
+
+            assertEquals("groups looked at with " + anchors + " anchors",
+                    100, room.getMergedGroupCount() + room.getIgnoredGroupCount() - before);
+            assertEquals(state(source), state(room));
+        }
+    }
+
+    /**
+     * Five replicas make random edits to a shared pool of anchors while their changes travel
+     * with random delays, duplicates and reordering. Once everything has been delivered, every
+     * replica, and a newcomer built from one snapshot, must hold the same state.
+     */
+    @Test
+    public void randomConcurrentEdits_converge() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int replicaCount = 5;
+            ReplicatedAnchorSet[] replicas = new ReplicatedAnchorSet[replicaCount];
+            List<List<AnchorChange>> inboxes = new ArrayList<>();
+            for (int r = 0; r < replicaCount; r++) {
+                replicas[r] = new ReplicatedAnchorSet(r + 1);
+                inboxes.add(new ArrayList<>());
+            }
+
+            for (int step = 0; step < 3_000; step++) {
+                ReplicatedAnchorSet replica = replicas[random.nextInt(replicaCount)];
+                String id = "a" + random.nextInt(40);
+                int op = random.nextInt(10);
+                if (op < 2) {
+                    replica.remove(id);
+                } else if (op < 4) {
+                    replica.put(id, record(random.nextInt(100), random.nextInt()));
+                } else {
+                    replica.update(id, 1 + random.nextInt(ReplicatedAnchorSet.ALL), record(random.nextInt(100), random.nextInt()));
+                }
+                // Now and then a replica sends what it has; each peer gets it at some later point
+                if (random.nextInt(4) == 0) {
+                    for (AnchorChange change : replica.takeChanges()) {
+                        for (int r = 0; r < replicaCount; r++) {
+                            if (replicas[r] != replica) {
+                                inboxes.get(r).add(new AnchorChange().copyFrom(change));
+                                if (random.nextInt(10) == 0) {
+                                    inboxes.get(r).add(new AnchorChange().copyFrom(change));
+                                }
+                            }
+                        }
+                    }
+                }
+                // Deliver a random pending change somewhere
+                List<AnchorChange> inbox = inboxes.get(random.nextInt(replicaCount));
+                if (!inbox.isEmpty()) {
+                    AnchorChange change = inbox.remove(random.nextInt(inbox.size()));
+                    replicas[inboxes.indexOf(inbox)].merge(change);
+                }
+            }
+
+            // Flush what's left, in a random order
+            for (int r = 0; r < replicaCount; r++) {
+                for (AnchorChange change : replicas[r].takeChanges()) {
+                    for (int other = 0; other < replicaCount; other++) {
+                        if (other != r) {
+                            inboxes.get(other).add(new AnchorChange().copyFrom(change));
+                        }
+                    }
+                }
+            }
+            for (int r = 0; r < replicaCount; r++) {
+                Collections.shuffle(inboxes.get(r), random);
+                deliver(replicas[r], inboxes.get(r));
+            }
+
+            String expected = state(replicas[0]);
+            assertTrue(replicas[0].size() > 0);
+            for (int r = 1; r < replicaCount; r++) {
+                assertEquals("seed " + seed + ", replica " + r, expected, state(replicas[r]));
+            }
+            ReplicatedAnchorSet newcomer = new ReplicatedAnchorSet(99);
+            deliver(newcomer, replicas[2].snapshot());
+            assertEquals("seed " + seed + ", newcomer", expected, state(newcomer));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.jtmnf.fcm.culling;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VisibilityCullerTest {
+
+    private static final float FOV = (float) Math.toRadians(60);
+
+    // Camera at the origin looking down -Z
+    private final Frustum forward = new Frustum().setFromCamera(0, 0, 0, 0, 0, 0, 1, FOV, 1f, 0.1f, 100f);
+
+    @Test
+    public void frustum_keepsWhatIsInFrontAndDropsTheRest() {
+        assertTrue(forward.intersectsSphere(0, 0, -5, 0.1f));
+        assertFalse(forward.intersectsSphere(0, 0, 5, 0.1f));
+        assertFalse(forward.intersectsSphere(10, 0, -5, 0.1f));
+        assertFalse(forward.intersectsSphere(0, -10, -5, 0.1f));
+        assertFalse(forward.intersectsSphere(0, 0, -200, 0.1f));
+        // Just outside the right edge, but the sphere reaches in
+        assertTrue(forward.intersectsSphere(3.2f, 0, -5, 0.5f));
+    }
+
+    @Test
+    public void frustum_followsCameraRotation() {
+        // Turned 90 degrees left around Y: now looking down -X
+        float s = (float) Math.sin(Math.PI / 4), c = (float) Math.cos(Math.PI / 4);
+        Frustum left = new Frustum().setFromCamera(1, 2, 3, 0, s, 0, c, FOV, 1f, 0.1f, 100f);
+
+        assertTrue(left.intersectsSphere(1 - 5, 2, 3, 0.1f));
+        assertFalse(left.intersectsSphere(1, 2, 3 - 5, 0.1f));
+    }
+
+    @Test
+    public void frustum_fromMatricesAgreesWithCameraPose() {
+        float near = 0.1f, far = 50f;
+        float f = (float) (1 / Math.tan(FOV / 2));
+        float[] projection = {
+                f / 1.5f, 0, 0, 0,
+                0, f, 0, 0,
+                0, 0, (far + near) / (near - far), -1,
+                0, 0, 2 * far * near / (near - far), 0};
+        // Camera at (0, 1, 2), unrotated: view matrix is a translation by -position
+        float[] view = {
+                1, 0, 0, 0,
+                0, 1, 0, 0,
+                0, 0, 1, 0,
+                0, -1, -2, 1};
+        Frustum fromMatrices = new Frustum().setFromMatrices(projection, view);
+        Frustum fromPose = new Frustum().setFromCamera(0, 1, 2, 0, 0, 0, 1, FOV, 1.5f, near, far);
+
+        Random random = new Random(3);
+        for (int i = 0; i < 10_000; i++) {
+            float x = random.nextFloat() * 120 - 60, y = random.nextFloat() * 120 - 60, z = random.nextFloat() * 120 - 60;
+            float r = random.nextFloat();
+            assertEquals(fromPose.intersectsSphere(x, y, z, r), fromMatrices.intersectsSphere(x, y, z, r));
+        }
+    }
+
+    @Test
+    public void update_reportsOnlyChanges() {
+        VisibilityCuller culler = new VisibilityCuller(50f, 10);
+        int front = culler.add(0, 0, -5, 0.2f);
+        int behind = culler.add(0, 0, 5, 0.2f);
+
+        culler.update(forward, 0, 0, 0);
+        assertEquals(1, culler.getShownCount());
+        assertEquals(front, culler.getShown(0));
+        assertEquals(0, culler.getHiddenCount());
+
+        culler.update(forward, 0, 0, 0);
+        assertEquals(0, culler.getShownCount());
+        assertEquals(0, culler.getHiddenCount());
+
+        culler.move(front, 0, 0, 6);
+        culler.move(behind, 0, 0, -6);
+        culler.update(forward, 0, 0, 0);
+        assertEquals(behind, culler.getShown(0));
+        assertEquals(front, culler.getHidden(0));
+    }
+
+    @Test
+    public void distanceLimit_hidesFarObjects() {
+        VisibilityCuller culler = new VisibilityCuller(10f, 10);
+        int near = culler.add(0, 0, -9, 0.2f);
+        int far = culler.add(0, 0, -11, 0.2f);
+
+        culler.update(forward, 0, 0, 0);
+
+        assertTrue(culler.isVisible(near));
+        assertFalse(culler.isVisible(far));
+    }
+
+    @Test
+    public void budget_keepsTheClosestAndPinnedObjects() {
+        VisibilityCuller culler = new VisibilityCuller(100f, 5);
+        int[] slots = new int[50];
+        for (int i = 0; i < slots.length; i++) {
+            // Shuffled distances 1..50
+            slots[i] = culler.add(0, 0, -(1 + (i * 17) % 50), 0.1f);
+        }
+        int selected = culler.add(0, 0, -80, 0.1f);
+        culler.setPinned(selected, true);
+
+        culler.update(forward, 0, 0, 0);
+
+        assertEquals(6, culler.getVisibleCount());
+        assertTrue(culler.isVisible(selected));
+        for (int i = 0; i < slots.length; i++) {
+            int distance = 1 + (i * 17) % 50;
+            assertEquals("distance " + distance, distance <= 5, culler.isVisible(slots[i]));
+        }
+    }
+
+    @Test
+    public void removedSlots_areReusedAndNotReported() {
+        VisibilityCuller culler = new VisibilityCuller(100f, 5);
+        int a = culler.add(0, 0, -5, 0.1f);
+        culler.update(forward, 0, 0, 0);
+
+        culler.remove(a);
+        culler.update(forward, 0, 0, 0);
+
+        assertEquals(0, culler.getHiddenCount());
+        assertEquals(0, culler.getVisibleCount());
+        assertEquals(a, culler.add(0, 0, -5, 0.1f));
+    }
+}
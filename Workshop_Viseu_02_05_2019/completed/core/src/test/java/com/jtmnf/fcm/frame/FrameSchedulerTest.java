@@ -0,0 +1,238 @@
+package com.jtmnf.fcm.frame;
+
+import com.jtmnf.fcm.frame.FrameScheduler.Priority;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSchedulerTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    // Only moves when a task says it took time
+    private long nanos;
+    private final List<String> log = new ArrayList<>();
+
+    private FrameScheduler scheduler(float budgetMillis, int agingFrames) {
+        return new FrameScheduler(budgetMillis, agingFrames, () -> nanos);
+    }
+
+    private Runnable task(String name, long costNanos) {
+        return () -> {
+            nanos += costNanos;
+            log.add(name);
+        };
+    }
+
+    @Test
+    public void runFrame_stopsWhenBudgetIsSpent_andCarriesTheRestOver() {
+        FrameScheduler scheduler = scheduler(4f, 100);
+        for (int i = 0; i < 10; i++) {
+            scheduler.post(Priority.NORMAL, task("t" + i, MILLIS));
+        }
+
+        assertEquals(4, scheduler.runFrame());
+        assertEquals(4, scheduler.runFrame());
+        assertEquals(2, scheduler.runFrame());
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(2, scheduler.getCarriedOverFrameCount());
+        assertEquals(0, scheduler.getOverBudgetFrameCount());
+        assertEquals(Arrays.asList("t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7", "t8", "t9"), log);
+    }
+
+    @Test
+    public void runFrame_overrunsByAtMostOneTask() {
+        FrameScheduler scheduler = scheduler(4f, 100);
+        for (int i = 0; i < 50; i++) {
+            scheduler.post(Priority.NORMAL, task("t" + i, (1 + i % 3) * MILLIS));
+        }
+
+        while (scheduler.getPendingCount() > 0) {
+            long start = nanos;
+            scheduler.runFrame();
+            assertTrue("frame took " + (nanos - start), nanos - start < (4 + 3) * MILLIS);
+        }
+        assertEquals(50, scheduler.getRunCount());
+        assertTrue(scheduler.getMaxFrameNanos() < 7 * MILLIS);
+    }
+
+    @Test
+    public void runFrame_runsOneTaskEvenIfItExceedsTheBudget() {
+        FrameScheduler scheduler = scheduler(2f, 100);
+        scheduler.post(Priority.NORMAL, task("slow", 10 * MILLIS));
+        scheduler.post(Priority.NORMAL, task("next", MILLIS));
+
+        assertEquals(1, scheduler.runFrame());
+        assertEquals(1, scheduler.getOverBudgetFrameCount());
+        assertEquals(1, scheduler.runFrame());
+    }
+
+    @Test
+    public void higherPriorities_runFirst() {
+        FrameScheduler scheduler = scheduler(100f, 100);
+        scheduler.post(Priority.LOW, task("low", 0));
+        scheduler.post(Priority.NORMAL, task("normal", 0));
+        scheduler.post(Priority.HIGH, task("high", 0));
+
+        scheduler.runFrame();
+
+        assertEquals(Arrays.asList("high", "normal", "low"), log);
+    }
+
+    @Test
+    public void waitingTasks_goBeforeUrgentWorkPostedMuchLater_soLowPriorityWorkIsNotStarved() {
+        FrameScheduler scheduler = scheduler(4f, 3);
+        scheduler.post(Priority.LOW, task("low", MILLIS));
+
+        // More urgent work arrives every frame than the budget can take
+        for (int frame = 0; !log.contains("low"); frame++) {
+            assertTrue("low-priority task still waiting after " + frame + " frames", frame < 100);
+            for (int i = 0; i < 8; i++) {
+                scheduler.post(Priority.HIGH, task("high@" + frame, MILLIS));
+            }
+            scheduler.runFrame();
+        }
+        // Two steps of priority are worth six frames
+        for (String name : log.subList(0, log.indexOf("low"))) {
+            assertTrue(name + " ran first", Integer.parseInt(name.substring("high@".length())) <= 6);
+        }
+    }
+
+    @Test
+    public void equalRanks_goToTheHigherPriority() {
+        // No budget: one task per frame
+        FrameScheduler scheduler = scheduler(0f, 1);
+        scheduler.post(Priority.HIGH, task("first", 0));
+        scheduler.post(Priority.NORMAL, task("older normal", 0));
+        scheduler.runFrame();
+
+        // One frame later, a HIGH task ranks the same as the NORMAL one
+        scheduler.post(Priority.HIGH, task("newer high", 0));
+        scheduler.post(Priority.LOW, task("newer low", 0));
+        scheduler.runFrame();
+        scheduler.runFrame();
+        scheduler.runFrame();
+
+        assertEquals(Arrays.asList("first", "newer high", "older normal", "newer low"), log);
+    }
+
+    @Test
+    public void postingForAQueuedKey_replacesItsTask() {
+        FrameScheduler scheduler = scheduler(100f, 100);
+        assertTrue(scheduler.post("-a", Priority.NORMAL, task("a: added", 0)));
+        scheduler.post("-b", Priority.NORMAL, task("b: added", 0));
+
+        assertFalse(scheduler.post("-a", Priority.NORMAL, task("a: removed", 0)));
+        scheduler.runFrame();
+
+        assertEquals(Arrays.asList("a: removed", "b: added"), log);
+        assertEquals(1, scheduler.getCoalescedCount());
+        assertEquals(2, scheduler.getRunCount());
+    }
+
+    @Test
+    public void postingForAQueuedKey_withHigherPriority_movesItUp() {
+        FrameScheduler scheduler = scheduler(100f, 100);
+        scheduler.post("-a", Priority.LOW, task("a: low", 0));
+        scheduler.post(Priority.NORMAL, task("other", 0));
+
+        scheduler.post("-a", Priority.HIGH, task("a: high", 0));
+
+        assertEquals(1, scheduler.getPendingCount(Priority.HIGH));
+        assertEquals(0, scheduler.getPendingCount(Priority.LOW));
+        scheduler.runFrame();
+        assertEquals(Arrays.asList("a: high", "other"), log);
+    }
+
+    @Test
+    public void postingForAQueuedKey_withLowerPriority_keepsThePriority() {
+        FrameScheduler scheduler = scheduler(100f, 100);
+        scheduler.post(Priority.NORMAL, task("other", 0));
+        scheduler.post("-a", Priority.HIGH, task("a: high", 0));
+
+        scheduler.post("-a", Priority.LOW, task("a: low", 0));
+        scheduler.runFrame();
+
+        assertEquals(Arrays.asList("a: low", "other"), log);
+    }
+
+    @Test
+    public void cancel_dropsTheQueuedTask() {
+        FrameScheduler scheduler = scheduler(100f, 100);
+        scheduler.post("-a", Priority.NORMAL, task("a", 0));
+        scheduler.post("-b", Priority.NORMAL, task("b", 0));
+
+        assertTrue(scheduler.cancel("-a"));
+        assertFalse(scheduler.cancel("-a"));
+        assertFalse(scheduler.isPending("-a"));
+        scheduler.runFrame();
+
+        assertEquals(Arrays.asList("b"), log);
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void aRunningTask_canPostForItsOwnKey() {
+        FrameScheduler scheduler = scheduler(100f, 100);
+        scheduler.post("-a", Priority.NORMAL, () -> {
+            log.add("first");
+            scheduler.post("-a", Priority.NORMAL, task("second", 0));
+        });
+
+        scheduler.runFrame();
+
+        assertEquals(Arrays.asList("first", "second"), log);
+        assertFalse(scheduler.isPending("-a"));
+        assertEquals(0, scheduler.getCoalescedCount());
+    }
+
+    /** Many posts and runs reuse the same slots and queue entries without losing any task. */
+    @Test
+    public void churn_keepsEveryKeyedTaskExactlyOnce() {
+        FrameScheduler scheduler = scheduler(3f, 2);
+        int[] runs = new int[200];
+        int[] posted = new int[200];
+        Priority[] priorities = Priority.values();
+        for (int round = 0; round < 500; round++) {
+            for (int i = 0; i < 7; i++) {
+                int id = (round * 7 + i * 31) % runs.length;
+                if (scheduler.post("-a" + id, priorities[(round + i) % 3], () -> {
+                    nanos += MILLIS;
+                    runs[id]++;
+                })) {
+                    posted[id]++;
+                }
+            }
+            scheduler.runFrame();
+        }
+        while (scheduler.getPendingCount() > 0) {
+            scheduler.runFrame();
+        }
+        assertTrue(Arrays.equals(posted, runs));
+    }
+
+    @Test
+    public void clear_dropsEverything() {
+        FrameScheduler scheduler = scheduler(100f, 100);
+        scheduler.post("-a", Priority.NORMAL, task("a", 0));
+        scheduler.post(Priority.LOW, task("b", 0));
+
+        scheduler.clear();
+        scheduler.post("-a", Priority.NORMAL, task("a again", 0));
+        scheduler.runFrame();
+
+        assertEquals(Arrays.asList("a again"), log);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeBudget_isRejected() {
+        scheduler(-1f, 1);
+    }
+}
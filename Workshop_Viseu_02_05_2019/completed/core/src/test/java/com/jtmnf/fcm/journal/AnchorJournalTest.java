@@ -0,0 +1,248 @@
+package com.jtmnf.fcm.journal;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnchorJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static AnchorRecord record(int i) {
+        AnchorRecord record = new AnchorRecord()
+                .setPosition(i, 0.5f, -i)
+                .setSize(0.2f, 0.2f, 0.2f);
+        record.shape = ShapeType.values()[i % 3];
+        record.color = 0xff000000 | i;
+        record.timestamp = 1556791200000L + i;
+        return record;
+    }
+
+    @Test
+    public void state_survivesReopen() throws IOException {
+        File file = folder.newFile("anchors.journal");
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            journal.put("a", record(1), false);
+            journal.put("b", record(2), true);
+            journal.put("c", record(3), false);
+            journal.put("a", record(4), false);
+            journal.remove("c", false);
+            journal.acknowledge("a");
+        }
+
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            assertEquals("{a=" + record(4) + ", b=" + record(2) + "}", live(journal).toString());
+            assertEquals("[c]", unacknowledged(journal).toString());
+            assertEquals(0, journal.getDiscardedBytes());
+        }
+    }
+
+    @Test
+    public void acknowledgements_followTheLatestOperation() throws IOException {
+        try (AnchorJournal journal = AnchorJournal.open(folder.newFile())) {
+            journal.put("a", record(1), false);
+            journal.put("b", record(2), true);
+            assertEquals(1, journal.getUnacknowledgedCount());
+
+            journal.acknowledge("a");
+            assertEquals(0, journal.getUnacknowledgedCount());
+
+            // A newer local write needs its own acknowledgement
+            journal.put("a", record(3), false);
+            journal.remove("b", false);
+            assertEquals("[a, b]", unacknowledged(journal).toString());
+
+            // Acknowledged removals are forgotten
+            journal.acknowledge("b");
+            assertEquals(1, journal.size());
+        }
+    }
+
+    @Test
+    public void serverEcho_isNotWrittenAgain() throws IOException {
+        try (AnchorJournal journal = AnchorJournal.open(folder.newFile())) {
+            journal.put("a", record(1), true);
+            long used = journal.getUsedBytes();
+
+            journal.put("a", record(1), true);
+            journal.put("a", record(1), false);
+            journal.remove("missing", true);
+
+            assertEquals(used, journal.getUsedBytes());
+        }
+    }
+
+    /** Simulates the process dying after each byte of the last entry reached the file. */
+    @Test
+    public void crashMidWrite_dropsOnlyTheTornEntry() throws IOException {
+        File file = folder.newFile();
+        long before;
+        long after;
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            for (int i = 0; i < 3; i++) {
+                journal.put("anchor" + i, record(i), false);
+            }
+            before = journal.getUsedBytes();
+            journal.put("anchor3", record(3), false);
+            after = journal.getUsedBytes();
+        }
+        byte[] complete = Files.readAllBytes(file.toPath());
+
+        for (int written = 0; written < after - before; written++) {
+            byte[] torn = complete.clone();
+            Arrays.fill(torn, (int) before + written, (int) after, (byte) 0);
+            Files.write(file.toPath(), torn);
+
+            try (AnchorJournal journal = AnchorJournal.open(file)) {
+                assertEquals("written " + written, Arrays.asList("anchor0", "anchor1", "anchor2"),
+                        new ArrayList<>(live(journal).keySet()));
+                assertEquals(before, journal.getUsedBytes());
+                // Appending after recovery works and isn't confused with the torn bytes
+                journal.put("next", record(9), false);
+            }
+            try (AnchorJournal journal = AnchorJournal.open(file)) {
+                assertEquals(4, journal.size());
+                assertEquals(0, journal.getDiscardedBytes());
+            }
+        }
+    }
+
+    /** Entries are written with their length last, so a crash can leave the body without it. */
+    @Test
+    public void crashBeforeLength_dropsTheEntry() throws IOException {
+        File file = folder.newFile();
+        long before;
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            journal.put("a", record(1), false);
+            before = journal.getUsedBytes();
+            journal.put("b", record(2), false);
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Arrays.fill(bytes, (int) before, (int) before + 4, (byte) 0);
+        Files.write(file.toPath(), bytes);
+
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            assertEquals("[a]", live(journal).keySet().toString());
+            assertTrue(journal.getDiscardedBytes() > 0);
+        }
+    }
+
+    @Test
+    public void corruptEntry_dropsItAndEverythingAfter() throws IOException {
+        File file = folder.newFile();
+        long second;
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            journal.put("a", record(1), false);
+            second = journal.getUsedBytes();
+            journal.put("b", record(2), false);
+            journal.put("c", record(3), false);
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[(int) second + 20] ^= 0x40;
+        Files.write(file.toPath(), bytes);
+
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            assertEquals("[a]", live(journal).keySet().toString());
+        }
+    }
+
+    @Test
+    public void growsPastTheInitialMapping() throws IOException {
+        File file = folder.newFile();
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            for (int i = 0; i < 5_000; i++) {
+                journal.put("anchor" + i, record(i), false);
+            }
+            assertTrue(journal.getUsedBytes() > 64 * 1024);
+        }
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            assertEquals(5_000, journal.size());
+            assertEquals(record(4_999), live(journal).get("anchor4999"));
+        }
+    }
+
+    @Test
+    public void compaction_keepsStateAndShrinksTheFile() throws IOException {
+        File file = folder.newFile();
+        Map<String, AnchorRecord> expected;
+        List<String> expectedUnacknowledged;
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            // A few anchors dragged around a lot
+            for (int i = 0; i < 2_000; i++) {
+                journal.put("anchor" + i % 10, record(i), false);
+                journal.acknowledge("anchor" + i % 10);
+            }
+            journal.put("pending", record(1), false);
+            journal.put("removed", record(2), true);
+            journal.remove("removed", false);
+            journal.put("gone", record(3), true);
+            journal.remove("gone", true);
+            expected = live(journal);
+            expectedUnacknowledged = unacknowledged(journal);
+            long used = journal.getUsedBytes();
+
+            assertTrue(journal.compactIfNeeded());
+            assertTrue(journal.getUsedBytes() < used / 50);
+            assertFalse(journal.compactIfNeeded());
+            assertEquals(expected, live(journal));
+
+            // Still appendable after the swap
+            journal.put("late", record(7), false);
+            expected.put("late", record(7));
+            expectedUnacknowledged.add("late");
+        }
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            assertEquals(expected, live(journal));
+            assertEquals(expectedUnacknowledged, unacknowledged(journal));
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFile_isRejected() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), "not a journal at all".getBytes("UTF-8"));
+        AnchorJournal.open(file);
+    }
+
+    @Test
+    public void emptyFile_startsAFreshJournal() throws IOException {
+        File file = folder.newFile();
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            journal.put("a", record(1), false);
+        }
+        try (AnchorJournal journal = AnchorJournal.open(file)) {
+            assertArrayEquals(new Object[]{"a"}, live(journal).keySet().toArray());
+        }
+    }
+
+    private static Map<String, AnchorRecord> live(AnchorJournal journal) {
+        Map<String, AnchorRecord> live = new LinkedHashMap<>();
+        journal.forEachLive((id, record, acknowledged) -> live.put(id, new AnchorRecord().copyFrom(record)));
+        return live;
+    }
+
+    private static List<String> unacknowledged(AnchorJournal journal) {
+        List<String> ids = new ArrayList<>();
+        journal.forEachUnacknowledged((id, record, acknowledged) -> ids.add(id));
+        return ids;
+    }
+}
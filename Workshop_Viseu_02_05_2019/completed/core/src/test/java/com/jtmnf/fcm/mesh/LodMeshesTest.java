@@ -0,0 +1,97 @@
+package com.jtmnf.fcm.mesh;
+
+import com.jtmnf.fcm.anchor.ShapeType;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LodMeshesTest {
+
+    private final LodMeshes meshes = new LodMeshes(0f, 0.15f, 0f);
+
+    @Test
+    public void sphereLevels_haveExpectedTriangleCounts() {
+        // 2 * segments * (rings - 1), with as many rings as segments
+        int[] expected = {1104, 480, 180, 60};
+        for (int level = 0; level < LodMeshes.LEVEL_COUNT; level++) {
+            MeshData mesh = meshes.get(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, level);
+            assertEquals("level " + level, expected[level], mesh.getTriangleCount());
+        }
+    }
+
+    @Test
+    public void cylinderLevels_haveExpectedTriangleCounts() {
+        // 4 * segments: two per side quad, one per segment in each cap
+        int[] expected = {96, 64, 40, 24};
+        for (int level = 0; level < LodMeshes.LEVEL_COUNT; level++) {
+            MeshData mesh = meshes.get(ShapeType.CYLINDER, 0.2f, 0.3f, 0.2f, level);
+            assertEquals("level " + level, expected[level], mesh.getTriangleCount());
+        }
+    }
+
+    @Test
+    public void levelZero_matchesShapeFactoryTessellation() {
+        assertEquals(PrimitiveMeshes.forShape(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 0f, 0.15f, 0f).getTriangleCount(),
+                meshes.get(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 0).getTriangleCount());
+        assertEquals(PrimitiveMeshes.forShape(ShapeType.CYLINDER, 0.2f, 0.2f, 0.2f, 0f, 0.15f, 0f).getTriangleCount(),
+                meshes.get(ShapeType.CYLINDER, 0.2f, 0.2f, 0.2f, 0).getTriangleCount());
+    }
+
+    @Test
+    public void cube_sharesOneMeshAcrossLevels() {
+        MeshData finest = meshes.get(ShapeType.CUBE, 0.2f, 0.2f, 0.2f, 0);
+        for (int level = 1; level < LodMeshes.LEVEL_COUNT; level++) {
+            assertSame(finest, meshes.get(ShapeType.CUBE, 0.2f, 0.2f, 0.2f, level));
+        }
+        assertEquals(12, finest.getTriangleCount());
+        assertEquals(finest.estimatedBytes(), meshes.getBytes());
+    }
+
+    @Test
+    public void allLevels_areBuiltOnceAndShared() {
+        MeshData coarse = meshes.get(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 3);
+        MeshData fine = meshes.get(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 0);
+
+        assertSame(coarse, meshes.get(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 3));
+        assertSame(fine, meshes.get(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 0));
+        assertEquals(1, meshes.getMissCount());
+        assertEquals(3, meshes.getHitCount());
+        assertEquals(1, meshes.size());
+
+        // Another size is another set
+        meshes.get(ShapeType.SPHERE, 0.4f, 0.4f, 0.4f, 0);
+        assertEquals(2, meshes.size());
+    }
+
+    @Test
+    public void coarserLevels_stayOnTheSurface() {
+        for (int level = 0; level < LodMeshes.LEVEL_COUNT; level++) {
+            MeshData mesh = meshes.get(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, level);
+            for (int v = 0; v < mesh.vertexCount; v++) {
+                float x = mesh.positions[v * 3];
+                float y = mesh.positions[v * 3 + 1] - 0.15f;
+                float z = mesh.positions[v * 3 + 2];
+                assertEquals(0.1f, (float) Math.sqrt(x * x + y * y + z * z), 1e-5f);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownLevel_isRejected() {
+        meshes.get(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, LodMeshes.LEVEL_COUNT);
+    }
+
+    @Test
+    public void levels_getCheaper() {
+        for (ShapeType shape : new ShapeType[]{ShapeType.SPHERE, ShapeType.CYLINDER}) {
+            for (int level = 1; level < LodMeshes.LEVEL_COUNT; level++) {
+                assertTrue(shape + " level " + level,
+                        meshes.get(shape, 0.2f, 0.2f, 0.2f, level).estimatedBytes()
+                                < meshes.get(shape, 0.2f, 0.2f, 0.2f, level - 1).estimatedBytes());
+            }
+        }
+    }
+}
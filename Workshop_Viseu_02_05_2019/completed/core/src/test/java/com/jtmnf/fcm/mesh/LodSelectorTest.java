@@ -0,0 +1,65 @@
+package com.jtmnf.fcm.mesh;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LodSelectorTest {
+
+    private final LodSelector selector = new LodSelector(new float[]{0.4f, 0.2f, 0.1f}, 0.1f);
+
+    @Test
+    public void firstSelection_usesPlainBoundaries() {
+        assertEquals(0, selector.select(-1, 0.5f));
+        assertEquals(0, selector.select(-1, 0.4f));
+        assertEquals(1, selector.select(-1, 0.39f));
+        assertEquals(2, selector.select(-1, 0.15f));
+        assertEquals(3, selector.select(-1, 0.05f));
+    }
+
+    @Test
+    public void smallChangesAroundABoundary_keepTheLevel() {
+        // The 0.2 boundary becomes a band from 0.18 to 0.22
+        assertEquals(1, selector.select(1, 0.19f));
+        assertEquals(2, selector.select(2, 0.21f));
+
+        assertEquals(2, selector.select(1, 0.179f));
+        assertEquals(1, selector.select(2, 0.221f));
+    }
+
+    @Test
+    public void jitteringSize_doesNotPop() {
+        int level = selector.select(-1, 0.2f);
+        int switches = 0;
+        for (int frame = 0; frame < 1000; frame++) {
+            float size = 0.2f + (frame % 2 == 0 ? 0.015f : -0.015f);
+            int next = selector.select(level, size);
+            if (next != level) {
+                switches++;
+            }
+            level = next;
+        }
+        assertEquals(0, switches);
+    }
+
+    @Test
+    public void largeJumps_crossSeveralLevels() {
+        assertEquals(3, selector.select(0, 0.01f));
+        assertEquals(0, selector.select(3, 1f));
+    }
+
+    @Test
+    public void screenSize_fallsWithDistance() {
+        float tanHalfFov = (float) Math.tan(Math.toRadians(30));
+        float near = LodSelector.screenSize(0.1f, 1f, tanHalfFov);
+        float far = LodSelector.screenSize(0.1f, 10f, tanHalfFov);
+
+        assertEquals(near / 10, far, 1e-6f);
+        assertEquals(Float.POSITIVE_INFINITY, LodSelector.screenSize(1f, 0.5f, tanHalfFov), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void increasingSizes_areRejected() {
+        new LodSelector(new float[]{0.1f, 0.2f}, 0.1f);
+    }
+}
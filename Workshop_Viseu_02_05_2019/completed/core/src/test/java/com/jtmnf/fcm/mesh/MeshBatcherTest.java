@@ -0,0 +1,298 @@
+package com.jtmnf.fcm.mesh;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MeshBatcherTest {
+
+    private static final float CELL = 2f;
+
+    private final LodMeshes meshes = new LodMeshes(0f, 0.15f, 0f);
+    private final List<String> reported = new ArrayList<>();
+    private MeshBatcher batcher;
+
+    @Before
+    public void setUp() {
+        batcher = new MeshBatcher(CELL, this::meshFor);
+        batcher.setListener(new MeshBatcher.Listener() {
+            @Override
+            public void onBatchUpdated(MeshBatcher.Batch batch) {
+                reported.add("updated " + batch.getObjectCount());
+            }
+
+            @Override
+            public void onBatchRemoved(MeshBatcher.Batch batch) {
+                reported.add("removed");
+            }
+        });
+    }
+
+    private MeshData meshFor(AnchorRecord record, int level) {
+        return meshes.get(record.shape, 0.2f, 0.2f, 0.2f, level);
+    }
+
+    static AnchorRecord record(float x, float z, int color) {
+        AnchorRecord record = new AnchorRecord().setPosition(x, 0f, z).setSize(0.2f, 0.2f, 0.2f);
+        record.shape = ShapeType.CUBE;
+        record.color = color;
+        return record;
+    }
+
+    @Test
+    public void primitives_haveTheExpectedCounts() {
+        MeshData cube = PrimitiveMeshes.cube(1, 1, 1, 0, 0, 0);
+        MeshData sphere = PrimitiveMeshes.sphere(0.5f, 24, 24, 0, 0, 0);
+        MeshData cylinder = PrimitiveMeshes.cylinder(0.5f, 1, 24, 0, 0, 0);
+
+        assertEquals(24, cube.vertexCount);
+        assertEquals(12, cube.getTriangleCount());
+        assertEquals(25 * 25, sphere.vertexCount);
+        assertEquals(2 * 24 * 23, sphere.getTriangleCount());
+        assertEquals(4 * 25 + 2, cylinder.vertexCount);
+        assertEquals(4 * 24, cylinder.getTriangleCount());
+    }
+
+    @Test
+    public void merge_placesVerticesAtThePoseAndShiftsIndices() {
+        MeshData cube = PrimitiveMeshes.cube(1, 1, 1, 0, 0, 0);
+        MeshData merged = new MeshData(0, 0);
+        MeshMerger.append(cube, new AnchorRecord(), merged);
+        // Turned 90 degrees about y and moved to (10, 0, 0)
+        float half = (float) Math.sqrt(0.5);
+        AnchorRecord pose = new AnchorRecord().setPosition(10f, 0f, 0f).setRotation(0f, half, 0f, half);
+        int first = MeshMerger.append(cube, pose, merged);
+
+        assertEquals(24, first);
+        assertEquals(48, merged.vertexCount);
+        assertEquals(cube.indices[5] + 24, merged.indices[36 + 5]);
+        // The first vertex of the +z face, (-0.5, -0.5, 0.5), ends up at (10.5, -0.5, 0.5)
+        assertEquals(10.5f, merged.positions[first * 3], 1e-5f);
+        assertEquals(-0.5f, merged.positions[first * 3 + 1], 1e-5f);
+        assertEquals(0.5f, merged.positions[first * 3 + 2], 1e-5f);
+        // and its normal, +z, now points along +x
+        assertEquals(1f, merged.normals[first * 3], 1e-5f);
+    }
+
+    @Test
+    public void sameColorInOneCell_isOneDrawCall() {
+        for (int i = 0; i < 100; i++) {
+            batcher.put("a" + i, record(0.1f + i * 0.01f, 0.5f, 1));
+        }
+        batcher.put("red", record(0.5f, 0.5f, 2));
+        batcher.put("far", record(10f, 10f, 1));
+        batcher.flush();
+
+        assertEquals(3, batcher.getBatchCount());
+        assertEquals(3, batcher.getDrawCallCount());
+        assertTrue(reported.contains("updated 100"));
+    }
+
+    @Test
+    public void selectedObject_isDrawnOnItsOwnUntilPutBack() {
+        batcher.put("a", record(0.1f, 0.1f, 1));
+        batcher.put("b", record(0.2f, 0.2f, 1));
+        batcher.flush();
+
+        batcher.setIndividual("a", true);
+        batcher.put("a", record(0.5f, 0.5f, 1));
+        batcher.flush();
+        assertFalse(batcher.isBatched("a"));
+        assertEquals(2, batcher.getDrawCallCount());
+
+        batcher.setIndividual("a", false);
+        batcher.flush();
+        assertTrue(batcher.isBatched("a"));
+        assertEquals(1, batcher.getDrawCallCount());
+    }
+
+    @Test
+    public void moveWithinTheCell_patchesInPlace() {
+        for (int i = 0; i < 10; i++) {
+            batcher.put("a" + i, record(0.1f * i, 0.1f, 1));
+        }
+        batcher.flush();
+        reported.clear();
+
+        batcher.put("a3", record(1.5f, 1.5f, 1));
+        batcher.flush();
+
+        assertEquals(0, batcher.getRebuildCount());
+        assertEquals(1, batcher.getPatchCount());
+        assertEquals(Arrays.asList("updated 10"), reported);
+    }
+
+    @Test
+    public void moveToAnotherCell_rebuildsTheOldCellOnly() {
+        batcher.put("a", record(0.1f, 0.1f, 1));
+        batcher.put("b", record(0.2f, 0.1f, 1));
+        batcher.put("c", record(5.1f, 0.1f, 1));
+        batcher.flush();
+        reported.clear();
+
+        batcher.put("a", record(5.2f, 0.1f, 1));
+        batcher.flush();
+
+        assertEquals(1, batcher.getRebuildCount());
+        assertEquals(2, batcher.getBatchCount());
+        assertEquals(Arrays.asList("updated 1", "updated 2"), reported);
+
+        batcher.remove("b");
+        batcher.flush();
+        assertEquals(1, batcher.getBatchCount());
+        assertEquals("removed", reported.get(reported.size() - 1));
+    }
+
+    @Test
+    public void untouchedBatches_areNotReported() {
+        batcher.put("a", record(0.1f, 0.1f, 1));
+        batcher.put("b", record(5f, 5f, 1));
+        batcher.flush();
+        reported.clear();
+
+        batcher.put("a", record(0.2f, 0.1f, 1));
+
+        assertEquals(1, batcher.flush());
+        assertEquals(0, batcher.flush());
+    }
+
+    /** After random edits, every batch must equal one built from scratch from its objects. */
+    @Test
+    public void incrementalUpdates_matchAFreshBuild() {
+        Random random = new Random(4);
+        Map<String, AnchorRecord> objects = new HashMap<>();
+        for (int step = 0; step < 5_000; step++) {
+            String id = "a" + random.nextInt(200);
+            int op = random.nextInt(10);
+            if (op == 0) {
+                batcher.remove(id);
+                objects.remove(id);
+            } else if (op == 1 && objects.containsKey(id)) {
+                batcher.setIndividual(id, random.nextBoolean());
+            } else {
+                AnchorRecord record = record(random.nextFloat() * 8, random.nextFloat() * 8, random.nextInt(3));
+                record.shape = ShapeType.values()[random.nextInt(3)];
+                float angle = random.nextFloat() * 6;
+                record.setRotation(0f, (float) Math.sin(angle / 2), 0f, (float) Math.cos(angle / 2));
+                batcher.put(id, record);
+                objects.put(id, record);
+            }
+            if (random.nextInt(20) == 0) {
+                batcher.flush();
+            }
+        }
+
+        Map<String, MeshData> incremental = new HashMap<>();
+        batcher.setListener(new MeshBatcher.Listener() {
+            @Override
+            public void onBatchUpdated(MeshBatcher.Batch batch) {
+                incremental.put(batch.cell + "/" + batch.color, batch.mesh);
+            }
+
+            @Override
+            public void onBatchRemoved(MeshBatcher.Batch batch) {
+            }
+        });
+        batcher.flush();
+        assertTrue(batcher.getPatchCount() > 0 && batcher.getAppendCount() > 0);
+
+        // Touch every batched object so each batch is reported, then compare with a clean batcher
+        MeshBatcher fresh = new MeshBatcher(CELL, this::meshFor);
+        Map<String, MeshData> rebuilt = new HashMap<>();
+        fresh.setListener(new MeshBatcher.Listener() {
+            @Override
+            public void onBatchUpdated(MeshBatcher.Batch batch) {
+                rebuilt.put(batch.cell + "/" + batch.color, batch.mesh);
+            }
+
+            @Override
+            public void onBatchRemoved(MeshBatcher.Batch batch) {
+            }
+        });
+        for (Map.Entry<String, AnchorRecord> e : objects.entrySet()) {
+            if (batcher.isBatched(e.getKey())) {
+                batcher.put(e.getKey(), e.getValue());
+                fresh.put(e.getKey(), e.getValue());
+            }
+        }
+        batcher.flush();
+        fresh.flush();
+
+        assertEquals(rebuilt.keySet(), incremental.keySet());
+        for (String key : rebuilt.keySet()) {
+            MeshData a = incremental.get(key);
+            MeshData b = rebuilt.get(key);
+            assertEquals(b.vertexCount, a.vertexCount);
+            assertEquals(b.indexCount, a.indexCount);
+            assertEquals(sortedTriangles(b), sortedTriangles(a));
+        }
+    }
+
+    /** Triangles as position triples, sorted, so member order inside a batch doesn't matter. */
+    private static List<String> sortedTriangles(MeshData mesh) {
+        List<String> triangles = new ArrayList<>();
+        for (int i = 0; i < mesh.indexCount; i += 3) {
+            StringBuilder sb = new StringBuilder();
+            for (int k = 0; k < 3; k++) {
+                int v = mesh.indices[i + k];
+                sb.append(Math.round(mesh.positions[v * 3] * 1000)).append(',')
+                        .append(Math.round(mesh.positions[v * 3 + 1] * 1000)).append(',')
+                        .append(Math.round(mesh.positions[v * 3 + 2] * 1000)).append(' ');
+            }
+            triangles.add(sb.toString());
+        }
+        triangles.sort(null);
+        return triangles;
+    }
+
+    @Test
+    public void distantBatches_useCoarserLevels() {
+        LodSelector selector = new LodSelector(new float[]{0.5f, 0.2f, 0.08f}, 0.1f);
+        AnchorRecord near = record(0.5f, 0.5f, 1);
+        near.shape = ShapeType.SPHERE;
+        AnchorRecord far = record(0.5f, 60.5f, 1);
+        far.shape = ShapeType.SPHERE;
+        batcher.put("near", near);
+        batcher.put("far", far);
+        batcher.flush();
+
+        List<MeshBatcher.Batch> updated = new ArrayList<>();
+        batcher.setListener(new MeshBatcher.Listener() {
+            @Override
+            public void onBatchUpdated(MeshBatcher.Batch batch) {
+                updated.add(batch);
+            }
+
+            @Override
+            public void onBatchRemoved(MeshBatcher.Batch batch) {
+            }
+        });
+        // Camera at the near cell, looking with a 60 degree vertical field of view
+        float tanHalfFov = (float) Math.tan(Math.toRadians(30));
+        assertEquals(1, batcher.updateLevels(selector, 0.5f, 1f, 0.5f, tanHalfFov));
+        batcher.flush();
+
+        assertEquals(1, updated.size());
+        MeshBatcher.Batch distant = updated.get(0);
+        assertEquals(LodMeshes.LEVEL_COUNT - 1, distant.getLevel());
+        assertEquals(meshFor(far, distant.getLevel()).getTriangleCount(), distant.mesh.getTriangleCount());
+        assertTrue(distant.mesh.getTriangleCount() * 10 < meshFor(far, 0).getTriangleCount());
+
+        // Same camera again: nothing to redo
+        assertEquals(0, batcher.updateLevels(selector, 0.5f, 1f, 0.5f, tanHalfFov));
+        assertEquals(0, batcher.flush());
+    }
+}
@@ -0,0 +1,97 @@
+package com.jtmnf.fcm.messaging;
+
+import com.jtmnf.fcm.util.ManualScheduler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FCM topic service stand-in: each call answers after a fixed latency on the manual clock, and
+ * the next few calls can be made to fail. Keeps the topics the current token is subscribed to;
+ * a new token starts with none, as it does on the real service.
+ */
+public class FakeMessagingBackend implements TopicBackend {
+
+    private final ManualScheduler scheduler;
+    private final long latencyMillis;
+    private final Set<String> subscribed = new HashSet<>();
+    private final Map<String, Integer> callsPerTopic = new HashMap<>();
+    private int failuresLeft;
+    private int running;
+    private int maxRunning;
+    private long subscribes;
+    private long unsubscribes;
+
+    public FakeMessagingBackend(ManualScheduler scheduler, long latencyMillis) {
+        this.scheduler = scheduler;
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public void subscribe(String topic, Callback callback) {
+        subscribes++;
+        call(topic, callback, () -> subscribed.add(topic));
+    }
+
+    @Override
+    public void unsubscribe(String topic, Callback callback) {
+        unsubscribes++;
+        call(topic, callback, () -> subscribed.remove(topic));
+    }
+
+    /** Makes the next calls fail. */
+    public void failNext(int calls) {
+        failuresLeft = calls;
+    }
+
+    /** Hands out a new token, which isn't subscribed to anything. */
+    public void newToken() {
+        subscribed.clear();
+    }
+
+    private void call(String topic, Callback callback, Runnable success) {
+        callsPerTopic.merge(topic, 1, Integer::sum);
+        running++;
+        maxRunning = Math.max(maxRunning, running);
+        boolean fails = failuresLeft > 0;
+        if (fails) {
+            failuresLeft--;
+        }
+        scheduler.schedule(() -> {
+            running--;
+            if (fails) {
+                callback.onComplete(new Exception("SERVICE_NOT_AVAILABLE"));
+            } else {
+                success.run();
+                callback.onComplete(null);
+            }
+        }, latencyMillis);
+    }
+
+    public Set<String> getSubscribed() {
+        return subscribed;
+    }
+
+    public long getCallCount() {
+        return subscribes + unsubscribes;
+    }
+
+    public int getCallCount(String topic) {
+        return callsPerTopic.getOrDefault(topic, 0);
+    }
+
+    public long getSubscribeCount() {
+        return subscribes;
+    }
+
+    public long getUnsubscribeCount() {
+        return unsubscribes;
+    }
+
+    /** Most calls that were ever running at the same time. */
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+}
@@ -0,0 +1,32 @@
+package com.jtmnf.fcm.messaging;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** Keeps what a {@link TopicRegistry} saves, as the preferences file would across launches. */
+public class InMemoryTopicStorage implements TopicStorage {
+
+    private String token;
+    private final Set<String> wanted = new LinkedHashSet<>();
+    private final Set<String> confirmed = new LinkedHashSet<>();
+
+    @Override
+    public String load(Set<String> wanted, Set<String> confirmed) {
+        wanted.addAll(this.wanted);
+        confirmed.addAll(this.confirmed);
+        return token;
+    }
+
+    @Override
+    public void save(String token, Set<String> wanted, Set<String> confirmed) {
+        this.token = token;
+        this.wanted.clear();
+        this.wanted.addAll(wanted);
+        this.confirmed.clear();
+        this.confirmed.addAll(confirmed);
+    }
+
+    public Set<String> getConfirmed() {
+        return confirmed;
+    }
+}
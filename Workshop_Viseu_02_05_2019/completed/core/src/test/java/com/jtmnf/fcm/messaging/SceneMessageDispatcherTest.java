@@ -0,0 +1,219 @@
+package com.jtmnf.fcm.messaging;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SceneMessageDispatcherTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    // Stands in for the main looper: tasks only run when the test runs a "frame"
+    private final ConcurrentLinkedQueue<Runnable> mainThread = new ConcurrentLinkedQueue<>();
+    private final List<String> applied = new ArrayList<>();
+    private SceneMessageDispatcher dispatcher;
+
+    @After
+    public void shutDown() {
+        dispatcher.shutdown();
+    }
+
+    private void create(int queueCapacity, int maxPending) {
+        dispatcher = new SceneMessageDispatcher(mainThread::add, queueCapacity, maxPending);
+        dispatcher.setListener(events -> {
+            for (SceneEvent event : events) {
+                applied.add(event.type == SceneEvent.Type.PUT
+                        ? event.anchorId + "=" + (long) event.record.px
+                        : event.anchorId + " removed");
+            }
+        });
+    }
+
+    static Map<String, String> put(AnchorCodec codec, String anchorId, long value) {
+        AnchorRecord record = new AnchorRecord().setPosition(value, 0, 0).setSize(0.2f, 0.2f, 0.2f);
+        record.timestamp = value;
+        Map<String, String> data = new HashMap<>();
+        data.put(SceneMessageParser.KEY_OP, SceneMessageParser.OP_PUT);
+        data.put(SceneMessageParser.KEY_ID, anchorId);
+        data.put(SceneMessageParser.KEY_VALUE, codec.toBase64(record));
+        return data;
+    }
+
+    static Map<String, String> remove(String anchorId) {
+        Map<String, String> data = new HashMap<>();
+        data.put(SceneMessageParser.KEY_OP, SceneMessageParser.OP_REMOVE);
+        data.put(SceneMessageParser.KEY_ID, anchorId);
+        return data;
+    }
+
+    /** Waits until the parser has seen this many messages. */
+    private void awaitReceived(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (dispatcher.getReceivedCount() < count) {
+            assertTrue("parser stalled at " + dispatcher.getReceivedCount(), System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /** Runs the main-thread tasks queued before the frame started; returns how many there were. */
+    private int runFrame() {
+        int tasks = mainThread.size();
+        for (int i = 0; i < tasks; i++) {
+            mainThread.poll().run();
+        }
+        return tasks;
+    }
+
+    @Test
+    public void burstOnOneAnchor_isDeliveredAsItsLatestState() throws InterruptedException {
+        create(64, 64);
+        AnchorCodec codec = new AnchorCodec();
+        for (int i = 1; i <= 10; i++) {
+            dispatcher.offer(put(codec, "a", i));
+        }
+        dispatcher.offer(put(codec, "b", 1));
+        awaitReceived(11);
+
+        assertEquals(1, runFrame());
+        assertEquals("[a=10, b=1]", applied.toString());
+        assertEquals(9, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void removeAfterPut_winsWithinAFrame() throws InterruptedException {
+        create(64, 64);
+        AnchorCodec codec = new AnchorCodec();
+        dispatcher.offer(put(codec, "a", 1));
+        dispatcher.offer(remove("a"));
+        awaitReceived(2);
+
+        runFrame();
+        assertEquals("[a removed]", applied.toString());
+    }
+
+    @Test
+    public void malformedMessages_areCountedAndDropped() throws InterruptedException {
+        create(64, 64);
+        Map<String, String> unknownOp = remove("a");
+        unknownOp.put(SceneMessageParser.KEY_OP, "explode");
+        Map<String, String> badValue = remove("b");
+        badValue.put(SceneMessageParser.KEY_OP, SceneMessageParser.OP_PUT);
+        badValue.put(SceneMessageParser.KEY_VALUE, "Node(com.google.ar.sceneform.ux.TransformableNode@5c0a8d1)");
+        dispatcher.offer(unknownOp);
+        dispatcher.offer(badValue);
+        dispatcher.offer(new HashMap<>());
+        awaitReceived(3);
+
+        assertEquals(0, runFrame());
+        assertEquals(3, dispatcher.getRejectedCount());
+    }
+
+    @Test
+    public void stalledMainThread_blocksTheSender() throws InterruptedException {
+        int queueCapacity = 16;
+        int maxPending = 32;
+        create(queueCapacity, maxPending);
+        AnchorCodec codec = new AnchorCodec();
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < 10_000; i++) {
+                    dispatcher.offer(put(codec, "anchor" + i, i));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sender.start();
+        awaitReceived(maxPending);
+        Thread.sleep(100);
+
+        // Nothing ran on the main thread: the parser holds one event, the queue is full, and the
+        // sender is stuck in offer
+        assertTrue(sender.isAlive());
+        assertEquals(maxPending + 1, dispatcher.getReceivedCount());
+        assertEquals(1, mainThread.size());
+
+        // Frames let it make progress again
+        while (sender.isAlive() || dispatcher.getReceivedCount() < 10_000) {
+            runFrame();
+            Thread.sleep(1);
+        }
+        sender.join();
+        runFrame();
+        assertEquals(10_000, applied.size());
+    }
+
+    /**
+     * 100k updates to 1,000 anchors from a sender thread while the test plays the main thread.
+     * Checks that each anchor's updates arrive in order and end on the last value sent, that
+     * batches never exceed the pending limit, and that the main thread got one task per frame.
+     */
+    @Test
+    public void flood_keepsOrderAndBoundsAndFinishesQuickly() throws InterruptedException {
+        int messages = 100_000;
+        int anchors = 1_000;
+        int maxPending = 256;
+        dispatcher = new SceneMessageDispatcher(mainThread::add, 1024, maxPending);
+        long[] lastSeen = new long[anchors];
+        int[] largestBatch = {0};
+        dispatcher.setListener(events -> {
+            largestBatch[0] = Math.max(largestBatch[0], events.size());
+            for (SceneEvent event : events) {
+                int anchor = Integer.parseInt(event.anchorId.substring(1));
+                long value = event.record.timestamp;
+                assertTrue(event.anchorId + " went from " + lastSeen[anchor] + " to " + value,
+                        value > lastSeen[anchor]);
+                lastSeen[anchor] = value;
+            }
+        });
+        // Built up front so the measurement is the dispatcher, not base64 encoding
+        AnchorCodec codec = new AnchorCodec();
+        List<Map<String, String>> payloads = new ArrayList<>(messages);
+        for (int i = 1; i <= messages; i++) {
+            payloads.add(put(codec, "a" + (i * 7919 % anchors), i));
+        }
+
+        long start = System.nanoTime();
+        Thread sender = new Thread(() -> {
+            try {
+                for (Map<String, String> payload : payloads) {
+                    dispatcher.offer(payload);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sender.start();
+        int frames = 0;
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (dispatcher.getReceivedCount() < messages || !mainThread.isEmpty()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            int tasks = runFrame();
+            assertTrue(tasks <= 1);
+            frames += tasks;
+            Thread.yield();
+        }
+        long elapsed = System.nanoTime() - start;
+        sender.join();
+
+        for (int i = messages - anchors + 1; i <= messages; i++) {
+            assertEquals(i, lastSeen[i * 7919 % anchors]);
+        }
+        assertTrue(largestBatch[0] <= maxPending);
+        assertEquals(frames, dispatcher.getBatchCount());
+        assertEquals(messages, dispatcher.getDeliveredCount() + dispatcher.getCoalescedCount());
+        assertTrue("took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms", elapsed < TimeUnit.SECONDS.toNanos(5));
+    }
+}
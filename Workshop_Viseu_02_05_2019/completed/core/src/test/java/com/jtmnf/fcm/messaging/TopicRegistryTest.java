@@ -0,0 +1,277 @@
+package com.jtmnf.fcm.messaging;
+
+import com.jtmnf.fcm.util.ManualScheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopicRegistryTest {
+
+    private static final long WINDOW = 50;
+    private static final long LATENCY = 200;
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final FakeMessagingBackend backend = new FakeMessagingBackend(scheduler, LATENCY);
+    private final InMemoryTopicStorage storage = new InMemoryTopicStorage();
+
+    /** A new registry reading the shared storage, as each launch of the app makes. */
+    private TopicRegistry launch(int maxInFlight, int maxAttempts) {
+        return new TopicRegistry(backend, storage, scheduler, WINDOW, maxInFlight, maxAttempts, 1000, 8000,
+                new Random(42));
+    }
+
+    private TopicRegistry launch() {
+        return launch(4, 3);
+    }
+
+    @Test
+    public void launchesWantingTheSameTopics_subscribeOnlyOnce() {
+        List<String> topics = Arrays.asList("room_lobby", "announcements", "room_lobby_transforms");
+        long avoided = 0;
+        int launches = 10;
+        for (int i = 0; i < launches; i++) {
+            TopicRegistry registry = launch();
+            registry.setToken("token");
+            registry.setTopics(topics);
+            scheduler.advance(WINDOW + LATENCY);
+            assertEquals(0, registry.getPendingCount());
+            avoided += registry.getAvoidedCount();
+        }
+
+        // Subscribing at every launch would have made a call per topic each time
+        assertEquals(topics.size(), backend.getCallCount());
+        assertEquals((launches - 1) * topics.size(), avoided);
+        assertEquals(new HashSet<>(topics), backend.getSubscribed());
+    }
+
+    @Test
+    public void changingTheTopics_sendsOnlyTheDifference() {
+        TopicRegistry registry = launch();
+        registry.setToken("token");
+        registry.setTopics(Arrays.asList("a", "b", "c"));
+        scheduler.advance(WINDOW + LATENCY);
+
+        registry = launch();
+        registry.setTopics(Arrays.asList("b", "c", "d"));
+        scheduler.advance(WINDOW + LATENCY);
+
+        assertEquals(4, backend.getSubscribeCount());
+        assertEquals(1, backend.getUnsubscribeCount());
+        assertEquals(2, registry.getAvoidedCount());
+        assertEquals(new HashSet<>(Arrays.asList("b", "c", "d")), backend.getSubscribed());
+        assertEquals(backend.getSubscribed(), storage.getConfirmed());
+    }
+
+    @Test
+    public void topicDroppedInsideTheWindow_isNeverSent() {
+        TopicRegistry registry = launch();
+        registry.setToken("token");
+        registry.subscribe("a");
+        registry.subscribe("b");
+        scheduler.advance(WINDOW / 2);
+        registry.unsubscribe("b");
+        scheduler.advance(WINDOW + LATENCY);
+
+        assertEquals(1, backend.getCallCount());
+        assertEquals(0, backend.getCallCount("b"));
+        assertEquals(1, registry.getAvoidedCount());
+        assertTrue(registry.isConfirmed("a"));
+    }
+
+    @Test
+    public void changesWithinOneWindow_goOutTogether() {
+        TopicRegistry registry = launch();
+        registry.setToken("token");
+        scheduler.advance(WINDOW + LATENCY);
+        registry.subscribe("a");
+        scheduler.advance(WINDOW / 2);
+        registry.subscribe("b");
+        assertEquals(0, backend.getCallCount());
+
+        scheduler.advance(WINDOW / 2);
+        assertEquals(2, backend.getCallCount());
+        assertEquals(2, backend.getMaxRunning());
+    }
+
+    @Test
+    public void aNewToken_subscribesEverythingAgain() {
+        TopicRegistry registry = launch();
+        registry.setToken("token");
+        registry.setTopics(Arrays.asList("a", "b"));
+        scheduler.advance(WINDOW + LATENCY);
+
+        backend.newToken();
+        registry = launch();
+        registry.setToken("refreshed");
+        scheduler.advance(LATENCY);
+
+        assertEquals(4, backend.getSubscribeCount());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), backend.getSubscribed());
+        assertEquals("refreshed", launch().getToken());
+    }
+
+    @Test
+    public void answerForAReplacedToken_isIgnored() {
+        TopicRegistry registry = launch();
+        registry.setToken("token");
+        registry.subscribe("a");
+        scheduler.advance(WINDOW + LATENCY / 2);
+        assertEquals(1, registry.getInFlightCount());
+
+        // The first answer is for the old token, and doesn't count for the new one
+        registry.setToken("refreshed");
+        assertEquals(2, backend.getCallCount());
+        scheduler.advance(LATENCY / 2);
+        assertFalse(registry.isConfirmed("a"));
+        scheduler.advance(LATENCY / 2);
+        assertTrue(registry.isConfirmed("a"));
+        assertEquals(0, registry.getInFlightCount());
+    }
+
+    @Test
+    public void failedCall_isRetriedAfterAJitteredBackoff() {
+        TopicRegistry registry = launch(4, 5);
+        registry.setToken("token");
+        backend.failNext(2);
+        registry.subscribe("a");
+        scheduler.advance(WINDOW + LATENCY);
+        assertEquals(1, backend.getCallCount());
+
+        // The first retry comes after 500 to 1000 ms, the second after 1000 to 2000
+        scheduler.advance(499);
+        assertEquals(1, backend.getCallCount());
+        scheduler.advance(501 + LATENCY);
+        assertEquals(2, backend.getCallCount());
+        scheduler.advance(999);
+        assertEquals(2, backend.getCallCount());
+        scheduler.advance(1001 + LATENCY);
+
+        assertEquals(3, backend.getCallCount());
+        assertEquals(2, registry.getRetryCount());
+        assertTrue(registry.isConfirmed("a"));
+    }
+
+    @Test
+    public void backoff_growsUpToTheMaximum() {
+        TopicRegistry registry = launch();
+        for (int attempts = 1; attempts <= 8; attempts++) {
+            long cap = Math.min(1000L << (attempts - 1), 8000);
+            for (int i = 0; i < 100; i++) {
+                long delay = registry.backoffMillis(attempts);
+                assertTrue(delay + " for " + attempts, delay >= cap / 2 && delay <= cap);
+            }
+        }
+    }
+
+    @Test
+    public void topicThatRanOutOfAttempts_waitsForRetryFailed() {
+        TopicRegistry registry = launch(4, 2);
+        registry.setToken("token");
+        backend.failNext(2);
+        registry.subscribe("a");
+        scheduler.advance(10_000);
+
+        assertEquals(2, backend.getCallCount());
+        assertEquals(1, registry.getFailureCount());
+        assertEquals(1, registry.getPendingCount());
+
+        registry.subscribe("b");
+        scheduler.advance(WINDOW + LATENCY);
+        assertEquals(2, backend.getCallCount("a"));
+
+        registry.retryFailed();
+        scheduler.advance(LATENCY);
+        assertTrue(registry.isConfirmed("a"));
+        assertEquals(0, registry.getPendingCount());
+    }
+
+    @Test
+    public void topicDroppedWhileBackingOff_isNotRetried() {
+        TopicRegistry registry = launch();
+        registry.setToken("token");
+        backend.failNext(1);
+        registry.subscribe("a");
+        scheduler.advance(WINDOW + LATENCY);
+        registry.unsubscribe("a");
+        scheduler.advance(10_000);
+
+        assertEquals(1, backend.getCallCount());
+        assertEquals(0, registry.getRetryCount());
+        assertEquals(0, registry.getPendingCount());
+    }
+
+    @Test
+    public void unfinishedChanges_goOutOnTheNextLaunch() {
+        TopicRegistry registry = launch(4, 1);
+        registry.setToken("token");
+        backend.failNext(1);
+        registry.subscribe("a");
+        scheduler.advance(WINDOW + LATENCY);
+        assertFalse(registry.isConfirmed("a"));
+
+        // Nobody asks for anything this time; what was wanted is still saved
+        registry = launch();
+        scheduler.advance(WINDOW + LATENCY);
+
+        assertTrue(registry.isConfirmed("a"));
+        assertEquals(2, backend.getCallCount());
+    }
+
+    @Test
+    public void callsInFlight_areBounded() {
+        TopicRegistry registry = launch(3, 3);
+        registry.setToken("token");
+        List<String> topics = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            topics.add("topic" + i);
+        }
+        registry.setTopics(topics);
+        scheduler.advance(WINDOW);
+        assertEquals(3, registry.getInFlightCount());
+
+        scheduler.advance(4 * LATENCY);
+        assertEquals(3, backend.getMaxRunning());
+        assertEquals(10, backend.getCallCount());
+        assertEquals(0, registry.getPendingCount());
+    }
+
+    @Test
+    public void nothingIsCalled_beforeATokenIsKnown() {
+        TopicRegistry registry = launch();
+        registry.subscribe("a");
+        scheduler.advance(WINDOW + LATENCY);
+        assertEquals(0, backend.getCallCount());
+
+        registry.setToken("token");
+        scheduler.advance(LATENCY);
+        assertTrue(registry.isConfirmed("a"));
+    }
+
+    @Test
+    public void sameTokenAgain_changesNothing() {
+        TopicRegistry registry = launch();
+        registry.setToken("token");
+        registry.subscribe("a");
+        scheduler.advance(WINDOW + LATENCY);
+        long saves = registry.getSaveCount();
+
+        registry.setToken("token");
+        scheduler.advance(WINDOW + LATENCY);
+        assertEquals(1, backend.getCallCount());
+        assertEquals(saves, registry.getSaveCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void namesFcmWouldReject_areRejected() {
+        launch().subscribe("room lobby");
+    }
+}
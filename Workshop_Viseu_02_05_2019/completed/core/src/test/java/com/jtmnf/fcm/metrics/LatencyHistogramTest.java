@@ -0,0 +1,114 @@
+package com.jtmnf.fcm.metrics;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueOnce() {
+        assertEquals(0, LatencyHistogram.lowerBound(0));
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            long lower = LatencyHistogram.lowerBound(bucket);
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lower));
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper));
+            assertEquals(upper + 1, LatencyHistogram.lowerBound(bucket + 1));
+            // Bucket width is at most 1/8 of its values
+            assertTrue(upper - lower <= lower / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal-ish, like frame and network latencies
+            values[i] = (long) Math.exp(13 + random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999, 1.0}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long reported = snapshot.getValueAt(quantile);
+            assertTrue(quantile + ": " + reported + " < " + exact, reported >= exact);
+            assertTrue(quantile + ": " + reported + " vs " + exact, reported <= exact + exact / 8);
+        }
+    }
+
+    @Test
+    public void empty_reportsZero() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram("test").snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAt(0.99));
+        assertEquals(0.0, snapshot.getMean(), 0.0);
+    }
+
+    @Test
+    public void reset_forgetsSamples() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(5_000_000);
+        histogram.reset();
+        histogram.record(10);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(10, snapshot.getMax());
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long base = t * 1000L;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 250_000; i++) {
+                    histogram.record(base + i % 1000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1_000_000, snapshot.getCount());
+        assertEquals(3999, snapshot.getMax());
+    }
+
+    @Test
+    public void record_doesNotAllocate() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // Warm up so class loading and JIT don't show up in the measurement
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(i * 31L);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(i * 31L);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(200_000, histogram.getCount());
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
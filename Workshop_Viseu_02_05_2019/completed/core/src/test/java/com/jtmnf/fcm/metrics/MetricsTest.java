@@ -0,0 +1,46 @@
+package com.jtmnf.fcm.metrics;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void lookups_returnTheSameMetric() {
+        Metrics metrics = new Metrics();
+        assertSame(metrics.counter("taps"), metrics.counter("taps"));
+        assertSame(metrics.histogram("frame"), metrics.histogram("frame"));
+    }
+
+    @Test
+    public void json_containsEveryMetric() {
+        Metrics metrics = new Metrics();
+        metrics.counter("taps").add(3);
+        LatencyHistogram frame = metrics.histogram("frame");
+        frame.record(1000);
+        frame.record(3000);
+        metrics.histogram("sync \"ack\"");
+
+        assertEquals("{\"counters\":{\"taps\":3},\"histograms\":{"
+                        + "\"frame\":{\"count\":2,\"mean\":2000.0,\"p50\":1023,\"p90\":3000,\"p99\":3000,\"p999\":3000,\"max\":3000},"
+                        + "\"sync \\\"ack\\\"\":{\"count\":0,\"mean\":0.0,\"p50\":0,\"p90\":0,\"p99\":0,\"p999\":0,\"max\":0}}}",
+                metrics.toJson());
+    }
+
+    @Test
+    public void lines_reportMilliseconds() {
+        Metrics metrics = new Metrics();
+        metrics.histogram("frame").record(16_000_000);
+        metrics.counter("taps").increment();
+
+        List<String> lines = metrics.toLines();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("frame: n=1 mean=16.000 "));
+        assertEquals("taps: 1", lines.get(1));
+    }
+}
@@ -0,0 +1,96 @@
+package com.jtmnf.fcm.paging;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CellPartitionedStoreTest {
+
+    private final InMemoryCellDatabase database = new InMemoryCellDatabase(10f);
+    private final CellPartitionedStore store = new CellPartitionedStore(database, 10f);
+    private final AnchorCodec codec = new AnchorCodec();
+    private final Exception[] result = {new Exception("not called")};
+
+    private void write(String anchorId, Object value) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put(anchorId, value);
+        store.updateChildren(updates, error -> result[0] = error);
+    }
+
+    private String at(float x, float z) {
+        return codec.toBase64(new AnchorRecord().setPosition(x, 1, z));
+    }
+
+    @Test
+    public void anchors_goUnderTheirCell() {
+        write("a", at(-3, 25));
+
+        assertNull(result[0]);
+        assertTrue(database.cell("c-1_2").getData().containsKey("a"));
+        assertEquals("c-1_2", store.getCellKey("a"));
+    }
+
+    @Test
+    public void movingToAnotherCell_deletesTheOldEntry_inTheSameWrite() {
+        write("a", at(5, 5));
+        write("a", at(15, 5));
+
+        assertFalse(database.cell("c0_0").getData().containsKey("a"));
+        assertTrue(database.cell("c1_0").getData().containsKey("a"));
+        assertEquals(2, database.getCallCount());
+        assertEquals(1, store.getMoveCount());
+    }
+
+    @Test
+    public void removal_deletesFromTheLastCell() {
+        write("a", at(5, 5));
+        write("a", null);
+
+        assertTrue(database.cell("c0_0").getData().isEmpty());
+        assertNull(store.getCellKey("a"));
+    }
+
+    @Test
+    public void removalOfAnUnknownAnchor_isLeftOut_andFails() {
+        write("a", at(5, 5));
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("unknown", null);
+        updates.put("b", at(5, 5));
+        store.updateChildren(updates, error -> result[0] = error);
+
+        assertTrue(result[0] instanceof IllegalStateException);
+        assertTrue(database.cell("c0_0").getData().containsKey("b"));
+        assertEquals(1, store.getUnlocatedCount());
+
+        store.updateChildren(Collections.singletonMap("unknown", null), error -> result[0] = error);
+        assertTrue(result[0] instanceof IllegalStateException);
+        assertEquals(2, database.getCallCount());
+    }
+
+    @Test
+    public void anchorsFromAnEarlierSession_areFoundThroughTheLocator() {
+        database.cell("c0_0").setChild("old", at(5, 5));
+        database.cell("c0_0").setChild("gone", at(6, 6));
+        store.setLocator(anchorId -> "c0_0");
+
+        write("old", at(15, 5));
+        assertNull(result[0]);
+        write("gone", null);
+        assertNull(result[0]);
+
+        assertTrue(database.cell("c0_0").getData().isEmpty());
+        assertTrue(database.cell("c1_0").getData().containsKey("old"));
+        assertEquals(1, store.getMoveCount());
+        assertEquals(0, store.getUnlocatedCount());
+    }
+}
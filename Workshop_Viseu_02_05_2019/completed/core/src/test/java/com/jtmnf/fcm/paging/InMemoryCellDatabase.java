@@ -0,0 +1,94 @@
+package com.jtmnf.fcm.paging;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorEventSource;
+import com.jtmnf.fcm.sync.AnchorStore;
+import com.jtmnf.fcm.sync.InMemoryAnchorStore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for an "Anchor" node split into cells: one {@link InMemoryAnchorStore} per cell key.
+ * Writes take "cell/anchorId" paths, like a multi-path updateChildren, and are acknowledged at
+ * once; the cell's listeners hear about them the same way.
+ */
+public class InMemoryCellDatabase implements ProximityPager.CellSources, AnchorStore {
+
+    private final Map<String, InMemoryAnchorStore> cells = new HashMap<>();
+    private final AnchorCodec codec = new AnchorCodec();
+    private final float cellSize;
+    private int keys;
+    private long opens;
+    private long calls;
+
+    public InMemoryCellDatabase(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /** Fills in an anchor directly, as if another device had placed it. */
+    public void put(String anchorId, AnchorRecord record) {
+        String cellKey = RoomCells.key(RoomCells.cellOf(record.px, record.pz, cellSize));
+        cell(cellKey).setChild(anchorId, codec.toBase64(record));
+    }
+
+    public InMemoryAnchorStore cell(String cellKey) {
+        InMemoryAnchorStore cell = cells.get(cellKey);
+        if (cell == null) {
+            cell = new InMemoryAnchorStore();
+            cells.put(cellKey, cell);
+        }
+        return cell;
+    }
+
+    @Override
+    public AnchorEventSource open(String cellKey) {
+        opens++;
+        return cell(cellKey);
+    }
+
+    @Override
+    public String newKey() {
+        return String.format("-key%06d", keys++);
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> updates, Callback callback) {
+        calls++;
+        for (Map.Entry<String, Object> e : updates.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            InMemoryAnchorStore cell = cell(path.substring(0, slash));
+            String anchorId = path.substring(slash + 1);
+            if (e.getValue() == null) {
+                cell.removeChild(anchorId);
+            } else {
+                cell.setChild(anchorId, e.getValue());
+            }
+        }
+        callback.onComplete(null);
+    }
+
+    /** Listeners attached to any cell right now. */
+    public int getListenerCount() {
+        int count = 0;
+        for (InMemoryAnchorStore cell : cells.values()) {
+            count += cell.getListenerCount();
+        }
+        return count;
+    }
+
+    /** Number of cell subscriptions opened. */
+    public long getOpenCount() {
+        return opens;
+    }
+
+    public long getCallCount() {
+        return calls;
+    }
+
+    public int getCellCount() {
+        return cells.size();
+    }
+}
@@ -0,0 +1,71 @@
+package com.jtmnf.fcm.paging;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParkedAnchorsTest {
+
+    private static final float CELL = 10f;
+
+    private final InMemoryCellDatabase database = new InMemoryCellDatabase(CELL);
+    private final AnchorSyncEngine engine = new AnchorSyncEngine();
+    private final ProximityPager pager = new ProximityPager(database, CELL, 0, 1);
+    private final ParkedAnchors parked = new ParkedAnchors(CELL);
+
+    private static AnchorRecord record(float x, float z) {
+        return new AnchorRecord().setPosition(x, 0, z);
+    }
+
+    @Test
+    public void parkedAnchors_waitForTheirCell() {
+        engine.start(pager);
+        parked.park("near", record(2, 2));
+        parked.park("far", record(52, 2));
+        pager.update(5, 5);
+
+        assertEquals(1, parked.restoreLoaded(pager, engine));
+        assertNotNull(engine.get("near"));
+        assertNull(engine.get("far"));
+        assertEquals(1, parked.size());
+
+        pager.update(55, 5);
+        assertEquals(1, parked.restoreLoaded(pager, engine));
+        assertNull(engine.get("near"));
+        assertNotNull(engine.get("far"));
+        assertTrue(parked.isEmpty());
+    }
+
+    @Test
+    public void anchorTheCellAlreadySent_keepsTheServersVersion() {
+        database.put("a", record(3, 3));
+        engine.start(pager);
+        parked.park("a", record(2, 2));
+        pager.update(5, 5);
+
+        assertEquals(0, parked.restoreLoaded(pager, engine));
+        assertEquals(3f, engine.get("a").px, 0f);
+        assertTrue(parked.isEmpty());
+    }
+
+    @Test
+    public void parkingAgain_keepsTheLatestRecord() {
+        engine.start(pager);
+        AnchorRecord record = record(2, 2);
+        parked.park("a", record);
+        record.setPosition(4, 0, 4);
+        parked.park("a", record);
+        record.setPosition(8, 0, 8);
+        pager.update(5, 5);
+
+        parked.restoreLoaded(pager, engine);
+        assertEquals(4f, engine.get("a").px, 0f);
+        assertEquals(0, parked.size());
+    }
+}
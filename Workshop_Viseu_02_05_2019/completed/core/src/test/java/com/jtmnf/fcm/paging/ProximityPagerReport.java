@@ -0,0 +1,122 @@
+package com.jtmnf.fcm.paging;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.scene.AnchorRegistry;
+import com.jtmnf.fcm.spatial.AnchorSpatialIndex;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+import com.jtmnf.fcm.sync.InMemoryAnchorStore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A walk across a 100k-anchor room, 400m x 400m, corner to corner at walking pace and 60 frames
+ * a second. Compares loading the whole room at once with {@link ProximityPager}: how long the
+ * initial load and each page-in take (decode and scene updates; the network isn't modeled), and
+ * the heap held by the replica, spatial index and scene model. The JMH ProximityPagerBenchmark
+ * times a frame of the same walk.
+ *
+ * <p>./gradlew :core:report -PreportClass=com.jtmnf.fcm.paging.ProximityPagerReport
+ */
+public final class ProximityPagerReport {
+
+    private static final int ANCHORS = 100_000;
+    private static final float ROOM = 400f;
+    private static final float CELL = 8f;
+    private static final int RADIUS = 2;
+    private static final int MAX_CELLS = 36;
+    private static final float STEP = 1.4f / 60;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        AnchorCodec codec = new AnchorCodec();
+        AnchorRecord record = new AnchorRecord();
+        InMemoryCellDatabase cells = new InMemoryCellDatabase(CELL);
+        InMemoryAnchorStore flat = new InMemoryAnchorStore();
+        for (int i = 0; i < ANCHORS; i++) {
+            record.setPosition(random.nextFloat() * ROOM, random.nextFloat() * 2, random.nextFloat() * ROOM);
+            record.timestamp = i;
+            String anchorId = String.format("-a%06d", i);
+            cells.put(anchorId, record);
+            flat.setChild(anchorId, codec.toBase64(record));
+        }
+        System.out.printf("%-48s %12d anchors in %d cells of %.0fm%n", "room", ANCHORS, cells.getCellCount(), CELL);
+
+        long baseline = usedHeap();
+        Scene whole = new Scene();
+        long start = System.nanoTime();
+        whole.engine.start(flat);
+        System.out.printf("%-48s %12.1f ms%n", "whole room: initial load", (System.nanoTime() - start) / 1e6);
+        System.out.printf("%-48s %12.1f MB, %d anchors%n", "whole room: heap",
+                (usedHeap() - baseline) / 1e6, whole.engine.size());
+        whole.engine.stop();
+        whole = null;
+
+        baseline = usedHeap();
+        Scene paged = new Scene();
+        ProximityPager pager = new ProximityPager(cells, CELL, RADIUS, MAX_CELLS);
+        paged.engine.start(pager);
+        start = System.nanoTime();
+        pager.update(1, 1);
+        System.out.printf("%-48s %12.1f ms, %d anchors%n", "paged: initial load",
+                (System.nanoTime() - start) / 1e6, pager.getLoadedAnchorCount());
+
+        int frames = (int) (ROOM * Math.sqrt(2) / STEP);
+        long[] cellChanges = new long[frames];
+        int changes = 0;
+        int peakAnchors = 0;
+        long peakHeap = 0;
+        float step = (float) (STEP / Math.sqrt(2));
+        long walkNanos = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            float p = 1 + frame * step;
+            long t = System.nanoTime();
+            boolean changed = pager.update(p, p);
+            t = System.nanoTime() - t;
+            walkNanos += t;
+            if (changed) {
+                cellChanges[changes++] = t;
+                peakAnchors = Math.max(peakAnchors, pager.getLoadedAnchorCount());
+                if (changes % 10 == 0) {
+                    peakHeap = Math.max(peakHeap, usedHeap() - baseline);
+                }
+            }
+        }
+        long[] sorted = Arrays.copyOf(cellChanges, changes);
+        Arrays.sort(sorted);
+        System.out.printf("%-48s %12d frames, %d cell changes, %.1f s walked%n", "paged: walk",
+                frames, changes, frames / 60.0);
+        System.out.printf("%-48s %12.3f ms median, %.3f ms p99, %.3f ms max%n", "paged: update on a cell change",
+                sorted[changes / 2] / 1e6, sorted[changes * 99 / 100] / 1e6, sorted[changes - 1] / 1e6);
+        System.out.printf("%-48s %12.1f ns/frame%n", "paged: update, all frames", walkNanos / (double) frames);
+        System.out.printf("%-48s %12d cells peak, %d page-ins, %d page-outs%n", "paged: subscriptions",
+                pager.getPeakCellCount(), pager.getPageInCount(), pager.getPageOutCount());
+        System.out.printf("%-48s %12d anchors peak, %d unloaded%n", "paged: loaded",
+                peakAnchors, pager.getUnloadedAnchorCount());
+        System.out.printf("%-48s %12.1f MB peak%n", "paged: heap", peakHeap / 1e6);
+        if (paged.engine.size() != pager.getLoadedAnchorCount()) {
+            throw new IllegalStateException("replica out of step with the loaded cells");
+        }
+    }
+
+    /** What MainActivity keeps per anchor, minus the nodes. */
+    private static final class Scene {
+        final AnchorSyncEngine engine = new AnchorSyncEngine();
+        final AnchorSpatialIndex spatialIndex = new AnchorSpatialIndex(0.2f);
+        final AnchorRegistry sceneModel = new AnchorRegistry(256);
+
+        Scene() {
+            engine.addSceneListener(spatialIndex);
+            engine.addSceneListener(sceneModel);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,211 @@
+package com.jtmnf.fcm.paging;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProximityPagerTest {
+
+    private static final float CELL = 10f;
+
+    private final InMemoryCellDatabase database = new InMemoryCellDatabase(CELL);
+    private final AnchorSyncEngine engine = new AnchorSyncEngine();
+    private final List<String> removed = new ArrayList<>();
+    private final List<String> unloaded = new ArrayList<>();
+
+    private ProximityPager create(int radius, int maxCells) {
+        ProximityPager pager = new ProximityPager(database, CELL, radius, maxCells);
+        engine.addSceneListener(new AnchorSyncEngine.SceneListener() {
+            @Override
+            public void onAnchorAdded(String anchorId, AnchorRecord record) {
+            }
+
+            @Override
+            public void onAnchorChanged(String anchorId, AnchorRecord record) {
+            }
+
+            @Override
+            public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+                removed.add(anchorId);
+            }
+
+            @Override
+            public void onAnchorUnloaded(String anchorId, AnchorRecord record) {
+                unloaded.add(anchorId);
+            }
+        });
+        engine.start(pager);
+        return pager;
+    }
+
+    /** One anchor in the middle of each cell of a 20 x 20 grid starting at the origin. */
+    private void fillGrid() {
+        for (int x = 0; x < 20; x++) {
+            for (int z = 0; z < 20; z++) {
+                database.put(id(x, z), record(x * CELL + 5, z * CELL + 5));
+            }
+        }
+    }
+
+    private static String id(int cellX, int cellZ) {
+        return "a" + cellX + "_" + cellZ;
+    }
+
+    private static AnchorRecord record(float x, float z) {
+        return new AnchorRecord().setPosition(x, 0, z);
+    }
+
+    @Test
+    public void onlyCellsAroundTheUser_areLoaded() {
+        fillGrid();
+        ProximityPager pager = create(1, 16);
+
+        assertTrue(pager.update(55, 55));
+
+        assertEquals(9, pager.getLoadedCellCount());
+        assertEquals(9, engine.size());
+        assertNotNull(engine.get(id(4, 6)));
+        assertNull(engine.get(id(3, 5)));
+        assertEquals(9, database.getListenerCount());
+        assertEquals("c5_5", pager.getCellKey(id(5, 5)));
+    }
+
+    @Test
+    public void stayingInTheSameCell_doesNothing() {
+        fillGrid();
+        ProximityPager pager = create(1, 16);
+        pager.update(55, 55);
+
+        assertFalse(pager.update(59, 51));
+        assertEquals(9, database.getOpenCount());
+    }
+
+    @Test
+    public void walking_pagesCellsInAndOut_asUnloads() {
+        fillGrid();
+        ProximityPager pager = create(1, 9);
+        pager.update(55, 55);
+
+        // Two cells east: the west column is three rings away
+        pager.update(75, 55);
+
+        assertEquals(9, pager.getLoadedCellCount());
+        assertNull(engine.get(id(4, 5)));
+        assertNotNull(engine.get(id(8, 5)));
+        assertEquals(6, unloaded.size());
+        assertTrue(removed.isEmpty());
+        assertEquals(9, database.getListenerCount());
+    }
+
+    @Test
+    public void crossingACellBorderBackAndForth_keepsTheSubscriptions() {
+        fillGrid();
+        ProximityPager pager = create(1, 16);
+        pager.update(55, 55);
+        pager.update(65, 55);
+        long opened = database.getOpenCount();
+
+        for (int i = 0; i < 10; i++) {
+            pager.update(59, 55);
+            pager.update(61, 55);
+        }
+
+        assertEquals(opened, database.getOpenCount());
+        assertEquals(12, pager.getLoadedCellCount());
+        assertTrue(unloaded.isEmpty());
+    }
+
+    @Test
+    public void theCellCap_holdsOnALongWalk() {
+        fillGrid();
+        ProximityPager pager = create(2, 30);
+
+        for (float x = 0; x < 200; x += 1.5f) {
+            pager.update(x, x * 0.7f);
+            assertTrue(pager.getLoadedCellCount() <= 30);
+            assertEquals(pager.getLoadedCellCount(), database.getListenerCount());
+        }
+
+        assertEquals(30, pager.getPeakCellCount());
+        assertEquals(pager.getLoadedAnchorCount(), engine.size());
+    }
+
+    @Test
+    public void changesInLoadedCells_arrive_othersDont() {
+        fillGrid();
+        ProximityPager pager = create(0, 1);
+        pager.update(5, 5);
+        String near = new AnchorCodec().toBase64(record(2, 2));
+        String far = new AnchorCodec().toBase64(record(102, 102));
+
+        database.cell("c0_0").setChild("near", near);
+        database.cell("c10_10").setChild("far", far);
+        database.cell("c0_0").removeChild(id(0, 0));
+
+        assertNotNull(engine.get("near"));
+        assertNull(engine.get("far"));
+        assertEquals(1, removed.size());
+        assertEquals(1, engine.size());
+    }
+
+    @Test
+    public void anchorMovedBetweenLoadedCells_staysInTheScene() {
+        ProximityPager pager = create(1, 9);
+        pager.update(5, 5);
+        AnchorCodec codec = new AnchorCodec();
+        database.cell("c0_0").setChild("moving", codec.toBase64(record(2, 2)));
+
+        // The new cell's event can come first
+        database.cell("c1_0").setChild("moving", codec.toBase64(record(12, 2)));
+        database.cell("c0_0").removeChild("moving");
+
+        assertEquals(12f, engine.get("moving").px, 0f);
+        assertEquals("c1_0", pager.getCellKey("moving"));
+        assertTrue(removed.isEmpty());
+        assertEquals(1, pager.getLoadedAnchorCount());
+    }
+
+    @Test
+    public void claimedAnchor_isUnloadedWithItsCell() {
+        ProximityPager pager = create(0, 1);
+        pager.update(5, 5);
+
+        assertFalse(pager.claim("journaled", 25, 5));
+        assertTrue(pager.claim("journaled", 2, 2));
+        engine.restore("journaled", record(2, 2));
+        pager.update(25, 5);
+
+        assertNull(engine.get("journaled"));
+        assertEquals(1, unloaded.size());
+        assertTrue(removed.isEmpty());
+    }
+
+    @Test
+    public void clear_unloadsEverything() {
+        fillGrid();
+        ProximityPager pager = create(1, 9);
+        pager.update(55, 55);
+
+        pager.clear();
+
+        assertEquals(0, engine.size());
+        assertEquals(9, unloaded.size());
+        assertEquals(0, database.getListenerCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aCapBelowTheRange_isRejected() {
+        new ProximityPager(database, CELL, 2, 24);
+    }
+}
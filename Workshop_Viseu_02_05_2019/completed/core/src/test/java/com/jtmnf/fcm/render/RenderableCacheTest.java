@@ -0,0 +1,108 @@
+package com.jtmnf.fcm.render;
+
+import com.jtmnf.fcm.anchor.ShapeType;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RenderableCacheTest {
+
+    private final Map<String, Integer> builds = new HashMap<>();
+    private final Map<String, CompletableFuture<Object>> building = new HashMap<>();
+
+    private RenderableCache<String, Object> cache(long maxBytes) {
+        return new RenderableCache<>(maxBytes, key -> {
+            builds.merge(key, 1, Integer::sum);
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            building.put(key, future);
+            return future;
+        }, key -> 100);
+    }
+
+    private void finish(String key) {
+        building.get(key).complete(new Object());
+    }
+
+    @Test
+    public void requestsForSameKey_shareOneBuildAndOneInstance() {
+        RenderableCache<String, Object> cache = cache(1000);
+
+        CompletableFuture<Object> first = cache.get("green sphere");
+        CompletableFuture<Object> second = cache.get("green sphere");
+        finish("green sphere");
+
+        assertSame(first, second);
+        assertSame(first.join(), cache.get("green sphere").join());
+        assertEquals(1, (int) builds.get("green sphere"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void overBudget_evictsLeastRecentlyUsed() {
+        RenderableCache<String, Object> cache = cache(300);
+        cache.get("a");
+        finish("a");
+        cache.get("b");
+        finish("b");
+        cache.get("a");
+
+        cache.get("c");
+        finish("c");
+        cache.get("d");
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(300, cache.getBytes());
+        // b was least recently used
+        cache.get("b");
+        assertEquals(2, (int) builds.get("b"));
+        assertEquals(1, (int) builds.get("a"));
+    }
+
+    @Test
+    public void valuesStillBuilding_areNotEvicted() {
+        RenderableCache<String, Object> cache = cache(100);
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+
+        finish("a");
+        cache.get("c");
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void failedBuild_isRetried() {
+        RenderableCache<String, Object> cache = cache(1000);
+        CompletableFuture<Object> failed = cache.get("a");
+        building.get("a").completeExceptionally(new IllegalStateException("no GL context"));
+
+        CompletableFuture<Object> retry = cache.get("a");
+
+        assertNotSame(failed, retry);
+        assertEquals(2, (int) builds.get("a"));
+        assertEquals(100, cache.getBytes());
+    }
+
+    @Test
+    public void shapeKeys_distinguishShapeSizeAndColor() {
+        ShapeKey sphere = new ShapeKey(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 0xff00ff00);
+
+        assertEquals(sphere, new ShapeKey(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 0xff00ff00));
+        assertEquals(sphere.hashCode(), new ShapeKey(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 0xff00ff00).hashCode());
+        assertTrue(!sphere.equals(new ShapeKey(ShapeType.CUBE, 0.2f, 0.2f, 0.2f, 0xff00ff00)));
+        assertTrue(!sphere.equals(new ShapeKey(ShapeType.SPHERE, 0.3f, 0.2f, 0.2f, 0xff00ff00)));
+        assertTrue(!sphere.equals(new ShapeKey(ShapeType.SPHERE, 0.2f, 0.2f, 0.2f, 0xffff0000)));
+        assertTrue(sphere.estimatedBytes() > new ShapeKey(ShapeType.CUBE, 0.2f, 0.2f, 0.2f, 0).estimatedBytes());
+    }
+}
@@ -0,0 +1,225 @@
+package com.jtmnf.fcm.room;
+
+import com.jtmnf.fcm.sync.AnchorEventSource;
+import com.jtmnf.fcm.sync.AnchorStore;
+import com.jtmnf.fcm.sync.InMemoryAnchorStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stand-in for the whole database: one {@link InMemoryAnchorStore} per node whose children are
+ * listened to, keyed by its path. Writes are acknowledged at once.
+ *
+ * <p>Each device gets a {@link Client} that only sees one room and counts what it downloads:
+ * the key and value of every child event delivered to it.
+ */
+public class InMemoryRoomDatabase {
+
+    /** Hears about a room's shard count, like a listener on its meta node. */
+    public interface MetaListener {
+        void onShardCount(int shardCount, int previousShardCount);
+    }
+
+    private final Map<String, InMemoryAnchorStore> nodes = new TreeMap<>();
+    private final Map<String, int[]> shardCounts = new HashMap<>();
+    private final Map<String, List<MetaListener>> metaListeners = new HashMap<>();
+    private int keys;
+    private long bytesWritten;
+
+    public Client client(String roomId) {
+        return new Client(roomId);
+    }
+
+    /** @return the children of a node, for checking what is stored where */
+    public Map<String, Object> children(String path) {
+        InMemoryAnchorStore node = nodes.get(path);
+        return node == null ? new HashMap<>() : node.getData();
+    }
+
+    /** @return the room's shard count and the previous one, 0 when no split is going on */
+    public int[] getShardCount(String roomId) {
+        int[] counts = shardCounts.get(roomId);
+        return counts == null ? new int[]{1, 0} : counts.clone();
+    }
+
+    /** Doubles a room's shard count, moving the cells that change shard and telling the clients. */
+    public void split(String roomId) {
+        beginSplit(roomId);
+        moveCells(roomId);
+        finishSplit(roomId);
+    }
+
+    public void beginSplit(String roomId) {
+        int count = getShardCount(roomId)[0];
+        Map<String, Object> updates = new HashMap<>();
+        RoomShards.beginSplit(count, updates);
+        setShardCount(roomId, (Integer) updates.get(RoomShards.META_SHARDS), count);
+    }
+
+    /** Moves every cell still in the shard it had before the split in progress. */
+    public void moveCells(String roomId) {
+        int[] counts = getShardCount(roomId);
+        String shardPrefix = RoomShards.roomPath(roomId) + "/";
+        Map<String, Object> updates = new HashMap<>();
+        for (String path : new ArrayList<>(nodes.keySet())) {
+            if (!path.startsWith(shardPrefix + "s")) {
+                continue;
+            }
+            String cellKey = path.substring(path.lastIndexOf('/') + 1);
+            String shardKey = path.substring(shardPrefix.length(), path.lastIndexOf('/'));
+            if (shardKey.equals(RoomShards.key(RoomShards.shardOf(cellKey, counts[1])))) {
+                RoomShards.moveCell(cellKey, new HashMap<>(children(path)), counts[1], counts[0], updates);
+            }
+        }
+        apply(RoomShards.roomPath(roomId), updates);
+    }
+
+    public void finishSplit(String roomId) {
+        setShardCount(roomId, getShardCount(roomId)[0], 0);
+    }
+
+    /** Everything written so far, keys and values, in all rooms. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void setShardCount(String roomId, int count, int previous) {
+        shardCounts.put(roomId, new int[]{count, previous});
+        List<MetaListener> listeners = metaListeners.get(roomId);
+        if (listeners != null) {
+            for (MetaListener listener : new ArrayList<>(listeners)) {
+                listener.onShardCount(count, previous);
+            }
+        }
+    }
+
+    private InMemoryAnchorStore node(String path) {
+        InMemoryAnchorStore node = nodes.get(path);
+        if (node == null) {
+            node = new InMemoryAnchorStore();
+            nodes.put(path, node);
+        }
+        return node;
+    }
+
+    private void apply(String root, Map<String, Object> updates) {
+        for (Map.Entry<String, Object> e : updates.entrySet()) {
+            String path = root + "/" + e.getKey();
+            int slash = path.lastIndexOf('/');
+            InMemoryAnchorStore node = node(path.substring(0, slash));
+            String key = path.substring(slash + 1);
+            bytesWritten += e.getKey().length();
+            if (e.getValue() == null) {
+                node.removeChild(key);
+            } else {
+                bytesWritten += e.getValue().toString().length();
+                node.setChild(key, e.getValue());
+            }
+        }
+    }
+
+    /** One device in one room: opens nodes below the room and writes to it. */
+    public final class Client implements ShardedCellSources.PathSources, AnchorStore {
+        private final String roomId;
+        private final String root;
+        private long bytesDownloaded;
+        private long events;
+
+        Client(String roomId) {
+            this.roomId = roomId;
+            this.root = RoomShards.roomPath(roomId);
+        }
+
+        public void addMetaListener(MetaListener listener) {
+            List<MetaListener> listeners = metaListeners.get(roomId);
+            if (listeners == null) {
+                listeners = new ArrayList<>();
+                metaListeners.put(roomId, listeners);
+            }
+            listeners.add(listener);
+            int[] counts = getShardCount(roomId);
+            listener.onShardCount(counts[0], counts[1]);
+        }
+
+        @Override
+        public AnchorEventSource open(String path) {
+            return new CountingSource(node(root + "/" + path));
+        }
+
+        @Override
+        public String newKey() {
+            return String.format("-key%06d", keys++);
+        }
+
+        @Override
+        public void updateChildren(Map<String, Object> updates, Callback callback) {
+            apply(root, updates);
+            callback.onComplete(null);
+        }
+
+        public long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        public long getEventCount() {
+            return events;
+        }
+
+        private void count(String key, String value) {
+            events++;
+            bytesDownloaded += key.length() + (value == null ? 0 : value.length());
+        }
+
+        /** Counts what the client's listeners receive from one node. */
+        private final class CountingSource implements AnchorEventSource {
+            private final AnchorEventSource node;
+            private final Map<Listener, Listener> wrappers = new HashMap<>();
+
+            CountingSource(AnchorEventSource node) {
+                this.node = node;
+            }
+
+            @Override
+            public void addListener(Listener listener) {
+                Listener wrapper = new Listener() {
+                    @Override
+                    public void onAdded(String anchorId, String value) {
+                        count(anchorId, value);
+                        listener.onAdded(anchorId, value);
+                    }
+
+                    @Override
+                    public void onChanged(String anchorId, String value) {
+                        count(anchorId, value);
+                        listener.onChanged(anchorId, value);
+                    }
+
+                    @Override
+                    public void onRemoved(String anchorId) {
+                        count(anchorId, null);
+                        listener.onRemoved(anchorId);
+                    }
+
+                    @Override
+                    public void onError(Exception error) {
+                        listener.onError(error);
+                    }
+                };
+                wrappers.put(listener, wrapper);
+                node.addListener(wrapper);
+            }
+
+            @Override
+            public void removeListener(Listener listener) {
+                Listener wrapper = wrappers.remove(listener);
+                if (wrapper != null) {
+                    node.removeListener(wrapper);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.jtmnf.fcm.room;
+
+import com.jtmnf.fcm.paging.RoomCells;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoomShardsTest {
+
+    @Test
+    public void doublingTheCount_keepsACellOrMovesItUpByTheOldCount() {
+        for (int x = -20; x < 20; x++) {
+            for (int z = -20; z < 20; z++) {
+                String cellKey = RoomCells.key(RoomCells.cell(x, z));
+                for (int count = 1; count <= 32; count *= 2) {
+                    int before = RoomShards.shardOf(cellKey, count);
+                    int after = RoomShards.shardOf(cellKey, count * 2);
+                    assertTrue(cellKey, after == before || after == before + count);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void neighbouringCells_spreadEvenlyOverTheShards() {
+        int[] cells = new int[8];
+        for (int x = -20; x < 20; x++) {
+            for (int z = -20; z < 20; z++) {
+                cells[RoomShards.shardOf(RoomCells.key(RoomCells.cell(x, z)), cells.length)]++;
+            }
+        }
+        // 200 each if perfectly even
+        for (int count : cells) {
+            assertTrue("shard with " + count + " cells", count > 150 && count < 250);
+        }
+    }
+
+    @Test
+    public void moveCell_movesOnlyCellsThatChangeShard() {
+        Map<String, Object> anchors = new HashMap<>();
+        anchors.put("-a", "A");
+        anchors.put("-b", "B");
+        String moving = null;
+        String staying = null;
+        for (int x = 0; moving == null || staying == null; x++) {
+            String cellKey = RoomCells.key(RoomCells.cell(x, 0));
+            if (RoomShards.shardOf(cellKey, 2) == 1) {
+                moving = cellKey;
+            } else {
+                staying = cellKey;
+            }
+        }
+
+        Map<String, Object> updates = new HashMap<>();
+        RoomShards.moveCell(staying, anchors, 1, 2, updates);
+        assertTrue(updates.isEmpty());
+
+        RoomShards.moveCell(moving, anchors, 1, 2, updates);
+        assertEquals(4, updates.size());
+        assertEquals("A", updates.get("s1/" + moving + "/-a"));
+        assertTrue(updates.containsKey("s0/" + moving + "/-a"));
+        assertNull(updates.get("s0/" + moving + "/-a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shardCountsThatCantBeSplitInHalf_areRejected() {
+        RoomShards.shardOf("c0_0", 3);
+    }
+}
@@ -0,0 +1,62 @@
+package com.jtmnf.fcm.room;
+
+import com.jtmnf.fcm.sync.InMemoryAnchorStore;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedAnchorStoreTest {
+
+    private final InMemoryAnchorStore room = new InMemoryAnchorStore();
+
+    /** A cell that is in shard 1 once the room has two. */
+    private static String movingCell() {
+        for (int i = 0; ; i++) {
+            String cellKey = "c" + i + "_0";
+            if (RoomShards.shardOf(cellKey, 2) == 1) {
+                return cellKey;
+            }
+        }
+    }
+
+    @Test
+    public void writes_goToTheCellsShard() {
+        ShardedAnchorStore store = new ShardedAnchorStore(room, 2);
+        String cellKey = movingCell();
+
+        store.updateChildren(Collections.singletonMap(cellKey + "/-a", "A"), error -> {
+        });
+
+        Map<String, Object> written = room.ackNext();
+        assertEquals(Collections.singletonMap("s1/" + cellKey + "/-a", "A"), written);
+    }
+
+    @Test
+    public void writesDuringASplit_clearTheOldShard() {
+        ShardedAnchorStore store = new ShardedAnchorStore(room, 1);
+        store.setShardCount(2, 1);
+        String cellKey = movingCell();
+
+        store.updateChildren(Collections.singletonMap(cellKey + "/-a", "A"), error -> {
+        });
+
+        Map<String, Object> written = room.ackNext();
+        assertEquals(2, written.size());
+        assertEquals("A", written.get("s1/" + cellKey + "/-a"));
+        assertTrue(written.containsKey("s0/" + cellKey + "/-a"));
+        assertNull(written.get("s0/" + cellKey + "/-a"));
+        assertEquals(1, store.getSplitWriteCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pathsWithoutACell_areRejected() {
+        new ShardedAnchorStore(room, 1).updateChildren(Collections.singletonMap("-a", "A"), error -> {
+        });
+    }
+}
@@ -0,0 +1,231 @@
+package com.jtmnf.fcm.room;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.paging.CellPartitionedStore;
+import com.jtmnf.fcm.paging.ProximityPager;
+import com.jtmnf.fcm.paging.RoomCells;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedCellSourcesTest {
+
+    private static final float CELL = 8f;
+
+    private final InMemoryRoomDatabase database = new InMemoryRoomDatabase();
+    private final AnchorCodec codec = new AnchorCodec();
+
+    /** What MainActivity sets up for one room. */
+    private final class Device {
+        final InMemoryRoomDatabase.Client client;
+        final ShardedAnchorStore shardedStore;
+        final CellPartitionedStore store;
+        final ShardedCellSources sources;
+        final ProximityPager pager;
+        final AnchorSyncEngine engine = new AnchorSyncEngine();
+        final List<String> removed = new ArrayList<>();
+
+        Device(String roomId) {
+            client = database.client(roomId);
+            shardedStore = new ShardedAnchorStore(client, 1);
+            store = new CellPartitionedStore(shardedStore, CELL);
+            sources = new ShardedCellSources(client, 1);
+            client.addMetaListener((count, previous) -> {
+                shardedStore.setShardCount(count, previous);
+                sources.setShardCount(count, previous);
+            });
+            pager = new ProximityPager(sources, CELL, 1, 9);
+            engine.addSceneListener(new AnchorSyncEngine.SceneListener() {
+                @Override
+                public void onAnchorAdded(String anchorId, AnchorRecord record) {
+                }
+
+                @Override
+                public void onAnchorChanged(String anchorId, AnchorRecord record) {
+                }
+
+                @Override
+                public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+                    removed.add(anchorId);
+                }
+            });
+            engine.start(pager);
+        }
+
+        String place(float x, float z) {
+            String anchorId = store.newKey();
+            AnchorRecord record = new AnchorRecord().setPosition(x, 0, z);
+            record.timestamp = 1;
+            store.updateChildren(Collections.singletonMap(anchorId, codec.toBase64(record)), error -> {
+            });
+            return anchorId;
+        }
+
+        void delete(String anchorId) {
+            store.updateChildren(Collections.singletonMap(anchorId, null), error -> {
+            });
+        }
+    }
+
+    /** Every device only pays for its own room, however many other rooms are busy. */
+    @Test
+    public void download_staysBounded_asTrafficInOtherRoomsGrows() {
+        Device observer = new Device("room0");
+        observer.pager.update(4, 4);
+        Device neighbour = new Device("room0");
+        for (int i = 0; i < 20; i++) {
+            neighbour.place(i % 5, i / 5);
+        }
+        long ownRoom = observer.client.getBytesDownloaded();
+        assertEquals(20, observer.engine.size());
+
+        long previousTotal = database.getBytesWritten();
+        for (int rooms = 1; rooms <= 64; rooms *= 4) {
+            for (int r = 1; r <= rooms; r++) {
+                Device other = new Device("room" + (rooms * 100 + r));
+                for (int i = 0; i < 20; i++) {
+                    other.place(i % 5, i / 5);
+                }
+            }
+            assertTrue(database.getBytesWritten() > previousTotal);
+            previousTotal = database.getBytesWritten();
+            assertEquals(ownRoom, observer.client.getBytesDownloaded());
+        }
+        assertEquals(20, observer.engine.size());
+        assertTrue(database.getBytesWritten() > 50 * ownRoom);
+    }
+
+    @Test
+    public void cellsAwayFromTheUser_areNotDownloaded() {
+        Device observer = new Device("room");
+        observer.pager.update(4, 4);
+        Device writer = new Device("room");
+
+        writer.place(4, 4);
+        long nearby = observer.client.getBytesDownloaded();
+        for (int i = 0; i < 50; i++) {
+            writer.place(100 + i, 100);
+        }
+
+        assertEquals(nearby, observer.client.getBytesDownloaded());
+        assertEquals(1, observer.engine.size());
+    }
+
+    @Test
+    public void split_movesCellsWithoutTakingAnchorsOutOfTheScene() {
+        Device observer = new Device("room");
+        observer.pager.update(4, 4);
+        Device writer = new Device("room");
+        List<String> placed = new ArrayList<>();
+        for (int x = -8; x < 16; x++) {
+            placed.add(writer.place(x, x / 2f));
+        }
+        assertEquals(placed.size(), observer.engine.size());
+
+        database.split("room");
+        database.split("room");
+
+        assertEquals(4, observer.sources.getShardCount());
+        assertFalse(observer.sources.isSplitting());
+        assertEquals(placed.size(), observer.engine.size());
+        assertTrue(observer.removed.isEmpty());
+        assertEquals(0, observer.sources.getStrayCount());
+        assertEquals(9, observer.sources.getPathCount());
+        for (String anchorId : placed) {
+            String cellKey = writer.store.getCellKey(anchorId);
+            int shard = RoomShards.shardOf(cellKey, 4);
+            assertNotNull(database.children("rooms/room/" + RoomShards.path(shard, cellKey)).get(anchorId));
+        }
+    }
+
+    @Test
+    public void writesDuringASplit_reachTheObserver_andLeaveNothingBehind() {
+        Device observer = new Device("room");
+        observer.pager.update(4, 4);
+        Device writer = new Device("room");
+        String first = writer.place(1, 1);
+
+        database.beginSplit("room");
+        assertTrue(observer.sources.isSplitting());
+        String during = writer.place(-1, -1);
+        String moved = writer.place(-1, 1);
+        database.moveCells("room");
+        writer.place(1, 2);
+        database.finishSplit("room");
+
+        assertEquals(4, observer.engine.size());
+        assertTrue(observer.removed.isEmpty());
+        assertNotNull(observer.engine.get(first));
+        assertNotNull(observer.engine.get(during));
+        assertNotNull(observer.engine.get(moved));
+        int stored = 0;
+        for (int shard = 0; shard < 2; shard++) {
+            for (long cell : new long[]{RoomCells.cell(0, 0), RoomCells.cell(-1, -1), RoomCells.cell(-1, 0)}) {
+                stored += database.children("rooms/room/" + RoomShards.path(shard, RoomCells.key(cell))).size();
+            }
+        }
+        assertEquals(4, stored);
+    }
+
+    @Test
+    public void deletionsInAMovingCell_showWhenTheSplitEnds() {
+        Device observer = new Device("room");
+        observer.pager.update(4, 4);
+        Device writer = new Device("room");
+        List<String> placed = new ArrayList<>();
+        for (int x = -8; x < 16; x++) {
+            placed.add(writer.place(x, 0));
+        }
+        database.beginSplit("room");
+
+        for (String anchorId : placed) {
+            writer.delete(anchorId);
+        }
+        int shown = observer.engine.size();
+        database.moveCells("room");
+        database.finishSplit("room");
+
+        // Anchors in cells that stay put go at once, the others once the split is over
+        assertTrue(shown > 0 && shown < placed.size());
+        assertEquals(0, observer.engine.size());
+        assertEquals(placed.size(), observer.removed.size());
+        assertEquals(0, observer.sources.getStrayCount());
+    }
+
+    @Test
+    public void anchorLeftInAnOldShard_isUnloadedWhenTheSplitEnds() {
+        Device observer = new Device("room");
+        observer.pager.update(4, 4);
+        Device writer = new Device("room");
+        database.beginSplit("room");
+        // A device that hasn't heard of the split writes where the cell used to be
+        String cellKey = null;
+        for (int x = -1; x <= 1 && cellKey == null; x++) {
+            for (int z = -1; z <= 1 && cellKey == null; z++) {
+                String key = RoomCells.key(RoomCells.cell(x, z));
+                if (RoomShards.shardOf(key, 2) != 0) {
+                    cellKey = key;
+                }
+            }
+        }
+        writer.client.updateChildren(Collections.singletonMap(
+                RoomShards.path(0, cellKey) + "/-stale", codec.toBase64(new AnchorRecord())), error -> {
+        });
+        assertNotNull(observer.engine.get("-stale"));
+
+        database.finishSplit("room");
+
+        assertEquals(1, observer.sources.getStrayCount());
+        assertEquals(0, observer.engine.size());
+    }
+}
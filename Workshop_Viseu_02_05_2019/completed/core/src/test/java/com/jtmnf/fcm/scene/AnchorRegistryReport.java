@@ -0,0 +1,71 @@
+package com.jtmnf.fcm.scene;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Heap retained by {@link AnchorRegistry} with 1M anchors, against the obvious alternative, a
+ * list of records plus a map from id. The JMH AnchorRegistryBenchmark times passes, lookups and
+ * churn on the same two.
+ *
+ * <p>./gradlew :core:report -PreportClass=com.jtmnf.fcm.scene.AnchorRegistryReport
+ */
+public final class AnchorRegistryReport {
+
+    private static final int ANCHORS = 1_000_000;
+    private static final float ROOM = 100f;
+
+    /** What a list-of-objects scene keeps per anchor. */
+    private static final class Entry {
+        final String id;
+        final AnchorRecord record = new AnchorRecord();
+
+        Entry(String id) {
+            this.id = id;
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] ids = new String[ANCHORS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = String.format("-Lb%017d", i);
+        }
+        Random random = new Random(1);
+        AnchorRecord record = new AnchorRecord().setSize(0.2f, 0.2f, 0.2f);
+
+        long heap = usedHeap();
+        AnchorRegistry registry = new AnchorRegistry(ANCHORS);
+        for (int i = 0; i < ANCHORS; i++) {
+            registry.add(ids[i], record.setPosition(random.nextFloat() * ROOM, 1f, random.nextFloat() * ROOM));
+        }
+        System.out.printf("%-48s %12d MB%n", "registry, retained", (usedHeap() - heap) >> 20);
+
+        heap = usedHeap();
+        List<Entry> list = new ArrayList<>(ANCHORS);
+        Map<String, Entry> byId = new HashMap<>(ANCHORS * 2);
+        for (int i = 0; i < ANCHORS; i++) {
+            Entry entry = new Entry(ids[i]);
+            entry.record.copyFrom(registry.get(i, record));
+            list.add(entry);
+            byId.put(ids[i], entry);
+        }
+        System.out.printf("%-48s %12d MB%n", "list of objects, retained", (usedHeap() - heap) >> 20);
+
+        // Both stay reachable until here, so neither is collected while the other is measured
+        System.out.printf("%-48s %12d anchors, %d listed, %d mapped%n", "held",
+                registry.size(), list.size(), byId.size());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,228 @@
+package com.jtmnf.fcm.scene;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnchorRegistryTest {
+
+    static AnchorRecord record(float x) {
+        AnchorRecord record = new AnchorRecord().setPosition(x, 1f, -x).setRotation(0f, 0.6f, 0f, 0.8f)
+                .setSize(0.2f, 0.4f, 0.2f);
+        record.shape = ShapeType.CYLINDER;
+        record.color = 0xFF00FF00 + (int) x;
+        record.owner = 42;
+        record.timestamp = (long) x;
+        return record;
+    }
+
+    @Test
+    public void addedAnchor_readsBackFieldForField() {
+        AnchorRegistry registry = new AnchorRegistry(4);
+        AnchorRecord in = record(3);
+
+        int handle = registry.add("a", in);
+        int index = registry.indexOf("a");
+
+        assertEquals(handle, registry.handleOf("a"));
+        assertEquals(index, registry.indexOfHandle(handle));
+        assertEquals("a", registry.getId(index));
+        assertEquals(ShapeType.CYLINDER, registry.getShape(index));
+        assertEquals(0.4f, registry.getSize(index), 0f);
+        assertEquals(in, registry.get(index, new AnchorRecord()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addingAnIdTwice_isRefused() {
+        AnchorRegistry registry = new AnchorRegistry(4);
+        registry.add("a", record(1));
+        registry.add("a", record(2));
+    }
+
+    @Test
+    public void put_overwritesInPlace() {
+        AnchorRegistry registry = new AnchorRegistry(4);
+        int handle = registry.put("a", record(1));
+
+        assertEquals(handle, registry.put("a", record(7)));
+        assertEquals(1, registry.size());
+        assertEquals(7f, registry.getX(registry.indexOf("a")), 0f);
+    }
+
+    @Test
+    public void remove_movesTheLastAnchorIntoTheHoleAndKeepsHandles() {
+        AnchorRegistry registry = new AnchorRegistry(4);
+        int a = registry.add("a", record(1));
+        registry.add("b", record(2));
+        int c = registry.add("c", record(3));
+
+        assertTrue(registry.remove("a"));
+
+        assertEquals(2, registry.size());
+        assertEquals("c", registry.getId(0));
+        assertEquals(3f, registry.getX(registry.indexOfHandle(c)), 0f);
+        assertEquals(AnchorRegistry.NONE, registry.indexOfHandle(a));
+        assertEquals(AnchorRegistry.NONE, registry.indexOf("a"));
+        assertFalse(registry.remove("a"));
+    }
+
+    @Test
+    public void reusedSlot_doesNotRevivePreviousHandle() {
+        AnchorRegistry registry = new AnchorRegistry(4);
+        int old = registry.add("a", record(1));
+        registry.remove("a");
+        int reused = registry.add("b", record(2));
+
+        assertEquals(old & 0xFFFFFF, reused & 0xFFFFFF);
+        assertEquals(AnchorRegistry.NONE, registry.indexOfHandle(old));
+        assertEquals(0, registry.indexOfHandle(reused));
+    }
+
+    @Test
+    public void backwardsWalk_canRemoveWhileIterating() {
+        AnchorRegistry registry = new AnchorRegistry(4);
+        for (int i = 0; i < 100; i++) {
+            registry.add("a" + i, record(i));
+        }
+        for (int i = registry.size() - 1; i >= 0; i--) {
+            if (registry.getX(i) % 3 == 0) {
+                registry.removeAt(i);
+            }
+        }
+        assertEquals(66, registry.size());
+        for (int i = 0; i < registry.size(); i++) {
+            assertTrue(registry.getX(i) % 3 != 0);
+            assertEquals(i, registry.indexOf(registry.getId(i)));
+        }
+    }
+
+    /** Random adds, moves and removes against a HashMap, checking every lookup and index mapping. */
+    @Test
+    public void randomChurn_matchesAMap() {
+        AnchorRegistry registry = new AnchorRegistry(16);
+        Map<String, Float> model = new HashMap<>();
+        Map<String, Integer> handles = new HashMap<>();
+        List<Integer> removedHandles = new ArrayList<>();
+        Random random = new Random(11);
+        for (int step = 0; step < 200_000; step++) {
+            String id = "a" + random.nextInt(5_000);
+            float x = random.nextFloat();
+            if (random.nextInt(3) == 0) {
+                assertEquals(model.remove(id) != null, registry.remove(id));
+                Integer handle = handles.remove(id);
+                if (handle != null) {
+                    removedHandles.add(handle);
+                }
+            } else {
+                int handle = registry.put(id, record(x));
+                Integer known = handles.put(id, handle);
+                assertTrue(known == null || known == handle);
+                model.put(id, x);
+            }
+        }
+        assertEquals(model.size(), registry.size());
+        for (Map.Entry<String, Float> e : model.entrySet()) {
+            int index = registry.indexOf(e.getKey());
+            assertEquals(e.getValue(), registry.getX(index), 0f);
+            assertEquals(index, registry.indexOfHandle(handles.get(e.getKey())));
+        }
+        for (int i = 0; i < registry.size(); i++) {
+            assertTrue(model.containsKey(registry.getId(i)));
+        }
+        int stale = 0;
+        for (int handle : removedHandles) {
+            if (registry.indexOfHandle(handle) != AnchorRegistry.NONE) {
+                stale++;
+            }
+        }
+        // Generations wrap after 128 reuses of a slot, so a very old handle can come back
+        assertTrue("stale handles resolving: " + stale, stale < removedHandles.size() / 100);
+    }
+
+    @Test
+    public void millionAnchors_addLookupAndRemove() {
+        int anchors = 1_000_000;
+        AnchorRegistry registry = new AnchorRegistry(16);
+        String[] ids = new String[anchors];
+        AnchorRecord record = new AnchorRecord();
+        for (int i = 0; i < anchors; i++) {
+            ids[i] = "-Lb" + i;
+            record.px = i;
+            registry.add(ids[i], record);
+        }
+        for (int i = 0; i < anchors; i += 2) {
+            registry.remove(ids[i]);
+        }
+
+        assertEquals(anchors / 2, registry.size());
+        for (int i = 0; i < anchors; i++) {
+            int index = registry.indexOf(ids[i]);
+            if (i % 2 == 0) {
+                assertEquals(AnchorRegistry.NONE, index);
+            } else {
+                assertEquals(i, registry.getX(index), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void iterationAndLookup_doNotAllocate() {
+        AnchorRegistry registry = new AnchorRegistry(16);
+        String[] ids = new String[10_000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "a" + i;
+            registry.add(ids[i], record(i));
+        }
+        AnchorRecord scratch = new AnchorRecord();
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // Warm up so class loading and JIT don't show up in the measurement
+        double sum = 0;
+        for (int round = 0; round < 20; round++) {
+            sum += pass(registry, ids, scratch);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int round = 0; round < 100; round++) {
+            sum += pass(registry, ids, scratch);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(sum > 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    /** A culling-style walk, a persistence-style copy and a sync-style churn of the same anchors. */
+    private static double pass(AnchorRegistry registry, String[] ids, AnchorRecord scratch) {
+        double sum = 0;
+        for (int i = 0; i < registry.size(); i++) {
+            float x = registry.getX(i);
+            float z = registry.getZ(i);
+            if (x * x + z * z < 1e6f) {
+                sum += registry.getSize(i);
+            }
+            registry.get(i, scratch);
+        }
+        for (int i = 0; i < 100; i++) {
+            registry.remove(ids[i]);
+        }
+        for (int i = 0; i < 100; i++) {
+            scratch.px = i;
+            registry.put(ids[i], scratch);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,154 @@
+package com.jtmnf.fcm.spatial;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialHashGridTest {
+
+    @Test
+    public void anyWithin_seesPointsInNeighbouringCells() {
+        SpatialHashGrid grid = new SpatialHashGrid(1f, 16);
+        grid.insert(0.95f, 0f, 0f);
+
+        assertTrue(grid.anyWithin(1.05f, 0f, 0f, 0.2f));
+        assertFalse(grid.anyWithin(1.5f, 0f, 0f, 0.2f));
+        assertTrue(grid.anyWithin(-0.05f + 1f, 0f, 0f, 0f));
+    }
+
+    @Test
+    public void negativeCoordinates_work() {
+        SpatialHashGrid grid = new SpatialHashGrid(0.5f, 16);
+        int handle = grid.insert(-0.1f, -3.2f, -10f);
+
+        int[] out = new int[4];
+        assertEquals(1, grid.queryRadius(-0.2f, -3.2f, -10f, 0.15f, out));
+        assertEquals(handle, out[0]);
+    }
+
+    @Test
+    public void removeAndMove_updateQueries() {
+        SpatialHashGrid grid = new SpatialHashGrid(1f, 16);
+        int a = grid.insert(0f, 0f, 0f);
+        int b = grid.insert(0.1f, 0f, 0f);
+
+        grid.move(a, 10f, 10f, 10f);
+        grid.remove(b);
+
+        assertFalse(grid.anyWithin(0f, 0f, 0f, 1f));
+        assertTrue(grid.anyWithin(10f, 10f, 10f, 0.01f));
+        assertEquals(1, grid.size());
+        // Freed handles are reused
+        assertEquals(b, grid.insert(5f, 5f, 5f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void removingTwice_fails() {
+        SpatialHashGrid grid = new SpatialHashGrid(1f, 16);
+        int a = grid.insert(0f, 0f, 0f);
+        grid.remove(a);
+        grid.remove(a);
+    }
+
+    @Test
+    public void randomOperations_matchBruteForce() {
+        Random random = new Random(7);
+        SpatialHashGrid grid = new SpatialHashGrid(0.5f, 16);
+        float[][] points = new float[3000][];
+        boolean[] live = new boolean[3000];
+        int[] handles = new int[3000];
+
+        for (int step = 0; step < 20_000; step++) {
+            int i = random.nextInt(points.length);
+            float[] p = {random.nextFloat() * 20 - 10, random.nextFloat() * 4 - 2, random.nextFloat() * 20 - 10};
+            if (!live[i]) {
+                handles[i] = grid.insert(p[0], p[1], p[2]);
+                live[i] = true;
+                points[i] = p;
+            } else if (random.nextBoolean()) {
+                grid.move(handles[i], p[0], p[1], p[2]);
+                points[i] = p;
+            } else {
+                grid.remove(handles[i]);
+                live[i] = false;
+            }
+
+            if (step % 500 == 0) {
+                float qx = random.nextFloat() * 20 - 10, qy = 0, qz = random.nextFloat() * 20 - 10;
+                float radius = random.nextFloat() * 3;
+                assertRadiusMatches(grid, points, live, handles, qx, qy, qz, radius);
+                assertNearestMatches(grid, points, live, qx, qy, qz, 1 + random.nextInt(20));
+            }
+        }
+    }
+
+    private static void assertRadiusMatches(SpatialHashGrid grid, float[][] points, boolean[] live, int[] handles,
+                                            float x, float y, float z, float radius) {
+        int[] expected = new int[points.length];
+        int n = 0;
+        for (int i = 0; i < points.length; i++) {
+            if (live[i] && d2(points[i], x, y, z) <= radius * radius) {
+                expected[n++] = handles[i];
+            }
+        }
+        int[] out = new int[points.length];
+        int found = grid.queryRadius(x, y, z, radius, out);
+
+        int[] want = Arrays.copyOf(expected, n);
+        int[] got = Arrays.copyOf(out, found);
+        Arrays.sort(want);
+        Arrays.sort(got);
+        assertArrayEquals(want, got);
+        assertEquals(n > 0, grid.anyWithin(x, y, z, radius));
+    }
+
+    private static void assertNearestMatches(SpatialHashGrid grid, float[][] points, boolean[] live,
+                                             float x, float y, float z, int k) {
+        float[] distances = new float[points.length];
+        int n = 0;
+        for (int i = 0; i < points.length; i++) {
+            if (live[i]) {
+                distances[n++] = d2(points[i], x, y, z);
+            }
+        }
+        Arrays.sort(distances, 0, n);
+
+        int[] out = new int[k];
+        int found = grid.nearest(x, y, z, k, out);
+        assertEquals(Math.min(k, n), found);
+        for (int i = 0; i < found; i++) {
+            float dx = grid.getX(out[i]) - x, dy = grid.getY(out[i]) - y, dz = grid.getZ(out[i]) - z;
+            assertEquals(distances[i], dx * dx + dy * dy + dz * dz, 1e-5f);
+        }
+    }
+
+    private static float d2(float[] p, float x, float y, float z) {
+        float dx = p[0] - x, dy = p[1] - y, dz = p[2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    @Test
+    public void anchorIndex_followsSceneEventsAndRejectsDuplicates() {
+        AnchorSpatialIndex index = new AnchorSpatialIndex(0.25f);
+        index.put("a", 1f, 0f, 1f);
+        index.put("b", 2f, 0f, 2f);
+
+        assertTrue(index.isOccupied(1.05f, 0f, 1f, 0.1f));
+        assertFalse(index.isOccupied(1.5f, 0f, 1.5f, 0.1f));
+
+        String[] ids = new String[2];
+        assertEquals(2, index.nearest(1.9f, 0f, 1.9f, 2, ids, new int[2]));
+        assertArrayEquals(new String[]{"b", "a"}, ids);
+
+        index.put("b", 1f, 0f, 1.1f);
+        index.remove("a");
+        assertEquals(1, index.nearest(0f, 0f, 0f, 2, ids, new int[2]));
+        assertEquals("b", ids[0]);
+    }
+}
@@ -0,0 +1,183 @@
+package com.jtmnf.fcm.startup;
+
+import com.jtmnf.fcm.startup.StartupPipeline.Affinity;
+import com.jtmnf.fcm.startup.StartupPipeline.Timing;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StartupPipelineTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    // Stands in for the Android main looper
+    private final ExecutorService main = Executors.newSingleThreadExecutor(r -> new Thread(r, "main"));
+    private final ExecutorService background = Executors.newCachedThreadPool(r -> new Thread(r, "background"));
+
+    @After
+    public void shutDown() {
+        main.shutdownNow();
+        background.shutdownNow();
+    }
+
+    /**
+     * The same graph MainActivity builds. The network phase is held until the main-thread phases
+     * are done, so the test fails (times out) if any of them waits for it.
+     */
+    @Test
+    public void startupTrace_mainThreadNeverWaitsForNetwork() throws InterruptedException {
+        CountDownLatch uiReady = new CountDownLatch(1);
+        CountDownLatch networkMayFinish = new CountDownLatch(1);
+        List<String> mainThreadLog = new ArrayList<>();
+        StartupPipeline pipeline = new StartupPipeline(main, background, System::nanoTime);
+
+        pipeline.add("prewarm", Affinity.MAIN, () -> mainThreadLog.add("prewarm"))
+                .add("database", Affinity.BACKGROUND, () -> await(networkMayFinish))
+                .add("layout", Affinity.MAIN, () -> mainThreadLog.add("layout"), "prewarm")
+                .add("ar", Affinity.MAIN, () -> {
+                    mainThreadLog.add("ar");
+                    uiReady.countDown();
+                }, "layout")
+                .add("sync", Affinity.MAIN, () -> mainThreadLog.add("sync"), "ar", "database");
+        List<Timing> result = finish(pipeline, () -> {
+            assertTrue("main-thread phases waited for the network",
+                    uiReady.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            networkMayFinish.countDown();
+        });
+
+        Map<String, Timing> timings = byName(result);
+        assertEquals("[prewarm, layout, ar, sync]", mainThreadLog.toString());
+        for (Timing timing : result) {
+            assertNull(timing.getError());
+            assertEquals(timing.name, timing.affinity == Affinity.MAIN ? "main" : "background", timing.getThread());
+        }
+        assertTrue(timings.get("ar").getStartNanos() < timings.get("database").getEndNanos());
+        assertTrue(timings.get("sync").getStartNanos() >= timings.get("database").getEndNanos());
+        assertTrue(timings.get("sync").getStartNanos() >= timings.get("ar").getEndNanos());
+        assertTrue(timings.get("layout").getStartNanos() >= timings.get("prewarm").getEndNanos());
+    }
+
+    @Test
+    public void backgroundPhases_areHandedOffBeforeInlineMainPhases() throws InterruptedException {
+        List<String> events = new ArrayList<>();
+        // Runs main phases inline, the way MainActivity does when start() is called from onCreate
+        StartupPipeline pipeline = new StartupPipeline(Runnable::run, task -> {
+            synchronized (events) {
+                events.add("submitted background");
+            }
+            background.execute(task);
+        }, System::nanoTime);
+        pipeline.add("layout", Affinity.MAIN, () -> {
+            synchronized (events) {
+                events.add("layout");
+            }
+        }).add("database", Affinity.BACKGROUND, () -> {
+        });
+
+        finish(pipeline, null);
+
+        assertEquals("[submitted background, layout]", events.toString());
+    }
+
+    @Test
+    public void failedPhase_skipsOnlyItsDependents() throws InterruptedException {
+        StartupPipeline pipeline = new StartupPipeline(main, background, System::nanoTime);
+        pipeline.add("database", Affinity.BACKGROUND, () -> {
+            throw new IllegalStateException("offline");
+        })
+                .add("layout", Affinity.MAIN, () -> {
+                })
+                .add("listen", Affinity.MAIN, () -> fail("should be skipped"), "database", "layout")
+                .add("messaging", Affinity.BACKGROUND, () -> fail("should be skipped"), "listen")
+                .add("ar", Affinity.MAIN, () -> {
+                }, "layout");
+
+        Map<String, Timing> timings = byName(finish(pipeline, null));
+
+        assertEquals("offline", timings.get("database").getError().getMessage());
+        assertTrue(timings.get("listen").isSkipped());
+        assertTrue(timings.get("messaging").isSkipped());
+        assertFalse(timings.get("ar").isSkipped());
+        assertEquals("main", timings.get("ar").getThread());
+    }
+
+    @Test
+    public void emptyPipeline_finishesRightAway() {
+        List<Timing> finished = new ArrayList<>();
+        StartupPipeline pipeline = new StartupPipeline(main, background, System::nanoTime);
+        pipeline.setListener(finished::addAll);
+        pipeline.start();
+        assertTrue(finished.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownDependency_isRejected() {
+        new StartupPipeline(main, background, System::nanoTime)
+                .add("sync", Affinity.MAIN, () -> {
+                }, "database");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateName_isRejected() {
+        new StartupPipeline(main, background, System::nanoTime)
+                .add("layout", Affinity.MAIN, () -> {
+                })
+                .add("layout", Affinity.MAIN, () -> {
+                });
+    }
+
+    private interface Check {
+        void run() throws InterruptedException;
+    }
+
+    /** Starts the pipeline, runs the check while it is going, and waits for the listener. */
+    private static List<Timing> finish(StartupPipeline pipeline, Check whileRunning) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<List<Timing>> result = new AtomicReference<>();
+        pipeline.setListener(timings -> {
+            result.set(timings);
+            done.countDown();
+        });
+        pipeline.start();
+        if (whileRunning != null) {
+            whileRunning.run();
+        }
+        assertTrue("pipeline did not finish", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private static Map<String, Timing> byName(List<Timing> timings) {
+        Map<String, Timing> map = new HashMap<>();
+        for (Timing timing : timings) {
+            map.put(timing.name, timing);
+        }
+        return map;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.jtmnf.fcm.stream;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransformQuantizerTest {
+
+    static Transform randomTransform(Random random, Transform into) {
+        float x = (float) random.nextGaussian();
+        float y = (float) random.nextGaussian();
+        float z = (float) random.nextGaussian();
+        float w = (float) random.nextGaussian();
+        float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        return into.setPosition(random.nextFloat() * 20 - 10, random.nextFloat() * 4 - 2, random.nextFloat() * 20 - 10)
+                .setRotation(x / length, y / length, z / length, w / length)
+                .setScale(0.1f + random.nextFloat() * 3, 0.1f + random.nextFloat() * 3, 0.1f + random.nextFloat() * 3);
+    }
+
+    @Test
+    public void roundTrip_staysWithinTheStatedBounds() {
+        Random random = new Random(3);
+        Transform in = new Transform();
+        Transform out = new Transform();
+        TransformQuantizer.Quantized q = new TransformQuantizer.Quantized();
+        for (TransformQuantizer quantizer : new TransformQuantizer[]{
+                new TransformQuantizer(0.01f, 6, 0.05f),
+                new TransformQuantizer(0.001f, 10, 0.01f),
+                new TransformQuantizer(0.0001f, 16, 0.001f)}) {
+            double worstAngle = 0;
+            for (int i = 0; i < 100_000; i++) {
+                randomTransform(random, in);
+                quantizer.dequantize(quantizer.quantize(in, q), out);
+
+                // Float rounding of the input itself adds a little on top of the step
+                float slack = 1e-5f;
+                assertEquals(in.px, out.px, quantizer.maxPositionError() + slack);
+                assertEquals(in.py, out.py, quantizer.maxPositionError() + slack);
+                assertEquals(in.pz, out.pz, quantizer.maxPositionError() + slack);
+                assertEquals(in.sx, out.sx, quantizer.maxScaleError() + slack);
+                assertEquals(in.sy, out.sy, quantizer.maxScaleError() + slack);
+                assertEquals(in.sz, out.sz, quantizer.maxScaleError() + slack);
+                worstAngle = Math.max(worstAngle, in.angleTo(out));
+            }
+            assertTrue(quantizer.rotationBits + " bits: " + worstAngle + " rad",
+                    worstAngle <= quantizer.maxRotationError() + 1e-3);
+        }
+    }
+
+    @Test
+    public void quaternionAndItsNegation_quantizeTheSame() {
+        TransformQuantizer quantizer = new TransformQuantizer(0.001f, 10, 0.01f);
+        Transform a = new Transform().setRotation(0.5f, -0.5f, 0.5f, 0.5f);
+        Transform b = new Transform().setRotation(-0.5f, 0.5f, -0.5f, -0.5f);
+
+        assertEquals(quantizer.quantize(a, new TransformQuantizer.Quantized()).rotation,
+                quantizer.quantize(b, new TransformQuantizer.Quantized()).rotation);
+    }
+
+    @Test
+    public void identity_survivesExactly() {
+        TransformQuantizer quantizer = new TransformQuantizer(0.001f, 10, 0.01f);
+        Transform out = quantizer.dequantize(
+                quantizer.quantize(new Transform(), new TransformQuantizer.Quantized()), new Transform());
+
+        assertEquals(1f, out.qw, 1e-6f);
+        assertEquals(1f, out.sx, 1e-6f);
+        assertEquals(0f, out.px, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyRotationBits_areRefused() {
+        new TransformQuantizer(0.001f, 21, 0.01f);
+    }
+}
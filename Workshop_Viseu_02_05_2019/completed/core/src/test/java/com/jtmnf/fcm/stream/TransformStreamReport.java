@@ -0,0 +1,98 @@
+package com.jtmnf.fcm.stream;
+
+/**
+ * Bandwidth against fidelity for a ten second drag, over a range of send rates and precisions.
+ * The sender samples every 16 ms frame, the server acknowledges after a round trip, and the
+ * receiver interpolates what it gets; error is measured against where the node really was at the
+ * time being shown. The encoder's own cost is in the JMH TransformStreamBenchmark.
+ *
+ * <p>./gradlew :core:report -PreportClass=com.jtmnf.fcm.stream.TransformStreamReport
+ */
+public final class TransformStreamReport {
+
+    private static final long FRAME_MILLIS = 16;
+    private static final long DURATION_MILLIS = 10_000;
+    private static final long LATENCY_MILLIS = 40;
+    private static final long START = 1_556_755_200_000L;
+
+    /** A hand dragging and twisting a node, with a little tremor on top. */
+    static void gesture(double millis, Transform into) {
+        double t = millis / 1000;
+        double angle = 1.5 * Math.sin(t * 0.9);
+        into.setPosition((float) (0.8 * Math.sin(t * 1.3) + 0.002 * Math.sin(t * 50)),
+                (float) (0.2 * Math.sin(t * 0.4)),
+                (float) (-1.5 + 0.5 * Math.cos(t * 1.1) + 0.002 * Math.cos(t * 43)))
+                .setRotation(0f, (float) Math.sin(angle / 2), 0f, (float) Math.cos(angle / 2))
+                .setScale((float) (1 + 0.3 * Math.sin(t * 0.7)), (float) (1 + 0.3 * Math.sin(t * 0.7)),
+                        (float) (1 + 0.3 * Math.sin(t * 0.7)));
+    }
+
+    public static void main(String[] args) {
+        String[] names = {"coarse 1cm/8bit", "medium 1mm/10bit", "fine 0.1mm/14bit"};
+        TransformQuantizer[] quantizers = {
+                new TransformQuantizer(0.01f, 8, 0.01f),
+                new TransformQuantizer(0.001f, 10, 0.005f),
+                new TransformQuantizer(0.0001f, 14, 0.001f)};
+        System.out.println(String.format("%-18s %5s %10s %12s %12s %12s %12s",
+                "precision", "Hz", "bytes/s", "base64 B/s", "mean err mm", "max err mm", "max err deg"));
+        for (int q = 0; q < quantizers.length; q++) {
+            for (int hz : new int[]{10, 20, 30, 60}) {
+                simulate(names[q], quantizers[q], hz);
+            }
+        }
+    }
+
+    private static void simulate(String name, TransformQuantizer quantizer, int hz) {
+        long interval = 1000 / hz;
+        TransformEncoder encoder = new TransformEncoder(quantizer, interval, 1_000);
+        TransformDecoder decoder = new TransformDecoder(quantizer);
+        TransformInterpolator interpolator = new TransformInterpolator(2 * interval + 10);
+        byte[] packet = new byte[TransformEncoder.MAX_PACKET_SIZE];
+        Transform source = new Transform();
+        Transform received = new Transform();
+        Transform shown = new Transform();
+        Transform truth = new Transform();
+
+        // Packets and acknowledgements in flight: seq and the time they land
+        long[] ackSeqs = new long[1024];
+        long[] ackTimes = new long[1024];
+        int ackHead = 0;
+        int ackTail = 0;
+        long base64Bytes = 0;
+        double errorSum = 0;
+        double errorMax = 0;
+        double angleMax = 0;
+        int samples = 0;
+
+        for (long t = 0; t <= DURATION_MILLIS; t += FRAME_MILLIS) {
+            long now = START + t;
+            while (ackHead < ackTail && ackTimes[ackHead % 1024] <= now) {
+                encoder.acknowledge(ackSeqs[ackHead++ % 1024]);
+            }
+            gesture(t, source);
+            int len = encoder.encode(now, source, packet, 0);
+            if (len > 0) {
+                base64Bytes += (len + 2) / 3 * 4;
+                ackSeqs[ackTail % 1024] = encoder.getLastSeq();
+                ackTimes[ackTail++ % 1024] = now + 2 * LATENCY_MILLIS;
+                // Delivered in order, so the receiver can decode right away and file it by arrival
+                if (decoder.decode(packet, 0, len, received)) {
+                    interpolator.add(decoder.getLastTime(), now + LATENCY_MILLIS, received);
+                }
+            }
+            // The receiver's frame at the same moment
+            if (t > 1_000 && interpolator.sample(now, shown)) {
+                gesture(t - LATENCY_MILLIS - (2 * interval + 10), truth);
+                double error = shown.distanceTo(truth) * 1000;
+                errorSum += error;
+                errorMax = Math.max(errorMax, error);
+                angleMax = Math.max(angleMax, Math.toDegrees(shown.angleTo(truth)));
+                samples++;
+            }
+        }
+        double seconds = DURATION_MILLIS / 1000.0;
+        System.out.println(String.format("%-18s %5d %10.0f %12.0f %12.2f %12.2f %12.3f",
+                name, hz, encoder.getByteCount() / seconds, base64Bytes / seconds,
+                errorSum / samples, errorMax, angleMax));
+    }
+}
@@ -0,0 +1,204 @@
+package com.jtmnf.fcm.stream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransformStreamTest {
+
+    private final TransformQuantizer quantizer = new TransformQuantizer(0.001f, 10, 0.01f);
+    private final byte[] packet = new byte[TransformEncoder.MAX_PACKET_SIZE];
+
+    /** A drag: the node slides and turns a little every 16 ms frame. */
+    static void drag(long frame, Transform into) {
+        double t = frame * 0.016;
+        double angle = t * 0.8;
+        into.setPosition((float) Math.sin(t), 0.1f * (float) t, (float) Math.cos(t * 0.7))
+                .setRotation(0f, (float) Math.sin(angle / 2), 0f, (float) Math.cos(angle / 2))
+                .setScale(1f + 0.2f * (float) Math.sin(t * 0.5), 1f, 1f);
+    }
+
+    @Test
+    public void acknowledgedDeltas_reproduceTheQuantizedStateWithoutDrift() {
+        TransformEncoder encoder = new TransformEncoder(quantizer, 0, 1_000);
+        TransformDecoder decoder = new TransformDecoder(quantizer);
+        Transform in = new Transform();
+        Transform expected = new Transform();
+        Transform out = new Transform();
+        TransformQuantizer.Quantized q = new TransformQuantizer.Quantized();
+        Random random = new Random(5);
+        for (int frame = 0; frame < 10_000; frame++) {
+            drag(frame, in);
+            int len = encoder.encode(frame * 16L, in, packet, 0);
+            if (len == 0) {
+                continue;
+            }
+            assertTrue(decoder.decode(packet, 0, len, out));
+            quantizer.dequantize(quantizer.quantize(in, q), expected);
+            assertEquals(expected.toString(), out.toString());
+            // The server acknowledges most packets, some late, some never
+            if (random.nextInt(10) < 8) {
+                encoder.acknowledge(encoder.getLastSeq() - random.nextInt(3));
+            }
+        }
+        assertTrue(encoder.getKeyframeCount() < encoder.getPacketCount() / 10);
+    }
+
+    @Test
+    public void deltas_areSmallerThanKeyframes() {
+        TransformEncoder encoder = new TransformEncoder(quantizer, 0, 10_000);
+        Transform in = new Transform();
+        long start = 1_556_755_200_000L;
+        drag(0, in);
+        int keyframe = encoder.encode(start, in, packet, 0);
+        encoder.acknowledge(encoder.getLastSeq());
+
+        int largestDelta = 0;
+        for (int frame = 1; frame < 100; frame++) {
+            drag(frame, in);
+            largestDelta = Math.max(largestDelta, encoder.encode(start + frame * 16L, in, packet, 0));
+            encoder.acknowledge(encoder.getLastSeq());
+        }
+        assertTrue("keyframe " + keyframe + " bytes, delta " + largestDelta, largestDelta * 3 < keyframe * 2);
+    }
+
+    @Test
+    public void sendRate_isCappedAndANodeAtRestSendsNothing() {
+        TransformEncoder encoder = new TransformEncoder(quantizer, 50, 1_000);
+        Transform in = new Transform();
+        int sent = 0;
+        // One second of drag at 1,000 samples per second, then one second of standing still
+        for (int ms = 0; ms < 2_000; ms++) {
+            drag(Math.min(ms, 999) / 16, in);
+            if (encoder.encode(ms, in, packet, 0) > 0) {
+                sent++;
+            }
+        }
+        assertTrue("sent " + sent, sent >= 19 && sent <= 21);
+    }
+
+    @Test
+    public void keyframes_followTheInterval() {
+        TransformEncoder encoder = new TransformEncoder(quantizer, 0, 500);
+        Transform in = new Transform();
+        List<Long> keyframeTimes = new ArrayList<>();
+        for (int frame = 0; frame < 200; frame++) {
+            drag(frame, in);
+            long now = frame * 16L;
+            long before = encoder.getKeyframeCount();
+            encoder.encode(now, in, packet, 0);
+            encoder.acknowledge(encoder.getLastSeq());
+            if (encoder.getKeyframeCount() > before) {
+                keyframeTimes.add(now);
+            }
+        }
+        assertEquals(Arrays.asList(0L, 512L, 1024L, 1536L, 2048L, 2560L, 3072L), keyframeTimes);
+    }
+
+    @Test
+    public void missingBaseline_isRefusedUntilTheNextKeyframe() {
+        TransformEncoder encoder = new TransformEncoder(quantizer, 0, 200);
+        TransformDecoder late = new TransformDecoder(quantizer);
+        Transform in = new Transform();
+        Transform out = new Transform();
+        boolean seenKeyframe = false;
+        int accepted = 0;
+        for (int frame = 0; frame < 40; frame++) {
+            drag(frame, in);
+            long keyframes = encoder.getKeyframeCount();
+            int len = encoder.encode(frame * 16L, in, packet, 0);
+            encoder.acknowledge(encoder.getLastSeq());
+            boolean keyframe = encoder.getKeyframeCount() > keyframes;
+            // This receiver joins after the first keyframe went out
+            if (frame < 2) {
+                continue;
+            }
+            seenKeyframe |= keyframe;
+            boolean ok = late.decode(packet, 0, len, out);
+            assertEquals("frame " + frame, seenKeyframe, ok);
+            accepted += ok ? 1 : 0;
+        }
+        assertTrue(accepted > 0);
+        assertTrue(late.getRefusedCount() > 0);
+    }
+
+    @Test
+    public void stalePackets_areRefused() {
+        TransformEncoder encoder = new TransformEncoder(quantizer, 0, 1_000);
+        TransformDecoder decoder = new TransformDecoder(quantizer);
+        Transform in = new Transform();
+        drag(0, in);
+        byte[] first = Arrays.copyOf(packet, encoder.encode(0, in, packet, 0));
+        drag(1, in);
+        byte[] second = Arrays.copyOf(packet, encoder.encode(16, in, packet, 0));
+
+        assertTrue(decoder.decode(second, 0, second.length, new Transform()));
+        assertFalse(decoder.decode(first, 0, first.length, new Transform()));
+        assertEquals(16, decoder.getLastTime());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedPacket_isRejected() {
+        TransformEncoder encoder = new TransformEncoder(quantizer, 0, 1_000);
+        Transform in = new Transform();
+        drag(3, in);
+        int len = encoder.encode(0, in, packet, 0);
+        new TransformDecoder(quantizer).decode(packet, 0, len - 1, new Transform());
+    }
+
+    @Test
+    public void interpolator_blendsBetweenSamplesAndHoldsAtTheNewest() {
+        TransformInterpolator interpolator = new TransformInterpolator(100);
+        Transform out = new Transform();
+        assertFalse(interpolator.sample(0, out));
+
+        // Sender clock is 5,000 ms ahead; packets take 20 ms, one of them 70 ms
+        float half = (float) Math.sqrt(0.5);
+        interpolator.add(5_000, 20, new Transform().setPosition(0f, 0f, 0f));
+        interpolator.add(5_100, 170, new Transform().setPosition(1f, 0f, 0f).setRotation(0f, half, 0f, half));
+        interpolator.add(5_200, 220, new Transform().setPosition(2f, 0f, 0f).setRotation(0f, 1f, 0f, 0f));
+
+        // Local 170 maps to sender 5,150, minus the 100 ms delay: halfway between the first two
+        assertTrue(interpolator.sample(170, out));
+        assertEquals(0.5f, out.px, 1e-4f);
+        assertEquals(Math.PI / 4, out.angleTo(new Transform()), 1e-3);
+
+        interpolator.sample(10_000, out);
+        assertEquals(2f, out.px, 0f);
+    }
+
+    @Test
+    public void interpolatedPlayback_followsTheDragClosely() {
+        TransformEncoder encoder = new TransformEncoder(quantizer, 50, 1_000);
+        TransformDecoder decoder = new TransformDecoder(quantizer);
+        TransformInterpolator interpolator = new TransformInterpolator(120);
+        Transform in = new Transform();
+        Transform received = new Transform();
+        Transform shown = new Transform();
+        Transform truth = new Transform();
+        double worst = 0;
+        for (int frame = 0; frame < 600; frame++) {
+            long now = frame * 16L;
+            drag(frame, in);
+            int len = encoder.encode(now, in, packet, 0);
+            if (len > 0) {
+                encoder.acknowledge(encoder.getLastSeq());
+                decoder.decode(packet, 0, len, received);
+                interpolator.add(decoder.getLastTime(), now + 30, received);
+            }
+            // What was shown should match where the node was 120 ms before the latest data
+            if (frame > 30 && interpolator.sample(now + 30, shown)) {
+                drag(Math.round((now - 120) / 16.0), truth);
+                worst = Math.max(worst, shown.distanceTo(truth));
+            }
+        }
+        assertTrue("worst error " + worst + " m", worst < 0.02);
+    }
+}
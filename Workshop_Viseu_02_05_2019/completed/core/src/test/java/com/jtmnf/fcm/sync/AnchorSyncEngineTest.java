@@ -0,0 +1,161 @@
+package com.jtmnf.fcm.sync;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AnchorSyncEngineTest {
+
+    private final InMemoryAnchorStore database = new InMemoryAnchorStore();
+    private final AnchorSyncEngine engine = new AnchorSyncEngine();
+    private final AnchorCodec codec = new AnchorCodec();
+    private final List<String> sceneEvents = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        engine.addSceneListener(new AnchorSyncEngine.SceneListener() {
+            @Override
+            public void onAnchorAdded(String anchorId, AnchorRecord record) {
+                sceneEvents.add("added " + anchorId);
+            }
+
+            @Override
+            public void onAnchorChanged(String anchorId, AnchorRecord record) {
+                sceneEvents.add("changed " + anchorId);
+            }
+
+            @Override
+            public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+                sceneEvents.add("removed " + anchorId);
+            }
+        });
+    }
+
+    private String encode(float x, long timestamp) {
+        AnchorRecord record = new AnchorRecord().setPosition(x, 0f, 0f).setSize(0.2f, 0.2f, 0.2f);
+        record.shape = ShapeType.CUBE;
+        record.timestamp = timestamp;
+        return codec.toBase64(record);
+    }
+
+    private void fillRoom(int anchors) {
+        for (int i = 0; i < anchors; i++) {
+            database.setChild("a" + i, encode(i, i));
+        }
+    }
+
+    @Test
+    public void existingAnchors_arriveAsAdds() {
+        fillRoom(3);
+        engine.start(database);
+
+        assertEquals(3, engine.size());
+        assertEquals(3, sceneEvents.size());
+    }
+
+    @Test
+    public void deltas_areAppliedToReplicaAndScene() {
+        engine.start(database);
+
+        database.setChild("a", encode(1f, 1));
+        database.setChild("a", encode(2f, 2));
+        database.removeChild("a");
+
+        assertEquals(0, engine.size());
+        assertEquals("[added a, changed a, removed a]", sceneEvents.toString());
+    }
+
+    @Test
+    public void changedRecord_isUpdatedInPlace() {
+        engine.start(database);
+        database.setChild("a", encode(1f, 1));
+        AnchorRecord before = engine.get("a");
+
+        database.setChild("a", encode(5f, 2));
+
+        assertEquals(5f, engine.get("a").px, 0f);
+        assertSame(before, engine.get("a"));
+    }
+
+    @Test
+    public void echoOfLocalPlacement_doesNotReachTheScene() {
+        engine.start(database);
+        AnchorRecord placed = new AnchorRecord();
+        codec.fromBase64(encode(3f, 3), placed);
+
+        engine.putLocal("mine", placed);
+        database.setChild("mine", codec.toBase64(placed));
+
+        assertEquals(0, sceneEvents.size());
+        assertEquals(1, engine.getIgnoredCount());
+    }
+
+    @Test
+    public void restoredAnchors_reachTheSceneBeforeTheServer() {
+        AnchorRecord saved = new AnchorRecord();
+        codec.fromBase64(encode(2f, 2), saved);
+
+        engine.restore("a", saved);
+        engine.restore("a", saved);
+        engine.start(database);
+        database.setChild("a", codec.toBase64(saved));
+        database.setChild("a", encode(4f, 4));
+
+        assertEquals("[added a, changed a]", sceneEvents.toString());
+        assertEquals(4f, engine.get("a").px, 0f);
+    }
+
+    @Test
+    public void undecodableValues_areRejected() {
+        engine.start(database);
+
+        database.setChild("legacy", "Node(com.google.ar.sceneform.ux.TransformableNode@5c0a8d1)");
+
+        assertEquals(1, engine.getRejectedCount());
+        assertNull(engine.get("legacy"));
+    }
+
+    @Test
+    public void stop_detachesFromSource() {
+        engine.start(database);
+        engine.stop();
+
+        database.setChild("a", encode(1f, 1));
+
+        assertEquals(0, engine.size());
+    }
+
+    @Test
+    public void workPerUpdate_staysFlatAsRoomGrows() {
+        for (int anchors : new int[]{100, 10_000, 50_000}) {
+            InMemoryAnchorStore room = new InMemoryAnchorStore();
+            AnchorSyncEngine sync = new AnchorSyncEngine();
+            for (int i = 0; i < anchors; i++) {
+                room.setChild("a" + i, encode(i, i));
+            }
+            sync.start(room);
+            long decodes = sync.getDecodeCount();
+            long updates = sync.getSceneUpdateCount();
+
+            // 100 single-anchor updates, the way a busy room trickles in
+            for (int i = 0; i < 100; i++) {
+                room.setChild("a" + (i * 7 % anchors), encode(-i, anchors + i));
+            }
+
+            assertEquals(anchors, decodes);
+            assertEquals("decodes with " + anchors + " anchors", 100, sync.getDecodeCount() - decodes);
+            assertEquals("scene updates with " + anchors + " anchors", 100, sync.getSceneUpdateCount() - updates);
+            assertEquals(anchors, sync.size());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.jtmnf.fcm.sync;
+
+import com.jtmnf.fcm.util.ManualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AnchorWriteQueueTest {
+
+    private static final long WINDOW = 100;
+
+    private final InMemoryAnchorStore store = new InMemoryAnchorStore();
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final List<String> confirmed = new ArrayList<>();
+    private final List<String> dropped = new ArrayList<>();
+    private AnchorWriteQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new AnchorWriteQueue(store, scheduler, WINDOW, 8, 2);
+        queue.setListener(new AnchorWriteQueue.Listener() {
+            @Override
+            public void onConfirmed(Collection<String> anchorIds) {
+                confirmed.addAll(anchorIds);
+            }
+
+            @Override
+            public void onFailed(Collection<String> anchorIds, Collection<String> gaveUp, Exception error) {
+                dropped.addAll(gaveUp);
+            }
+        });
+    }
+
+    @Test
+    public void burstWithinWindow_isSentAsOneCall() {
+        for (int i = 0; i < 5; i++) {
+            queue.put("a" + i, "v" + i);
+        }
+        assertEquals(0, store.getCallCount());
+
+        scheduler.advance(WINDOW);
+
+        assertEquals(1, store.getCallCount());
+        assertEquals(5, store.ackNext().size());
+        assertEquals(5, store.getData().size());
+    }
+
+    @Test
+    public void heldQueue_sendsNothingUntilLetGo() {
+        queue.setHeld(true);
+        for (int i = 0; i < 20; i++) {
+            queue.put("a" + i, "v" + i);
+        }
+        queue.put("a0", "last");
+        scheduler.advance(10 * WINDOW);
+        assertEquals(0, store.getCallCount());
+        assertEquals(20, queue.getPendingCount());
+
+        queue.setHeld(false);
+
+        assertEquals(1, store.getCallCount());
+        assertEquals(20, store.ackNext().size());
+        assertEquals("last", store.getData().get("a0"));
+    }
+
+    @Test
+    public void dragOnOneAnchor_coalescesToLastValue() {
+        for (int i = 0; i < 50; i++) {
+            queue.put("a", "v" + i);
+        }
+        scheduler.advance(WINDOW);
+
+        Map<String, Object> sent = store.ackNext();
+        assertEquals(1, store.getCallCount());
+        assertEquals(1, sent.size());
+        assertEquals("v49", sent.get("a"));
+        assertEquals(50, queue.getWriteCount());
+    }
+
+    @Test
+    public void fullBatch_flushesWithoutWaitingForWindow() {
+        for (int i = 0; i < 8; i++) {
+            queue.put("a" + i, "v");
+        }
+        assertEquals(1, store.getCallCount());
+
+        // The timer armed for that window must not send an empty or duplicate batch
+        scheduler.advance(WINDOW);
+        assertEquals(1, store.getCallCount());
+    }
+
+    @Test
+    public void remove_sendsNullSoTheChildIsDeleted() {
+        queue.put("a", "v");
+        queue.flush();
+        store.ackNext();
+
+        queue.remove("a");
+        queue.flush();
+        Map<String, Object> sent = store.ackNext();
+
+        assertTrue(sent.containsKey("a"));
+        assertNull(sent.get("a"));
+        assertFalse(store.getData().containsKey("a"));
+    }
+
+    @Test
+    public void confirmation_isTrackedPerWrite() {
+        long first = queue.put("a", "v1");
+        queue.flush();
+        long second = queue.put("a", "v2");
+
+        assertFalse(queue.isConfirmed("a", first));
+        store.ackNext();
+        assertTrue(queue.isConfirmed("a", first));
+        assertFalse(queue.isConfirmed("a", second));
+        assertEquals(1, confirmed.size());
+
+        queue.flush();
+        store.ackNext();
+        assertTrue(queue.isConfirmed("a", second));
+    }
+
+    @Test
+    public void pending_coversQueuedAndInFlightWrites() {
+        assertFalse(queue.isPending("a"));
+        queue.put("a", "v1");
+        assertTrue(queue.isPending("a"));
+        queue.flush();
+        assertTrue(queue.isPending("a"));
+
+        store.ackNext();
+        assertFalse(queue.isPending("a"));
+    }
+
+    @Test
+    public void failedBatch_isRetriedOnNextWindowAndThenDropped() {
+        queue.put("a", "v");
+        queue.flush();
+        store.failNext(new Exception("offline"));
+        assertEquals(1, queue.getPendingCount());
+
+        scheduler.advance(WINDOW);
+        assertEquals(2, store.getCallCount());
+        store.failNext(new Exception("denied"));
+
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(1, dropped.size());
+    }
+
+    @Test
+    public void failedBatch_doesNotOverwriteNewerValue() {
+        queue.put("a", "old");
+        queue.flush();
+        queue.put("a", "new");
+        queue.flush();
+
+        store.failNext(new Exception("offline"));
+        store.ackNext();
+        scheduler.advance(WINDOW);
+
+        assertEquals(2, store.getCallCount());
+        assertEquals("new", store.getData().get("a"));
+    }
+
+    @Test
+    public void heavyPlacement_needsFarFewerRoundTrips() {
+        // 1000 taps spread over 2 seconds, plus a drag updating each new anchor 5 times
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < 6; j++) {
+                queue.put("a" + i, "v" + j);
+            }
+            scheduler.advance(2);
+        }
+        scheduler.advance(WINDOW);
+        store.ackAll();
+
+        assertEquals(6000, queue.getWriteCount());
+        assertEquals(1000, store.getData().size());
+        // One call per write before; now roughly one per full batch
+        assertTrue("calls: " + store.getCallCount(), store.getCallCount() * 40 < 6000);
+    }
+}
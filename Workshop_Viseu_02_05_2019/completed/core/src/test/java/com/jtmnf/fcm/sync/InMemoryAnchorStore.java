@@ -0,0 +1,124 @@
+package com.jtmnf.fcm.sync;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in for the "Anchor" DatabaseReference. Writes are applied when they are acknowledged,
+ * which the test does explicitly with {@link #ackNext} or {@link #failNext}. Other devices'
+ * writes are simulated with {@link #setChild} and {@link #removeChild}.
+ *
+ * <p>Like Firebase, a new listener first gets an added event for every existing child, and
+ * then one event per child that changes.
+ */
+public class InMemoryAnchorStore implements AnchorStore, AnchorEventSource {
+
+    private static final class Call {
+        final Map<String, Object> updates;
+        final Callback callback;
+
+        Call(Map<String, Object> updates, Callback callback) {
+            this.updates = updates;
+            this.callback = callback;
+        }
+    }
+
+    private final ArrayDeque<Call> unacknowledged = new ArrayDeque<>();
+    private final Map<String, Object> data = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private int keys;
+    private int calls;
+
+    @Override
+    public String newKey() {
+        return String.format("-key%06d", keys++);
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> updates, Callback callback) {
+        calls++;
+        unacknowledged.add(new Call(new HashMap<>(updates), callback));
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        for (Map.Entry<String, Object> e : data.entrySet()) {
+            listener.onAdded(e.getKey(), (String) e.getValue());
+        }
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public Map<String, Object> ackNext() {
+        Call call = unacknowledged.remove();
+        for (Map.Entry<String, Object> e : call.updates.entrySet()) {
+            if (e.getValue() == null) {
+                removeChild(e.getKey());
+            } else {
+                setChild(e.getKey(), e.getValue());
+            }
+        }
+        call.callback.onComplete(null);
+        return call.updates;
+    }
+
+    /** Writes one child directly, as another device would. */
+    public void setChild(String key, Object value) {
+        Object previous = data.put(key, value);
+        if (value.equals(previous)) {
+            return;
+        }
+        for (Listener listener : new ArrayList<>(listeners)) {
+            if (previous == null) {
+                listener.onAdded(key, (String) value);
+            } else {
+                listener.onChanged(key, (String) value);
+            }
+        }
+    }
+
+    public void removeChild(String key) {
+        if (data.remove(key) == null) {
+            return;
+        }
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onRemoved(key);
+        }
+    }
+
+    public void ackAll() {
+        while (!unacknowledged.isEmpty()) {
+            ackNext();
+        }
+    }
+
+    public Map<String, Object> failNext(Exception error) {
+        Call call = unacknowledged.remove();
+        call.callback.onComplete(error);
+        return call.updates;
+    }
+
+    public int getUnacknowledgedCount() {
+        return unacknowledged.size();
+    }
+
+    /** Number of updateChildren calls, i.e. round trips. */
+    public int getCallCount() {
+        return calls;
+    }
+
+    public int getListenerCount() {
+        return listeners.size();
+    }
+
+    public Map<String, Object> getData() {
+        return data;
+    }
+}
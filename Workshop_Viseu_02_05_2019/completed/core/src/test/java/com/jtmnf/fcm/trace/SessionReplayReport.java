@@ -0,0 +1,49 @@
+package com.jtmnf.fcm.trace;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Replays a session trace through {@link HeadlessSession} as fast as possible and prints what
+ * each kind of event cost. With no argument it uses a generated 10 minute session; pass a trace
+ * pulled from a device to replay that instead. The JMH SessionReplayBenchmark times the whole
+ * replay.
+ *
+ * <p>./gradlew :core:report -PreportClass=com.jtmnf.fcm.trace.SessionReplayReport [-PreportArgs=session.trace]
+ */
+public final class SessionReplayReport {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        byte[] trace = args.length > 0
+                ? Files.readAllBytes(Paths.get(args[0]))
+                : SyntheticTrace.generate(1, 10 * 60_000);
+        // Once to warm up, so the costs below aren't mostly the JIT's
+        replay(trace);
+        long start = System.nanoTime();
+        HeadlessSession last = replay(trace);
+        long nanos = System.nanoTime() - start;
+        long events = 0;
+        TraceReader counter = new TraceReader(new ByteArrayInputStream(trace));
+        TraceEvent event = new TraceEvent();
+        while (counter.next(event)) {
+            events++;
+        }
+        System.out.printf("%-48s %12d events, %d bytes, %d s of session%n",
+                "trace", events, trace.length, last.getTimeMillis() / 1000);
+        System.out.printf("%-48s %12.1f ms, %.0fx real time%n", "replay",
+                nanos / 1e6, last.getTimeMillis() * 1e6 / nanos);
+        for (String line : last.getMetrics().toLines()) {
+            System.out.println(line);
+        }
+    }
+
+    private static HeadlessSession replay(byte[] trace) throws IOException, InterruptedException {
+        HeadlessSession session = new HeadlessSession();
+        new SessionReplayer(SessionReplayer.Clock.SYSTEM).replay(
+                new TraceReader(new ByteArrayInputStream(trace)), session, 0);
+        session.finish();
+        return session;
+    }
+}
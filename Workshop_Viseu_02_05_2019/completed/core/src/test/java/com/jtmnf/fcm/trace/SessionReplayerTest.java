@@ -0,0 +1,158 @@
+package com.jtmnf.fcm.trace;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionReplayerTest {
+
+    /** Time only moves when the replayer sleeps, or when a test makes the target slow. */
+    private static final class FakeClock implements SessionReplayer.Clock {
+        long nanos;
+        long slept;
+        int sleeps;
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public void sleep(long millis) {
+            nanos += millis * 1_000_000L;
+            slept += millis;
+            sleeps++;
+        }
+    }
+
+    private static TraceReader reader(byte[] bytes) throws IOException {
+        return new TraceReader(new ByteArrayInputStream(bytes));
+    }
+
+    private static HeadlessSession replay(byte[] trace) throws IOException, InterruptedException {
+        HeadlessSession session = new HeadlessSession();
+        new SessionReplayer(new FakeClock()).replay(reader(trace), session, 0);
+        session.finish();
+        return session;
+    }
+
+    @Test
+    public void fastReplay_neverSleeps() throws IOException, InterruptedException {
+        FakeClock clock = new FakeClock();
+        long played = new SessionReplayer(clock).replay(reader(SyntheticTrace.generate(1, 60_000)), event -> {
+        }, 0);
+
+        assertTrue(played > 3600);
+        assertEquals(0, clock.sleeps);
+    }
+
+    @Test
+    public void pacedReplay_followsTheRecordedTimes() throws IOException, InterruptedException {
+        byte[] trace = SyntheticTrace.generate(1, 60_000);
+        List<Long> appliedAt = new ArrayList<>();
+        List<Long> recorded = new ArrayList<>();
+        FakeClock clock = new FakeClock();
+        new SessionReplayer(clock).replay(reader(trace), event -> {
+            appliedAt.add(clock.nanos / 1_000_000L);
+            recorded.add(event.timeMillis);
+        }, 2);
+
+        for (int i = 0; i < recorded.size(); i++) {
+            assertEquals(recorded.get(i) / 2, appliedAt.get(i), 1);
+        }
+        assertEquals(recorded.get(recorded.size() - 1) / 2, clock.slept, 1);
+    }
+
+    @Test
+    public void slowTarget_isReportedAsLag() throws IOException, InterruptedException {
+        FakeClock clock = new FakeClock();
+        SessionReplayer replayer = new SessionReplayer(clock);
+        // Every event takes 20 ms against frames 16 ms apart
+        replayer.replay(reader(SyntheticTrace.generate(1, 1_000)), event -> clock.nanos += 20_000_000L, 1);
+
+        assertTrue("lag " + replayer.getMaxLagMillis(), replayer.getMaxLagMillis() > 100);
+    }
+
+    @Test
+    public void headlessSession_appliesTapsEchoesAndRemoteEvents() throws IOException, InterruptedException {
+        byte[] trace = SyntheticTrace.generate(7, 120_000);
+        HeadlessSession session = replay(trace);
+
+        // A tap every 2 s; each echo matched the value the tap put in the replica
+        long taps = 59;
+        assertEquals(taps, session.getWrittenValueCount() + session.getMetrics().counter("replay_duplicate_taps").get());
+        assertTrue(session.getSyncEngine().getIgnoredCount() >= session.getWrittenValueCount());
+        assertEquals(session.getSyncEngine().size(), session.getSceneModel().size());
+        assertEquals(session.getSyncEngine().size(), session.getSpatialIndex().size());
+        assertEquals(0, session.getWriteQueue().getPendingCount());
+        assertEquals(7500, session.getMetrics().counter("replay_frames").get());
+    }
+
+    @Test
+    public void replays_areDeterministic() throws IOException, InterruptedException {
+        byte[] trace = SyntheticTrace.generate(3, 60_000);
+        HeadlessSession first = replay(trace);
+        HeadlessSession second = replay(trace);
+
+        assertEquals(first.getSyncEngine().getReplica(), second.getSyncEngine().getReplica());
+        assertEquals(first.getWriteCallCount(), second.getWriteCallCount());
+        assertEquals(first.getSyncEngine().getSceneUpdateCount(), second.getSyncEngine().getSceneUpdateCount());
+        assertEquals(60_000 - 16, first.getTimeMillis(), 16);
+    }
+
+    @Test
+    public void pagedOutAnchors_replayAsUnloadsNotRemovals() throws IOException, InterruptedException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TraceWriter writer = new TraceWriter(bytes)) {
+            String value = new AnchorCodec().toBase64(new AnchorRecord().setPosition(1f, 0f, 0f));
+            writer.childAdded(0, "-a", value);
+            writer.childAdded(0, "-b", value);
+            writer.childUnloaded(10, "-a");
+            writer.childRemoved(20, "-b");
+        }
+        HeadlessSession session = new HeadlessSession();
+        List<String> heard = new ArrayList<>();
+        session.addSceneListener(new AnchorSyncEngine.SceneListener() {
+            @Override
+            public void onAnchorAdded(String anchorId, AnchorRecord record) {
+            }
+
+            @Override
+            public void onAnchorChanged(String anchorId, AnchorRecord record) {
+            }
+
+            @Override
+            public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+                heard.add("removed " + anchorId);
+            }
+
+            @Override
+            public void onAnchorUnloaded(String anchorId, AnchorRecord record) {
+                heard.add("unloaded " + anchorId);
+            }
+        });
+        new SessionReplayer(new FakeClock()).replay(reader(bytes.toByteArray()), session, 0);
+
+        assertEquals("[unloaded -a, removed -b]", heard.toString());
+        assertEquals(0, session.getSyncEngine().size());
+    }
+
+    @Test
+    public void writeWindow_followsTraceTime() throws IOException, InterruptedException {
+        // Taps 2 s apart never share a 100 ms window, fast replay or not
+        HeadlessSession session = replay(SyntheticTrace.generate(5, 30_000));
+
+        assertEquals(session.getWrittenValueCount(), session.getWriteCallCount());
+    }
+}
@@ -0,0 +1,76 @@
+package com.jtmnf.fcm.trace;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+import com.jtmnf.fcm.messaging.SceneMessageParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a plausible session: the camera at 60 fps walking around, a tap every couple of
+ * seconds with the server's echo 150 ms later, other devices adding and moving anchors, and the
+ * odd FCM message. Deterministic for a given seed. Also replayed by the JMH benchmarks.
+ */
+public final class SyntheticTrace {
+
+    private SyntheticTrace() {
+    }
+
+    public static byte[] generate(long seed, long durationMillis) throws IOException {
+        Random random = new Random(seed);
+        AnchorCodec codec = new AnchorCodec();
+        AnchorRecord record = new AnchorRecord();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TraceWriter writer = new TraceWriter(bytes)) {
+            int taps = 0;
+            int remote = 0;
+            // The echo of the last tap, due 150 ms after it
+            long echoAt = -1;
+            String echoKey = null;
+            String echoValue = null;
+            for (long t = 0; t < durationMillis; t += 16) {
+                double angle = t / 10_000.0;
+                writer.camera(t, (float) Math.cos(angle) * 2, 1.5f, (float) Math.sin(angle) * 2,
+                        0f, (float) Math.sin(angle / 2), 0f, (float) Math.cos(angle / 2));
+                if (echoKey != null && t >= echoAt) {
+                    writer.childAdded(t, echoKey, echoValue);
+                    echoKey = null;
+                }
+                if (t % 2000 == 0 && t > 0) {
+                    record.setPosition(random.nextFloat() * 10, 0f, random.nextFloat() * 10).setSize(0.2f, 0.2f, 0.2f);
+                    record.shape = ShapeType.values()[taps % 3];
+                    record.timestamp = t;
+                    String key = String.format("-tap%06d", taps++);
+                    writer.tap(t, key, record);
+                    echoAt = t + 150;
+                    echoKey = key;
+                    echoValue = codec.toBase64(record);
+                }
+                if (random.nextInt(30) == 0) {
+                    // Another device adds an anchor, or moves one it added
+                    boolean move = remote > 0 && random.nextBoolean();
+                    String key = "-remote" + (move ? random.nextInt(remote) : remote++);
+                    record.setPosition(random.nextFloat() * 10, 0f, random.nextFloat() * 10);
+                    record.timestamp = t;
+                    if (move) {
+                        writer.childChanged(t, key, codec.toBase64(record));
+                    } else {
+                        writer.childAdded(t, key, codec.toBase64(record));
+                    }
+                }
+                if (random.nextInt(300) == 0 && remote > 0) {
+                    Map<String, String> data = new HashMap<>();
+                    data.put(SceneMessageParser.KEY_OP, SceneMessageParser.OP_REMOVE);
+                    data.put(SceneMessageParser.KEY_ID, "-remote" + random.nextInt(remote));
+                    writer.message(t, data);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,129 @@
+package com.jtmnf.fcm.trace;
+
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.anchor.ShapeType;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceTest {
+
+    private static TraceReader reader(byte[] bytes) throws IOException {
+        return new TraceReader(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void everyEventType_roundTrips() throws IOException {
+        AnchorRecord placement = new AnchorRecord().setPosition(1f, 2f, 3f).setSize(0.2f, 0.3f, 0.2f);
+        placement.shape = ShapeType.CYLINDER;
+        placement.color = 0xFF00FF00;
+        Map<String, String> data = new HashMap<>();
+        data.put("op", "remove");
+        data.put("id", "-b");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TraceWriter writer = new TraceWriter(bytes)) {
+            writer.camera(0, 1f, 1.5f, 2f, 0f, 0.7071f, 0f, 0.7071f);
+            writer.tap(16, "-a", placement);
+            writer.childAdded(170, "-a", "AAEC");
+            writer.childChanged(300, "-b", "ZZZZ");
+            writer.childRemoved(301, "-b");
+            writer.message(5000, data);
+            writer.childUnloaded(6000, "-a");
+        }
+
+        TraceReader reader = reader(bytes.toByteArray());
+        TraceEvent event = new TraceEvent();
+        assertTrue(reader.next(event));
+        assertEquals(TraceEvent.Type.CAMERA, event.type);
+        assertEquals(0.7071f, event.qy, 0f);
+        assertTrue(reader.next(event));
+        assertEquals(TraceEvent.Type.TAP, event.type);
+        assertEquals(16, event.timeMillis);
+        assertEquals("-a", event.key);
+        assertEquals(placement, event.record);
+        assertTrue(reader.next(event));
+        assertEquals("170 CHILD_ADDED -a=AAEC", event.toString());
+        assertTrue(reader.next(event));
+        assertEquals("300 CHILD_CHANGED -b=ZZZZ", event.toString());
+        assertTrue(reader.next(event));
+        assertEquals("301 CHILD_REMOVED -b", event.toString());
+        assertTrue(reader.next(event));
+        assertEquals(TraceEvent.Type.MESSAGE, event.type);
+        assertEquals(data, event.data);
+        assertTrue(reader.next(event));
+        assertEquals("6000 CHILD_UNLOADED -a", event.toString());
+        assertFalse(reader.next(event));
+        assertFalse(reader.isTruncated());
+        assertEquals(7, reader.getEventCount());
+    }
+
+    @Test
+    public void cameraFrames_takeThirtyBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(bytes);
+        long header = writer.getSize();
+        for (int frame = 0; frame < 3600; frame++) {
+            writer.camera(frame * 16L, frame, 0f, 0f, 0f, 0f, 0f, 1f);
+        }
+        writer.close();
+
+        assertEquals(3600 * 30, bytes.size() - header);
+    }
+
+    @Test
+    public void olderTimestamps_areWrittenAtTheLastTime() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TraceWriter writer = new TraceWriter(bytes)) {
+            writer.childRemoved(100, "a");
+            writer.childRemoved(90, "b");
+            writer.childRemoved(120, "c");
+        }
+
+        TraceReader reader = reader(bytes.toByteArray());
+        TraceEvent event = new TraceEvent();
+        long[] times = new long[3];
+        for (int i = 0; i < 3; i++) {
+            reader.next(event);
+            times[i] = event.timeMillis;
+        }
+        assertEquals("[100, 100, 120]", Arrays.toString(times));
+    }
+
+    @Test
+    public void cutShortRecording_endsAtTheLastWholeEvent() throws IOException {
+        byte[] whole = SyntheticTrace.generate(1, 10_000);
+        TraceReader full = reader(whole);
+        TraceEvent event = new TraceEvent();
+        while (full.next(event)) {
+        }
+
+        TraceReader cut = reader(Arrays.copyOf(whole, whole.length - 7));
+        while (cut.next(event)) {
+        }
+        assertTrue(cut.isTruncated());
+        assertEquals(full.getEventCount() - 1, cut.getEventCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFiles_areRejected() throws IOException {
+        reader("AJNL\u0001 not a trace".getBytes("US-ASCII"));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownEventType_isAnError() throws IOException {
+        byte[] bytes = SyntheticTrace.generate(1, 1_000);
+        bytes[5] = 42;
+        reader(bytes).next(new TraceEvent());
+    }
+}
@@ -0,0 +1,40 @@
+package com.jtmnf.fcm.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+public class BackoffTest {
+
+    @Test
+    public void delay_isJitteredWithinACapThatDoublesUpToTheMaximum() {
+        Backoff backoff = new Backoff(100, 1000, new Random(1));
+        for (int attempts = 1; attempts <= 8; attempts++) {
+            long cap = Math.min(1000, 100L << (attempts - 1));
+            long lowest = Long.MAX_VALUE;
+            long highest = 0;
+            for (int i = 0; i < 1000; i++) {
+                long delay = backoff.delayMillis(attempts);
+                lowest = Math.min(lowest, delay);
+                highest = Math.max(highest, delay);
+            }
+            assertTrue("attempt " + attempts + ": " + lowest, lowest >= cap / 2);
+            assertTrue("attempt " + attempts + ": " + highest, highest <= cap);
+            assertTrue("attempt " + attempts, highest - lowest > cap / 4);
+        }
+    }
+
+    @Test
+    public void manyAttempts_dontOverflowTheCap() {
+        Backoff backoff = new Backoff(1, Long.MAX_VALUE / 2, new Random(1));
+
+        assertTrue(backoff.delayMillis(1_000) > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumBelowTheBase_isRejected() {
+        new Backoff(1000, 100, new Random(1));
+    }
+}
@@ -0,0 +1,51 @@
+package com.jtmnf.fcm.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdTableTest {
+
+    @Test
+    public void putGetRemove() {
+        IdTable table = new IdTable(4);
+
+        assertEquals(IdTable.NONE, table.put("a", 1));
+        assertEquals(1, table.put("a", 2));
+        assertEquals(2, table.get("a"));
+        assertTrue(table.contains("a"));
+
+        assertEquals(2, table.remove("a"));
+        assertEquals(IdTable.NONE, table.remove("a"));
+        assertFalse(table.contains("a"));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void randomOperations_matchAHashMap() {
+        IdTable table = new IdTable(4);
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            String id = "-id" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                Integer removed = expected.remove(id);
+                assertEquals(removed == null ? IdTable.NONE : removed, table.remove(id));
+            } else {
+                expected.put(id, i);
+                table.put(id, i);
+            }
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<String, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), table.get(e.getKey()));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.jtmnf.fcm.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class ObjectPoolTest {
+
+    @Test
+    public void released_objectsAreReused() {
+        ObjectPool<StringBuilder> pool = new ObjectPool<>(4, StringBuilder::new);
+        StringBuilder first = pool.acquire();
+        pool.release(first);
+
+        assertSame(first, pool.acquire());
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void releasesBeyondCapacity_areDropped() {
+        ObjectPool<StringBuilder> pool = new ObjectPool<>(2, StringBuilder::new);
+        pool.release(new StringBuilder());
+        pool.release(new StringBuilder());
+
+        assertFalse(pool.release(new StringBuilder()));
+        assertEquals(2, pool.getFreeCount());
+        assertEquals(1, pool.getDroppedCount());
+    }
+
+    @Test
+    public void prewarm_fillsUpToCapacity() {
+        ObjectPool<StringBuilder> pool = new ObjectPool<>(40, StringBuilder::new);
+        pool.prewarm(100);
+
+        assertEquals(40, pool.getFreeCount());
+        for (int i = 0; i < 40; i++) {
+            pool.acquire();
+        }
+        assertEquals(40, pool.getCreatedCount());
+    }
+}
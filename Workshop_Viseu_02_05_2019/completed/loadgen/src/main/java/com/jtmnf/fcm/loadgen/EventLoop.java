@@ -0,0 +1,149 @@
+package com.jtmnf.fcm.loadgen;
+
+import com.jtmnf.fcm.util.Scheduler;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A virtual client's main thread: runs posted tasks one at a time, in the order they fall due,
+ * like a Looper. Everything a client owns is only touched from here, so the core classes that
+ * expect the main thread run unchanged.
+ *
+ * <p>Each loop has a thread of its own. On a JVM with virtual threads those are used, so
+ * thousands of clients cost little more than their heap; otherwise they are platform threads
+ * with a small stack.
+ */
+public class EventLoop implements Scheduler {
+
+    // Platform threads only need room for the client's call depth
+    private static final long PLATFORM_STACK_BYTES = 256 * 1024;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final ThreadFactory THREADS = lightweightThreads();
+
+    private static final class Task implements Delayed {
+        final long dueNanos;
+        // Keeps tasks due at the same time in the order they were posted
+        final long seq = SEQUENCE.getAndIncrement();
+        final Runnable runnable;
+
+        Task(long dueNanos, Runnable runnable) {
+            this.dueNanos = dueNanos;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            Task other = (Task) o;
+            if (dueNanos != other.dueNanos) {
+                return dueNanos < other.dueNanos ? -1 : 1;
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    /** Reports a task that threw; the loop carries on with the next one. */
+    public interface ErrorHandler {
+        void onError(EventLoop loop, Throwable error);
+    }
+
+    private final String name;
+    private final DelayQueue<Task> tasks = new DelayQueue<>();
+    private final ErrorHandler errors;
+    private Thread thread;
+    private volatile boolean stopped;
+
+    public EventLoop(String name, ErrorHandler errors) {
+        this.name = name;
+        this.errors = errors;
+    }
+
+    /** @return whether threads are virtual on this JVM */
+    public static boolean isVirtual() {
+        return THREADS != null;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException(name + " already started");
+        }
+        thread = THREADS != null ? THREADS.newThread(this::loop) : new Thread(null, this::loop, name, PLATFORM_STACK_BYTES);
+        thread.setName(name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Runs the task on the loop, after what is already due. Any thread. */
+    public void post(Runnable task) {
+        tasks.put(new Task(System.nanoTime(), task));
+    }
+
+    /** Runs the task on the loop once System.nanoTime() reaches the given time. Any thread. */
+    public void postAt(long dueNanos, Runnable task) {
+        tasks.put(new Task(dueNanos, task));
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        postAt(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis), task);
+    }
+
+    /**
+     * Stops the loop once the tasks due now have run, and waits for its thread. Tasks due later are
+     * dropped.
+     */
+    public void stop() throws InterruptedException {
+        post(() -> stopped = true);
+        Thread current;
+        synchronized (this) {
+            current = thread;
+        }
+        if (current != null) {
+            current.join();
+        }
+    }
+
+    public boolean isLoopThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void loop() {
+        while (!stopped) {
+            Task task;
+            try {
+                task = tasks.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                task.runnable.run();
+            } catch (RuntimeException | Error e) {
+                errors.onError(this, e);
+            }
+        }
+        tasks.clear();
+    }
+
+    /** Thread.ofVirtual().factory() where the JVM has it, looked up so this still builds for Java 8. */
+    private static ThreadFactory lightweightThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
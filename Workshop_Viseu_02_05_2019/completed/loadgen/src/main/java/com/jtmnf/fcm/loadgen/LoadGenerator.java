@@ -0,0 +1,147 @@
+package com.jtmnf.fcm.loadgen;
+
+import com.jtmnf.fcm.room.RoomShards;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs rooms full of {@link VirtualClient}s against a {@link LocalDatabase} and reports how the
+ * anchor sync path holds up: update latency, throughput and heap.
+ *
+ * <pre>
+ *   ./gradlew :loadgen:run --args="clients=500 pattern=hotspot"
+ *   ./gradlew :loadgen:run --args="--script scenarios.txt --json results.jsonl"
+ * </pre>
+ *
+ * See {@link Scenario} for the keys a run takes.
+ */
+public final class LoadGenerator {
+
+    // How long every client gets to load its cells before the run is called off
+    private static final long JOIN_TIMEOUT_SECONDS = 120;
+    private static final long HEAP_SAMPLE_MILLIS = 100;
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<Scenario> scenarios = new ArrayList<>();
+        String json = null;
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--script") && i + 1 < args.length) {
+                try (Reader script = new FileReader(args[++i])) {
+                    scenarios.addAll(Scenario.parseScript(script));
+                }
+            } else if (args[i].equals("--json") && i + 1 < args.length) {
+                json = args[++i];
+            } else {
+                line.append(args[i]).append(' ');
+            }
+        }
+        if (line.length() > 0 || scenarios.isEmpty()) {
+            scenarios.add(Scenario.parse(line.toString()));
+        }
+
+        System.out.println("Java " + System.getProperty("java.version") + ", "
+                + (EventLoop.isVirtual() ? "virtual" : "platform") + " client threads, max heap "
+                + (Runtime.getRuntime().maxMemory() >> 20) + " MB");
+        try (Writer out = json == null ? null : new FileWriter(json, true)) {
+            for (Scenario scenario : scenarios) {
+                LoadReport report = run(scenario);
+                System.out.println(report.format());
+                if (out != null) {
+                    out.write(report.toJson());
+                    out.write('\n');
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    /** Starts the clients, warms up, measures, stops them. Blocks for the whole run. */
+    public static LoadReport run(Scenario scenario) throws InterruptedException {
+        long heapBaseline = usedHeapAfterGc();
+        LocalDatabase database = new LocalDatabase(scenario.latencyMillis, scenario.jitterMillis);
+        LoadRun run = new LoadRun(scenario.clients);
+        List<VirtualClient> clients = new ArrayList<>(scenario.clients);
+        float[] spot = new float[2];
+        long ownerId = 1;
+        for (int room = 0; room < scenario.rooms; room++) {
+            String roomPath = RoomShards.roomPath("load" + room);
+            Random spots = new Random(scenario.seed * 1_000_003 + room);
+            int inRoom = scenario.clientsIn(room);
+            for (int i = 0; i < inRoom; i++) {
+                scenario.pattern.spot(i, inRoom, scenario.extent, spots, spot);
+                clients.add(new VirtualClient(ownerId++, roomPath, spot[0], spot[1], scenario, database, run));
+            }
+        }
+        // Clients start in a random order, so no room is full before the others have anyone
+        List<VirtualClient> order = new ArrayList<>(clients);
+        Collections.shuffle(order, new Random(scenario.seed));
+
+        long heapPeak = 0;
+        long joinNanos;
+        long measured;
+        long heapWithClients;
+        try {
+            long start = System.nanoTime();
+            for (VirtualClient client : order) {
+                client.start();
+            }
+            if (!run.awaitJoined(JOIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("clients didn't join within " + JOIN_TIMEOUT_SECONDS + " s");
+            }
+            joinNanos = System.nanoTime() - start;
+
+            heapPeak = Math.max(heapPeak, sampleHeap(scenario.warmupSeconds));
+            run.startMeasuring();
+            long measureStart = System.nanoTime();
+            heapPeak = Math.max(heapPeak, sampleHeap(scenario.durationSeconds));
+            run.stopMeasuring();
+            measured = System.nanoTime() - measureStart;
+            heapWithClients = usedHeapAfterGc();
+        } finally {
+            // Joins every client's thread, so their results can be read from here
+            for (VirtualClient client : clients) {
+                client.stop();
+            }
+        }
+        return new LoadReport(scenario, run, clients, database, measured, joinNanos, heapBaseline, heapWithClients,
+                heapPeak);
+    }
+
+    /** Waits, sampling the heap in use. @return the most seen */
+    private static long sampleHeap(double seconds) throws InterruptedException {
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        long peak = usedHeap();
+        while (System.nanoTime() < end) {
+            long left = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+            Thread.sleep(Math.max(1, Math.min(HEAP_SAMPLE_MILLIS, left)));
+            peak = Math.max(peak, usedHeap());
+        }
+        return peak;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return usedHeap();
+    }
+}
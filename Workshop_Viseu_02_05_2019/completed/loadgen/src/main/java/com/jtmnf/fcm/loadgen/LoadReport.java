@@ -0,0 +1,163 @@
+package com.jtmnf.fcm.loadgen;
+
+import com.jtmnf.fcm.metrics.LatencyHistogram;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Results of one run: throughput, how long updates took to reach other clients over the whole
+ * room and per client, what the database handled and what the clients cost in heap.
+ *
+ * <p>Latencies are in nanoseconds, rates per second of the measurement window.
+ */
+public final class LoadReport {
+
+    public final Scenario scenario;
+    public final boolean virtualThreads;
+    public final double measuredSeconds;
+    // From starting the clients until all of them loaded their cells
+    public final long joinNanos;
+
+    public final long actions;
+    public final long placed;
+    public final long moved;
+    public final long deleted;
+    public final double actionsPerSecond;
+
+    /** Other clients' updates that reached a scene, and how long they took. */
+    public final LatencyHistogram.Snapshot updateLatency;
+    public final double updatesPerSecond;
+    public final long removals;
+
+    // Each client's own p99; the median and worst client, and clients that saw no updates
+    public final long clientP99Median;
+    public final long clientP99Worst;
+    public final long worstClientId;
+    public final int clientsWithoutUpdates;
+
+    public final long databaseWrites;
+    public final long databaseEvents;
+    public final long bytesDownloadedPerClient;
+
+    // Heap in use after a full GC, before the clients and with them (and their anchors) alive
+    public final long heapBaselineBytes;
+    public final long heapWithClientsBytes;
+    // Most heap in use, garbage included, sampled during the run
+    public final long heapPeakBytes;
+
+    public final long errors;
+    public final Throwable firstError;
+
+    LoadReport(Scenario scenario, LoadRun run, List<VirtualClient> clients, LocalDatabase database,
+               long measuredNanos, long joinNanos, long heapBaselineBytes, long heapWithClientsBytes,
+               long heapPeakBytes) {
+        this.scenario = scenario;
+        this.virtualThreads = EventLoop.isVirtual();
+        this.measuredSeconds = measuredNanos / 1e9;
+        this.joinNanos = joinNanos;
+
+        placed = run.getPlacedCount();
+        moved = run.getMovedCount();
+        deleted = run.getDeletedCount();
+        actions = placed + moved + deleted;
+        actionsPerSecond = actions / measuredSeconds;
+
+        updateLatency = run.getUpdateLatency().snapshot();
+        updatesPerSecond = updateLatency.getCount() / measuredSeconds;
+        removals = run.getRemovalCount();
+
+        long[] p99s = new long[clients.size()];
+        int measured = 0;
+        long worst = -1;
+        long worstId = -1;
+        long bytes = 0;
+        for (VirtualClient client : clients) {
+            bytes += client.getBytesDownloaded();
+            LatencyHistogram.Snapshot s = client.getLatency().snapshot();
+            if (s.getCount() == 0) {
+                continue;
+            }
+            long p99 = s.getValueAt(0.99);
+            p99s[measured++] = p99;
+            if (p99 > worst) {
+                worst = p99;
+                worstId = client.getOwnerId();
+            }
+        }
+        Arrays.sort(p99s, 0, measured);
+        clientP99Median = measured == 0 ? 0 : p99s[measured / 2];
+        clientP99Worst = Math.max(0, worst);
+        worstClientId = worstId;
+        clientsWithoutUpdates = clients.size() - measured;
+
+        databaseWrites = database.getWriteCount();
+        databaseEvents = database.getEventCount();
+        bytesDownloadedPerClient = clients.isEmpty() ? 0 : bytes / clients.size();
+
+        this.heapBaselineBytes = heapBaselineBytes;
+        this.heapWithClientsBytes = heapWithClientsBytes;
+        this.heapPeakBytes = heapPeakBytes;
+
+        errors = run.getErrorCount();
+        firstError = run.getFirstError();
+    }
+
+    /** Heap each client takes, with its share of the room's anchors. */
+    public long getBytesPerClient() {
+        return Math.max(0, heapWithClientsBytes - heapBaselineBytes) / scenario.clients;
+    }
+
+    /** A few lines for the console. */
+    public String format() {
+        LatencyHistogram.Snapshot s = updateLatency;
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%s (%s threads)%n", scenario, virtualThreads ? "virtual" : "platform"));
+        out.append(String.format(Locale.US,
+                "  actions   %,10d in %.1f s = %,10.1f/s   (%,d placed, %,d moved, %,d deleted), joined in %.0f ms%n",
+                actions, measuredSeconds, actionsPerSecond, placed, moved, deleted, millis(joinNanos)));
+        out.append(String.format(Locale.US,
+                "  updates   %,10d = %,10.1f/s   p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f ms, "
+                        + "%,d removals%n",
+                s.getCount(), updatesPerSecond, millis(s.getValueAt(0.5)), millis(s.getValueAt(0.9)),
+                millis(s.getValueAt(0.99)), millis(s.getValueAt(0.999)), millis(s.getMax()), removals));
+        out.append(String.format(Locale.US,
+                "  per client p99 median %.2f ms, worst %.2f ms (client %d), %d without updates%n",
+                millis(clientP99Median), millis(clientP99Worst), worstClientId, clientsWithoutUpdates));
+        out.append(String.format(Locale.US,
+                "  database  %,d writes, %,d events, %,d bytes downloaded per client%n",
+                databaseWrites, databaseEvents, bytesDownloadedPerClient));
+        out.append(String.format(Locale.US,
+                "  heap      %,d KB per client, %,d MB with clients, %,d MB peak%n",
+                getBytesPerClient() / 1024, heapWithClientsBytes >> 20, heapPeakBytes >> 20));
+        if (errors > 0) {
+            out.append(String.format(Locale.US, "  errors    %,d, first: %s%n", errors, firstError));
+        }
+        return out.toString();
+    }
+
+    /** One JSON object, latencies in nanoseconds. */
+    public String toJson() {
+        LatencyHistogram.Snapshot s = updateLatency;
+        return String.format(Locale.US, "{\"name\":\"%s\",\"clients\":%d,\"rooms\":%d,\"pattern\":\"%s\","
+                        + "\"latencyMillis\":%d,\"jitterMillis\":%d,\"virtualThreads\":%b,\"seconds\":%.3f,"
+                        + "\"joinNanos\":%d,\"actions\":%d,\"placed\":%d,\"moved\":%d,\"deleted\":%d,"
+                        + "\"actionsPerSecond\":%.1f,\"updates\":{\"count\":%d,\"perSecond\":%.1f,\"mean\":%.1f,"
+                        + "\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d},\"removals\":%d,"
+                        + "\"clientP99\":{\"median\":%d,\"worst\":%d,\"withoutUpdates\":%d},"
+                        + "\"database\":{\"writes\":%d,\"events\":%d,\"bytesPerClient\":%d},"
+                        + "\"heap\":{\"baseline\":%d,\"withClients\":%d,\"peak\":%d,\"perClient\":%d},\"errors\":%d}",
+                scenario.name.replace("\\", "\\\\").replace("\"", "\\\""), scenario.clients, scenario.rooms,
+                scenario.pattern.name().toLowerCase(Locale.US), scenario.latencyMillis, scenario.jitterMillis,
+                virtualThreads, measuredSeconds, joinNanos, actions, placed, moved, deleted, actionsPerSecond,
+                s.getCount(), updatesPerSecond, s.getMean(), s.getValueAt(0.5), s.getValueAt(0.9),
+                s.getValueAt(0.99), s.getValueAt(0.999), s.getMax(), removals, clientP99Median, clientP99Worst,
+                clientsWithoutUpdates, databaseWrites, databaseEvents, bytesDownloadedPerClient, heapBaselineBytes,
+                heapWithClientsBytes, heapPeakBytes, getBytesPerClient(), errors);
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,139 @@
+package com.jtmnf.fcm.loadgen;
+
+import com.jtmnf.fcm.metrics.Counter;
+import com.jtmnf.fcm.metrics.LatencyHistogram;
+import com.jtmnf.fcm.metrics.Metrics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * What all the clients of one run record into, from their own threads. Actions and updates only
+ * count inside the measurement window, and an update only if its action was taken inside it too,
+ * so what was placed during warmup or before a client joined doesn't skew the latencies.
+ */
+public class LoadRun {
+
+    private final Metrics metrics = new Metrics();
+    private final LatencyHistogram updateLatency = metrics.histogram("update_latency");
+    private final Counter placed = metrics.counter("placed");
+    private final Counter moved = metrics.counter("moved");
+    private final Counter deleted = metrics.counter("deleted");
+    private final Counter removals = metrics.counter("removals");
+    private final Counter errors = metrics.counter("errors");
+    private final CountDownLatch joined;
+    private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+    private volatile boolean measuring;
+    private volatile long measureFromNanos;
+
+    /** @param clients - clients that will join */
+    public LoadRun(int clients) {
+        joined = new CountDownLatch(clients);
+    }
+
+    /** Opens the measurement window. */
+    public void startMeasuring() {
+        measureFromNanos = System.nanoTime();
+        measuring = true;
+    }
+
+    public void stopMeasuring() {
+        measuring = false;
+    }
+
+    /** @return whether an update for an action taken at this System.nanoTime() counts */
+    public boolean isMeasured(long actionNanos) {
+        return measuring && actionNanos - measureFromNanos >= 0;
+    }
+
+    /** @return whether every client joined in time */
+    public boolean awaitJoined(long timeout, TimeUnit unit) throws InterruptedException {
+        return joined.await(timeout, unit);
+    }
+
+    // -------------------------
+    // -------- Records --------
+    // -------------------------
+
+    void onJoined() {
+        joined.countDown();
+    }
+
+    void onPlaced() {
+        if (measuring) {
+            placed.increment();
+        }
+    }
+
+    void onMoved() {
+        if (measuring) {
+            moved.increment();
+        }
+    }
+
+    void onDeleted() {
+        if (measuring) {
+            deleted.increment();
+        }
+    }
+
+    void onUpdate(long nanos) {
+        updateLatency.record(nanos);
+    }
+
+    void onRemoval() {
+        if (measuring) {
+            removals.increment();
+        }
+    }
+
+    void onError(EventLoop loop, Throwable error) {
+        errors.increment();
+        firstError.compareAndSet(null, new IllegalStateException(loop.getName() + " failed", error));
+    }
+
+    // -------------------------
+    // -------- Results --------
+    // -------------------------
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /** Other clients' updates, from action to scene, over all clients. */
+    public LatencyHistogram getUpdateLatency() {
+        return updateLatency;
+    }
+
+    /** Actions taken inside the window. */
+    public long getActionCount() {
+        return placed.get() + moved.get() + deleted.get();
+    }
+
+    public long getPlacedCount() {
+        return placed.get();
+    }
+
+    public long getMovedCount() {
+        return moved.get();
+    }
+
+    public long getDeletedCount() {
+        return deleted.get();
+    }
+
+    /** Other clients' deletions that reached a scene inside the window. */
+    public long getRemovalCount() {
+        return removals.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /** @return the first task that threw on any client, or null */
+    public Throwable getFirstError() {
+        return firstError.get();
+    }
+}
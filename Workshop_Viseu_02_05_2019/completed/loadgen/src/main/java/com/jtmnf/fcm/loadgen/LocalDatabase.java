@@ -0,0 +1,280 @@
+package com.jtmnf.fcm.loadgen;
+
+import com.jtmnf.fcm.room.ShardedCellSources;
+import com.jtmnf.fcm.sync.AnchorEventSource;
+import com.jtmnf.fcm.sync.AnchorStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Realtime Database, for many clients on many threads. It keeps the
+ * listener semantics the app relies on:
+ * <ul>
+ *   <li>a child listener first gets every existing child as added, then live changes;</li>
+ *   <li>a multi-path write is applied at once, and every listener sees the writes of the
+ *       database in the same order;</li>
+ *   <li>the writer's own listeners hear about its write right away, before the server has it,
+ *       and the completion callback comes after a round trip;</li>
+ *   <li>writing a value a child already has raises no event;</li>
+ *   <li>callbacks run on the client's {@link EventLoop}, never on the writer's thread.</li>
+ * </ul>
+ *
+ * <p>Each room has its own lock, so rooms don't slow each other down. Network delay is simulated
+ * per connection, as a one-way latency plus jitter each way: a write reaches other clients after
+ * its trip up and their trip down. Nothing delivered to a connection overtakes what came before.
+ */
+public class LocalDatabase {
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+
+    /**
+     * @param latencyMillis - one-way delay between a client and the database
+     * @param jitterMillis  - up to this much is added to each delay
+     */
+    public LocalDatabase(long latencyMillis, long jitterMillis) {
+        if (latencyMillis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("latency and jitter must be >= 0");
+        }
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+    }
+
+    /**
+     * Opens a connection below a room's node, whose callbacks run on the given loop.
+     *
+     * @param seed - for the connection's jitter
+     */
+    public Connection connect(String roomPath, EventLoop loop, long seed) {
+        Room room = rooms.computeIfAbsent(roomPath, path -> new Room());
+        return new Connection(room, loop, seed);
+    }
+
+    /** @return the children of a node below a room, as stored right now */
+    public Map<String, String> children(String roomPath, String path) {
+        Room room = rooms.get(roomPath);
+        if (room == null) {
+            return new HashMap<>();
+        }
+        synchronized (room) {
+            Node node = room.nodes.get(path);
+            return node == null ? new HashMap<>() : new HashMap<>(node.children);
+        }
+    }
+
+    /** @return every child below a room, keyed by node path then child key */
+    public Map<String, Map<String, String>> snapshot(String roomPath) {
+        Map<String, Map<String, String>> copy = new HashMap<>();
+        Room room = rooms.get(roomPath);
+        if (room == null) {
+            return copy;
+        }
+        synchronized (room) {
+            for (Map.Entry<String, Node> e : room.nodes.entrySet()) {
+                if (!e.getValue().children.isEmpty()) {
+                    copy.put(e.getKey(), new HashMap<>(e.getValue().children));
+                }
+            }
+        }
+        return copy;
+    }
+
+    // ----------------------------
+    // -------- Statistics --------
+    // ----------------------------
+
+    /** updateChildren calls applied. */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /** Child events handed to listeners, initial ones included. */
+    public long getEventCount() {
+        return events.get();
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private static final class Room {
+        // Guarded by the room
+        final Map<String, Node> nodes = new HashMap<>();
+
+        Node node(String path) {
+            Node node = nodes.get(path);
+            if (node == null) {
+                node = new Node();
+                nodes.put(path, node);
+            }
+            return node;
+        }
+    }
+
+    private static final class Node {
+        final Map<String, String> children = new LinkedHashMap<>();
+        final List<Subscription> subscriptions = new ArrayList<>();
+    }
+
+    private static final class Subscription {
+        final Connection connection;
+        final AnchorEventSource.Listener listener;
+        // Only read and written on the connection's loop
+        boolean active = true;
+
+        Subscription(Connection connection, AnchorEventSource.Listener listener) {
+            this.connection = connection;
+            this.listener = listener;
+        }
+    }
+
+    /** One client's view of a room. The store and the sources are used from its loop. */
+    public final class Connection implements AnchorStore, ShardedCellSources.PathSources {
+        private final Room room;
+        private final EventLoop loop;
+        private final Random random;
+        private final String keyPrefix;
+        private int keys;
+        // When the last delivery to this connection is due; guarded by the room
+        private long lastDueNanos;
+
+        // Only touched on the loop
+        private long received;
+        private long bytesDownloaded;
+
+        Connection(Room room, EventLoop loop, long seed) {
+            this.room = room;
+            this.loop = loop;
+            this.random = new Random(seed);
+            this.keyPrefix = "-" + Long.toString(seed & 0xffffffffL, 36) + "-";
+        }
+
+        @Override
+        public AnchorEventSource open(String path) {
+            return new NodeSource(path);
+        }
+
+        @Override
+        public String newKey() {
+            return keyPrefix + Integer.toString(keys++, 36);
+        }
+
+        @Override
+        public void updateChildren(Map<String, Object> updates, Callback callback) {
+            // Checked up front, so a bad path doesn't leave half a write behind
+            for (String path : updates.keySet()) {
+                if (path.lastIndexOf('/') <= 0) {
+                    throw new IllegalArgumentException("expected node/key, got " + path);
+                }
+            }
+            writes.incrementAndGet();
+            synchronized (room) {
+                long now = System.nanoTime();
+                // When the write reaches the server; it is applied here and now, but nobody else can know
+                long arrival = now + delay();
+                for (Map.Entry<String, Object> e : updates.entrySet()) {
+                    String path = e.getKey();
+                    int slash = path.lastIndexOf('/');
+                    Node node = room.node(path.substring(0, slash));
+                    String key = path.substring(slash + 1);
+                    String value = e.getValue() == null ? null : e.getValue().toString();
+                    String previous = value == null ? node.children.remove(key) : node.children.put(key, value);
+                    if (value == null ? previous == null : value.equals(previous)) {
+                        continue;
+                    }
+                    for (int i = 0; i < node.subscriptions.size(); i++) {
+                        Subscription subscription = node.subscriptions.get(i);
+                        // Our own listeners see the write before the server does
+                        long due = subscription.connection == this ? now : arrival + subscription.connection.delay();
+                        subscription.connection.deliver(due, subscription, key, value, previous != null);
+                    }
+                }
+                lastDueNanos = Math.max(lastDueNanos, arrival + delay());
+                loop.postAt(lastDueNanos, () -> callback.onComplete(null));
+            }
+        }
+
+        /** Child events delivered to this connection's listeners so far. Read it from the loop. */
+        public long getReceivedCount() {
+            return received;
+        }
+
+        /** Keys and values of those events. Read it from the loop. */
+        public long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        // Called with the room locked
+        private long delay() {
+            return jitterNanos == 0 ? latencyNanos : latencyNanos + (long) (random.nextDouble() * jitterNanos);
+        }
+
+        // Called with the room locked, which keeps the deliveries to one connection in order
+        private void deliver(long dueNanos, Subscription subscription, String key, String value, boolean existed) {
+            lastDueNanos = Math.max(lastDueNanos, dueNanos);
+            events.incrementAndGet();
+            loop.postAt(lastDueNanos, () -> {
+                if (!subscription.active) {
+                    return;
+                }
+                received++;
+                bytesDownloaded += key.length() + (value == null ? 0 : value.length());
+                if (value == null) {
+                    subscription.listener.onRemoved(key);
+                } else if (existed) {
+                    subscription.listener.onChanged(key, value);
+                } else {
+                    subscription.listener.onAdded(key, value);
+                }
+            });
+        }
+
+        /** Child events of one node below the room. */
+        private final class NodeSource implements AnchorEventSource {
+            private final String path;
+            private final Map<Listener, Subscription> subscriptions = new HashMap<>();
+
+            NodeSource(String path) {
+                this.path = path;
+            }
+
+            @Override
+            public void addListener(Listener listener) {
+                Subscription subscription = new Subscription(Connection.this, listener);
+                subscriptions.put(listener, subscription);
+                synchronized (room) {
+                    Node node = room.node(path);
+                    node.subscriptions.add(subscription);
+                    // What is already there arrives like any other event, once it made the trip
+                    long due = System.nanoTime() + delay();
+                    for (Map.Entry<String, String> e : node.children.entrySet()) {
+                        deliver(due, subscription, e.getKey(), e.getValue(), false);
+                    }
+                }
+            }
+
+            @Override
+            public void removeListener(Listener listener) {
+                Subscription subscription = subscriptions.remove(listener);
+                if (subscription == null) {
+                    return;
+                }
+                subscription.active = false;
+                synchronized (room) {
+                    room.node(path).subscriptions.remove(subscription);
+                }
+            }
+        }
+    }
+}
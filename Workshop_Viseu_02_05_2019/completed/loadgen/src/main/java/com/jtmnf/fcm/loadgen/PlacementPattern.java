@@ -0,0 +1,65 @@
+package com.jtmnf.fcm.loadgen;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Where the people in a room stand. Each client stays at its spot and places anchors within
+ * reach of it, so the pattern decides how many clients share the cells they read.
+ */
+public enum PlacementPattern {
+
+    /** Spread evenly over the room; each client shares its cells with a few neighbours. */
+    UNIFORM {
+        @Override
+        void spot(int client, int clients, float extent, Random random, float[] out) {
+            out[0] = (random.nextFloat() - 0.5f) * extent;
+            out[1] = (random.nextFloat() - 0.5f) * extent;
+        }
+    },
+
+    /** Crowded around a few spots, like exhibits; most clients read the same cells. */
+    HOTSPOT {
+        @Override
+        void spot(int client, int clients, float extent, Random random, float[] out) {
+            // Hotspots at fixed places, so every room of a run looks alike
+            int hotspot = client % HOTSPOTS;
+            double angle = 2 * Math.PI * hotspot / HOTSPOTS;
+            out[0] = (float) (Math.cos(angle) * extent / 4 + random.nextGaussian() * HOTSPOT_SPREAD);
+            out[1] = (float) (Math.sin(angle) * extent / 4 + random.nextGaussian() * HOTSPOT_SPREAD);
+        }
+    },
+
+    /** In a line along a corridor; clients share cells with the ones next to them only. */
+    CORRIDOR {
+        @Override
+        void spot(int client, int clients, float extent, Random random, float[] out) {
+            out[0] = ((client + random.nextFloat()) / Math.max(1, clients) - 0.5f) * extent;
+            out[1] = (random.nextFloat() - 0.5f) * CORRIDOR_WIDTH;
+        }
+    };
+
+    static final int HOTSPOTS = 3;
+    // Standard deviation of the distance from a hotspot, in meters
+    static final float HOTSPOT_SPREAD = 1.5f;
+    static final float CORRIDOR_WIDTH = 3f;
+
+    /**
+     * Picks the floor position a client stands at.
+     *
+     * @param client  - index of the client in its room
+     * @param clients - clients in the room
+     * @param extent  - side of the square room, in meters, centred on the origin
+     * @param out     - receives x and z
+     */
+    abstract void spot(int client, int clients, float extent, Random random, float[] out);
+
+    /** @param name - as written in a scenario, case-insensitive */
+    public static PlacementPattern parse(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown pattern: " + name);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.jtmnf.fcm.loadgen;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One load test run: how many clients, how they are spread over rooms and where they stand,
+ * what they do and how fast, and the network between them and the database.
+ *
+ * <p>Written as space-separated key=value pairs, e.g. {@code clients=500 rooms=1 pattern=hotspot}.
+ * A script has one run per line; a line starting with "defaults" changes the values the lines
+ * after it start from. Blank lines and "#" comments are skipped. Every key is listed in
+ * {@link #DEFAULTS}.
+ */
+public final class Scenario {
+
+    /** Every key and its value when neither the line nor a defaults line sets it. */
+    public static final Map<String, String> DEFAULTS;
+
+    static {
+        Map<String, String> defaults = new LinkedHashMap<>();
+        // Label for the report; made up from the pattern and sizes if left empty
+        defaults.put("name", "");
+        // Virtual clients in all, split evenly over the rooms
+        defaults.put("clients", "50");
+        defaults.put("rooms", "1");
+        defaults.put("pattern", "uniform");
+        // Side of each square room, in meters
+        defaults.put("extent", "40");
+        // Actions per client per second, at random intervals
+        defaults.put("rate", "0.5");
+        // Odds of each action; moves and deletes need an anchor of the client's own
+        defaults.put("place", "0.5");
+        defaults.put("move", "0.4");
+        defaults.put("delete", "0.1");
+        // Anchors a client keeps at most; it moves one instead of placing more
+        defaults.put("anchors", "20");
+        // How far from where it stands a client places anchors, in meters
+        defaults.put("reach", "2");
+        // Seconds measured, after warmup seconds that are not
+        defaults.put("duration", "30");
+        defaults.put("warmup", "5");
+        // One-way delay between each client and the database
+        defaults.put("latency", "0");
+        defaults.put("jitter", "0");
+        // The app's settings
+        defaults.put("window", "100");
+        defaults.put("batch", "32");
+        defaults.put("shards", "1");
+        defaults.put("cell", "8");
+        defaults.put("radius", "2");
+        defaults.put("cells", "36");
+        defaults.put("seed", "1");
+        DEFAULTS = Collections.unmodifiableMap(defaults);
+    }
+
+    public final String name;
+    public final int clients;
+    public final int rooms;
+    public final PlacementPattern pattern;
+    public final float extent;
+    public final double rate;
+    public final double placeWeight;
+    public final double moveWeight;
+    public final double deleteWeight;
+    public final int maxAnchors;
+    public final float reach;
+    public final double durationSeconds;
+    public final double warmupSeconds;
+    public final long latencyMillis;
+    public final long jitterMillis;
+    public final long windowMillis;
+    public final int batchSize;
+    public final int shards;
+    public final float cellSize;
+    public final int pageRadius;
+    public final int maxCells;
+    public final long seed;
+
+    private Scenario(Map<String, String> values) {
+        clients = positiveInt(values, "clients");
+        rooms = positiveInt(values, "rooms");
+        if (rooms > clients) {
+            throw new IllegalArgumentException("more rooms than clients: " + rooms + " > " + clients);
+        }
+        pattern = PlacementPattern.parse(values.get("pattern"));
+        extent = (float) positive(values, "extent");
+        rate = positive(values, "rate");
+        placeWeight = nonNegative(values, "place");
+        moveWeight = nonNegative(values, "move");
+        deleteWeight = nonNegative(values, "delete");
+        if (placeWeight == 0) {
+            throw new IllegalArgumentException("place must be > 0, or nothing ever happens");
+        }
+        maxAnchors = positiveInt(values, "anchors");
+        reach = (float) nonNegative(values, "reach");
+        durationSeconds = positive(values, "duration");
+        warmupSeconds = nonNegative(values, "warmup");
+        latencyMillis = (long) nonNegative(values, "latency");
+        jitterMillis = (long) nonNegative(values, "jitter");
+        windowMillis = (long) nonNegative(values, "window");
+        batchSize = positiveInt(values, "batch");
+        shards = positiveInt(values, "shards");
+        if (Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("shards must be a power of two, got " + shards);
+        }
+        cellSize = (float) positive(values, "cell");
+        pageRadius = (int) nonNegative(values, "radius");
+        maxCells = positiveInt(values, "cells");
+        if (maxCells < (2 * pageRadius + 1) * (2 * pageRadius + 1)) {
+            throw new IllegalArgumentException("cells must cover the radius, got " + maxCells + " for " + pageRadius);
+        }
+        seed = Long.parseLong(values.get("seed"));
+        String label = values.get("name");
+        name = label.isEmpty()
+                ? String.format(Locale.US, "%s-%dx%d", pattern.name().toLowerCase(Locale.US), rooms, clients / rooms)
+                : label;
+    }
+
+    /** Parses one line of key=value pairs on top of the defaults. */
+    public static Scenario parse(String line) {
+        return parse(line, DEFAULTS);
+    }
+
+    /** Parses a script, one scenario per line. */
+    public static List<Scenario> parseScript(Reader script) throws IOException {
+        List<Scenario> scenarios = new ArrayList<>();
+        Map<String, String> defaults = new HashMap<>(DEFAULTS);
+        BufferedReader reader = new BufferedReader(script);
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            int comment = line.indexOf('#');
+            String text = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (text.isEmpty()) {
+                continue;
+            }
+            try {
+                if (text.startsWith("defaults")) {
+                    defaults.putAll(pairs(text.substring("defaults".length())));
+                } else {
+                    scenarios.add(parse(text, defaults));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + number + ": " + e.getMessage(), e);
+            }
+        }
+        return scenarios;
+    }
+
+    /** Clients in the given room; the first rooms take one more when they don't divide evenly. */
+    public int clientsIn(int room) {
+        return clients / rooms + (room < clients % rooms ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: %d clients in %d rooms, %s over %.0f m, %.2f actions/s each, "
+                        + "latency %d+%d ms, %.0f s after %.0f s warmup",
+                name, clients, rooms, pattern.name().toLowerCase(Locale.US), extent, rate, latencyMillis, jitterMillis,
+                durationSeconds, warmupSeconds);
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private static Scenario parse(String line, Map<String, String> defaults) {
+        Map<String, String> values = new HashMap<>(defaults);
+        values.putAll(pairs(line));
+        return new Scenario(values);
+    }
+
+    private static Map<String, String> pairs(String text) {
+        Map<String, String> pairs = new HashMap<>();
+        for (String token : text.trim().split("\\s+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            int equals = token.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("expected key=value, got " + token);
+            }
+            String key = token.substring(0, equals);
+            if (!DEFAULTS.containsKey(key)) {
+                throw new IllegalArgumentException("unknown key: " + key);
+            }
+            pairs.put(key, token.substring(equals + 1));
+        }
+        return pairs;
+    }
+
+    private static double nonNegative(Map<String, String> values, String key) {
+        double value;
+        try {
+            value = Double.parseDouble(values.get(key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " is not a number: " + values.get(key));
+        }
+        if (!(value >= 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(key + " must be >= 0, got " + values.get(key));
+        }
+        return value;
+    }
+
+    private static double positive(Map<String, String> values, String key) {
+        double value = nonNegative(values, key);
+        if (value == 0) {
+            throw new IllegalArgumentException(key + " must be > 0");
+        }
+        return value;
+    }
+
+    private static int positiveInt(Map<String, String> values, String key) {
+        double value = positive(values, key);
+        if (value != Math.rint(value) || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(key + " must be a whole number, got " + values.get(key));
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,237 @@
+package com.jtmnf.fcm.loadgen;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.metrics.LatencyHistogram;
+import com.jtmnf.fcm.paging.CellPartitionedStore;
+import com.jtmnf.fcm.paging.ProximityPager;
+import com.jtmnf.fcm.room.ShardedAnchorStore;
+import com.jtmnf.fcm.room.ShardedCellSources;
+import com.jtmnf.fcm.sync.AnchorSyncEngine;
+import com.jtmnf.fcm.sync.AnchorWriteQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One person in a room: the sync path MainActivity builds, minus rendering and AR, on a loop of
+ * its own. Writes go through the write queue, cell store and shards; reads come back through the
+ * shard sources, the pager and the sync engine, exactly as on the device.
+ *
+ * <p>The client stands still and, at random intervals, places an anchor within reach, moves one
+ * of its own or deletes one of its own. Each value carries the System.nanoTime() of the action
+ * in its timestamp instead of wall-clock time, so whoever receives it can tell how long the
+ * update took to arrive; all clients share the process's clock.
+ *
+ * <p>Everything but {@link #start}, {@link #stop} and the results runs on the client's loop.
+ */
+public class VirtualClient implements AnchorSyncEngine.SceneListener {
+
+    // Largest step of a move, in meters
+    private static final float MOVE_STEP = 0.5f;
+    // Same as MainActivity
+    private static final int WRITE_ATTEMPTS = 3;
+
+    private final long ownerId;
+    private final Scenario scenario;
+    private final LoadRun run;
+    private final float x;
+    private final float z;
+    private final Random random;
+    private final EventLoop loop;
+    private final LocalDatabase.Connection connection;
+    private final AnchorCodec codec = new AnchorCodec();
+    private final LatencyHistogram latency;
+    private final AnchorSyncEngine engine = new AnchorSyncEngine();
+    private AnchorWriteQueue writeQueue;
+    private CellPartitionedStore store;
+    private ProximityPager pager;
+
+    // The client's own anchors and where they are
+    private final List<String> ownIds = new ArrayList<>();
+    private final List<AnchorRecord> ownRecords = new ArrayList<>();
+
+    /**
+     * @param x - where the client stands, in meters
+     * @param z - where the client stands, in meters
+     */
+    public VirtualClient(long ownerId, String roomPath, float x, float z, Scenario scenario, LocalDatabase database,
+                         LoadRun run) {
+        this.ownerId = ownerId;
+        this.scenario = scenario;
+        this.run = run;
+        this.x = x;
+        this.z = z;
+        this.random = new Random(scenario.seed * 31 + ownerId);
+        this.loop = new EventLoop("client-" + ownerId, run::onError);
+        this.connection = database.connect(roomPath, loop, random.nextLong());
+        this.latency = new LatencyHistogram("client-" + ownerId);
+    }
+
+    /** Starts the loop and joins the room, loading the cells around the client. */
+    public void start() {
+        loop.start();
+        loop.post(this::join);
+    }
+
+    /** Stops the loop; what is still in the write window is never sent. */
+    public void stop() throws InterruptedException {
+        loop.stop();
+    }
+
+    // ---------------------------
+    // -------- Internals --------
+    // ---------------------------
+
+    private void join() {
+        ShardedAnchorStore shardedStore = new ShardedAnchorStore(connection, scenario.shards);
+        store = new CellPartitionedStore(shardedStore, scenario.cellSize);
+        writeQueue = new AnchorWriteQueue(store, loop, scenario.windowMillis, scenario.batchSize, WRITE_ATTEMPTS);
+        ShardedCellSources cells = new ShardedCellSources(connection, scenario.shards);
+        pager = new ProximityPager(cells, scenario.cellSize, scenario.pageRadius, scenario.maxCells);
+        engine.addSceneListener(this);
+        engine.start(pager);
+        pager.update(x, z);
+        run.onJoined();
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        // Exponential gaps make the actions of all clients together a Poisson stream
+        double seconds = -Math.log(1 - random.nextDouble()) / scenario.rate;
+        loop.schedule(this::act, (long) (seconds * 1000));
+    }
+
+    private void act() {
+        double total = scenario.placeWeight + scenario.moveWeight + scenario.deleteWeight;
+        double pick = random.nextDouble() * total;
+        if (ownIds.isEmpty()) {
+            place();
+        } else if (pick < scenario.placeWeight) {
+            if (ownIds.size() < scenario.maxAnchors) {
+                place();
+            } else {
+                move();
+            }
+        } else if (pick < scenario.placeWeight + scenario.moveWeight) {
+            move();
+        } else {
+            delete();
+        }
+        scheduleNext();
+    }
+
+    private void place() {
+        double angle = random.nextDouble() * 2 * Math.PI;
+        double distance = Math.sqrt(random.nextDouble()) * scenario.reach;
+        AnchorRecord record = new AnchorRecord()
+                .setPosition((float) (x + Math.cos(angle) * distance), 0, (float) (z + Math.sin(angle) * distance))
+                .setSize(0.1f, 0.1f, 0.1f);
+        record.color = random.nextInt() | 0xff000000;
+        record.owner = ownerId;
+        record.timestamp = System.nanoTime();
+        String anchorId = store.newKey();
+        ownIds.add(anchorId);
+        ownRecords.add(record);
+        write(anchorId, record);
+        run.onPlaced();
+    }
+
+    private void move() {
+        int i = random.nextInt(ownIds.size());
+        AnchorRecord record = ownRecords.get(i);
+        record.setPosition(record.px + (random.nextFloat() * 2 - 1) * MOVE_STEP, record.py,
+                record.pz + (random.nextFloat() * 2 - 1) * MOVE_STEP);
+        record.timestamp = System.nanoTime();
+        write(ownIds.get(i), record);
+        run.onMoved();
+    }
+
+    private void delete() {
+        int i = random.nextInt(ownIds.size());
+        int last = ownIds.size() - 1;
+        String anchorId = ownIds.get(i);
+        ownIds.set(i, ownIds.get(last));
+        ownRecords.set(i, ownRecords.get(last));
+        ownIds.remove(last);
+        ownRecords.remove(last);
+        // The database echoes the removal to our own listener at once, which takes it out of the replica
+        writeQueue.remove(anchorId);
+        run.onDeleted();
+    }
+
+    // As the tap listener in MainActivity does
+    private void write(String anchorId, AnchorRecord record) {
+        engine.putLocal(anchorId, record);
+        writeQueue.put(anchorId, codec.toBase64(record));
+    }
+
+    private void received(AnchorRecord record) {
+        if (record.owner == ownerId) {
+            return;
+        }
+        long nanos = System.nanoTime() - record.timestamp;
+        if (run.isMeasured(record.timestamp)) {
+            latency.record(nanos);
+            run.onUpdate(nanos);
+        }
+    }
+
+    // ------------------------------
+    // -------- Scene events --------
+    // ------------------------------
+
+    @Override
+    public void onAnchorAdded(String anchorId, AnchorRecord record) {
+        received(record);
+    }
+
+    @Override
+    public void onAnchorChanged(String anchorId, AnchorRecord record) {
+        received(record);
+    }
+
+    @Override
+    public void onAnchorRemoved(String anchorId, AnchorRecord record) {
+        if (record.owner != ownerId) {
+            run.onRemoval();
+        }
+    }
+
+    // -------------------------
+    // -------- Results --------
+    // -------------------------
+
+    /** Updates from other clients, from their action to this client's scene. */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /** Anchors in the replica. Read it once the client has stopped. */
+    public int getReplicaSize() {
+        return engine.size();
+    }
+
+    public AnchorSyncEngine getSyncEngine() {
+        return engine;
+    }
+
+    /** Child events this client downloaded. Read it once the client has stopped. */
+    public long getReceivedCount() {
+        return connection.getReceivedCount();
+    }
+
+    public long getBytesDownloaded() {
+        return connection.getBytesDownloaded();
+    }
+
+    /** Anchors of its own the client still has. Read it once the client has stopped. */
+    public int getOwnAnchorCount() {
+        return ownIds.size();
+    }
+
+    public long getOwnerId() {
+        return ownerId;
+    }
+}
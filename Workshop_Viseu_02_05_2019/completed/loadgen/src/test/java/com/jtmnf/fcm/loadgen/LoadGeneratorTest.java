@@ -0,0 +1,27 @@
+package com.jtmnf.fcm.loadgen;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void smallRun_reportsLatencyAndThroughput_withoutErrors() throws InterruptedException {
+        Scenario scenario = Scenario.parse(
+                "clients=40 rooms=2 pattern=hotspot rate=10 duration=1 warmup=0.2 latency=5 jitter=5 window=20");
+
+        LoadReport report = LoadGenerator.run(scenario);
+
+        assertEquals(0, report.errors);
+        assertTrue(report.actions > 100);
+        assertEquals(report.actions, report.placed + report.moved + report.deleted);
+        assertTrue(report.updateLatency.getCount() > report.actions);
+        // Two network trips plus at most one write window, with room to spare for a busy machine
+        assertTrue(report.updateLatency.getValueAt(0.5) >= 10_000_000);
+        assertTrue(report.clientP99Worst >= report.clientP99Median);
+        assertTrue(report.databaseWrites > 0);
+        assertTrue(report.toJson().startsWith("{\"name\":\"hotspot-2x20\""));
+    }
+}
@@ -0,0 +1,229 @@
+package com.jtmnf.fcm.loadgen;
+
+import com.jtmnf.fcm.sync.AnchorEventSource;
+import com.jtmnf.fcm.sync.AnchorStore;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalDatabaseTest {
+
+    private static final String ROOM = "rooms/test";
+
+    private final List<EventLoop> loops = new ArrayList<>();
+
+    @After
+    public void stopLoops() throws InterruptedException {
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+    }
+
+    private EventLoop loop() {
+        EventLoop loop = new EventLoop("test-" + loops.size(), (l, error) -> fail(error.toString()));
+        loops.add(loop);
+        loop.start();
+        return loop;
+    }
+
+    /** Records events as "added a=1", along with the thread they came on. */
+    private static final class Recorder implements AnchorEventSource.Listener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onAdded(String anchorId, String value) {
+            record("added " + anchorId + "=" + value);
+        }
+
+        @Override
+        public void onChanged(String anchorId, String value) {
+            record("changed " + anchorId + "=" + value);
+        }
+
+        @Override
+        public void onRemoved(String anchorId) {
+            record("removed " + anchorId);
+        }
+
+        @Override
+        public void onError(Exception error) {
+            record("error");
+        }
+
+        private void record(String event) {
+            events.add(event);
+            threads.add(Thread.currentThread());
+        }
+    }
+
+    /** Runs something on the loop and waits for it, including what the loop had before it. */
+    private static void sync(EventLoop loop) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        loop.post(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void write(LocalDatabase.Connection connection, String path, Object value) {
+        connection.updateChildren(Collections.singletonMap(path, value), error -> {
+        });
+    }
+
+    @Test
+    public void listener_getsExistingChildrenFirst_thenLiveChanges() throws InterruptedException {
+        LocalDatabase database = new LocalDatabase(0, 0);
+        EventLoop writerLoop = loop();
+        EventLoop readerLoop = loop();
+        LocalDatabase.Connection writer = database.connect(ROOM, writerLoop, 1);
+        LocalDatabase.Connection reader = database.connect(ROOM, readerLoop, 2);
+        write(writer, "s0/c0_0/a", "1");
+
+        Recorder recorder = new Recorder();
+        readerLoop.post(() -> reader.open("s0/c0_0").addListener(recorder));
+        sync(readerLoop);
+        write(writer, "s0/c0_0/a", "2");
+        write(writer, "s0/c0_0/a", "2");
+        write(writer, "s0/c0_0/b", "3");
+        write(writer, "s0/c0_0/a", null);
+        write(writer, "s0/c0_1/c", "4");
+        sync(readerLoop);
+
+        assertEquals(Arrays.asList("added a=1", "changed a=2", "added b=3", "removed a"), recorder.events);
+        for (Thread thread : recorder.threads) {
+            assertTrue(thread.getName().equals("test-1"));
+        }
+        assertEquals(4, reader.getReceivedCount());
+    }
+
+    @Test
+    public void everyListener_seesWritesInTheSameOrder() throws InterruptedException {
+        LocalDatabase database = new LocalDatabase(1, 5);
+        List<Recorder> recorders = new ArrayList<>();
+        List<EventLoop> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            EventLoop loop = loop();
+            LocalDatabase.Connection connection = database.connect(ROOM, loop, 10 + i);
+            Recorder recorder = new Recorder();
+            loop.post(() -> connection.open("s0/c").addListener(recorder));
+            sync(loop);
+            recorders.add(recorder);
+            readers.add(loop);
+        }
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            LocalDatabase.Connection connection = database.connect(ROOM, loop(), 20 + w);
+            String prefix = "w" + w;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    write(connection, "s0/c/" + prefix + (i % 5), Integer.toString(i));
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Thread.sleep(50);
+        for (EventLoop loop : readers) {
+            sync(loop);
+        }
+
+        for (Recorder recorder : recorders) {
+            assertEquals(recorders.get(0).events, recorder.events);
+        }
+        assertEquals(20, database.children(ROOM, "s0/c").size());
+    }
+
+    @Test
+    public void writer_seesItsOwnWriteAtOnce_othersAfterTheRoundTrip() throws InterruptedException {
+        LocalDatabase database = new LocalDatabase(100, 0);
+        EventLoop writerLoop = loop();
+        EventLoop readerLoop = loop();
+        LocalDatabase.Connection writer = database.connect(ROOM, writerLoop, 1);
+        LocalDatabase.Connection reader = database.connect(ROOM, readerLoop, 2);
+        Recorder own = new Recorder();
+        Recorder other = new Recorder();
+        writerLoop.post(() -> writer.open("s0/c").addListener(own));
+        readerLoop.post(() -> reader.open("s0/c").addListener(other));
+        // Past the initial (empty) snapshots
+        Thread.sleep(150);
+
+        CountDownLatch acknowledged = new CountDownLatch(1);
+        long start = System.nanoTime();
+        writer.updateChildren(Collections.singletonMap("s0/c/a", "1"), error -> acknowledged.countDown());
+        sync(writerLoop);
+        assertEquals(Collections.singletonList("added a=1"), own.events);
+        assertTrue(other.events.isEmpty());
+
+        assertTrue(acknowledged.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        sync(readerLoop);
+        assertEquals(Collections.singletonList("added a=1"), other.events);
+    }
+
+    @Test
+    public void removedListener_hearsNothingMore() throws InterruptedException {
+        LocalDatabase database = new LocalDatabase(0, 0);
+        EventLoop readerLoop = loop();
+        LocalDatabase.Connection writer = database.connect(ROOM, loop(), 1);
+        LocalDatabase.Connection reader = database.connect(ROOM, readerLoop, 2);
+        Recorder recorder = new Recorder();
+        AnchorEventSource source = reader.open("s0/c");
+        readerLoop.post(() -> source.addListener(recorder));
+        sync(readerLoop);
+        write(writer, "s0/c/a", "1");
+        readerLoop.post(() -> source.removeListener(recorder));
+        write(writer, "s0/c/b", "2");
+        sync(readerLoop);
+
+        assertTrue(recorder.events.size() <= 1);
+        Map<String, String> expected = new HashMap<>();
+        expected.put("a", "1");
+        expected.put("b", "2");
+        assertEquals(expected, database.children(ROOM, "s0/c"));
+    }
+
+    @Test
+    public void multiPathWrite_isAppliedAtOnce() throws InterruptedException {
+        LocalDatabase database = new LocalDatabase(0, 0);
+        LocalDatabase.Connection writer = database.connect(ROOM, loop(), 1);
+        write(writer, "s0/c0/a", "1");
+        Map<String, Object> move = new HashMap<>();
+        move.put("s0/c0/a", null);
+        move.put("s0/c1/a", "1");
+        CountDownLatch done = new CountDownLatch(1);
+        writer.updateChildren(move, error -> {
+            assertNull(error);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertTrue(database.children(ROOM, "s0/c0").isEmpty());
+        assertEquals(Collections.singletonMap("a", "1"), database.children(ROOM, "s0/c1"));
+        assertEquals(2, database.getWriteCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pathsWithoutANode_areRejected() {
+        LocalDatabase database = new LocalDatabase(0, 0);
+        AnchorStore store = database.connect(ROOM, loop(), 1);
+        store.updateChildren(Collections.singletonMap("a", "1"), error -> {
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package com.jtmnf.fcm.loadgen;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScenarioTest {
+
+    @Test
+    public void line_overridesTheDefaults() {
+        Scenario scenario = Scenario.parse("clients=500 pattern=HotSpot latency=40");
+
+        assertEquals(500, scenario.clients);
+        assertEquals(PlacementPattern.HOTSPOT, scenario.pattern);
+        assertEquals(40, scenario.latencyMillis);
+        assertEquals(1, scenario.rooms);
+        assertEquals("hotspot-1x500", scenario.name);
+    }
+
+    @Test
+    public void script_appliesDefaultsLinesToTheRunsAfterThem() throws IOException {
+        List<Scenario> scenarios = Scenario.parseScript(new StringReader(
+                "# comment\n"
+                        + "clients=10\n"
+                        + "\n"
+                        + "defaults latency=30 rooms=2   # trailing comment\n"
+                        + "clients=10\n"
+                        + "clients=20 latency=0 name=fast\n"));
+
+        assertEquals(3, scenarios.size());
+        assertEquals(0, scenarios.get(0).latencyMillis);
+        assertEquals(30, scenarios.get(1).latencyMillis);
+        assertEquals(2, scenarios.get(1).rooms);
+        assertEquals(0, scenarios.get(2).latencyMillis);
+        assertEquals("fast", scenarios.get(2).name);
+    }
+
+    @Test
+    public void clients_areSplitOverRooms() {
+        Scenario scenario = Scenario.parse("clients=10 rooms=3");
+
+        assertEquals(4, scenario.clientsIn(0));
+        assertEquals(3, scenario.clientsIn(1));
+        assertEquals(3, scenario.clientsIn(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownKeys_areRejected() {
+        Scenario.parse("client=10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shardCountsThatCantBeSplit_areRejected() {
+        Scenario.parse("shards=3");
+    }
+
+    @Test
+    public void scriptErrors_sayWhichLine() throws IOException {
+        try {
+            Scenario.parseScript(new StringReader("clients=10\nclients=ten\n"));
+        } catch (IllegalArgumentException e) {
+            assertEquals("line 2: clients is not a number: ten", e.getMessage());
+            return;
+        }
+        throw new AssertionError("expected an error");
+    }
+}
@@ -0,0 +1,337 @@
+package com.jtmnf.fcm.relay;
+
+import com.jtmnf.fcm.messaging.SceneEvent;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequences anchor operations per room and fans them out to the room's subscribers.
+ *
+ * <p>Fan-out is batched: whatever was published while the previous fan-out ran is handed to each
+ * subscriber as one batch, so a busy room costs one queue operation per subscriber per batch
+ * rather than per event. Each subscriber has its own bounded queue and receives batches on a
+ * pool thread, or on an executor of its own, one call at a time and in sequence order. A
+ * subscriber whose queue would grow past the limit is too slow to keep up and is disconnected,
+ * so it can't hold memory or delay anyone else; it can resubscribe and reload the room.
+ *
+ * <p>Subscribers that block in {@link Subscriber#onEvents}, e.g. writing to a socket, should
+ * bring their own executor, or a few slow ones can take every pool thread and stall all rooms.
+ *
+ * <p>A room exists while it has subscribers; the last one leaving drops it, so the relay holds
+ * nothing for rooms nobody is in. Sequence numbers still only go up: a room made again carries on
+ * above every number a dropped room handed out, and publishing to an empty room draws from there.
+ */
+public class AnchorRelay implements Closeable {
+
+    public interface Subscriber {
+        /**
+         * Called on a relay thread, or the subscription's executor, never concurrently for one
+         * subscriber. The list is reused after the call returns.
+         */
+        void onEvents(List<RelayEvent> events);
+
+        /**
+         * The relay dropped this subscriber, e.g. because it fell too far behind. Called on the
+         * thread that noticed, possibly while {@link #onEvents} is still blocked on another, so it
+         * must not block; it is the place to unblock a stuck delivery, e.g. by closing a socket.
+         */
+        void onDisconnected(String reason);
+    }
+
+    public final class Subscription {
+        private final Room room;
+        private final Subscriber subscriber;
+        private final Executor delivery;
+        // Guarded by this
+        private final ArrayDeque<List<RelayEvent>> queue = new ArrayDeque<>();
+        private int queuedEvents;
+        private boolean draining;
+        private volatile boolean open = true;
+        // Only touched by the draining thread
+        private final List<RelayEvent> batch = new ArrayList<>();
+        private final AtomicLong delivered = new AtomicLong();
+
+        Subscription(Room room, Subscriber subscriber, Executor delivery) {
+            this.room = room;
+            this.subscriber = subscriber;
+            this.delivery = delivery;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public long getDeliveredCount() {
+            return delivered.get();
+        }
+
+        /** Stops delivery. Events already being delivered may still arrive. */
+        public void cancel() {
+            close(null);
+        }
+
+        void enqueue(List<RelayEvent> events) {
+            boolean schedule = false;
+            boolean overflow = false;
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                if (queuedEvents + events.size() > maxQueuedEvents) {
+                    overflow = true;
+                } else {
+                    queue.add(events);
+                    queuedEvents += events.size();
+                    if (!draining) {
+                        draining = true;
+                        schedule = true;
+                    }
+                }
+            }
+            if (overflow) {
+                close("Fell more than " + maxQueuedEvents + " events behind");
+            } else if (schedule) {
+                execute(delivery, this::drain);
+            }
+        }
+
+        private void drain() {
+            while (open) {
+                synchronized (this) {
+                    while (!queue.isEmpty() && batch.size() + queue.peek().size() <= maxBatchSize) {
+                        List<RelayEvent> events = queue.poll();
+                        batch.addAll(events);
+                        queuedEvents -= events.size();
+                    }
+                    if (batch.isEmpty() && !queue.isEmpty()) {
+                        // A single fan-out batch bigger than maxBatchSize goes out whole
+                        List<RelayEvent> events = queue.poll();
+                        batch.addAll(events);
+                        queuedEvents -= events.size();
+                    }
+                    if (batch.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    subscriber.onEvents(Collections.unmodifiableList(batch));
+                    delivered.addAndGet(batch.size());
+                } catch (RuntimeException e) {
+                    close("Subscriber failed: " + e);
+                }
+                batch.clear();
+            }
+        }
+
+        private void close(String reason) {
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+                queue.clear();
+                queuedEvents = 0;
+            }
+            room.subscriptions.remove(this);
+            if (room.subscriptions.isEmpty()) {
+                dropIfEmpty(room);
+            }
+            if (reason != null) {
+                disconnects.incrementAndGet();
+                // Not through an executor: its threads may be the ones stuck in this subscriber
+                subscriber.onDisconnected(reason);
+            }
+        }
+    }
+
+    private final class Room {
+        final String name;
+        // Only added to while the room is in the map, under its entry's lock
+        final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        // Guarded by this
+        long lastSeq;
+        List<RelayEvent> pending = new ArrayList<>();
+        boolean fanningOut;
+        boolean dropped;
+
+        Room(String name, long firstSeq) {
+            this.name = name;
+            this.lastSeq = firstSeq - 1;
+        }
+
+        /** @return the event's sequence number, or 0 if the room was dropped meanwhile */
+        long publish(SceneEvent.Type type, String anchorId, byte[] value) {
+            boolean schedule = false;
+            long seq;
+            synchronized (this) {
+                if (dropped) {
+                    return 0;
+                }
+                seq = ++lastSeq;
+                pending.add(new RelayEvent(name, seq, type, anchorId, value, System.nanoTime()));
+                if (!fanningOut) {
+                    fanningOut = true;
+                    schedule = true;
+                }
+            }
+            if (schedule) {
+                execute(executor, this::fanOut);
+            }
+            return seq;
+        }
+
+        private void fanOut() {
+            while (true) {
+                List<RelayEvent> events;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        fanningOut = false;
+                        return;
+                    }
+                    events = pending;
+                    pending = new ArrayList<>();
+                }
+                fanOutBatches.incrementAndGet();
+                for (Subscription subscription : subscriptions) {
+                    subscription.enqueue(events);
+                }
+            }
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int maxQueuedEvents;
+    private final int maxBatchSize;
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    // Highest sequence number handed out outside the rooms in the map
+    private final AtomicLong retiredSeq = new AtomicLong();
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private final AtomicLong fanOutBatches = new AtomicLong();
+
+    /**
+     * @param threads         - pool size for fan-out and delivery
+     * @param maxQueuedEvents - events a subscriber may be behind before it is disconnected
+     * @param maxBatchSize    - most events handed to a subscriber in one call, unless a single
+     *                        fan-out batch is bigger
+     */
+    public AnchorRelay(int threads, int maxQueuedEvents, int maxBatchSize) {
+        if (threads < 1 || maxQueuedEvents < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("threads, queue and batch sizes must be >= 1");
+        }
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.maxBatchSize = maxBatchSize;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "relay-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Starts delivering the room's events published from now on, on the relay's pool. */
+    public Subscription subscribe(String room, Subscriber subscriber) {
+        return subscribe(room, subscriber, executor);
+    }
+
+    /**
+     * Starts delivering the room's events published from now on.
+     *
+     * @param delivery - runs the subscriber's {@link Subscriber#onEvents} calls; tasks handed to
+     *                 it after it shuts down are dropped
+     */
+    public Subscription subscribe(String room, Subscriber subscriber, Executor delivery) {
+        Subscription[] subscription = new Subscription[1];
+        // Atomic with dropping the room, so nobody joins a room that is on its way out
+        rooms.compute(room, (name, existing) -> {
+            Room target = existing != null ? existing : new Room(name, retiredSeq.get() + 1);
+            subscription[0] = new Subscription(target, subscriber, delivery);
+            target.subscriptions.add(subscription[0]);
+            return target;
+        });
+        return subscription[0];
+    }
+
+    /**
+     * Accepts an operation and queues it for every subscriber of the room.
+     *
+     * @param value - AnchorCodec record for a put, null for a remove
+     * @return its sequence number in the room
+     */
+    public long publish(String room, SceneEvent.Type type, String anchorId, byte[] value) {
+        if (type == SceneEvent.Type.PUT && value == null) {
+            throw new IllegalArgumentException("A put needs a value");
+        }
+        while (true) {
+            Room target = rooms.get(room);
+            if (target == null) {
+                // Nobody to deliver to; the number only has to stay above what the room had
+                return retiredSeq.incrementAndGet();
+            }
+            long seq = target.publish(type, anchorId, value);
+            if (seq != 0) {
+                return seq;
+            }
+        }
+    }
+
+    public int getSubscriberCount(String room) {
+        Room target = rooms.get(room);
+        return target == null ? 0 : target.subscriptions.size();
+    }
+
+    /** Rooms with at least one subscriber. */
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    /** Subscribers dropped for falling behind or failing. */
+    public int getDisconnectCount() {
+        return disconnects.get();
+    }
+
+    /** Fan-out passes so far; with a busy room this is far lower than the number of events. */
+    public long getFanOutBatchCount() {
+        return fanOutBatches.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void dropIfEmpty(Room room) {
+        rooms.computeIfPresent(room.name, (name, existing) -> {
+            if (existing != room || !room.subscriptions.isEmpty()) {
+                return existing;
+            }
+            synchronized (room) {
+                room.dropped = true;
+                long lastSeq = room.lastSeq;
+                retiredSeq.accumulateAndGet(lastSeq, Math::max);
+            }
+            return null;
+        });
+    }
+
+    private static void execute(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+}
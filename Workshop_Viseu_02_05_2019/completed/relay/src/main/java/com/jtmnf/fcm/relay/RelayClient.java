@@ -0,0 +1,89 @@
+package com.jtmnf.fcm.relay;
+
+import com.jtmnf.fcm.messaging.SceneEvent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client side of {@link RelayProtocol}. Events are read on a background thread and handed to the
+ * listener in the batches the relay sent.
+ */
+public class RelayClient implements Closeable {
+
+    public interface Listener {
+        /** Called on the client's reader thread. */
+        void onEvents(List<RelayEvent> events);
+
+        /** The connection ended, normally or not. */
+        void onClosed(IOException error);
+    }
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final Listener listener;
+
+    public RelayClient(InetAddress address, int port, Listener listener) throws IOException {
+        this.socket = new Socket(address, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.listener = listener;
+        Thread reader = new Thread(this::readLoop, "relay-client-" + socket.getLocalPort());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public synchronized void subscribe(String room) throws IOException {
+        RelayProtocol.writeSubscribe(out, room);
+        out.flush();
+    }
+
+    /** @param value - AnchorCodec record for a put, null for a remove */
+    public synchronized void publish(String room, SceneEvent.Type type, String anchorId, byte[] value)
+            throws IOException {
+        RelayProtocol.writePublish(out, room, type, anchorId, value);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void readLoop() {
+        List<RelayEvent> events = new ArrayList<>();
+        IOException error = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+            while (true) {
+                byte type = in.readByte();
+                if (type != RelayProtocol.EVENTS) {
+                    throw new IOException("Unexpected frame " + type);
+                }
+                String room = in.readUTF();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long seq = in.readLong();
+                    SceneEvent.Type op = RelayProtocol.readType(in);
+                    String anchorId = in.readUTF();
+                    byte[] value = RelayProtocol.readValue(in);
+                    events.add(new RelayEvent(room, seq, op, anchorId, value, in.readLong()));
+                }
+                listener.onEvents(events);
+                events.clear();
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                error = e;
+            }
+        }
+        listener.onClosed(error);
+    }
+}
@@ -0,0 +1,31 @@
+package com.jtmnf.fcm.relay;
+
+import com.jtmnf.fcm.messaging.SceneEvent;
+
+/** An anchor operation as sequenced by the relay. Immutable; one instance is shared by every subscriber. */
+public final class RelayEvent {
+
+    public final String room;
+    // Gapless per room, starting at 1
+    public final long seq;
+    public final SceneEvent.Type type;
+    public final String anchorId;
+    // AnchorCodec record for a put, null for a remove
+    public final byte[] value;
+    // System.nanoTime() when the relay accepted it, for measuring delivery latency
+    public final long publishNanos;
+
+    public RelayEvent(String room, long seq, SceneEvent.Type type, String anchorId, byte[] value, long publishNanos) {
+        this.room = room;
+        this.seq = seq;
+        this.type = type;
+        this.anchorId = anchorId;
+        this.value = value;
+        this.publishNanos = publishNanos;
+    }
+
+    @Override
+    public String toString() {
+        return room + "#" + seq + " " + type + " " + anchorId;
+    }
+}
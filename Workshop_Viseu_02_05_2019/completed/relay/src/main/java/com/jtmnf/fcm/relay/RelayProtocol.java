@@ -0,0 +1,96 @@
+package com.jtmnf.fcm.relay;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.messaging.SceneEvent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Frames exchanged with {@link RelayServer} over a socket, written with DataOutputStream:
+ * <pre>
+ *   SUBSCRIBE  type byte, room UTF
+ *   PUBLISH    type byte, room UTF, op byte, anchor id UTF, value (short length + bytes)
+ *   EVENTS     type byte, room UTF, count int, then per event:
+ *              seq long, op byte, anchor id UTF, value (short length + bytes), publish time long
+ * </pre>
+ * A value of length 0 stands for a removal.
+ */
+final class RelayProtocol {
+
+    static final byte SUBSCRIBE = 1;
+    static final byte PUBLISH = 2;
+    static final byte EVENTS = 3;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private RelayProtocol() {
+    }
+
+    static void writeSubscribe(DataOutputStream out, String room) throws IOException {
+        out.writeByte(SUBSCRIBE);
+        out.writeUTF(room);
+    }
+
+    static void writePublish(DataOutputStream out, String room, SceneEvent.Type type, String anchorId, byte[] value)
+            throws IOException {
+        out.writeByte(PUBLISH);
+        out.writeUTF(room);
+        out.writeByte(type == SceneEvent.Type.PUT ? OP_PUT : OP_REMOVE);
+        out.writeUTF(anchorId);
+        writeValue(out, value);
+    }
+
+    /** Events must all belong to the same room. */
+    static void writeEvents(DataOutputStream out, List<RelayEvent> events) throws IOException {
+        out.writeByte(EVENTS);
+        out.writeUTF(events.get(0).room);
+        out.writeInt(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            RelayEvent event = events.get(i);
+            out.writeLong(event.seq);
+            out.writeByte(event.type == SceneEvent.Type.PUT ? OP_PUT : OP_REMOVE);
+            out.writeUTF(event.anchorId);
+            writeValue(out, event.value);
+            out.writeLong(event.publishNanos);
+        }
+    }
+
+    static SceneEvent.Type readType(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case OP_PUT:
+                return SceneEvent.Type.PUT;
+            case OP_REMOVE:
+                return SceneEvent.Type.REMOVE;
+            default:
+                throw new IOException("Unknown op " + op);
+        }
+    }
+
+    /** @return the value, or null for a removal */
+    static byte[] readValue(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length == 0) {
+            return null;
+        }
+        if (length != AnchorCodec.RECORD_SIZE) {
+            throw new IOException("Bad record length " + length);
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    private static void writeValue(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeShort(0);
+        } else {
+            out.writeShort(value.length);
+            out.write(value);
+        }
+    }
+}
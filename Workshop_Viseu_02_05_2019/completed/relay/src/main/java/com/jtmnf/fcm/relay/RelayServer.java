@@ -0,0 +1,164 @@
+package com.jtmnf.fcm.relay;
+
+import com.jtmnf.fcm.messaging.SceneEvent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exposes an {@link AnchorRelay} over TCP, speaking {@link RelayProtocol}. Each connection has a
+ * reader thread and a writer thread, which the relay delivers its batches on, one flush per
+ * batch; a client that stops reading only blocks its own writer. Once it falls behind, the
+ * relay's slow-consumer check closes its socket, which also frees the writer.
+ */
+public class RelayServer implements Closeable {
+
+    private static final int DEFAULT_PORT = 7070;
+
+    private final AnchorRelay relay;
+    private final ServerSocket serverSocket;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Binds the port and starts accepting connections.
+     *
+     * @param port - 0 picks a free port, see {@link #getPort()}
+     */
+    public RelayServer(AnchorRelay relay, InetAddress address, int port) throws IOException {
+        this.relay = relay;
+        this.serverSocket = new ServerSocket(port, 512, address);
+        Thread acceptor = new Thread(this::acceptLoop, "relay-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /** Runs a relay on the loopback interface until the process is killed. */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        AnchorRelay relay = new AnchorRelay(Runtime.getRuntime().availableProcessors(), 10_000, 256);
+        RelayServer server = new RelayServer(relay, InetAddress.getLoopbackAddress(), port);
+        System.out.println("Relay listening on " + server.getPort());
+        Thread.currentThread().join();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread reader = new Thread(connection::readLoop, "relay-conn-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                // Closed, or a connection failed before it was set up
+            }
+        }
+    }
+
+    private final class Connection implements AnchorRelay.Subscriber, Closeable {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final ExecutorService writer;
+        private final Set<AnchorRelay.Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            this.writer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "relay-write-" + socket.getPort());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (true) {
+                    byte type = in.readByte();
+                    String room = in.readUTF();
+                    if (type == RelayProtocol.SUBSCRIBE) {
+                        subscriptions.add(relay.subscribe(room, this, writer));
+                    } else if (type == RelayProtocol.PUBLISH) {
+                        SceneEvent.Type op = RelayProtocol.readType(in);
+                        String anchorId = in.readUTF();
+                        byte[] value = RelayProtocol.readValue(in);
+                        relay.publish(room, op, anchorId, value);
+                    } else {
+                        throw new IOException("Unexpected frame " + type);
+                    }
+                }
+            } catch (EOFException | SocketException e) {
+                // Client went away
+            } catch (IOException | IllegalArgumentException e) {
+                // Protocol error; nothing to answer, just drop the connection
+            } finally {
+                close();
+            }
+        }
+
+        // On the writer thread, so only this connection waits while the client isn't reading
+        @Override
+        public void onEvents(List<RelayEvent> events) {
+            try {
+                RelayProtocol.writeEvents(out, events);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+            close();
+        }
+
+        @Override
+        public void close() {
+            connections.remove(this);
+            for (AnchorRelay.Subscription subscription : subscriptions) {
+                subscription.cancel();
+            }
+            try {
+                // Fails a write the writer is blocked in
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            writer.shutdownNow();
+        }
+    }
+}
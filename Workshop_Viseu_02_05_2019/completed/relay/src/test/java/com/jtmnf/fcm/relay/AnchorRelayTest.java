@@ -0,0 +1,205 @@
+package com.jtmnf.fcm.relay;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.messaging.SceneEvent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AnchorRelayTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    // Deep enough queues that only the slow-consumer test disconnects anyone
+    private AnchorRelay relay = new AnchorRelay(4, 100_000, 64);
+
+    @After
+    public void shutDown() {
+        relay.close();
+    }
+
+    static byte[] value(int i) {
+        byte[] value = new byte[AnchorCodec.RECORD_SIZE];
+        AnchorCodec.encode(new AnchorRecord().setPosition(i, 0, 0), value, 0);
+        return value;
+    }
+
+    /** Checks sequence numbers are gapless and in order, and counts down once it saw the last one. */
+    static final class OrderedSubscriber implements AnchorRelay.Subscriber {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> problem = new AtomicReference<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final List<String> anchorIds = Collections.synchronizedList(new ArrayList<>());
+        final long last;
+        volatile String disconnectReason;
+        long expected = 1;
+
+        OrderedSubscriber(long last) {
+            this.last = last;
+        }
+
+        @Override
+        public void onEvents(List<RelayEvent> events) {
+            calls.incrementAndGet();
+            for (RelayEvent event : events) {
+                if (event.seq != expected) {
+                    problem.compareAndSet(null, "expected " + expected + ", got " + event.seq);
+                }
+                anchorIds.add(event.anchorId);
+                expected = event.seq + 1;
+            }
+            if (expected > last) {
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+            disconnectReason = reason;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("timed out at " + expected, done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertNull(problem.get());
+        }
+    }
+
+    @Test
+    public void everySubscriber_getsEveryEventInOrder() throws InterruptedException {
+        List<OrderedSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            OrderedSubscriber subscriber = new OrderedSubscriber(5_000);
+            relay.subscribe("room", subscriber);
+            subscribers.add(subscriber);
+        }
+        for (int i = 0; i < 5_000; i++) {
+            relay.publish("room", SceneEvent.Type.PUT, "a" + i, value(i));
+        }
+
+        for (OrderedSubscriber subscriber : subscribers) {
+            subscriber.await();
+            assertEquals(5_000, subscriber.anchorIds.size());
+            assertEquals("a4999", subscriber.anchorIds.get(4_999));
+            // Batched: far fewer calls than events
+            assertTrue(subscriber.calls.get() < 5_000);
+        }
+        assertTrue(relay.getFanOutBatchCount() <= 5_000);
+    }
+
+    @Test
+    public void rooms_areSequencedIndependently() throws InterruptedException {
+        OrderedSubscriber kitchen = new OrderedSubscriber(3);
+        OrderedSubscriber garden = new OrderedSubscriber(2);
+        relay.subscribe("kitchen", kitchen);
+        relay.subscribe("garden", garden);
+
+        assertEquals(1, relay.publish("kitchen", SceneEvent.Type.PUT, "a", value(1)));
+        assertEquals(1, relay.publish("garden", SceneEvent.Type.PUT, "b", value(2)));
+        assertEquals(2, relay.publish("kitchen", SceneEvent.Type.REMOVE, "a", null));
+        assertEquals(2, relay.publish("garden", SceneEvent.Type.REMOVE, "b", null));
+        assertEquals(3, relay.publish("kitchen", SceneEvent.Type.PUT, "c", value(3)));
+
+        kitchen.await();
+        garden.await();
+        assertEquals("[a, a, c]", kitchen.anchorIds.toString());
+        assertEquals("[b, b]", garden.anchorIds.toString());
+    }
+
+    @Test
+    public void slowConsumer_isDisconnectedWithoutHoldingOthersBack() throws InterruptedException {
+        relay.close();
+        relay = new AnchorRelay(4, 1_000, 64);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        AnchorRelay.Subscription stuck = relay.subscribe("room", new AnchorRelay.Subscriber() {
+            @Override
+            public void onEvents(List<RelayEvent> events) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onDisconnected(String reason) {
+                disconnected.countDown();
+            }
+        });
+        OrderedSubscriber healthy = new OrderedSubscriber(3_000);
+        AnchorRelay.Subscription keepingUp = relay.subscribe("room", healthy);
+
+        // Paced so the healthy subscriber never falls 1,000 behind
+        for (int i = 0; i < 3_000; i++) {
+            relay.publish("room", SceneEvent.Type.PUT, "a" + i, value(i));
+            long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+            while (i - keepingUp.getDeliveredCount() > 500) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.yield();
+            }
+        }
+
+        healthy.await();
+        assertTrue(disconnected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(stuck.isOpen());
+        assertEquals(1, relay.getDisconnectCount());
+        assertEquals(1, relay.getSubscriberCount("room"));
+        release.countDown();
+    }
+
+    @Test
+    public void cancel_stopsDelivery() throws InterruptedException {
+        OrderedSubscriber subscriber = new OrderedSubscriber(1);
+        AnchorRelay.Subscription subscription = relay.subscribe("room", subscriber);
+        relay.publish("room", SceneEvent.Type.PUT, "a", value(1));
+        subscriber.await();
+
+        subscription.cancel();
+        relay.publish("room", SceneEvent.Type.PUT, "b", value(2));
+
+        assertEquals(0, relay.getSubscriberCount("room"));
+        assertEquals(0, relay.getDisconnectCount());
+        assertEquals("[a]", subscriber.anchorIds.toString());
+    }
+
+    @Test
+    public void lastSubscriberLeaving_dropsTheRoom_andNumbersKeepGoingUp() throws InterruptedException {
+        AnchorRelay.Subscription subscription = relay.subscribe("room", new OrderedSubscriber(0));
+        long first = relay.publish("room", SceneEvent.Type.PUT, "a", value(1));
+        assertEquals(1, relay.getRoomCount());
+
+        subscription.cancel();
+        assertEquals(0, relay.getRoomCount());
+        long unheard = relay.publish("room", SceneEvent.Type.PUT, "b", value(2));
+        assertEquals(0, relay.getRoomCount());
+
+        OrderedSubscriber subscriber = new OrderedSubscriber(unheard + 1);
+        subscriber.expected = unheard + 1;
+        relay.subscribe("room", subscriber);
+        long again = relay.publish("room", SceneEvent.Type.PUT, "c", value(3));
+        subscriber.await();
+
+        assertTrue(first < unheard && unheard < again);
+        assertEquals("[c]", subscriber.anchorIds.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putWithoutValue_isRejected() {
+        relay.publish("room", SceneEvent.Type.PUT, "a", null);
+    }
+}
@@ -0,0 +1,136 @@
+package com.jtmnf.fcm.relay;
+
+import com.jtmnf.fcm.messaging.SceneEvent;
+import com.jtmnf.fcm.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fan-out load test with 1,000 subscribers in one room, in-process and over loopback TCP.
+ *
+ * <p>"flood" publishes as fast as possible and reports deliveries per second; "paced" publishes at
+ * a steady rate, like a busy room, and reports delivery latency from publish to subscriber.
+ *
+ * <p>./gradlew :relay:benchmark -Pbench=com.jtmnf.fcm.relay.RelayLoadBenchmark
+ */
+public final class RelayLoadBenchmark {
+
+    private static final int SUBSCRIBERS = 1_000;
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    private interface Setup {
+        /** Subscribes every listener, returns something to close afterwards. */
+        AutoCloseable subscribe(AnchorRelay relay, List<Counting> listeners) throws IOException, InterruptedException;
+    }
+
+    /** Counts deliveries and records latency, shared by both kinds of client. */
+    private static final class Counting implements AnchorRelay.Subscriber, RelayClient.Listener {
+        final AtomicLong received;
+        final LatencyHistogram latency;
+
+        Counting(AtomicLong received, LatencyHistogram latency) {
+            this.received = received;
+            this.latency = latency;
+        }
+
+        @Override
+        public void onEvents(List<RelayEvent> events) {
+            long now = System.nanoTime();
+            for (int i = 0; i < events.size(); i++) {
+                latency.record(now - events.get(i).publishNanos);
+            }
+            received.addAndGet(events.size());
+        }
+
+        @Override
+        public void onDisconnected(String reason) {
+        }
+
+        @Override
+        public void onClosed(IOException error) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Setup inProcess = (relay, listeners) -> {
+            for (Counting listener : listeners) {
+                relay.subscribe("room", listener);
+            }
+            return () -> {
+            };
+        };
+        Setup loopback = (relay, listeners) -> {
+            RelayServer server = new RelayServer(relay, LOOPBACK, 0);
+            List<RelayClient> clients = new ArrayList<>();
+            for (Counting listener : listeners) {
+                RelayClient client = new RelayClient(LOOPBACK, server.getPort(), listener);
+                client.subscribe("room");
+                clients.add(client);
+            }
+            while (relay.getSubscriberCount("room") < listeners.size()) {
+                Thread.sleep(10);
+            }
+            return () -> {
+                for (RelayClient client : clients) {
+                    client.close();
+                }
+                server.close();
+            };
+        };
+
+        run("in-process flood", inProcess, 20_000, 0);
+        run("in-process paced 2k/s", inProcess, 10_000, 2_000);
+        run("loopback flood", loopback, 5_000, 0);
+        run("loopback paced 500/s", loopback, 2_500, 500);
+    }
+
+    /**
+     * @param rate - operations per second, 0 for as fast as possible
+     */
+    private static void run(String name, Setup setup, int operations, int rate) throws Exception {
+        AnchorRelay relay = new AnchorRelay(Runtime.getRuntime().availableProcessors(), 1_000_000, 256);
+        AtomicLong received = new AtomicLong();
+        LatencyHistogram latency = new LatencyHistogram(name);
+        List<Counting> listeners = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            listeners.add(new Counting(received, latency));
+        }
+        byte[] value = AnchorRelayTest.value(1);
+
+        AutoCloseable subscription = setup.subscribe(relay, listeners);
+        try {
+            long expected = (long) operations * SUBSCRIBERS;
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                if (rate > 0) {
+                    long due = start + TimeUnit.SECONDS.toNanos(i) / rate;
+                    while (System.nanoTime() < due) {
+                        LockSupport.parkNanos(50_000);
+                    }
+                }
+                relay.publish("room", SceneEvent.Type.PUT, "a" + (i % 500), value);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (received.get() < expected && System.nanoTime() < deadline && relay.getDisconnectCount() == 0) {
+                Thread.sleep(1);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            LatencyHistogram.Snapshot s = latency.snapshot();
+            System.out.printf("%-24s %,12d deliveries in %6.2f s = %,12.0f/s   p50 %7.2f ms  p99 %7.2f ms  "
+                            + "max %7.2f ms   fan-out passes %,d  disconnects %d%n",
+                    name, received.get(), elapsed / 1e9, received.get() / (elapsed / 1e9),
+                    s.getValueAt(0.5) / 1e6, s.getValueAt(0.99) / 1e6, s.getMax() / 1e6,
+                    relay.getFanOutBatchCount(), relay.getDisconnectCount());
+        } finally {
+            subscription.close();
+            relay.close();
+        }
+    }
+}
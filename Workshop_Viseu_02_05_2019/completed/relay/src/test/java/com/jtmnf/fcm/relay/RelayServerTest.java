@@ -0,0 +1,160 @@
+package com.jtmnf.fcm.relay;
+
+import com.jtmnf.fcm.anchor.AnchorCodec;
+import com.jtmnf.fcm.anchor.AnchorRecord;
+import com.jtmnf.fcm.messaging.SceneEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RelayServerTest {
+
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    private AnchorRelay relay;
+    private RelayServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        relay = new AnchorRelay(2, 1_000, 64);
+        server = new RelayServer(relay, LOOPBACK, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        relay.close();
+    }
+
+    static final class Collector implements RelayClient.Listener {
+        final List<RelayEvent> events = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch received;
+
+        Collector(int expected) {
+            received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onEvents(List<RelayEvent> batch) {
+            for (RelayEvent event : batch) {
+                events.add(event);
+                received.countDown();
+            }
+        }
+
+        @Override
+        public void onClosed(IOException error) {
+        }
+    }
+
+    @Test
+    public void publishedOperations_reachEverySubscribedClient() throws Exception {
+        Collector first = new Collector(2);
+        Collector second = new Collector(2);
+        try (RelayClient a = new RelayClient(LOOPBACK, server.getPort(), first);
+             RelayClient b = new RelayClient(LOOPBACK, server.getPort(), second)) {
+            a.subscribe("room");
+            b.subscribe("room");
+            awaitSubscribers(2);
+
+            byte[] value = new byte[AnchorCodec.RECORD_SIZE];
+            AnchorCodec.encode(new AnchorRecord().setPosition(1, 2, 3), value, 0);
+            a.publish("room", SceneEvent.Type.PUT, "anchor", value);
+            a.publish("room", SceneEvent.Type.REMOVE, "anchor", null);
+
+            for (Collector collector : new Collector[]{first, second}) {
+                assertTrue(collector.received.await(10, TimeUnit.SECONDS));
+                assertEquals(1, collector.events.get(0).seq);
+                assertArrayEquals(value, collector.events.get(0).value);
+                assertEquals(SceneEvent.Type.REMOVE, collector.events.get(1).type);
+                assertNull(collector.events.get(1).value);
+            }
+        }
+    }
+
+    @Test
+    public void closedClient_isUnsubscribed() throws Exception {
+        RelayClient client = new RelayClient(LOOPBACK, server.getPort(), new Collector(0));
+        client.subscribe("room");
+        awaitSubscribers(1);
+
+        client.close();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (relay.getSubscriberCount("room") > 0 || server.getConnectionCount() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void clientThatNeverReads_isCutOffWithoutStallingOtherRooms() throws Exception {
+        server.close();
+        relay.close();
+        // One pool thread: if a blocked socket write held it, no other room would get anything
+        relay = new AnchorRelay(1, 10_000, 64);
+        server = new RelayServer(relay, LOOPBACK, 0);
+        Collector other = new Collector(1);
+        try (Socket stuck = new Socket();
+             RelayClient client = new RelayClient(LOOPBACK, server.getPort(), other)) {
+            stuck.setReceiveBufferSize(4 * 1024);
+            stuck.connect(new InetSocketAddress(LOOPBACK, server.getPort()));
+            DataOutputStream out = new DataOutputStream(stuck.getOutputStream());
+            RelayProtocol.writeSubscribe(out, "room");
+            out.flush();
+            client.subscribe("other");
+            awaitSubscribers("room", 1);
+            awaitSubscribers("other", 1);
+
+            // Once the socket buffers are full the writer is stuck and the queue overflows. Paced,
+            // so no single fan-out batch is anywhere near the limit on its own
+            byte[] value = new byte[AnchorCodec.RECORD_SIZE];
+            long deadline = System.currentTimeMillis() + 10_000;
+            for (int i = 0; relay.getDisconnectCount() == 0; i++) {
+                assertTrue(System.currentTimeMillis() < deadline && i < 1_000_000);
+                relay.publish("room", SceneEvent.Type.PUT, "a" + i, value);
+                if (i % 500 == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            relay.publish("other", SceneEvent.Type.PUT, "b", value);
+
+            assertTrue(other.received.await(10, TimeUnit.SECONDS));
+            assertEquals("b", other.events.get(0).anchorId);
+            while (server.getConnectionCount() > 1) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+            assertEquals(0, relay.getSubscriberCount("room"));
+        }
+    }
+
+    private void awaitSubscribers(int count) throws InterruptedException {
+        awaitSubscribers("room", count);
+    }
+
+    private void awaitSubscribers(String room, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (relay.getSubscriberCount(room) < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}